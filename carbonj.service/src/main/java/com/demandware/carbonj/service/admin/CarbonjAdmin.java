@@ -34,6 +34,7 @@ import org.springframework.web.bind.annotation.*;
 
 import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.http.HttpServletRequest;
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.charset.Charset;
@@ -229,6 +230,7 @@ public class CarbonjAdmin
                                 @RequestParam( value = "maxQueue", required = false, defaultValue = "0" ) int maxQueueLevel,
                                 @RequestParam( value = "delayBeforeRetrySec", required = false, defaultValue = "5" ) int delayBeforeRetrySec,
                                 final @RequestParam( value = "retry", required = false, defaultValue = "2" ) int retry,
+                                @RequestParam( value = "bulk", required = false, defaultValue = "false" ) boolean bulk,
                                 Writer response )
         throws IOException
     {
@@ -236,8 +238,8 @@ public class CarbonjAdmin
         {
             log.info( String
                 .format(
-                    "Strting loadseriesfrom(dbname=%s, srcIp=%s, srcPort=%s, from=%s, to=%s, cursor=%s, batchSize=%s, filter=%s",
-                    dbName, srcIp, srcPort, from, to, cursor, batchSize, wildcard ) );
+                    "Strting loadseriesfrom(dbname=%s, srcIp=%s, srcPort=%s, from=%s, to=%s, cursor=%s, batchSize=%s, filter=%s, bulk=%s",
+                    dbName, srcIp, srcPort, from, to, cursor, batchSize, wildcard, bulk ) );
             // for iterations need to have a stable time interval
             int fromRange = fromParam2Range( from );
             int toRange = untilParam2Range( to );
@@ -262,11 +264,12 @@ public class CarbonjAdmin
                         }
                     }
                 } );
+            final TimeSeriesStore ts = tsStore();
+            final DataPointBulkImport bulkImport = bulk ? ts.startBulkImport( dbName ) : null;
             try (CarbonJClient cjClient = new CarbonJClient( srcIp, srcPort, 0 ))
             {
                 AtomicInteger metricsCount = new AtomicInteger();
                 AtomicLong pointsCount = new AtomicLong();
-                final TimeSeriesStore ts = tsStore();
                 AtomicBoolean brokenResponseStream = new AtomicBoolean();
                 int retryAttemptsLeft = retry;
                 AtomicLong quotaSec = new AtomicLong( maxRateSec );
@@ -329,7 +332,7 @@ public class CarbonjAdmin
                                                 throw Throwables.propagate( e );
                                             }
                                         }
-                                        ts.importPoints( dbName, new DataPoints( dps ) );
+                                        importPoints( ts, bulkImport, dbName, dps );
                                         quotaSec.addAndGet( -1 * dps.size() );
                                         // tracking progress
                                         pointsCount.addAndGet( dps.size() );
@@ -340,7 +343,8 @@ public class CarbonjAdmin
                                             {
                                                 response.write( dps.get( 0 ).name + ":" + dps.get( 0 ).metricId + " "
                                                     + dps.size() + " totalPoints:" + pointsCount.get() + " cursor:"
-                                                    + currCurs + " totalMetrics:" + metricsCount.get() + "\n" );
+                                                    + currCurs + " totalMetrics:" + metricsCount.get()
+                                                    + bulkProgress( bulkImport ) + "\n" );
                                                 response.flush();
                                             }
                                             catch ( IOException e )
@@ -376,6 +380,16 @@ public class CarbonjAdmin
                     // if completed successfully reset retry attempts
                     retryAttemptsLeft = retry;
                 }
+                if ( bulkImport != null )
+                {
+                    // all series have to be added before remaining points are ingested
+                    writerQueue.shutdown();
+                    writerQueue.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+                    if ( !abortLoad )
+                    {
+                        finishBulkImport( bulkImport, response );
+                    }
+                }
             }
             catch ( AbortException e )
             {
@@ -401,6 +415,10 @@ public class CarbonjAdmin
                     log.warn("Warning: ", e );
                      Throwables.propagate( e );
                 }
+                if ( bulkImport != null )
+                {
+                    bulkImport.close();
+                }
             }
         }
     }
@@ -413,13 +431,35 @@ public class CarbonjAdmin
         return isRunning ? "active load activity will be aborted" : "load is not running";
     }
 
+    /**
+     * Creates snapshot of all archives and index stores in the given directory. Sst files are hard linked when the
+     * directory is on the same file system as the databases. Snapshot can be copied to another node and used to
+     * bootstrap it with 'metrics.store.bootstrap.snapshotDir' property.
+     */
+    @RequestMapping( value = "/snapshot", method = RequestMethod.POST )
+    public @ResponseBody Map<String, Object> snapshot( @RequestParam( value = "dir" ) String dir )
+    {
+        try (LoadLock l = new LoadLock())
+        {
+            long timestamp = tsStore().checkpoint( new File( dir ) );
+            Map<String, Object> ret = new LinkedHashMap<>();
+            ret.put( "status", "OK" );
+            ret.put( "dir", dir );
+            ret.put( "timestamp", timestamp );
+            return ret;
+        }
+    }
+
     @RequestMapping( value = "/loadseries/{dbName}", method = RequestMethod.POST )
-    public void loadSeries( @PathVariable final String dbName, HttpServletRequest req, Writer response )
+    public void loadSeries( @PathVariable final String dbName,
+                            @RequestParam( value = "bulk", required = false, defaultValue = "false" ) boolean bulk,
+                            HttpServletRequest req, Writer response )
         throws IOException
     {
         try (LoadLock l = new LoadLock())
         {
             final TimeSeriesStore ts = tsStore();
+            final DataPointBulkImport bulkImport = bulk ? ts.startBulkImport( dbName ) : null;
             ServletInputStream sis = req.getInputStream();
             LineIterator li = IOUtils.lineIterator( sis, Charset.forName( "UTF-8" ) );
             long count = 0;
@@ -437,7 +477,7 @@ public class CarbonjAdmin
                         continue;
                     }
                     List<DataPoint> dps = DumpFormat.parseSeries( line );
-                    ts.importPoints( dbName, new DataPoints( dps ) );
+                    importPoints( ts, bulkImport, dbName, dps );
 
                     // tracking progress
                     seriesCount++;
@@ -450,7 +490,7 @@ public class CarbonjAdmin
                         try
                         {
                             response.write( dps.get( 0 ).name + " " + dps.size() + " " + count + " " + seriesCount
-                                + "\n" );
+                                + bulkProgress( bulkImport ) + "\n" );
                             response.flush();
                         }
                         catch ( IOException e )
@@ -460,9 +500,17 @@ public class CarbonjAdmin
                         }
                     }
                 }
+                if ( bulkImport != null && !abortLoad )
+                {
+                    finishBulkImport( bulkImport, response );
+                }
             }
             finally
             {
+                if ( bulkImport != null )
+                {
+                    bulkImport.close();
+                }
                 log.info( String.format( "loadSeries: last %s totalPoints=%s totalSeries=%s", lastLoadedMetric, count,
                     seriesCount ) );
             }
@@ -473,6 +521,7 @@ public class CarbonjAdmin
     public void loadLines( @PathVariable final String dbName,
     /*@RequestParam( value = "start", required = false ) String startName,
     @RequestParam( value = "batch", required = false, defaultValue = "10000" ) int batchSize,*/
+    @RequestParam( value = "bulk", required = false, defaultValue = "false" ) boolean bulk,
     HttpServletRequest req, Writer response )
         throws IOException
     {
@@ -483,26 +532,34 @@ public class CarbonjAdmin
         LineIterator li = IOUtils.lineIterator( sis, Charset.forName( "UTF-8" ) );
         final ArrayList<DataPoint> batch = new ArrayList<>( batchSize );
         int count = 0;
-        while ( li.hasNext() )
+        try (DataPointBulkImport bulkImport = bulk ? ts.startBulkImport( dbName ) : null)
         {
-            String line = li.nextLine();
-            if ( StringUtils.isEmpty( line ) )
+            while ( li.hasNext() )
             {
-                continue;
-            }
-            DataPoint dataPoint = LineProtocolHandler.parse(line);
-            if (dataPoint != null) {
-                batch.add(dataPoint);
-                if ( batch.size() >= batchSize )
+                String line = li.nextLine();
+                if ( StringUtils.isEmpty( line ) )
                 {
-                    count = flushImportBatch( ts, dbName, count, batch, response );
+                    continue;
+                }
+                DataPoint dataPoint = LineProtocolHandler.parse(line);
+                if (dataPoint != null) {
+                    batch.add(dataPoint);
+                    if ( batch.size() >= batchSize )
+                    {
+                        count = flushImportBatch( ts, bulkImport, dbName, count, batch, response );
+                    }
                 }
             }
+            flushImportBatch( ts, bulkImport, dbName, count, batch, response );
+            if ( bulkImport != null )
+            {
+                finishBulkImport( bulkImport, response );
+            }
         }
-        flushImportBatch( ts, dbName, count, batch, response );
     }
 
-    private static int flushImportBatch( TimeSeriesStore ts, String dbName, int count, List<DataPoint> batch, Writer out )
+    private static int flushImportBatch( TimeSeriesStore ts, DataPointBulkImport bulkImport, String dbName, int count,
+                                         List<DataPoint> batch, Writer out )
     {
         if ( batch.isEmpty() )
         {
@@ -510,11 +567,11 @@ public class CarbonjAdmin
         }
         try
         {
-            ts.importPoints( dbName, new DataPoints( batch ) );
+            importPoints( ts, bulkImport, dbName, batch );
             count += batch.size();
             try
             {
-                out.write( count + " " + batch.get( batch.size() - 1 ).name + "\n" );
+                out.write( count + " " + batch.get( batch.size() - 1 ).name + bulkProgress( bulkImport ) + "\n" );
                 out.flush();
             }
             catch ( IOException e )
@@ -530,6 +587,36 @@ public class CarbonjAdmin
         return count;
     }
 
+    /**
+     * Imports points through the regular write path or adds them to bulk import when one is active.
+     */
+    private static void importPoints( TimeSeriesStore ts, DataPointBulkImport bulkImport, String dbName,
+                                      List<DataPoint> dps )
+    {
+        if ( bulkImport != null )
+        {
+            bulkImport.add( new DataPoints( dps ) );
+        }
+        else
+        {
+            ts.importPoints( dbName, new DataPoints( dps ) );
+        }
+    }
+
+    private static String bulkProgress( DataPointBulkImport bulkImport )
+    {
+        return bulkImport == null ? "" : " ingestedPoints:" + bulkImport.ingestedPoints();
+    }
+
+    private static void finishBulkImport( DataPointBulkImport bulkImport, Writer response )
+        throws IOException
+    {
+        long ingested = bulkImport.finish();
+        response.write( "bulk import finished. ingestedPoints:" + ingested + " ingestedFiles:"
+            + bulkImport.ingestedFiles() + "\n" );
+        response.flush();
+    }
+
     static class StopException
         extends RuntimeException
     {
@@ -15,14 +15,18 @@ class BatchStats {
     final LongSummaryStatistics seriesReadTimeMillis;
     final LongSummaryStatistics seriesWriteTimeMillis;
     final LongSummaryStatistics emptySeriesReadTimeMillis;
+    // one value per batch of series read together
+    final LongSummaryStatistics batchReadTimeMillis;
 
     BatchStats(long waitTimeMillis, int noOfDataPoints, LongSummaryStatistics seriesReadTimeMillis,
                LongSummaryStatistics seriesWriteTimeMillis,
-               LongSummaryStatistics emptySeriesReadTimeMillis) {
+               LongSummaryStatistics emptySeriesReadTimeMillis,
+               LongSummaryStatistics batchReadTimeMillis) {
         this.waitTimeMillis = waitTimeMillis;
         this.noOfDataPoints = noOfDataPoints;
         this.seriesReadTimeMillis = seriesReadTimeMillis;
         this.seriesWriteTimeMillis = seriesWriteTimeMillis;
         this.emptySeriesReadTimeMillis = emptySeriesReadTimeMillis;
+        this.batchReadTimeMillis = batchReadTimeMillis;
     }
 }
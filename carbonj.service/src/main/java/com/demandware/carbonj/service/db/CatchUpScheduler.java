@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * Adaptive replacement for a fixed rate {@link SyncPrimaryDbTask} schedule. Primary db directory is polled often and
+ * cheaply for MANIFEST and WAL changes. Catch-up runs only when the primary has changed, so catch-ups are frequent and
+ * small instead of rare and large. The poll delay grows with the duration of the last catch-up to keep catch-up from
+ * taking more than a fraction of the time and backs off while the primary is idle.
+ */
+public class CatchUpScheduler implements Runnable
+{
+    private static final Logger log = LoggerFactory.getLogger( CatchUpScheduler.class );
+
+    // catch-up is allowed to take at most 1/DUTY_CYCLE_FACTOR of wall time
+    private static final int DUTY_CYCLE_FACTOR = 4;
+
+    private final String dbName;
+
+    private final File primaryDbDir;
+
+    private final BooleanSupplier catchUp;
+
+    private final LongConsumer onCatchUp;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final long minDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final MetricRegistry metricRegistry;
+
+    private long lastFingerprint;
+
+    private long caughtUpFingerprint;
+
+    // time when not yet caught up change of primary was detected first, 0 if replica is caught up
+    private volatile long pendingChangeSinceMillis;
+
+    private long lastCatchUpMillis;
+
+    private long delayMillis;
+
+    private volatile boolean stopped;
+
+    /**
+     * @param catchUp performs catch-up with primary and returns true if successful.
+     * @param onCatchUp receives start time (epoch millis) of the previous successful catch-up after each successful
+     *                  catch-up. Data written to primary since then is visible now.
+     */
+    public CatchUpScheduler( MetricRegistry metricRegistry, String dbName, File primaryDbDir, BooleanSupplier catchUp,
+                             LongConsumer onCatchUp, ScheduledExecutorService scheduler, long minDelayMillis,
+                             long maxDelayMillis )
+    {
+        this.metricRegistry = metricRegistry;
+        this.dbName = dbName;
+        this.primaryDbDir = primaryDbDir;
+        this.catchUp = catchUp;
+        this.onCatchUp = onCatchUp;
+        this.scheduler = scheduler;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = Math.max( minDelayMillis, maxDelayMillis );
+        this.delayMillis = minDelayMillis;
+        this.lastCatchUpMillis = System.currentTimeMillis();
+        String lagName = MetricRegistry.name( "db", dbName, "replicaLag" );
+        metricRegistry.remove( lagName );
+        metricRegistry.register( lagName, (Gauge<Long>) this::lagMillis );
+    }
+
+    public void start()
+    {
+        scheduler.schedule( this, minDelayMillis, TimeUnit.MILLISECONDS );
+    }
+
+    public void stop()
+    {
+        stopped = true;
+        metricRegistry.remove( MetricRegistry.name( "db", dbName, "replicaLag" ) );
+    }
+
+    /**
+     * @return time in millis since the replica has fallen behind the primary, 0 if it is caught up.
+     */
+    public long lagMillis()
+    {
+        long since = pendingChangeSinceMillis;
+        return since == 0 ? 0 : System.currentTimeMillis() - since;
+    }
+
+    @Override
+    public void run()
+    {
+        if ( stopped )
+        {
+            return;
+        }
+        try
+        {
+            tick();
+        }
+        catch ( Throwable t )
+        {
+            log.error( "Catch-up with primary failed for " + dbName, t );
+        }
+        finally
+        {
+            if ( !stopped )
+            {
+                scheduler.schedule( this, delayMillis, TimeUnit.MILLISECONDS );
+            }
+        }
+    }
+
+    void tick()
+    {
+        long now = System.currentTimeMillis();
+        long fingerprint = fingerprint( primaryDbDir );
+        if ( fingerprint != lastFingerprint )
+        {
+            lastFingerprint = fingerprint;
+            if ( pendingChangeSinceMillis == 0 && fingerprint != caughtUpFingerprint )
+            {
+                pendingChangeSinceMillis = now;
+            }
+        }
+
+        // catch up on change, and at least every max delay in case change detection missed something.
+        boolean changed = fingerprint != caughtUpFingerprint;
+        if ( !changed && now - lastCatchUpMillis < maxDelayMillis )
+        {
+            // primary is idle - poll less often
+            delayMillis = Math.min( maxDelayMillis, delayMillis * 2 );
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        if ( catchUp.getAsBoolean() )
+        {
+            long previous = lastCatchUpMillis;
+            lastCatchUpMillis = start;
+            caughtUpFingerprint = fingerprint;
+            pendingChangeSinceMillis = 0;
+            if ( changed && onCatchUp != null )
+            {
+                onCatchUp.accept( previous );
+            }
+        }
+        long duration = System.currentTimeMillis() - start;
+        delayMillis = Math.min( maxDelayMillis, Math.max( minDelayMillis, duration * DUTY_CYCLE_FACTOR ) );
+    }
+
+    /**
+     * Cheap signature of primary db state based on names, sizes and modification times of CURRENT, MANIFEST and WAL
+     * files. Any write to primary appends to WAL and any flush or compaction appends to MANIFEST.
+     */
+    static long fingerprint( File dbDir )
+    {
+        File[] files = dbDir.listFiles( ( dir, name ) -> name.equals( "CURRENT" ) || name.startsWith( "MANIFEST-" )
+            || name.endsWith( ".log" ) && !name.startsWith( "LOG" ) );
+        if ( files == null )
+        {
+            return 0;
+        }
+        long h = 17;
+        for ( File f : files )
+        {
+            // sum of per file hashes - independent of listing order
+            h += ( 31L * f.getName().hashCode() + f.length() ) * 31 + f.lastModified();
+        }
+        return h;
+    }
+}
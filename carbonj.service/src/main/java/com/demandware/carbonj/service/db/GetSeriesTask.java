@@ -6,7 +6,6 @@
  */
 package com.demandware.carbonj.service.db;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -15,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.demandware.carbonj.service.db.model.DataPointStore;
+import com.demandware.carbonj.service.db.model.IntervalStats;
 import com.demandware.carbonj.service.db.model.Metric;
 import com.demandware.carbonj.service.db.model.Series;
 
@@ -27,34 +27,35 @@ public class GetSeriesTask implements Callable<List<Series>>
     int until;
     int now;
     DataPointStore pointStore;
+    IntervalStats.Statistic statistic;
 
     public GetSeriesTask(DataPointStore dpStore, List<Metric> metrics, int from, int until, int now)
+    {
+        this(dpStore, metrics, from, until, now, IntervalStats.Statistic.VALUE);
+    }
+
+    public GetSeriesTask(DataPointStore dpStore, List<Metric> metrics, int from, int until, int now,
+                         IntervalStats.Statistic statistic)
     {
         this.pointStore = dpStore;
         this.metrics = metrics;
         this.from = from;
         this.until = until;
         this.now = now;
-
+        this.statistic = statistic;
     }
     @Override
     public List<Series> call()
                     throws Exception
     {
-        List<Series> results = new ArrayList<>(  );
-        for(Metric m : metrics)
+        try
         {
-            try
-            {
-                results.add( pointStore.getSeries( m, from, until, now ) );
-            }
-            catch(Throwable t)
-            {
-                log.error("Error: ", t );
-                Throwables.propagate( t );
-            }
+            return pointStore.getSeries( metrics, from, until, now, statistic );
+        }
+        catch(Throwable t)
+        {
+            log.error("Error: ", t );
+            throw Throwables.propagate( t );
         }
-
-        return results;
     }
 }
@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.MetricIndex;
+import com.demandware.carbonj.service.engine.DataPoint;
+import com.demandware.carbonj.service.engine.DataPoints;
+import com.google.common.base.Preconditions;
+
+/**
+ * Creates names of received points that are not in the name index yet.
+ * <p>
+ * Names are assigned to creator threads by namespace, the same way the name index locks them, so namespaces are
+ * created in parallel without contention. Each thread takes a batch of names and creates them in sort order, names
+ * that share ancestors are created one after another. Names of a namespace are passed to the name index together,
+ * so it can combine their index writes into one write batch. Points received for a name that is still being created
+ * wait in a bounded buffer and are resubmitted once the name exists. A name is created once no matter how many
+ * points for it arrive in the meantime.
+ */
+class MetricCreator
+{
+    private static final Logger log = LoggerFactory.getLogger( MetricCreator.class );
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final MetricIndex nameIndex;
+
+    private final int maxPendingPoints;
+
+    private final Map<String, List<DataPoint>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingPoints = new AtomicInteger();
+
+    private final Creator[] creators;
+
+    private final Meter created;
+
+    private final Meter dropped;
+
+    private volatile Consumer<DataPoints> sink;
+
+    private volatile boolean stop = false;
+
+    /**
+     * @param maxPendingPoints points that wait for creation of their names. Points above the limit are dropped.
+     */
+    MetricCreator( MetricRegistry metricRegistry, MetricIndex nameIndex, int threads, int maxPendingPoints )
+    {
+        Preconditions.checkArgument( threads > 0 );
+        this.nameIndex = Preconditions.checkNotNull( nameIndex );
+        this.maxPendingPoints = maxPendingPoints;
+        this.created = metricRegistry.meter( MetricRegistry.name( "timeSeriesStore.newMetrics", "created" ) );
+        this.dropped = metricRegistry.meter( MetricRegistry.name( "timeSeriesStore.newMetrics", "dropped" ) );
+        String gaugeName = MetricRegistry.name( "timeSeriesStore.newMetrics", "pendingPoints" );
+        metricRegistry.remove( gaugeName );
+        metricRegistry.register( gaugeName, (Gauge<Number>) pendingPoints::get );
+        this.creators = new Creator[threads];
+        for ( int i = 0; i < threads; i++ )
+        {
+            creators[i] = new Creator( i );
+        }
+    }
+
+    /**
+     * @param sink receives points of created names.
+     */
+    void start( Consumer<DataPoints> sink )
+    {
+        this.sink = Preconditions.checkNotNull( sink );
+        for ( Creator c : creators )
+        {
+            c.start();
+        }
+    }
+
+    /**
+     * Queues the point until its name is created.
+     *
+     * @return false if the point was dropped because the buffer is full.
+     */
+    boolean add( DataPoint p )
+    {
+        if ( stop || pendingPoints.get() >= maxPendingPoints )
+        {
+            dropped.mark();
+            return false;
+        }
+        boolean[] newName = { false };
+        pending.compute( p.name, ( name, points ) -> {
+            if ( points == null )
+            {
+                points = new ArrayList<>( 2 );
+                newName[0] = true;
+            }
+            points.add( p );
+            return points;
+        } );
+        pendingPoints.incrementAndGet();
+        if ( newName[0] )
+        {
+            creators[creatorOf( p.name )].names.add( p.name );
+        }
+        return true;
+    }
+
+    /**
+     * Creates the name on the calling thread.
+     */
+    Metric create( String name )
+    {
+        return nameIndex.createLeafMetric( name );
+    }
+
+    private int creatorOf( String name )
+    {
+        return Math.floorMod( namespace( name ).hashCode(), creators.length );
+    }
+
+    private static String namespace( String name )
+    {
+        int end = name.indexOf( '.' );
+        return end < 0 ? name : name.substring( 0, end );
+    }
+
+    int pendingPoints()
+    {
+        return pendingPoints.get();
+    }
+
+    /**
+     * @return timestamp of the oldest point that waits for its name or is being resubmitted, {@link Integer#MAX_VALUE}
+     * if there are none.
+     */
+    int oldestPendingTimestamp()
+    {
+        int[] oldest = { Integer.MAX_VALUE };
+        for ( String name : pending.keySet() )
+        {
+            pending.computeIfPresent( name, ( n, points ) -> {
+                for ( DataPoint p : points )
+                {
+                    oldest[0] = Math.min( oldest[0], p.ts );
+                }
+                return points;
+            } );
+        }
+        // points are marked in flight before they are removed from pending, so checking creators last misses none
+        for ( Creator c : creators )
+        {
+            oldest[0] = Math.min( oldest[0], c.inFlightSince );
+        }
+        return oldest[0];
+    }
+
+    /**
+     * Waits until names of all queued points are created.
+     */
+    void drain()
+    {
+        try
+        {
+            while ( pendingPoints.get() > 0 && !stop )
+            {
+                TimeUnit.MILLISECONDS.sleep( 10 );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void close()
+    {
+        stop = true;
+        for ( Creator c : creators )
+        {
+            c.interrupt();
+        }
+        for ( Creator c : creators )
+        {
+            try
+            {
+                c.join( TimeUnit.SECONDS.toMillis( 5 ) );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private class Creator
+        extends Thread
+    {
+        private final LinkedBlockingQueue<String> names = new LinkedBlockingQueue<>();
+
+        // oldest timestamp of points taken from pending and not resubmitted yet
+        private volatile int inFlightSince = Integer.MAX_VALUE;
+
+        Creator( int i )
+        {
+            setName( "TimeSeriesStore.MetricCreator-" + i );
+            setDaemon( true );
+        }
+
+        @Override
+        public void run()
+        {
+            List<String> batch = new ArrayList<>( BATCH_SIZE );
+            while ( !stop )
+            {
+                try
+                {
+                    String name = names.poll( 100, TimeUnit.MILLISECONDS );
+                    if ( name == null )
+                    {
+                        continue;
+                    }
+                    batch.add( name );
+                    names.drainTo( batch, BATCH_SIZE - 1 );
+                    create( batch );
+                }
+                catch ( InterruptedException e )
+                {
+                    return;
+                }
+                catch ( Throwable t )
+                {
+                    log.error( "Failed to create metrics", t );
+                }
+                finally
+                {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void create( List<String> batch )
+        {
+            // names with common ancestors are next to each other and find their parents in the cache
+            batch.sort( String::compareTo );
+            Map<String, List<String>> byNamespace = new LinkedHashMap<>();
+            for ( String name : batch )
+            {
+                byNamespace.computeIfAbsent( namespace( name ), ns -> new ArrayList<>() ).add( name );
+            }
+            List<DataPoint> points = new ArrayList<>();
+            int removed = 0;
+            for ( List<String> names : byNamespace.values() )
+            {
+                List<Metric> metrics = null;
+                try
+                {
+                    metrics = nameIndex.createLeafMetrics( names );
+                }
+                catch ( Exception e )
+                {
+                    log.error( "Failed to create metrics of namespace " + namespace( names.get( 0 ) ), e );
+                }
+                for ( int i = 0; i < names.size(); i++ )
+                {
+                    Metric m = metrics != null ? metrics.get( i ) : null;
+                    // points that arrived while the name was created are resubmitted as well
+                    List<DataPoint> namePoints = takePending( names.get( i ) );
+                    if ( namePoints == null )
+                    {
+                        continue;
+                    }
+                    removed += namePoints.size();
+                    if ( m != null )
+                    {
+                        created.mark();
+                        points.addAll( namePoints );
+                    }
+                    else
+                    {
+                        dropped.mark( namePoints.size() );
+                    }
+                }
+            }
+            try
+            {
+                if ( !points.isEmpty() )
+                {
+                    sink.accept( new DataPoints( points ) );
+                }
+            }
+            finally
+            {
+                // after the points are stored, drain() returns once all names are created and points are stored
+                pendingPoints.addAndGet( -removed );
+                inFlightSince = Integer.MAX_VALUE;
+            }
+        }
+
+        private List<DataPoint> takePending( String name )
+        {
+            List<List<DataPoint>> taken = new ArrayList<>( 1 );
+            pending.computeIfPresent( name, ( n, points ) -> {
+                for ( DataPoint p : points )
+                {
+                    inFlightSince = Math.min( inFlightSince, p.ts );
+                }
+                taken.add( points );
+                return null;
+            } );
+            return taken.isEmpty() ? null : taken.get( 0 );
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.DataPointStore;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.MetricIndex;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Deletes leaf metrics that received no data points within the inactive period, together with their data and the
+ * parent names left without children.
+ * <p>
+ * Metrics are checked in id order at a limited rate. A metric is inactive when none of its archives has data points
+ * within the period: archives that track extents of metrics answer without a read, other archives are probed for the
+ * first data point within the period. Inactive metrics are checked again right before they are deleted in batches.
+ */
+class ObsoleteMetricSweeper
+{
+    private static final Logger log = LoggerFactory.getLogger( ObsoleteMetricSweeper.class );
+
+    // metric ids scanned at once
+    private static final int PAGE_SIZE = 10000;
+
+    private final MetricIndex nameIndex;
+
+    private final DataPointStore pointStore;
+
+    private final int inactiveSeconds;
+
+    private final int batchSize;
+
+    private final long intervalMillis;
+
+    private final boolean dryRun;
+
+    private final RateLimiter checkRate;
+
+    private final Meter checked;
+
+    private final Meter deleted;
+
+    private volatile double progress;
+
+    private volatile boolean stop = false;
+
+    private Thread thread;
+
+    /**
+     * @param checksPerSecond metrics checked per second.
+     * @param dryRun only log metrics that would be deleted.
+     */
+    ObsoleteMetricSweeper( MetricRegistry metricRegistry, MetricIndex nameIndex, DataPointStore pointStore,
+                           int inactiveHours, int checksPerSecond, int batchSize, int intervalHours, boolean dryRun )
+    {
+        Preconditions.checkArgument( inactiveHours > 0 && checksPerSecond > 0 && batchSize > 0 && intervalHours > 0 );
+        this.nameIndex = Preconditions.checkNotNull( nameIndex );
+        this.pointStore = Preconditions.checkNotNull( pointStore );
+        this.inactiveSeconds = (int) TimeUnit.HOURS.toSeconds( inactiveHours );
+        this.batchSize = batchSize;
+        this.intervalMillis = TimeUnit.HOURS.toMillis( intervalHours );
+        this.dryRun = dryRun;
+        this.checkRate = RateLimiter.create( checksPerSecond );
+        this.checked = metricRegistry.meter( MetricRegistry.name( "timeSeriesStore.obsoleteMetrics", "checked" ) );
+        this.deleted = metricRegistry.meter( MetricRegistry.name( "timeSeriesStore.obsoleteMetrics", "deleted" ) );
+        String gaugeName = MetricRegistry.name( "timeSeriesStore.obsoleteMetrics", "progress" );
+        metricRegistry.remove( gaugeName );
+        metricRegistry.register( gaugeName, (Gauge<Double>) () -> progress );
+    }
+
+    void start()
+    {
+        thread = new Thread( () -> {
+            while ( !stop )
+            {
+                try
+                {
+                    // first pass after the interval as well, not on every restart
+                    TimeUnit.MILLISECONDS.sleep( intervalMillis );
+                    sweep();
+                }
+                catch ( InterruptedException e )
+                {
+                    return;
+                }
+                catch ( Throwable t )
+                {
+                    log.error( "Failed to delete obsolete metrics", t );
+                }
+            }
+        }, "TimeSeriesStore.ObsoleteMetricSweeper" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    void close()
+    {
+        stop = true;
+        if ( thread != null )
+        {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Checks all metrics once.
+     *
+     * @return number of deleted leaf metrics.
+     */
+    long sweep()
+    {
+        long start = System.currentTimeMillis();
+        long maxId = nameIndex.getMaxId();
+        long count = 0;
+        log.info( String.format( "Deleting metrics without data points in the last %s hours, dryRun: %s",
+            TimeUnit.SECONDS.toHours( inactiveSeconds ), dryRun ) );
+        for ( long cursor = 1; cursor <= maxId && !stop; cursor += PAGE_SIZE )
+        {
+            int now = (int) ( System.currentTimeMillis() / 1000 );
+            List<Metric> inactive = new ArrayList<>();
+            nameIndex.scanNames( cursor, Math.min( cursor + PAGE_SIZE - 1, maxId ), m -> {
+                if ( m != null && m.isLeaf() && !stop )
+                {
+                    checkRate.acquire();
+                    checked.mark();
+                    if ( !hasData( m, now ) )
+                    {
+                        inactive.add( m );
+                    }
+                }
+            } );
+            for ( int i = 0; i < inactive.size() && !stop; i += batchSize )
+            {
+                count += delete( inactive.subList( i, Math.min( i + batchSize, inactive.size() ) ) );
+            }
+            progress = Math.min( 1.0, (double) ( cursor + PAGE_SIZE - 1 ) / maxId );
+        }
+        log.info( String.format( "%s %s obsolete metrics in %s ms", dryRun ? "Found" : "Deleted", count,
+            System.currentTimeMillis() - start ) );
+        return count;
+    }
+
+    private int delete( List<Metric> batch )
+    {
+        int now = (int) ( System.currentTimeMillis() / 1000 );
+        List<Metric> metrics = new ArrayList<>( batch.size() );
+        int count = 0;
+        for ( Metric m : batch )
+        {
+            // points may have arrived since the check
+            if ( hasData( m, now ) )
+            {
+                continue;
+            }
+            count++;
+            if ( dryRun )
+            {
+                log.info( "Obsolete metric " + m.name );
+                continue;
+            }
+            metrics.addAll( nameIndex.deleteLeafAndEmptyParents( m.name ) );
+        }
+        if ( !metrics.isEmpty() )
+        {
+            pointStore.delete( metrics );
+        }
+        if ( !dryRun )
+        {
+            deleted.mark( count );
+        }
+        return count;
+    }
+
+    private boolean hasData( Metric m, int now )
+    {
+        if ( m.getRetentionPolicies().isEmpty() )
+        {
+            return true;
+        }
+        int from = now - inactiveSeconds;
+        for ( RetentionPolicy rp : m.getRetentionPolicies() )
+        {
+            if ( pointStore.mayHaveData( rp, m.id, from, now ) && pointStore.getFirst( rp, m.id, from, now ) != null )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -7,7 +7,6 @@
 package com.demandware.carbonj.service.db;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.LongSummaryStatistics;
 import java.util.concurrent.Callable;
@@ -64,11 +63,12 @@ class StreamSeriesBatchMetricsTask
         LongSummaryStatistics readTimeStats = new LongSummaryStatistics();
         LongSummaryStatistics emptySeriesReadTimeStats = new LongSummaryStatistics();
         LongSummaryStatistics sendTimeStats = new LongSummaryStatistics();
+        LongSummaryStatistics batchReadTimeStats = new LongSummaryStatistics();
 
         int noOfDataPoints = 0;
         try(Timer.Context t = DatabaseMetrics.getSeriesTaskExecutionTime.time())
         {
-            ReadResult readResult = read(readTimeStats, emptySeriesReadTimeStats);
+            ReadResult readResult = read(readTimeStats, emptySeriesReadTimeStats, batchReadTimeStats);
             send(readResult.seriesList, sendTimeStats);
             noOfDataPoints += readResult.totalNoOfDataPoints;
         }
@@ -77,27 +77,30 @@ class StreamSeriesBatchMetricsTask
             log.error("Unexpected exception. " + this, t);
         }
 
-        return new BatchStats(waitTimeInNanoSeconds/1000L, noOfDataPoints, readTimeStats, sendTimeStats, emptySeriesReadTimeStats);
+        return new BatchStats(waitTimeInNanoSeconds/1000L, noOfDataPoints, readTimeStats, sendTimeStats, emptySeriesReadTimeStats,
+                batchReadTimeStats);
     }
 
-    private ReadResult read(LongSummaryStatistics readTimeStats, LongSummaryStatistics emptySeriesReadTimeStats)
+    private ReadResult read(LongSummaryStatistics readTimeStats, LongSummaryStatistics emptySeriesReadTimeStats,
+                            LongSummaryStatistics batchReadTimeStats)
     {
-        List<Series> series = new ArrayList<>();
+        List<Series> series;
         Timer.Context t = DatabaseMetrics.getSeriesTaskReadTimer.time();
         int noOfDataPoints = 0;
         try
         {
-            for (Metric m: metrics) {
-                long startTime = System.currentTimeMillis();
-                Series result = pointStore.getSeries(m, query.from(), query.until(), query.now());
-                long duration =  System.currentTimeMillis() - startTime;
-                if (result.values.size() == 0) {
-                    emptySeriesReadTimeStats.accept(duration);
+            long startTime = System.currentTimeMillis();
+            long[] readMillis = new long[metrics.size()];
+            series = pointStore.getSeries(metrics, query.from(), query.until(), query.now(), query.statistic(), readMillis);
+            batchReadTimeStats.accept(System.currentTimeMillis() - startTime);
+            for (int i = 0; i < series.size(); i++) {
+                Series result = series.get(i);
+                if (result.values.length == 0) {
+                    emptySeriesReadTimeStats.accept(readMillis[i]);
                 } else {
-                    readTimeStats.accept(duration);
+                    readTimeStats.accept(readMillis[i]);
                 }
-                series.add(result);
-                noOfDataPoints += result.values.size();
+                noOfDataPoints += result.values.length;
             }
         }
         catch(Throwable e)
@@ -128,7 +131,8 @@ class StreamSeriesBatchMetricsTask
         Timer.Context t = DatabaseMetrics.getSeriesTaskSendTimer.time();
         try
         {
-            series.forEach(s -> writeSeriesQuietly(s, sendTimeStats));
+            // consolidate before serialization to ship no more points than the client can display
+            series.forEach(s -> writeSeriesQuietly(query.consolidate(s), sendTimeStats));
         }
         catch(Throwable e)
         {
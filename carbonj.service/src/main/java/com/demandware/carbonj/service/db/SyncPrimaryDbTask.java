@@ -42,9 +42,26 @@ public class SyncPrimaryDbTask implements Runnable {
 
     @Override
     public void run() {
+        catchUp(true);
+    }
+
+    /**
+     * Catch-up without logging each attempt, used when catch-up runs every few seconds.
+     *
+     * @return true if catch-up with primary succeeded.
+     */
+    public boolean catchUp() {
+        return catchUp(false);
+    }
+
+    private boolean catchUp(boolean logInfo) {
         int retry = 1;
         while (retry <= catchupRetry) {
-            log.info("{}: Start syncing with primary DB {}", retry, dbDir.getAbsolutePath());
+            if (logInfo) {
+                log.info("{}: Start syncing with primary DB {}", retry, dbDir.getAbsolutePath());
+            } else {
+                log.debug("{}: Start syncing with primary DB {}", retry, dbDir.getAbsolutePath());
+            }
             try (Timer.Context ignored = catchUpTimer.time()) {
                 rocksDB.tryCatchUpWithPrimary();
                 break;
@@ -55,12 +72,18 @@ public class SyncPrimaryDbTask implements Runnable {
         }
         if (retry > catchupRetry) {
             catchUpTimerError.mark();
+            return false;
         } else {
             if (applicationEventPublisher != null) {
                 log.debug("{}: Publishing NameIndexSyncEvent for primary DB {}", retry, dbDir.getName());
                 applicationEventPublisher.publishEvent(new NameIndexSyncEvent(this));
             }
-            log.info("{}: Completed syncing with primary DB {}", retry, dbDir.getAbsolutePath());
+            if (logInfo) {
+                log.info("{}: Completed syncing with primary DB {}", retry, dbDir.getAbsolutePath());
+            } else {
+                log.debug("{}: Completed syncing with primary DB {}", retry, dbDir.getAbsolutePath());
+            }
+            return true;
         }
     }
 
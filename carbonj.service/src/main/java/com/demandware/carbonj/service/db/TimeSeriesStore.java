@@ -24,6 +24,14 @@ public interface TimeSeriesStore
 {
     void put( DataPoints point );
 
+    /**
+     * Persists data points written so far to disk.
+     *
+     * @return timestamp (epoch seconds) of the oldest accepted point that is still held only in memory - waiting for
+     * creation of its name or for rollup into lower resolution archives. {@link Integer#MAX_VALUE} if there are none.
+     */
+    int flush();
+
     /**
      * @param dbName
      * @param points
@@ -36,6 +44,12 @@ public interface TimeSeriesStore
 
     void importPoints( String dbName, DataPoints points );
 
+    /**
+     * Starts import of historical data points into the archive through external sst files. Names of new metrics are
+     * created the same way as with {@link #importPoints(String, DataPoints)}.
+     */
+    DataPointBulkImport startBulkImport( String dbName );
+
     DataPointExportResults exportPoints( String dbName, String metricName );
 
     DataPointExportResults exportPoints( String dbName, long metricId );
@@ -72,6 +86,14 @@ public interface TimeSeriesStore
 
     void dumpIndex( File file );
 
+    /**
+     * Creates consistent snapshot of all archives and index stores in the given directory that can be used to
+     * bootstrap another node.
+     *
+     * @return snapshot start time in millis. Data after that time has to be replayed from the stream.
+     */
+    long checkpoint( File snapshotDir );
+
     void deleteAll();
 
     List<DataPointValue> getValues( String dbName, String metricName, int from, int to );
@@ -15,6 +15,7 @@ import com.codahale.metrics.Timer;
 import com.demandware.carbonj.service.db.log.CompletedQueryStats;
 import com.demandware.carbonj.service.db.log.QueryStats;
 import com.demandware.carbonj.service.db.log.Stats;
+import com.demandware.carbonj.service.db.model.DataPointBulkImport;
 import com.demandware.carbonj.service.db.model.DataPointExportResults;
 import com.demandware.carbonj.service.db.model.DataPointImportResults;
 import com.demandware.carbonj.service.db.model.DataPointStore;
@@ -27,6 +28,7 @@ import com.demandware.carbonj.service.db.model.Series;
 import com.demandware.carbonj.service.db.model.TooManyDatapointsFoundException;
 import com.demandware.carbonj.service.db.model.TooManyMetricsFoundException;
 import com.demandware.carbonj.service.db.util.DatabaseMetrics;
+import com.demandware.carbonj.service.db.util.DbSnapshots;
 import com.demandware.carbonj.service.db.util.Quota;
 import com.demandware.carbonj.service.engine.BlockingPolicy;
 import com.demandware.carbonj.service.engine.DataPoint;
@@ -37,6 +39,7 @@ import com.demandware.carbonj.service.engine.ResponseStream;
 import com.demandware.carbonj.service.events.CarbonjEvent;
 import com.demandware.carbonj.service.events.Constants;
 import com.demandware.carbonj.service.events.EventsLogger;
+import com.demandware.carbonj.service.ns.NamespaceCounter;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -112,6 +115,16 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
      */
     private final ThreadPoolExecutor serialTaskQueue;
 
+    /**
+     * Creates new names in parallel instead of the serial task queue. Null when disabled.
+     */
+    private volatile MetricCreator metricCreator;
+
+    private ObsoleteMetricSweeper obsoleteMetricSweeper;
+
+    // null - new names are created regardless of namespace cardinality
+    private volatile NamespaceCounter namespaceCounter;
+
     private final boolean dumpIndex;
 
     private final File dumpIndexFile;
@@ -231,6 +244,28 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
         loadFromConfigFile(metricsStoreConfigFile);
     }
 
+    /**
+     * Points with new names are handed to the creator instead of the serial task queue.
+     */
+    void setMetricCreator(MetricCreator metricCreator) {
+        metricCreator.start(this::accept);
+        this.metricCreator = metricCreator;
+    }
+
+    /**
+     * The sweeper is started once the databases are open.
+     */
+    void setObsoleteMetricSweeper(ObsoleteMetricSweeper obsoleteMetricSweeper) {
+        this.obsoleteMetricSweeper = obsoleteMetricSweeper;
+    }
+
+    /**
+     * Points of new names are dropped without creating the names while their namespace is over the cardinality limits.
+     */
+    void setNamespaceCounter(NamespaceCounter namespaceCounter) {
+        this.namespaceCounter = namespaceCounter;
+    }
+
     private void registerActiveThreadsGauge(MetricRegistry registry, String name,
                                             ThreadPoolExecutor threadPoolExecutor) {
         registry.remove(name);
@@ -242,9 +277,28 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
         this.nameIndex.dumpIndex(file);
     }
 
+    @Override
+    public long checkpoint(File snapshotDir) {
+        Preconditions.checkArgument(!snapshotDir.exists(), "Snapshot dir [%s] already exists", snapshotDir);
+        Preconditions.checkState(!rocksdbReadonly, "Snapshots are not supported in readonly mode");
+        if (!snapshotDir.mkdirs()) {
+            throw new RuntimeException("Failed to create snapshot dir " + snapshotDir);
+        }
+        long start = System.currentTimeMillis();
+        // archives before index: every metric id referenced by archive snapshots is present in the index snapshot
+        pointStore.checkpoint(snapshotDir);
+        nameIndex.checkpoint(snapshotDir);
+        DbSnapshots.writeProperties(snapshotDir, start);
+        log.info(String.format("Created snapshot in [%s] in %s ms", snapshotDir, System.currentTimeMillis() - start));
+        return start;
+    }
+
     @PostConstruct
     private void init() {
         openDatabases();
+        if (obsoleteMetricSweeper != null) {
+            obsoleteMetricSweeper.start();
+        }
         if (dumpIndex) {
             log.info("writing index content to file: [" + dumpIndexFile + "]");
             nameIndex.dumpIndex(dumpIndexFile);
@@ -268,6 +322,17 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
             try {
                 DataPoint dp2 = new DataPoint(dp.name, dp.val, dp.ts, false);
                 dp.drop();
+                NamespaceCounter ns = namespaceCounter;
+                if (ns != null && !ns.allowNewMetric(dp.name)) {
+                    return;
+                }
+                MetricCreator creator = metricCreator;
+                if (creator != null) {
+                    if (!creator.add(dp2) && log.isDebugEnabled()) {
+                        log.debug("New metrics buffer is full - failed to save " + dp);
+                    }
+                    return;
+                }
                 serialTaskQueue.submit(() -> {
                     if (null != nameIndex.createLeafMetric(dp2.name)) {
                         this.accept(new DataPoints(List.of(dp2)));
@@ -283,15 +348,75 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
         pointStore.insertDataPoints(points);
     }
 
+    @Override
+    public int flush() {
+        if (rocksdbReadonly) {
+            return Integer.MAX_VALUE;
+        }
+        // points of new names are resubmitted into the point store, check them first.
+        // Points of new names created on serialTaskQueue (no metric creator) are not tracked.
+        MetricCreator creator = metricCreator;
+        int pending = creator != null ? creator.oldestPendingTimestamp() : Integer.MAX_VALUE;
+        return Math.min(pending, pointStore.flush());
+    }
+
     @Override
     public void importPoints(String dbName, DataPoints points) {
+        assignImportedMetrics(dbName, points);
+        // 2. insert data points
+        pointStore.importDataPoints(dbName, points);
+    }
+
+    @Override
+    public DataPointBulkImport startBulkImport(String dbName) {
+        if (rocksdbReadonly) {
+            throw new UnsupportedOperationException("Bulk import is not supported for readonly mode");
+        }
+        DataPointBulkImport archiveImport = pointStore.startBulkImport(dbName);
+        return new DataPointBulkImport() {
+            @Override
+            public void add(DataPoints points) {
+                assignImportedMetrics(dbName, points);
+                archiveImport.add(points);
+            }
+
+            @Override
+            public long finish() {
+                return archiveImport.finish();
+            }
+
+            @Override
+            public long addedPoints() {
+                return archiveImport.addedPoints();
+            }
+
+            @Override
+            public long ingestedPoints() {
+                return archiveImport.ingestedPoints();
+            }
+
+            @Override
+            public int ingestedFiles() {
+                return archiveImport.ingestedFiles();
+            }
+
+            @Override
+            public void close() {
+                archiveImport.close();
+            }
+        };
+    }
+
+    private void assignImportedMetrics(String dbName, DataPoints points) {
         RetentionPolicy p = RetentionPolicy.getInstanceForDbName(dbName);
         assignMetrics(points, p, (i, dp) -> {
             // if it is a metric with a new name we
             // 1. create a new name in the name index
             // 2. wait for completion and move forward
             try {
-                Metric m = serialTaskQueue.submit(() -> nameIndex.createLeafMetric(dp.name)).get();
+                MetricCreator creator = metricCreator;
+                Metric m = creator != null ? creator.create(dp.name)
+                        : serialTaskQueue.submit(() -> nameIndex.createLeafMetric(dp.name)).get();
                 points.assignMetric(i, m, p);
             } catch (Exception e) {
                 if (log.isDebugEnabled()) {
@@ -299,8 +424,6 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
                 }
             }
         });
-        // 2. insert data points
-        pointStore.importDataPoints(dbName, points);
     }
 
     private void assignMetrics(DataPoints points, RetentionPolicy policy,
@@ -451,7 +574,8 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
 
             if ( threadPoolExecutor == null )
             {
-                leafMetrics.forEach( m -> seriesList.add(pointStore.getSeries(m, query.from(), query.until(), query.now())));
+                seriesList.addAll( pointStore.getSeries( leafMetrics, query.from(), query.until(), query.now(),
+                    query.statistic() ) );
             }
             else
             {
@@ -459,7 +583,8 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
                 //TODO: test on empty list
                 for(List<Metric> batch : Lists.partition(leafMetrics, batchedSeriesSize))
                 {
-                    futures.add(threadPoolExecutor.submit( new GetSeriesTask( pointStore, batch, query.from(), query.until(), query.now() )));
+                    futures.add(threadPoolExecutor.submit( new GetSeriesTask( pointStore, batch, query.from(), query.until(), query.now(),
+                        query.statistic() )));
                 }
 
                 try
@@ -480,14 +605,21 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
                 }
             }
         }
+        seriesList.replaceAll( query::consolidate );
         return seriesList;
     }
 
     long getEstimatedNumberOfDataPoints(int from, int until, int now, List<Metric> leafMetrics) {
         Optional<RetentionPolicy> retentionPolicy = RetentionPolicy.pickArchiveForQuery(from, until, now);
         if (retentionPolicy.isPresent()) {
-            long maxNoOfPoints = retentionPolicy.get().maxPoints(from, until, now);
-            return maxNoOfPoints * leafMetrics.size();
+            long maxNoOfPoints = retentionPolicy.get().maxPoints(from, until, now) * leafMetrics.size();
+            if (maxNoOfPoints == 0) {
+                return 0;
+            }
+            // metrics without data in the range don't count when the archive knows their extents
+            long stored = pointStore.estimateDataPoints(retentionPolicy.get(), leafMetrics, from, until)
+                    .orElse(maxNoOfPoints);
+            return Math.min(stored, maxNoOfPoints);
         }
         return heavyQueryThreshold + 1;  // don't know the retention policy.  send it to heavy query queue.
     }
@@ -535,6 +667,7 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
             }
 
             DatabaseMetrics.getSeriesReadTimer.update(queryStats.getSeriesReadTimeMillis().getSum(), TimeUnit.MILLISECONDS);
+            DatabaseMetrics.getSeriesBatchReadTimer.update(queryStats.getBatchReadTimeMillis().getSum(), TimeUnit.MILLISECONDS);
             DatabaseMetrics.getSeriesSendTimer.update(queryStats.getSeriesWriteTimeMillis().getSum(), TimeUnit.MILLISECONDS);
         }
         catch(Throwable t)
@@ -588,6 +721,7 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
         LongSummaryStatistics readTimeStats = new LongSummaryStatistics();
         LongSummaryStatistics sendTimeStats = new LongSummaryStatistics();
         LongSummaryStatistics emptySeriesReadTimeStats = new LongSummaryStatistics();
+        LongSummaryStatistics batchReadTimeStats = new LongSummaryStatistics();
 
         try
         {
@@ -599,6 +733,7 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
                 readTimeStats.combine(stats.seriesReadTimeMillis);
                 sendTimeStats.combine(stats.seriesWriteTimeMillis);
                 emptySeriesReadTimeStats.combine(stats.emptySeriesReadTimeMillis);
+                batchReadTimeStats.combine(stats.batchReadTimeMillis);
             }
             DatabaseMetrics.pointsRead.mark(totalNoOfDataPoints);
         }
@@ -615,7 +750,8 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
             log.error("Error: ", e );
             eventLogger.log(new FailedQueryStats(query, noOfSeries, System.currentTimeMillis(), e));
         }
-        return new QueryStats(totalNoOfDataPoints, waitTimeStats, readTimeStats, sendTimeStats, emptySeriesReadTimeStats);
+        return new QueryStats(totalNoOfDataPoints, waitTimeStats, readTimeStats, sendTimeStats, emptySeriesReadTimeStats,
+                batchReadTimeStats);
     }
 
     @Override
@@ -663,6 +799,14 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
         {
             log.error( "Failure stopping serial task queue", e );
         }
+        if ( metricCreator != null )
+        {
+            metricCreator.close();
+        }
+        if ( obsoleteMetricSweeper != null )
+        {
+            obsoleteMetricSweeper.close();
+        }
         closeDatabase();
     }
 
@@ -737,6 +881,10 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore
     {
         DrainUtils.drain( ex );
         DrainUtils.drain( serialTaskQueue );
+        if ( metricCreator != null )
+        {
+            metricCreator.drain();
+        }
     }
 
     @Override
@@ -15,6 +15,7 @@ import com.demandware.carbonj.service.db.util.DatabaseMetrics;
 import com.demandware.carbonj.service.engine.cfgCentralThreadPools;
 import com.demandware.carbonj.service.events.EventsLogger;
 import com.demandware.carbonj.service.events.cfgCarbonjEventsLogger;
+import com.demandware.carbonj.service.ns.NamespaceCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -67,6 +68,32 @@ public class cfgTimeSeriesStorage
     @Value( "${metrics.tasks.queueSize:500000}" )
     private int serialQueueSize = 500000;
 
+    // 0 - new names are created by the serial task queue
+    @Value( "${metrics.store.newMetricsThreads:0}" )
+    private int newMetricsThreads = 0;
+
+    @Value( "${metrics.store.newMetricsMaxPendingPoints:500000}" )
+    private int newMetricsMaxPendingPoints = 500000;
+
+    @Value( "${metrics.store.obsoleteMetrics.enabled:false}" )
+    private boolean obsoleteMetricsEnabled;
+
+    // metrics without data points for this long are deleted
+    @Value( "${metrics.store.obsoleteMetrics.inactiveInHours:720}" )
+    private int obsoleteMetricsInactiveInHours;
+
+    @Value( "${metrics.store.obsoleteMetrics.checksPerSecond:1000}" )
+    private int obsoleteMetricsChecksPerSecond;
+
+    @Value( "${metrics.store.obsoleteMetrics.batchSize:1000}" )
+    private int obsoleteMetricsBatchSize;
+
+    @Value( "${metrics.store.obsoleteMetrics.intervalInHours:24}" )
+    private int obsoleteMetricsIntervalInHours;
+
+    @Value( "${metrics.store.obsoleteMetrics.dryRun:false}" )
+    private boolean obsoleteMetricsDryRun;
+
     @Value( "${log.nonLeafPoints.quota.min:10}" )
     private int maxNonLeafPointsLoggedPerMin;
 
@@ -82,7 +109,8 @@ public class cfgTimeSeriesStorage
     @Bean
     @DependsOn( "stringsCache" )
     TimeSeriesStore timeSeriesStore( MetricIndex nameIndex, DataPointStore pointStore, DatabaseMetrics dbMetrics,
-                                     ScheduledExecutorService s, @Qualifier("CarbonjEventsLogger") EventsLogger logger) {
+                                     ScheduledExecutorService s, @Qualifier("CarbonjEventsLogger") EventsLogger logger,
+                                     NamespaceCounter namespaceCounter) {
         log.info( String.format( "Creating TimeSeriesStore: nThreads = %s", nTaskThreads ) );
         TimeSeriesStoreImpl timeSeriesStore = new TimeSeriesStoreImpl( metricRegistry, nameIndex, logger,
                 TimeSeriesStoreImpl.newMainTaskQueue( nTaskThreads, threadBlockingQueueSize ),
@@ -91,6 +119,19 @@ public class cfgTimeSeriesStorage
             dbMetrics, batchedSeriesRetrieval,
             batchedSeriesSize, dumpIndex, new File( dumpIndexFile ), maxNonLeafPointsLoggedPerMin, metricStoreConfigFile,
                 longId, rocksdbReadonly);
+        if ( newMetricsThreads > 0 )
+        {
+            timeSeriesStore.setMetricCreator(
+                new MetricCreator( metricRegistry, nameIndex, newMetricsThreads, newMetricsMaxPendingPoints ) );
+        }
+        timeSeriesStore.setNamespaceCounter( namespaceCounter );
+        if ( obsoleteMetricsEnabled && !rocksdbReadonly )
+        {
+            timeSeriesStore.setObsoleteMetricSweeper(
+                new ObsoleteMetricSweeper( metricRegistry, nameIndex, pointStore, obsoleteMetricsInactiveInHours,
+                    obsoleteMetricsChecksPerSecond, obsoleteMetricsBatchSize, obsoleteMetricsIntervalInHours,
+                    obsoleteMetricsDryRun ) );
+        }
 
         s.scheduleWithFixedDelay(timeSeriesStore::reload, 60, 60, TimeUnit.SECONDS );
         s.scheduleWithFixedDelay(timeSeriesStore::refreshStats, 60, 10, TimeUnit.SECONDS );
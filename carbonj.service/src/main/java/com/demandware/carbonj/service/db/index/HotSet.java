@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Names and query patterns that were in the metric index caches, saved periodically and on shutdown to load them into
+ * the caches on the next start.
+ * <p>
+ * One entry per line, prefixed with the kind of the entry: "n " for metric names, "q " for query patterns.
+ */
+class HotSet
+{
+    private static final String NAME = "n ";
+
+    private static final String QUERY = "q ";
+
+    final List<String> names;
+
+    final List<String> queries;
+
+    HotSet( List<String> names, List<String> queries )
+    {
+        this.names = names;
+        this.queries = queries;
+    }
+
+    /**
+     * Written into a temp file first, so the file is either complete or has the previous content.
+     */
+    static void save( File file, Collection<String> names, Collection<String> queries )
+    {
+        File tmp = new File( file.getPath() + ".tmp" );
+        try (BufferedWriter out = Files.newBufferedWriter( tmp.toPath(), UTF_8 ))
+        {
+            for ( String name : names )
+            {
+                out.write( NAME );
+                out.write( name );
+                out.newLine();
+            }
+            for ( String query : queries )
+            {
+                out.write( QUERY );
+                out.write( query );
+                out.newLine();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( "Failed to save hot set to " + tmp, e );
+        }
+        try
+        {
+            Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( "Failed to save hot set to " + file, e );
+        }
+    }
+
+    /**
+     * @return entries read from the file, empty if the file doesn't exist.
+     */
+    static HotSet load( File file )
+        throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        List<String> queries = new ArrayList<>();
+        if ( file.exists() )
+        {
+            try (BufferedReader in = Files.newBufferedReader( file.toPath(), UTF_8 ))
+            {
+                String line;
+                while ( ( line = in.readLine() ) != null )
+                {
+                    if ( line.startsWith( NAME ) )
+                    {
+                        names.add( line.substring( NAME.length() ) );
+                    }
+                    else if ( line.startsWith( QUERY ) )
+                    {
+                        queries.add( line.substring( QUERY.length() ) );
+                    }
+                }
+            }
+        }
+        return new HotSet( names, queries );
+    }
+}
@@ -8,6 +8,7 @@ package com.demandware.carbonj.service.db.index;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.List;
 import java.util.function.Consumer;
 
 public interface IndexStore<K, R extends Record<K>>
@@ -28,6 +29,11 @@ public interface IndexStore<K, R extends Record<K>>
 
     void dumpStats();
 
+    /**
+     * Creates point-in-time snapshot of the store in a sub-directory of the given directory.
+     */
+    void checkpoint( File snapshotDir );
+
     void dump( PrintWriter pw );
 
     String dbGetProperty(String property);
@@ -35,4 +41,36 @@ public interface IndexStore<K, R extends Record<K>>
     K maxKey();
 
     long scan( K startKey, K endKey, Consumer<R> c );
+
+    /**
+     * Stores child name of the record as a separate key. Used to add a child without rewriting the record.
+     */
+    void dbPutChild( K key, String child );
+
+    void dbDeleteChild( K key, String child );
+
+    /**
+     * Deletes all child names stored with {@link #dbPutChild(Object, String)}.
+     */
+    void dbDeleteChildren( K key );
+
+    /**
+     * @return child names stored with {@link #dbPutChild(Object, String)} in sort order.
+     */
+    List<String> dbGetChildren( K key );
+
+    /**
+     * Collects writes of the calling thread until {@link #commitBatch()} writes them at once. Reads of the calling
+     * thread see the collected writes, other threads see them after the commit.
+     */
+    default void beginBatch()
+    {
+    }
+
+    /**
+     * Writes the writes collected since {@link #beginBatch()}.
+     */
+    default void commitBatch()
+    {
+    }
 }
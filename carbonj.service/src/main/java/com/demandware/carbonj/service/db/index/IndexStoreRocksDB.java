@@ -10,7 +10,10 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.demandware.carbonj.service.db.SyncPrimaryDbTask;
+import com.demandware.carbonj.service.db.util.DbSnapshots;
 import com.demandware.carbonj.service.db.util.MetricUtils;
+import com.demandware.carbonj.service.db.util.RocksDBResourceManager;
+import com.demandware.carbonj.service.db.util.RocksDBStatsReporter;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.primitives.SignedBytes;
@@ -21,7 +24,10 @@ import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Statistics;
 import org.rocksdb.TtlDB;
+import org.rocksdb.WriteBatchWithIndex;
+import org.rocksdb.WriteOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,17 +36,32 @@ import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Child keys added with {@link #dbPutChild(Object, String)} are stored as "record key \0 child name" with empty
+ * values next to the record. Scans skip them.
+ * <p>
+ * Batches are indexed, so gets and child lookups of the thread that collects the batch see its pending writes.
+ */
 @Component
 class IndexStoreRocksDB<K, R extends Record<K>>
     implements IndexStore<K, R>
 {
     private static final Logger log = LoggerFactory.getLogger( IndexStoreRocksDB.class );
 
+    private static final byte CHILD_SEPARATOR = 0;
+
+    private static final byte[] EMPTY = new byte[0];
+
     final private String dbName;
 
     final private File dbDir;
@@ -65,13 +86,41 @@ class IndexStoreRocksDB<K, R extends Record<K>>
 
     private final int catchupRetry;
 
+    private final MetricRegistry metricRegistry;
+
+    private final boolean statisticsEnabled;
+
+    private Statistics statistics;
+
+    private RocksDBStatsReporter statsReporter;
+
+    private final RocksDBResourceManager resourceManager;
+
     private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
 
+    // writes collected by the thread between beginBatch() and commitBatch()
+    private final ThreadLocal<WriteBatchWithIndex> batch = new ThreadLocal<>();
+
     @Autowired
     private ApplicationEventPublisher applicationEventPublisher;
 
     public IndexStoreRocksDB(MetricRegistry metricRegistry, String dbName, File dbDir, RecordSerializer<K, R> recSerializer, boolean rocksdbReadonly, int catchupRetry)
     {
+        this(metricRegistry, dbName, dbDir, recSerializer, rocksdbReadonly, catchupRetry, true);
+    }
+
+    public IndexStoreRocksDB(MetricRegistry metricRegistry, String dbName, File dbDir, RecordSerializer<K, R> recSerializer, boolean rocksdbReadonly, int catchupRetry,
+                             boolean statisticsEnabled)
+    {
+        this(metricRegistry, dbName, dbDir, recSerializer, rocksdbReadonly, catchupRetry, statisticsEnabled, null);
+    }
+
+    public IndexStoreRocksDB(MetricRegistry metricRegistry, String dbName, File dbDir, RecordSerializer<K, R> recSerializer, boolean rocksdbReadonly, int catchupRetry,
+                             boolean statisticsEnabled, RocksDBResourceManager resourceManager)
+    {
+        this.metricRegistry = metricRegistry;
+        this.resourceManager = resourceManager;
+        this.statisticsEnabled = statisticsEnabled;
         this.dbName = Preconditions.checkNotNull( dbName );
         this.dbDir = Preconditions.checkNotNull( dbDir );
         this.secondaryDbDir = new File(dbDir.getParentFile(), dbName + "-secondary");
@@ -88,6 +137,10 @@ class IndexStoreRocksDB<K, R extends Record<K>>
     @Override
     public void dumpStats()
     {
+        if ( statsReporter != null )
+        {
+            statsReporter.dumpStats();
+        }
     }
 
     @Override
@@ -103,6 +156,13 @@ class IndexStoreRocksDB<K, R extends Record<K>>
         BlockBasedTableConfig cfg = new BlockBasedTableConfig();
         // TODO: For backward compatibility, should move to latest 6 later
         cfg.setFormatVersion(5);
+        if (resourceManager != null) {
+            resourceManager.configure(dbName, options, cfg);
+        }
+        if (statisticsEnabled) {
+            statistics = new Statistics();
+            options.setStatistics(statistics);
+        }
 
         try
         {
@@ -124,6 +184,10 @@ class IndexStoreRocksDB<K, R extends Record<K>>
                 this.db = RocksDB.open(options, dbDir.getAbsolutePath());
                 log.info("RocksDB metric index store in [{}] opened in normal mode", dbDir);
             }
+            statsReporter = new RocksDBStatsReporter(metricRegistry, dbName, db, statistics);
+            if (resourceManager != null) {
+                resourceManager.register(dbName, db);
+            }
         }
         catch ( RocksDBException e )
         {
@@ -132,6 +196,12 @@ class IndexStoreRocksDB<K, R extends Record<K>>
         }
     }
 
+    @Override
+    public void checkpoint( File snapshotDir )
+    {
+        DbSnapshots.checkpoint( db, dbName, snapshotDir );
+    }
+
     @Override
     public void dump( PrintWriter pw )
     {
@@ -173,6 +243,11 @@ class IndexStoreRocksDB<K, R extends Record<K>>
                     break;
                 }
                 byte[] valueBytes = iter.value();
+                if ( valueBytes.length == 0 )
+                {
+                    // child key
+                    continue;
+                }
                 c.accept( recSerializer.toIndexEntry( key, valueBytes ) );
                 processed++;
             }
@@ -180,6 +255,58 @@ class IndexStoreRocksDB<K, R extends Record<K>>
         }
     }
 
+    private byte[] childKeyPrefix( K key )
+    {
+        byte[] keyBytes = recSerializer.keyBytes( key );
+        byte[] prefix = Arrays.copyOf( keyBytes, keyBytes.length + 1 );
+        prefix[keyBytes.length] = CHILD_SEPARATOR;
+        return prefix;
+    }
+
+    private byte[] childKey( K key, String child )
+    {
+        byte[] prefix = childKeyPrefix( key );
+        byte[] childBytes = child.getBytes( UTF_8 );
+        byte[] childKey = Arrays.copyOf( prefix, prefix.length + childBytes.length );
+        System.arraycopy( childBytes, 0, childKey, prefix.length, childBytes.length );
+        return childKey;
+    }
+
+    @Override
+    public void dbPutChild( K key, String child )
+    {
+        dbPut( childKey( key, child ), EMPTY );
+    }
+
+    @Override
+    public void dbDeleteChild( K key, String child )
+    {
+        dbDelete( childKey( key, child ) );
+    }
+
+    @Override
+    public List<String> dbGetChildren( K key )
+    {
+        byte[] prefix = childKeyPrefix( key );
+        List<String> children = new ArrayList<>();
+        WriteBatchWithIndex b = batch.get();
+        try (Timer.Context ignored = readTimer.time();
+             RocksIterator iter = b == null ? db.newIterator( new ReadOptions() )
+                             : b.newIteratorWithBase( db.newIterator( new ReadOptions() ) ))
+        {
+            for ( iter.seek( prefix ); iter.isValid(); iter.next() )
+            {
+                byte[] k = iter.key();
+                if ( k.length < prefix.length || !Arrays.equals( k, 0, prefix.length, prefix, 0, prefix.length ) )
+                {
+                    break;
+                }
+                children.add( new String( k, prefix.length, k.length - prefix.length, UTF_8 ) );
+            }
+        }
+        return children;
+    }
+
     @Override
     public K maxKey()
     {
@@ -238,6 +365,34 @@ class IndexStoreRocksDB<K, R extends Record<K>>
         dbDelete( keyBytes );
     }
 
+    @Override
+    public void dbDeleteChildren( K key )
+    {
+        if (rocksdbReadonly) {
+            throw new UnsupportedOperationException("Method dbDeleteChildren is not supported for readonly mode");
+        }
+        if ( batch.get() != null )
+        {
+            // range deletes can't be indexed
+            for ( String child : dbGetChildren( key ) )
+            {
+                dbDeleteChild( key, child );
+            }
+            return;
+        }
+        byte[] from = childKeyPrefix( key );
+        byte[] to = from.clone();
+        to[to.length - 1] = CHILD_SEPARATOR + 1;
+        try (Timer.Context ignored = delTimer.time())
+        {
+            db.deleteRange( from, to );
+        }
+        catch ( RocksDBException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
     @Override
     public void dbPut( R e )
     {
@@ -260,14 +415,53 @@ class IndexStoreRocksDB<K, R extends Record<K>>
         }
     }
 
+    @Override
+    public void beginBatch()
+    {
+        if (rocksdbReadonly) {
+            throw new UnsupportedOperationException("Method beginBatch is not supported for readonly mode");
+        }
+        Preconditions.checkState( batch.get() == null, "Batch of [%s] is already open", dbName );
+        batch.set( new WriteBatchWithIndex( true ) );
+    }
+
+    @Override
+    public void commitBatch()
+    {
+        WriteBatchWithIndex b = batch.get();
+        Preconditions.checkState( b != null, "No open batch of [%s]", dbName );
+        batch.remove();
+        try (WriteBatchWithIndex ignored = b;
+             WriteOptions writeOptions = new WriteOptions();
+             Timer.Context ignored2 = writeTimer.time())
+        {
+            if ( b.count() > 0 )
+            {
+                db.write( writeOptions, b );
+            }
+        }
+        catch ( RocksDBException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
     private void dbPut( byte[] k, byte[] v )
     {
         if (rocksdbReadonly) {
             throw new UnsupportedOperationException("Method dbPut is not supported for readonly mode");
         }
+        WriteBatchWithIndex b = batch.get();
         try (Timer.Context ignored = writeTimer.time())
         {
-            db.put( k, v );
+            if ( b != null )
+            {
+                b.put( k, v );
+            }
+            else
+            {
+                db.put( k, v );
+            }
         }
         catch ( RocksDBException e )
         {
@@ -277,8 +471,16 @@ class IndexStoreRocksDB<K, R extends Record<K>>
 
     private byte[] dbGet( byte[] k )
     {
+        WriteBatchWithIndex b = batch.get();
         try (Timer.Context ignored = readTimer.time())
         {
+            if ( b != null )
+            {
+                try (ReadOptions readOptions = new ReadOptions())
+                {
+                    return b.getFromBatchAndDB( db, readOptions, k );
+                }
+            }
             return db.get( k );
         }
         catch ( RocksDBException e )
@@ -292,9 +494,17 @@ class IndexStoreRocksDB<K, R extends Record<K>>
         if (rocksdbReadonly) {
             throw new UnsupportedOperationException("Method dbDelete is not supported for readonly mode");
         }
+        WriteBatchWithIndex b = batch.get();
         try (Timer.Context ignored = delTimer.time())
         {
-            db.delete( keyBytes );
+            if ( b != null )
+            {
+                b.delete( keyBytes );
+            }
+            else
+            {
+                db.delete( keyBytes );
+            }
         }
         catch ( RocksDBException e )
         {
@@ -308,6 +518,16 @@ class IndexStoreRocksDB<K, R extends Record<K>>
             scheduledExecutorService.shutdownNow();
         }
 
+        if ( statsReporter != null )
+        {
+            statsReporter.close();
+        }
+
+        if ( resourceManager != null )
+        {
+            resourceManager.unregister( dbName );
+        }
+
         if ( db != null )
         {
             try
@@ -319,5 +539,10 @@ class IndexStoreRocksDB<K, R extends Record<K>>
                 log.error( "Error while closing database [" + dbName + "].", e );
             }
         }
+
+        if ( statistics != null )
+        {
+            statistics.close();
+        }
     }
 }
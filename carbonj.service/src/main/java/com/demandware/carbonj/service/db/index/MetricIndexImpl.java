@@ -29,6 +29,8 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ObjectArrays;
 import org.apache.commons.lang3.StringUtils;
@@ -53,13 +55,19 @@ import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
@@ -114,7 +122,7 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
     private final CacheStatsReporter queryPatternCacheStatsReporter;
     private final LoadingCache<String, Metric> metricCache;
     private LoadingCache<Long, Metric> metricIdCache;
-    private final LoadingCache<String, List<Metric>> queryCache;
+    private final LoadingCache<String, QueryCacheIndex.Result> queryCache;
     private final LoadingCache<String, Pattern> queryPatternCache;
 
     private final String metricsStoreConfigFile;
@@ -156,6 +164,49 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
 
     private final Quota invalidLeafMetricsReceivedLogQuota;
 
+    private volatile boolean nameTrieEnabled = false;
+
+    private volatile boolean childKeysEnabled = false;
+
+    /**
+     * Pool for walking subtrees of wide wildcard levels in parallel. Null when disabled.
+     */
+    private volatile ForkJoinPool findPool;
+
+    private volatile int findForkThreshold = Integer.MAX_VALUE;
+
+    /**
+     * In-memory copy of the name index used to resolve name patterns. Null when disabled.
+     */
+    private volatile NameTrie nameTrie;
+
+    /**
+     * Inverted index of name segments used for segment deletes. Null when disabled.
+     */
+    private volatile SegmentIndex segmentIndex;
+
+    /**
+     * Thread building the segment index in the background. Null when the index was already built.
+     */
+    private volatile Thread segmentIndexBuilder;
+
+    private volatile boolean segmentIndexBuilderStopped;
+
+    /**
+     * Cached queries by the names they cover, used to apply created and deleted names to cached results. Null when
+     * cached results are only refreshed on expiry.
+     */
+    private volatile QueryCacheIndex queryCacheIndex;
+
+    /**
+     * File with names and queries loaded into the caches on {@link #open()}. Null when disabled.
+     */
+    private volatile File hotSetFile;
+
+    private volatile int warmUpThreads = 1;
+
+    private volatile long warmUpTimeBudgetMillis;
+
     private static class DeleteResult extends DeleteAPIResult
     {
         public List<Metric> metrics = new ArrayList<>();
@@ -218,7 +269,7 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
                             @SuppressWarnings("NullableProblems")
                             @Override
                             public Metric load(String name) {
-                                NameRecord e = nameIndex.dbGet(name);
+                                NameRecord e = loadNameRecord(name);
                                 if (e != null) {
                                     return toMetric(e);
                                 } else {
@@ -261,15 +312,20 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
                         .recordStats()
                         .concurrencyLevel(8)
                         .expireAfterWrite(expireAfterWriteQueryCacheInSeconds, TimeUnit.SECONDS)
+                        .removalListener(this::onQueryCacheRemoval)
                         .build(new CacheLoader<>() {
                             @SuppressWarnings("NullableProblems")
                             @Override
-                            public List<Metric> load(String pattern) {
+                            public QueryCacheIndex.Result load(String pattern) {
+                                QueryCacheIndex index = queryCacheIndex;
+                                // registered before the query runs, names created meanwhile change the version
+                                QueryCacheIndex.Query query = index != null ? index.register(pattern) : null;
+                                long version = query != null ? query.version() : 0;
                                 try {
-                                    return findMetricsNoCache(pattern, true, true, true);
+                                    return new QueryCacheIndex.Result(query, version, findMetricsNoCache(pattern, true, true, true), false);
                                 } catch (TooManyMetricsFoundException e) {
                                     log.error("Error: ", e);
-                                    return Collections.emptyList();
+                                    return new QueryCacheIndex.Result(query, version, Collections.emptyList(), true);
                                 }
                             }
                         });
@@ -350,6 +406,246 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         this.strictMode = mode;
     }
 
+    /**
+     * Resolve name patterns with an in-memory copy of the name index built on {@link #open()}. Not used with a
+     * read-only name index because the index is updated by another process.
+     */
+    public void setNameTrieEnabled( boolean nameTrieEnabled )
+    {
+        this.nameTrieEnabled = nameTrieEnabled;
+    }
+
+    /**
+     * Store children of non-leaf names as separate keys of the name index. Adding a child becomes a single put
+     * instead of rewriting the whole list of children. Existing records are converted when their next child is added.
+     * <p>
+     * Converted records keep their child keys after the flag is turned off. Versions without child key support read
+     * them as names without children, so the name index can't be rolled back to such a version once the flag was
+     * enabled - restore a name index snapshot taken before enabling it instead.
+     */
+    public void setChildKeysEnabled( boolean childKeysEnabled )
+    {
+        this.childKeysEnabled = childKeysEnabled;
+    }
+
+    /**
+     * Walk subtrees of a query level in parallel when the number of matched children reaches forkThreshold.
+     *
+     * @param parallelism number of threads, 0 to walk all levels on the calling thread.
+     */
+    public void setParallelFind( int parallelism, int forkThreshold )
+    {
+        ForkJoinPool old = findPool;
+        this.findForkThreshold = forkThreshold;
+        this.findPool = parallelism > 0 ? new ForkJoinPool( parallelism ) : null;
+        if ( old != null )
+        {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Maintain an inverted index of leaf name segments and use it to find names for segment deletes ("**.a.b")
+     * instead of walking the whole name tree. Metrics created before the index was enabled are indexed in the
+     * background on {@link #open()}, the tree walk is used until that is done. Not used with a read-only name index.
+     */
+    public void setSegmentIndex( SegmentIndex segmentIndex )
+    {
+        this.segmentIndex = segmentIndex;
+    }
+
+    /**
+     * Apply created and deleted names to cached query results instead of waiting for them to expire. New names show
+     * up in cached results right away, which allows a much longer metrics.store.expireAfterWriteQueryCacheInSeconds.
+     */
+    public void setIncrementalQueryCache( boolean incrementalQueryCache )
+    {
+        this.queryCacheIndex = incrementalQueryCache ? new QueryCacheIndex( rootKey, queryPatternCache ) : null;
+        queryCache.invalidateAll();
+    }
+
+    private void onQueryCacheRemoval( RemovalNotification<String, QueryCacheIndex.Result> n )
+    {
+        QueryCacheIndex index = queryCacheIndex;
+        QueryCacheIndex.Result r = n.getValue();
+        if ( index != null && r != null && r.query != null && n.getCause() != RemovalCause.REPLACED )
+        {
+            index.unregister( r.query );
+        }
+    }
+
+    /**
+     * Adds the created leaf to cached results of queries that match it.
+     */
+    private void addToQueryCache( Metric m )
+    {
+        QueryCacheIndex index = queryCacheIndex;
+        if ( index == null || !isValidName( m.name ) )
+        {
+            return;
+        }
+        for ( QueryCacheIndex.Query q : index.matching( m.name ) )
+        {
+            synchronized ( q )
+            {
+                QueryCacheIndex.Result r = queryCache.getIfPresent( q.pattern );
+                long version = q.nextVersion();
+                if ( r != null && r.query == q && r.version == version - 1
+                    && ( r.tooMany || !enforceMaxSeriesPerRequest || r.metrics.size() < maxSeriesPerRequest ) )
+                {
+                    queryCache.put( q.pattern, r.add( m, version ) );
+                }
+                else
+                {
+                    // a result that is being loaded is reloaded on next use because its version is behind
+                    queryCache.invalidate( q.pattern );
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops cached results of queries that may match the deleted name or names below it.
+     */
+    private void removeFromQueryCache( String name )
+    {
+        QueryCacheIndex index = queryCacheIndex;
+        if ( index == null )
+        {
+            return;
+        }
+        for ( QueryCacheIndex.Query q : index.affected( name ) )
+        {
+            synchronized ( q )
+            {
+                q.nextVersion();
+                queryCache.invalidate( q.pattern );
+            }
+        }
+    }
+
+    /**
+     * Save names and queries of the caches to the file periodically and on {@link #close()}, and load them into the
+     * caches on {@link #open()}. Loading stops once the time budget is used up.
+     */
+    public void setHotSet( File hotSetFile, int warmUpThreads, int warmUpTimeBudgetInSeconds )
+    {
+        this.hotSetFile = hotSetFile;
+        this.warmUpThreads = Math.max( 1, warmUpThreads );
+        this.warmUpTimeBudgetMillis = TimeUnit.SECONDS.toMillis( warmUpTimeBudgetInSeconds );
+    }
+
+    /**
+     * Saves names and queries of the caches to the hot set file. Not done for a read-only name index because the file
+     * may be shared with the process that updates the index.
+     */
+    public void saveHotSet()
+    {
+        File file = hotSetFile;
+        if ( file == null || rocksdbReadonly )
+        {
+            return;
+        }
+        try
+        {
+            long start = System.currentTimeMillis();
+            List<String> names = metricCache.asMap().entrySet().stream()
+                .filter( e -> e.getValue() != METRIC_NULL )
+                .map( Map.Entry::getKey )
+                .collect( Collectors.toList() );
+            List<String> queries = new ArrayList<>( queryCache.asMap().keySet() );
+            HotSet.save( file, names, queries );
+            log.info( String.format( "Saved hot set with %s names and %s queries in %s ms", names.size(),
+                queries.size(), System.currentTimeMillis() - start ) );
+        }
+        catch ( Exception e )
+        {
+            log.error( "Failed to save hot set to " + file, e );
+        }
+    }
+
+    private void warmUp( File file )
+    {
+        HotSet hotSet;
+        try
+        {
+            hotSet = HotSet.load( file );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            log.warn( "Failed to load hot set from " + file, e );
+            return;
+        }
+        if ( hotSet.names.isEmpty() && hotSet.queries.isEmpty() )
+        {
+            return;
+        }
+        log.info( String.format( "Warming up caches with %s names and %s queries...", hotSet.names.size(),
+            hotSet.queries.size() ) );
+        long start = System.currentTimeMillis();
+        long deadline = start + warmUpTimeBudgetMillis;
+        AtomicInteger names = new AtomicInteger();
+        AtomicInteger queries = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool( warmUpThreads );
+        try
+        {
+            // names first, queries then find parents of matched names in the cache
+            int batchSize = 1000;
+            for ( int i = 0; i < hotSet.names.size(); i += batchSize )
+            {
+                List<String> batch = hotSet.names.subList( i, Math.min( i + batchSize, hotSet.names.size() ) );
+                pool.execute( () -> {
+                    for ( String name : batch )
+                    {
+                        if ( System.currentTimeMillis() > deadline )
+                        {
+                            return;
+                        }
+                        Metric m = getMetric( name );
+                        if ( m != null && m.isLeaf() && metricIdCache != null )
+                        {
+                            metricIdCache.put( m.id, m );
+                        }
+                        names.incrementAndGet();
+                    }
+                } );
+            }
+            for ( String query : hotSet.queries )
+            {
+                pool.execute( () -> {
+                    if ( System.currentTimeMillis() > deadline )
+                    {
+                        return;
+                    }
+                    try
+                    {
+                        findMetrics( query, true, true, true );
+                        queries.incrementAndGet();
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        log.debug( "Failed to warm up query " + query, e );
+                    }
+                } );
+            }
+            pool.shutdown();
+            if ( !pool.awaitTermination( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS ) )
+            {
+                log.warn( "Cache warm up did not finish within the time budget" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        log.info( String.format( "Warmed up caches with %s names and %s queries in %s ms", names.get(), queries.get(),
+            System.currentTimeMillis() - start ) );
+    }
+
     @Override
     public boolean isStrictMode()
     {
@@ -490,6 +786,26 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         long maxId = findMaxMetricId(); // should not be null because root node is inserted first if index is empty.
         log.info( "maxMetricId=" + maxId );
         setMaxId(maxId);
+        if ( nameTrieEnabled && !rocksdbReadonly )
+        {
+            loadNameTrie();
+        }
+        if ( segmentIndex != null )
+        {
+            if ( rocksdbReadonly )
+            {
+                segmentIndex = null;
+            }
+            else
+            {
+                openSegmentIndex( segmentIndex );
+            }
+        }
+        File file = hotSetFile;
+        if ( file != null )
+        {
+            warmUp( file );
+        }
         log.info("Long Id support: " +  longId );
         if(longId)
         {
@@ -497,6 +813,85 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         }
     }
 
+    private void loadNameTrie()
+    {
+        log.info( "Loading name trie..." );
+        long start = System.currentTimeMillis();
+        NameTrie trie = new NameTrie();
+        nameIndex.scan( null, null, r -> {
+            if ( !rootKey.equals( r.getKey() ) )
+            {
+                trie.add( r.getKey(), r.getId(), r.isLeaf() ? r.getRetentionPolicies() : null );
+            }
+        } );
+        this.nameTrie = trie;
+        log.info( String.format( "Loaded %s names into name trie in %s ms", trie.size(),
+            System.currentTimeMillis() - start ) );
+    }
+
+    private void openSegmentIndex( SegmentIndex index )
+    {
+        index.open();
+        if ( index.isBuilt() )
+        {
+            return;
+        }
+        Thread builder = new Thread( () -> {
+            log.info( "Building segment index..." );
+            long start = System.currentTimeMillis();
+            try
+            {
+                // names inserted meanwhile are added by insert(), names deleted meanwhile are skipped on lookup
+                long count = idIndex.scan( null, null, r -> {
+                    if ( segmentIndexBuilderStopped || Thread.currentThread().isInterrupted() )
+                    {
+                        throw new CancellationException();
+                    }
+                    if ( r.key() != rootId )
+                    {
+                        index.add( r.metricName(), r.key() );
+                    }
+                } );
+                index.markBuilt();
+                log.info( String.format( "Built segment index for %s metrics in %s ms", count,
+                    System.currentTimeMillis() - start ) );
+            }
+            catch ( CancellationException e )
+            {
+                log.info( "Segment index build stopped" );
+            }
+            catch ( Throwable t )
+            {
+                log.error( "Failed to build segment index", t );
+            }
+        }, "MetricIndex.SegmentIndexBuilder" );
+        builder.setDaemon( true );
+        segmentIndexBuilderStopped = false;
+        segmentIndexBuilder = builder;
+        builder.start();
+    }
+
+    private void stopSegmentIndexBuilder()
+    {
+        Thread builder = segmentIndexBuilder;
+        if ( builder == null )
+        {
+            return;
+        }
+        // the builder reads the id index and writes the segment index - both must stay open until it exits
+        segmentIndexBuilderStopped = true;
+        builder.interrupt();
+        try
+        {
+            builder.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        segmentIndexBuilder = null;
+    }
+
     @Override
     public void setMaxId(long maxId)
     {
@@ -504,16 +899,37 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         log.info( "nextMetricId=" + this.nextMetricId );
     }
 
+    @Override
+    public long getMaxId()
+    {
+        return nextMetricId.get() - 1;
+    }
+
     private long findMaxMetricId()
     {
         return idIndex.maxKey();
     }
 
+    @Override
+    public void checkpoint( File snapshotDir )
+    {
+        // name index first: names are written before ids, so every name in the name index snapshot has its id
+        // record in the later id index snapshot
+        nameIndex.checkpoint( snapshotDir );
+        idIndex.checkpoint( snapshotDir );
+    }
+
     @Override
     public void close()
     {
+        saveHotSet();
+        stopSegmentIndexBuilder();
         nameIndex.close();
         idIndex.close();
+        if ( segmentIndex != null )
+        {
+            segmentIndex.close();
+        }
         unregisterMetricIdGauge();
         metricCacheStatsReporter.close();
         if( metricIdCacheStatsReporter != null )
@@ -521,6 +937,10 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
             metricIdCacheStatsReporter.close();
         }
         queryCacheStatsReporter.close();
+        if ( findPool != null )
+        {
+            findPool.shutdown();
+        }
         if (syncSecondaryDb || rocksdbReadonly) {
             scheduledExecutorService.shutdownNow();
             executorService.shutdownNow();
@@ -578,6 +998,36 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         return  deleteResult.metrics;
     }
 
+    @Override
+    public List<Metric> deleteLeafAndEmptyParents( String name )
+    {
+        DeleteResult deleteResult = new DeleteResult();
+        // same lock as insert, a child can't be added to a parent between the check and the delete
+        synchronized ( namespaceLock( name ) )
+        {
+            Metric m = getMetric( name );
+            if ( m == null || !m.isLeaf() )
+            {
+                return Collections.emptyList();
+            }
+            Optional<String> parentName = nameUtils.parentName( name );
+            doDeleteMetric( deleteResult, parentName.orElse( rootKey ), name, false, false, false, Collections.emptySet() );
+            while ( parentName.isPresent() )
+            {
+                Metric parent = getMetric( parentName.get() );
+                if ( parent == null || !parent.children().isEmpty() )
+                {
+                    break;
+                }
+                Optional<String> grandParentName = nameUtils.parentName( parent.name );
+                doDeleteMetric( deleteResult, grandParentName.orElse( rootKey ), parent.name, true, false, false,
+                    Collections.emptySet() );
+                parentName = grandParentName;
+            }
+        }
+        return deleteResult.metrics;
+    }
+
     @Override
     public DeleteAPIResult deleteAPI(String name, boolean delete, Set<String> exclude) {
         List<String> metricNames = new ArrayList<>();
@@ -735,7 +1185,15 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         {
             try
             {
-                return queryCache.get(pattern);
+                QueryCacheIndex.Result r = queryCache.get(pattern);
+                QueryCacheIndex index = queryCacheIndex;
+                if ( index != null && !index.isCurrent( r ) )
+                {
+                    // loaded while a matching name was created or deleted
+                    queryCache.invalidate( pattern );
+                    r = queryCache.get( pattern );
+                }
+                return r.metrics;
             }
             catch(ExecutionException e)
             {
@@ -783,6 +1241,22 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
 
     private List<Metric> findMetrics( String parentKey, int queryPartIdx, QueryPart[] queryParts, boolean leafOnly, int max,
                                       boolean excludeInvalid ) throws ExecutionException {
+        return findMetrics( parentKey, queryPartIdx, queryParts, leafOnly, max, excludeInvalid, null );
+    }
+
+    /**
+     * @param matched number of metrics matched by all subtrees walked in parallel, null until the walk is split.
+     */
+    private List<Metric> findMetrics( String parentKey, int queryPartIdx, QueryPart[] queryParts, boolean leafOnly, int max,
+                                      boolean excludeInvalid, AtomicInteger matched ) throws ExecutionException {
+        NameTrie trie = nameTrie;
+        if ( trie != null && queryPartIdx == 0 && rootKey.equals( parentKey ) )
+        {
+            return trie.find( queryParts, leafOnly, max, queryPatternCache ).stream()
+                .filter( e -> !excludeInvalid || isValidName( e.name ) )
+                .map( this::toMetric )
+                .collect( Collectors.toList() );
+        }
         Metric parent = getMetric( parentKey );
         if ( parent == null )
         {
@@ -802,7 +1276,13 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
                 // result.
                 .filter( m -> strictMode || m != null)
                 .filter( m -> !leafOnly || m != null && m.isLeaf())
-                .collect( Collectors.toList() );
+                .collect( Collectors.toCollection( () -> countMatched( matched, max ) ) );
+        }
+        ForkJoinPool pool = findPool;
+        if ( pool != null && matches.size() >= findForkThreshold )
+        {
+            return findMetricsParallel( pool, parentKey, matches, queryPartIdx, queryParts, leafOnly, max,
+                excludeInvalid, matched != null ? matched : new AtomicInteger() );
         }
         else
         {
@@ -812,7 +1292,7 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
                 String childKey = toMetricName( parentKey, childName );
                 try
                 {
-                    matchedMetrics.addAll( findMetrics( childKey, queryPartIdx + 1, queryParts, leafOnly, max, excludeInvalid ) );
+                    matchedMetrics.addAll( findMetrics( childKey, queryPartIdx + 1, queryParts, leafOnly, max, excludeInvalid, matched ) );
                 }
                 catch( TooManyMetricsFoundException e)
                 {
@@ -840,6 +1320,97 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
 
     }
 
+    /**
+     * Result list that fails as soon as subtrees walked in parallel matched more than max metrics in total.
+     */
+    private static List<Metric> countMatched( AtomicInteger matched, int max )
+    {
+        if ( matched == null )
+        {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>()
+        {
+            @Override
+            public boolean add( Metric m )
+            {
+                if ( matched.incrementAndGet() > max )
+                {
+                    throw new TooManyMetricsFoundException( max );
+                }
+                return super.add( m );
+            }
+        };
+    }
+
+    /**
+     * Walks subtrees of matched children as fork-join tasks. Results are joined in the order of children, same as
+     * the sequential walk.
+     */
+    private List<Metric> findMetricsParallel( ForkJoinPool pool, String parentKey, List<String> matches,
+                                              int queryPartIdx, QueryPart[] queryParts, boolean leafOnly, int max,
+                                              boolean excludeInvalid, AtomicInteger matched )
+    {
+        DatabaseMetrics.parallelFindMetrics.mark();
+        List<RecursiveTask<List<Metric>>> tasks = new ArrayList<>( matches.size() );
+        for ( String childName : matches )
+        {
+            String childKey = toMetricName( parentKey, childName );
+            tasks.add( new RecursiveTask<>()
+            {
+                @Override
+                protected List<Metric> compute()
+                {
+                    try
+                    {
+                        return findMetrics( childKey, queryPartIdx + 1, queryParts, leafOnly, max, excludeInvalid,
+                            matched );
+                    }
+                    catch ( TooManyMetricsFoundException e )
+                    {
+                        throw e;
+                    }
+                    catch ( Throwable t )
+                    {
+                        if ( strictMode )
+                        {
+                            Throwables.throwIfUnchecked( t );
+                        }
+                        else
+                        {
+                            log.error( String.format( "Failed to find metrics for [%s], [%s], [%s], [%s]", childKey,
+                                queryPartIdx + 1, Arrays.toString( queryParts ), leafOnly ), t );
+                        }
+                        return Collections.emptyList();
+                    }
+                }
+            } );
+        }
+
+        if ( ForkJoinTask.getPool() == pool )
+        {
+            ForkJoinTask.invokeAll( tasks );
+        }
+        else
+        {
+            pool.invoke( new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    invokeAll( tasks );
+                }
+            } );
+        }
+
+        List<Metric> matchedMetrics = new ArrayList<>();
+        for ( RecursiveTask<List<Metric>> task : tasks )
+        {
+            matchedMetrics.addAll( task.join() );
+        }
+        return matchedMetrics;
+    }
+
     private List<String> findMetricWithSegment(String parentKey, int queryPartIdx, QueryPart[] queryParts)
     {
         Metric parent = getMetric( parentKey );
@@ -873,9 +1444,52 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
 
     private List<String> findAllMetricsWithSegment( String parentKey, int queryPartIdx, QueryPart[] queryParts )
     {
+        SegmentIndex index = segmentIndex;
+        if ( index != null && index.isBuilt() && rootKey.equals( parentKey ) && queryPartIdx == 0 )
+        {
+            return findMetricWithSegment( index, queryParts );
+        }
         return new ArrayList<>(findMetricWithSegment(parentKey, queryPartIdx, queryParts));
     }
 
+    /**
+     * Same as the tree walk: names that end with the segments where no ancestor ends with them, found by
+     * intersecting posting lists of the segments at every position.
+     */
+    private List<String> findMetricWithSegment( SegmentIndex index, QueryPart[] queryParts )
+    {
+        List<String> segments = Arrays.stream( queryParts ).map( QueryPart::getQuery ).toList();
+        Set<String> matched = new TreeSet<>();
+        for ( int pos = 0; pos + segments.size() <= SegmentIndex.MAX_POSITIONS
+            && index.hasPosition( pos + segments.size() - 1 ); pos++ )
+        {
+            int depth = pos + segments.size();
+            index.find( pos, segments, id -> {
+                IdRecord r = idIndex.dbGet( id );
+                if ( r == null )
+                {
+                    return;
+                }
+                String[] names = nameUtils.metricNameHierarchy( r.metricName() );
+                if ( names.length >= depth )
+                {
+                    matched.add( names[depth - 1] );
+                }
+            } );
+        }
+        // names below a matched name are deleted with it
+        List<String> result = new ArrayList<>();
+        for ( String name : matched )
+        {
+            String[] ancestors = nameUtils.metricNameHierarchy( name );
+            if ( Arrays.stream( ancestors, 0, ancestors.length - 1 ).noneMatch( matched::contains ) )
+            {
+                result.add( name );
+            }
+        }
+        return result;
+    }
+
     private String toMetricName( String parent, String child )
     {
         return nameUtils.toMetricName( parent, child );
@@ -951,11 +1565,110 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         return m;
     }
 
+    /**
+     * Names of the namespace are created under its lock with one write batch per index store. The top level name is
+     * created without a batch - the root record is shared by all namespaces and is written under its own lock.
+     */
+    @Override
+    public List<Metric> createLeafMetrics( List<String> names )
+    {
+        List<Metric> metrics = new ArrayList<>( names.size() );
+        if ( names.isEmpty() )
+        {
+            return metrics;
+        }
+        String namespace = nameUtils.firstSegment( names.get( 0 ) );
+        synchronized ( namespaceLock( names.get( 0 ) ) )
+        {
+            boolean batched = false;
+            try
+            {
+                for ( String name : names )
+                {
+                    Preconditions.checkArgument( namespace.equals( nameUtils.firstSegment( name ) ),
+                        "Name [%s] is not in namespace [%s]", name, namespace );
+                    if ( !batched && getMetric( namespace ) != null )
+                    {
+                        nameIndex.beginBatch();
+                        idIndex.beginBatch();
+                        batched = true;
+                    }
+                    metrics.add( createLeafMetricQuietly( name ) );
+                }
+            }
+            finally
+            {
+                if ( batched )
+                {
+                    // name records first, same as single inserts
+                    try
+                    {
+                        nameIndex.commitBatch();
+                    }
+                    finally
+                    {
+                        idIndex.commitBatch();
+                        invalidateAncestors( names );
+                    }
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Other threads may have cached parent records from before the batch was committed.
+     */
+    private void invalidateAncestors( List<String> names )
+    {
+        Set<String> parents = new HashSet<>();
+        for ( String name : names )
+        {
+            Optional<String> parent = nameUtils.parentName( name );
+            while ( parent.isPresent() && parents.add( parent.get() ) )
+            {
+                parent = nameUtils.parentName( parent.get() );
+            }
+        }
+        metricCache.invalidateAll( parents );
+    }
+
+    private Metric createLeafMetricQuietly( String name )
+    {
+        try
+        {
+            return createLeafMetric( name );
+        }
+        catch ( RuntimeException e )
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Failed to create metric " + name, e );
+            }
+            return null;
+        }
+    }
+
     private Object namespaceLock( String name )
     {
         return StringsCache.get( nameUtils.firstSegment( name ) );
     }
 
+    /**
+     * @return name record with children stored as separate keys.
+     */
+    private NameRecord loadNameRecord( String key )
+    {
+        NameRecord e = nameIndex.dbGet( key );
+        if ( e != null && e.hasChildKeys() )
+        {
+            List<String> children = new ArrayList<>( e.getChildren() );
+            children.addAll( nameIndex.dbGetChildren( key ) );
+            e.setChildren( children );
+        }
+        return e;
+    }
+
     private Metric toMetric( NameRecord r )
     {
         String key = r.getKey();
@@ -963,6 +1676,17 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
             r.getRetentionPolicies(), r.getChildren() );
     }
 
+    private Metric toMetric( NameTrie.Entry e )
+    {
+        Metric m = metricCache.getIfPresent( e.name );
+        if ( m != null && m != METRIC_NULL )
+        {
+            return m;
+        }
+        return new Metric( e.name, e.id, aggrPolicySource.policyForMetricName( e.name ),
+            e.retentionPolicies, e.children );
+    }
+
     private long nextMetricId()
     {
         // Need this int value conversion when longId = false. Without this cache and store values
@@ -1018,7 +1742,20 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
                 }
             }
 
-            return updateCache( leafEntry );
+            NameTrie trie = nameTrie;
+            if ( trie != null )
+            {
+                trie.add( key, leafEntry.getId(), leafEntry.getRetentionPolicies() );
+            }
+            SegmentIndex segments = segmentIndex;
+            if ( segments != null )
+            {
+                segments.add( key, leafEntry.getId() );
+            }
+            Metric m = updateCache( leafEntry );
+            addToQueryCache( m );
+            namespaceCounter.countNewMetric( key );
+            return m;
         }
         finally
         {
@@ -1046,6 +1783,10 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         try
         {
             nameIndex.dbDelete( dbKey );
+            if ( childKeysEnabled )
+            {
+                nameIndex.dbDeleteChildren( dbKey );
+            }
             metricCache.invalidate( dbKey );
         }
         catch ( Exception e )
@@ -1104,6 +1845,10 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
 
     private boolean updateNonLeaf( NameRecord e, String childKey )
     {
+        if ( childKeysEnabled || e.hasChildKeys() )
+        {
+            return addChildKey( e, childKey );
+        }
         if ( e.addChildKeyIfMissing( childKey ) )
         {
             if ( rootKey.equals( e.getKey() ) )
@@ -1124,6 +1869,54 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         }
     }
 
+    /**
+     * Adds the child as a separate key. The parent record is not read or written unless it still has the list of
+     * children that needs to be converted.
+     *
+     * @return true - the child key is written even if it exists already, the put is idempotent.
+     */
+    private boolean addChildKey( NameRecord e, String childKey )
+    {
+        String key = e.getKey();
+        // same check as for the list of children, before anything is converted
+        String child = e.childName( childKey );
+        if ( !e.hasChildKeys() )
+        {
+            if ( rootKey.equals( key ) )
+            {
+                synchronized ( rootKey )
+                {
+                    convertToChildKeys( nameIndex.dbGet( rootKey ) );
+                }
+            }
+            else
+            {
+                // already synchronized on the whole namespace
+                convertToChildKeys( e );
+            }
+        }
+        nameIndex.dbPutChild( key, child );
+        metricCache.invalidate( key );
+        return true;
+    }
+
+    private void convertToChildKeys( NameRecord e )
+    {
+        if ( e.hasChildKeys() )
+        {
+            return;
+        }
+        // children first, readers see either the old record or all children
+        for ( String child : e.getChildren() )
+        {
+            nameIndex.dbPutChild( e.getKey(), child );
+        }
+        e.setChildKeys( true );
+        nameIndex.dbPut( e );
+        log.info( String.format( "Converted name index record [%s] with %s children to child keys", e.getKey(),
+            e.getChildren().size() ) );
+    }
+
     private boolean updateRootEntry( String childKey )
     {
         synchronized ( rootKey )
@@ -1144,6 +1937,14 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
 
     private void deleteMetric( String name ) {
         Metric m = getMetric( name );
+        if ( !m.isLeaf() )
+        {
+            NameRecord e = nameIndex.dbGet( name );
+            if ( e != null && e.hasChildKeys() )
+            {
+                nameIndex.dbDeleteChildren( name );
+            }
+        }
         nameIndex.dbDelete( name );
         if ( m.id > 0 )
         {
@@ -1154,6 +1955,17 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
         {
             metricIdCache.invalidate(m.id);
         }
+        NameTrie trie = nameTrie;
+        if ( trie != null )
+        {
+            trie.remove( m.name );
+        }
+        SegmentIndex segments = segmentIndex;
+        if ( segments != null && m.isLeaf() && m.id > 0 )
+        {
+            segments.remove( m.name, m.id );
+        }
+        removeFromQueryCache( m.name );
         DatabaseMetrics.deletedMetrics.mark();
     }
 
@@ -1181,6 +1993,13 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
             }
         }
 
+        if ( e.hasChildKeys() )
+        {
+            nameIndex.dbDeleteChild( parentKey, e.childName( childKey ) );
+            metricCache.invalidate( parentKey );
+            return true;
+        }
+
         if ( e.removeChildKeyIfExists( childKey ) )
         {
             // save because list of children was updated.
@@ -1198,6 +2017,11 @@ public class MetricIndexImpl implements MetricIndex, ApplicationListener<NameInd
     {
         NameRecord e = new NameRecord( key, 0, false );
         e.addChildKeyIfMissing( childKey );
+        if ( childKeysEnabled )
+        {
+            e.setChildKeys( true );
+            nameIndex.dbPutChild( key, e.childName( childKey ) );
+        }
         nameIndex.dbPut( e );
         updateCache( e );
         return e;
@@ -31,6 +31,9 @@ class NameRecord
 
     private boolean isLeaf;
 
+    // children of non-leaf node are stored as separate keys of the name index, see IndexStore.dbPutChild()
+    private boolean childKeys;
+
     private static String ROOT_KEY = InternalConfig.getRootEntryKey();
 
     @Override
@@ -59,6 +62,16 @@ class NameRecord
         return isLeaf;
     }
 
+    public boolean hasChildKeys()
+    {
+        return childKeys;
+    }
+
+    public void setChildKeys( boolean childKeys )
+    {
+        this.childKeys = childKeys;
+    }
+
     public List<RetentionPolicy> getRetentionPolicies()
     {
         return retentionPolicies;
@@ -76,15 +89,7 @@ class NameRecord
 
     public boolean removeChildKeyIfExists(String childKey)
     {
-        boolean isRootKey = ROOT_KEY.equals( key );
-
-        if( !isRootKey )
-        {
-            Preconditions.checkState( childKey.startsWith( key ),
-                "Child key should share prefix with parent. parent [%s], child: [%s]", key, childKey );
-        }
-        String suffix = isRootKey ? childKey : childKeySuffix( childKey );
-        Preconditions.checkState(suffix.indexOf( '.' ) < 0, "Invalid child key - has more than one level. parent [%s], child: [%s]", key, childKey);
+        String suffix = childName( childKey );
 
         if( children == null )
         {
@@ -96,15 +101,7 @@ class NameRecord
 
     public boolean addChildKeyIfMissing(String childKey)
     {
-        boolean isRootKey = ROOT_KEY.equals( key );
-
-        if( !isRootKey )
-        {
-            Preconditions.checkState( childKey.startsWith( key ),
-                            "Child key should share prefix with parent. parent [%s], child: [%s]", key, childKey );
-        }
-        String suffix = isRootKey ? childKey : childKeySuffix( childKey );
-        Preconditions.checkState(suffix.indexOf( '.' ) < 0, "Invalid child key - has more than one level. parent [%s], child: [%s]", key, childKey);
+        String suffix = childName( childKey );
 
         if( children == null )
         {
@@ -123,6 +120,23 @@ class NameRecord
         }
     }
 
+    /**
+     * @return name of the child relative to this record. Fails if the child key is not a direct child of this record.
+     */
+    public String childName(String childKey)
+    {
+        boolean isRootKey = ROOT_KEY.equals( key );
+
+        if( !isRootKey )
+        {
+            Preconditions.checkState( childKey.startsWith( key ),
+                            "Child key should share prefix with parent. parent [%s], child: [%s]", key, childKey );
+        }
+        String suffix = isRootKey ? childKey : childKeySuffix( childKey );
+        Preconditions.checkState(suffix.indexOf( '.' ) < 0, "Invalid child key - has more than one level. parent [%s], child: [%s]", key, childKey);
+        return suffix;
+    }
+
     private String childKeySuffix(String childKey)
     {
         return key.length() == 0 ? childKey : childKey.substring( key.length() + 1 );
@@ -13,6 +13,7 @@ import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -20,6 +21,12 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 class NameRecordSerializer
                 implements RecordSerializer<String, NameRecord>
 {
+    private static final byte NON_LEAF = 0;
+
+    private static final byte LEAF = 1;
+
+    private static final byte NON_LEAF_CHILD_KEYS = 2;
+
     private boolean longId;
 
     public NameRecordSerializer(boolean longId)
@@ -34,7 +41,9 @@ class NameRecordSerializer
 
     // Format
     // ----------------------------------
-    // type:byte 0 - non-leaf, 1 - leaf
+    // type:byte 0 - non-leaf, 1 - leaf, 2 - non-leaf with children stored as separate keys
+    //   Type 2 is only written once metrics.store.childKeys.enabled was turned on and stays after it is turned off.
+    //   Versions before type 2 read such records as non-leaf names without children - no rollback past them.
     // id:int
     // Leaf:
     //   xFactor:double
@@ -83,7 +92,8 @@ class NameRecordSerializer
         ByteArrayDataInput in = ByteStreams.newDataInput( valueBytes );
         int id = in.readInt();
         byte entryType = in.readByte();
-        NameRecord e = new NameRecord( key, id, entryType == 1 );
+        NameRecord e = new NameRecord( key, id, entryType == LEAF );
+        e.setChildKeys( entryType == NON_LEAF_CHILD_KEYS );
         if( e.isLeaf() )
         {
             double xFactor = in.readDouble(); // no longer used
@@ -117,7 +127,8 @@ class NameRecordSerializer
         ByteArrayDataInput in = ByteStreams.newDataInput( valueBytes );
         byte entryType = in.readByte(); // byte for versioning
         long id = in.readLong();
-        NameRecord e = new NameRecord( key, id, entryType == 1 );
+        NameRecord e = new NameRecord( key, id, entryType == LEAF );
+        e.setChildKeys( entryType == NON_LEAF_CHILD_KEYS );
         if( e.isLeaf() )
         {
             double xFactor = in.readDouble(); // no longer used
@@ -152,7 +163,7 @@ class NameRecordSerializer
         out.writeInt( (int)e.getId() );
         if( e.isLeaf())
         {
-            out.writeByte( 1 ); // leaf node type
+            out.writeByte( LEAF ); // leaf node type
             out.writeDouble( 0.0 ); // xFactor is not used and is always 0
             out.writeByte( 0 ); // aggregationPolicy is derived dynamically based on metric name and configuration file
             List<RetentionPolicy> archives = e.getRetentionPolicies();
@@ -162,10 +173,11 @@ class NameRecordSerializer
         }
         else
         {
-            out.writeByte( 0 ); // non-leaf node type
-            int n = e.getChildren().size();
-            out.writeInt( n );
-            e.getChildren().forEach( out::writeUTF );
+            out.writeByte( e.hasChildKeys() ? NON_LEAF_CHILD_KEYS : NON_LEAF ); // non-leaf node type
+            // children stored as separate keys are not part of the record
+            List<String> children = e.hasChildKeys() ? Collections.emptyList() : e.getChildren();
+            out.writeInt( children.size() );
+            children.forEach( out::writeUTF );
         }
 
         return out.toByteArray();
@@ -176,7 +188,7 @@ class NameRecordSerializer
         ByteArrayDataOutput out = ByteStreams.newDataOutput();
         if( e.isLeaf())
         {
-            out.writeByte( 1 ); // leaf node type
+            out.writeByte( LEAF ); // leaf node type
             out.writeLong( e.getId() );
             out.writeDouble( 0.0 ); // xFactor is not used and is always 0
             out.writeByte( 0 ); // aggregationPolicy is derived dynamically based on metric name and configuration file
@@ -187,11 +199,12 @@ class NameRecordSerializer
         }
         else
         {
-            out.writeByte( 0 ); // non-leaf node type
+            out.writeByte( e.hasChildKeys() ? NON_LEAF_CHILD_KEYS : NON_LEAF ); // non-leaf node type
             out.writeLong( e.getId() );
-            int n = e.getChildren().size();
-            out.writeInt( n );
-            e.getChildren().forEach( out::writeUTF );
+            // children stored as separate keys are not part of the record
+            List<String> children = e.hasChildKeys() ? Collections.emptyList() : e.getChildren();
+            out.writeInt( children.size() );
+            children.forEach( out::writeUTF );
         }
 
         return out.toByteArray();
@@ -0,0 +1,407 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.model.TooManyMetricsFoundException;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * In-memory copy of the name index tree used to resolve name patterns without reading the name index.
+ * <p>
+ * Nodes are identified by int ids and stored in parallel arrays. Name segments are kept once in a shared dictionary
+ * and nodes refer to them by id. Children of a node are an array of node ids sorted by segment so that literal query
+ * parts are resolved with a binary search. Retention policies of leaf nodes are shared the same way.
+ * <p>
+ * Segments and retention policies are not removed from the dictionaries when names are deleted, they are reclaimed
+ * on the next start.
+ */
+class NameTrie
+{
+    static final int ROOT = 0;
+
+    private static final int NO_POLICY = -1;
+
+    private static final int[] NO_CHILDREN = new int[0];
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> segmentIds = new HashMap<>();
+
+    private String[] segments = new String[1024];
+
+    private int segmentCount;
+
+    private final Map<List<RetentionPolicy>, Integer> policyIds = new HashMap<>();
+
+    private final List<List<RetentionPolicy>> policies = new ArrayList<>();
+
+    private int[] nodeSegment = new int[1024];
+
+    private long[] nodeMetricId = new long[1024];
+
+    // index of retention policies for leaf nodes, NO_POLICY for non-leaf nodes
+    private int[] nodePolicy = new int[1024];
+
+    private int[][] nodeChildren = new int[1024][];
+
+    private int[] nodeChildCount = new int[1024];
+
+    private int nodeCount;
+
+    private int[] freeNodes = new int[16];
+
+    private int freeCount;
+
+    NameTrie()
+    {
+        int root = newNode( -1 );
+        assert root == ROOT;
+    }
+
+    /**
+     * Matched name with the attributes needed to create {@link com.demandware.carbonj.service.db.model.Metric}.
+     */
+    static class Entry
+    {
+        final String name;
+
+        final long id;
+
+        // null for non-leaf names
+        final List<RetentionPolicy> retentionPolicies;
+
+        final List<String> children;
+
+        Entry( String name, long id, List<RetentionPolicy> retentionPolicies, List<String> children )
+        {
+            this.name = name;
+            this.id = id;
+            this.retentionPolicies = retentionPolicies;
+            this.children = children;
+        }
+
+        boolean isLeaf()
+        {
+            return retentionPolicies != null;
+        }
+    }
+
+    /**
+     * @return number of names in the trie.
+     */
+    int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return nodeCount - freeCount - 1;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the name or updates its attributes. Missing parent names are added as non-leaf names.
+     *
+     * @param retentionPolicies null or empty for non-leaf names.
+     */
+    void add( String name, long id, List<RetentionPolicy> retentionPolicies )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            int node = ROOT;
+            int start = 0;
+            while ( start <= name.length() )
+            {
+                int end = name.indexOf( '.', start );
+                if ( end < 0 )
+                {
+                    end = name.length();
+                }
+                node = getOrAddChild( node, name.substring( start, end ) );
+                start = end + 1;
+            }
+            nodeMetricId[node] = id;
+            // same as Metric.isLeaf()
+            boolean leaf = retentionPolicies != null && !retentionPolicies.isEmpty();
+            nodePolicy[node] = leaf ? policyId( retentionPolicies ) : NO_POLICY;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the name along with all names below it.
+     *
+     * @return false if the name was not found.
+     */
+    boolean remove( String name )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            int parent = ROOT;
+            int node = ROOT;
+            int idx = -1;
+            int start = 0;
+            while ( start <= name.length() )
+            {
+                int end = name.indexOf( '.', start );
+                if ( end < 0 )
+                {
+                    end = name.length();
+                }
+                parent = node;
+                idx = childIndex( parent, name.substring( start, end ) );
+                if ( idx < 0 )
+                {
+                    return false;
+                }
+                node = nodeChildren[parent][idx];
+                start = end + 1;
+            }
+
+            int[] children = nodeChildren[parent];
+            int n = nodeChildCount[parent];
+            System.arraycopy( children, idx + 1, children, idx, n - idx - 1 );
+            nodeChildCount[parent] = n - 1;
+            freeNode( node );
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Resolves query parts split with {@link QueryUtils#splitQuery(String)}.
+     *
+     * @param max maximum number of matched names.
+     * @throws TooManyMetricsFoundException if number of matched names exceeds max.
+     */
+    List<Entry> find( QueryPart[] queryParts, boolean leafOnly, int max, LoadingCache<String, Pattern> queryPatternCache )
+        throws ExecutionException
+    {
+        lock.readLock().lock();
+        try
+        {
+            List<Entry> matched = new ArrayList<>();
+            find( ROOT, null, 0, queryParts, leafOnly, max, queryPatternCache, matched );
+            return matched;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void find( int parent, String parentName, int queryPartIdx, QueryPart[] queryParts, boolean leafOnly,
+                       int max, LoadingCache<String, Pattern> queryPatternCache, List<Entry> matched )
+        throws ExecutionException
+    {
+        QueryPart queryPart = queryParts[queryPartIdx];
+        boolean isLastQuerySegment = queryPartIdx + 1 >= queryParts.length;
+        if ( !queryPart.isRegEx() )
+        {
+            int idx = childIndex( parent, queryPart.getQuery() );
+            if ( idx >= 0 )
+            {
+                visit( nodeChildren[parent][idx], parentName, queryPartIdx, queryParts, leafOnly, max,
+                    queryPatternCache, matched, isLastQuerySegment );
+            }
+            return;
+        }
+
+        int[] children = nodeChildren[parent];
+        for ( int i = 0, n = nodeChildCount[parent]; i < n; i++ )
+        {
+            int child = children[i];
+            if ( QueryUtils.match( segments[nodeSegment[child]], queryPart, queryPatternCache ) )
+            {
+                visit( child, parentName, queryPartIdx, queryParts, leafOnly, max, queryPatternCache, matched,
+                    isLastQuerySegment );
+            }
+        }
+    }
+
+    private void visit( int node, String parentName, int queryPartIdx, QueryPart[] queryParts, boolean leafOnly,
+                        int max, LoadingCache<String, Pattern> queryPatternCache, List<Entry> matched,
+                        boolean isLastQuerySegment )
+        throws ExecutionException
+    {
+        String segment = segments[nodeSegment[node]];
+        String name = parentName == null ? segment : parentName + "." + segment;
+        if ( !isLastQuerySegment )
+        {
+            find( node, name, queryPartIdx + 1, queryParts, leafOnly, max, queryPatternCache, matched );
+            return;
+        }
+        boolean leaf = nodePolicy[node] != NO_POLICY;
+        if ( leafOnly && !leaf )
+        {
+            return;
+        }
+        matched.add( new Entry( name, nodeMetricId[node], leaf ? policies.get( nodePolicy[node] ) : null,
+            childNames( node ) ) );
+        if ( matched.size() > max )
+        {
+            throw new TooManyMetricsFoundException( max );
+        }
+    }
+
+    private List<String> childNames( int node )
+    {
+        int n = nodeChildCount[node];
+        if ( n == 0 )
+        {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>( n );
+        int[] children = nodeChildren[node];
+        for ( int i = 0; i < n; i++ )
+        {
+            names.add( segments[nodeSegment[children[i]]] );
+        }
+        return names;
+    }
+
+    /**
+     * @return index of the child with the segment in the children array or (-(insertion point) - 1) if not found.
+     */
+    private int childIndex( int parent, String segment )
+    {
+        int[] children = nodeChildren[parent];
+        int low = 0;
+        int high = nodeChildCount[parent] - 1;
+        while ( low <= high )
+        {
+            int mid = ( low + high ) >>> 1;
+            int cmp = segments[nodeSegment[children[mid]]].compareTo( segment );
+            if ( cmp < 0 )
+            {
+                low = mid + 1;
+            }
+            else if ( cmp > 0 )
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -( low + 1 );
+    }
+
+    private int getOrAddChild( int parent, String segment )
+    {
+        int idx = childIndex( parent, segment );
+        if ( idx >= 0 )
+        {
+            return nodeChildren[parent][idx];
+        }
+        int insertAt = -idx - 1;
+        int child = newNode( segmentId( segment ) );
+
+        int[] children = nodeChildren[parent];
+        int n = nodeChildCount[parent];
+        if ( n == children.length )
+        {
+            children = Arrays.copyOf( children, Math.max( 2, n + ( n >> 1 ) ) );
+            nodeChildren[parent] = children;
+        }
+        System.arraycopy( children, insertAt, children, insertAt + 1, n - insertAt );
+        children[insertAt] = child;
+        nodeChildCount[parent] = n + 1;
+        return child;
+    }
+
+    private int segmentId( String segment )
+    {
+        Integer id = segmentIds.get( segment );
+        if ( id != null )
+        {
+            return id;
+        }
+        if ( segmentCount == segments.length )
+        {
+            segments = Arrays.copyOf( segments, segmentCount * 2 );
+        }
+        segments[segmentCount] = segment;
+        segmentIds.put( segment, segmentCount );
+        return segmentCount++;
+    }
+
+    private int policyId( List<RetentionPolicy> retentionPolicies )
+    {
+        return policyIds.computeIfAbsent( retentionPolicies, p -> {
+            policies.add( p );
+            return policies.size() - 1;
+        } );
+    }
+
+    private int newNode( int segment )
+    {
+        int node;
+        if ( freeCount > 0 )
+        {
+            node = freeNodes[--freeCount];
+        }
+        else
+        {
+            if ( nodeCount == nodeSegment.length )
+            {
+                int capacity = nodeCount + ( nodeCount >> 1 );
+                nodeSegment = Arrays.copyOf( nodeSegment, capacity );
+                nodeMetricId = Arrays.copyOf( nodeMetricId, capacity );
+                nodePolicy = Arrays.copyOf( nodePolicy, capacity );
+                nodeChildren = Arrays.copyOf( nodeChildren, capacity );
+                nodeChildCount = Arrays.copyOf( nodeChildCount, capacity );
+            }
+            node = nodeCount++;
+        }
+        nodeSegment[node] = segment;
+        nodeMetricId[node] = 0;
+        nodePolicy[node] = NO_POLICY;
+        nodeChildren[node] = NO_CHILDREN;
+        nodeChildCount[node] = 0;
+        return node;
+    }
+
+    private void freeNode( int node )
+    {
+        int[] children = nodeChildren[node];
+        for ( int i = 0, n = nodeChildCount[node]; i < n; i++ )
+        {
+            freeNode( children[i] );
+        }
+        nodeChildren[node] = null;
+        nodeChildCount[node] = 0;
+        if ( freeCount == freeNodes.length )
+        {
+            freeNodes = Arrays.copyOf( freeNodes, freeCount * 2 );
+        }
+        freeNodes[freeCount++] = node;
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import com.demandware.carbonj.service.db.model.Metric;
+import com.google.common.base.Throwables;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Queries with cached results by the name they start at: the name their leading literal segments resolve to, or the
+ * root for queries that start with a pattern. Used to find cached results affected by a created or deleted name
+ * without checking every cached query.
+ */
+class QueryCacheIndex
+{
+    /**
+     * Registered query. The version changes on every created or deleted name the query may match.
+     */
+    static final class Query
+    {
+        final String pattern;
+
+        final QueryPart[] parts;
+
+        final String node;
+
+        private volatile long version;
+
+        private Query( String pattern, QueryPart[] parts, String node )
+        {
+            this.pattern = pattern;
+            this.parts = parts;
+            this.node = node;
+        }
+
+        long version()
+        {
+            return version;
+        }
+
+        synchronized long nextVersion()
+        {
+            return ++version;
+        }
+    }
+
+    /**
+     * Cached query result with the version of the query it reflects.
+     */
+    static final class Result
+    {
+        final Query query;
+
+        final long version;
+
+        final List<Metric> metrics;
+
+        // query matched too many names, cached as an empty result
+        final boolean tooMany;
+
+        Result( Query query, long version, List<Metric> metrics, boolean tooMany )
+        {
+            this.query = query;
+            this.version = version;
+            this.metrics = metrics;
+            this.tooMany = tooMany;
+        }
+
+        /**
+         * @return copy of the result with the metric added, the same metrics if it already has the metric.
+         */
+        Result add( Metric m, long newVersion )
+        {
+            if ( tooMany )
+            {
+                return new Result( query, newVersion, metrics, true );
+            }
+            List<Metric> copy = new ArrayList<>( metrics.size() + 1 );
+            for ( Metric e : metrics )
+            {
+                if ( e.name.equals( m.name ) )
+                {
+                    return new Result( query, newVersion, metrics, false );
+                }
+                copy.add( e );
+            }
+            copy.add( m );
+            return new Result( query, newVersion, copy, false );
+        }
+    }
+
+    private final String rootKey;
+
+    private final LoadingCache<String, Pattern> queryPatternCache;
+
+    private final Map<String, Query> queries = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<String, Set<Query>> byNode = new ConcurrentSkipListMap<>();
+
+    QueryCacheIndex( String rootKey, LoadingCache<String, Pattern> queryPatternCache )
+    {
+        this.rootKey = rootKey;
+        this.queryPatternCache = queryPatternCache;
+    }
+
+    Query register( String pattern )
+    {
+        return queries.computeIfAbsent( pattern, p -> {
+            QueryPart[] parts = QueryUtils.splitQuery( p );
+            Query q = new Query( p, parts, node( parts ) );
+            synchronized ( byNode )
+            {
+                byNode.computeIfAbsent( q.node, n -> ConcurrentHashMap.newKeySet() ).add( q );
+            }
+            return q;
+        } );
+    }
+
+    void unregister( Query q )
+    {
+        if ( queries.remove( q.pattern, q ) )
+        {
+            synchronized ( byNode )
+            {
+                Set<Query> s = byNode.get( q.node );
+                if ( s != null && s.remove( q ) && s.isEmpty() )
+                {
+                    byNode.remove( q.node );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the query of the result is registered and no name it may match changed since it was loaded.
+     */
+    boolean isCurrent( Result r )
+    {
+        return r.query != null && queries.get( r.query.pattern ) == r.query && r.version == r.query.version();
+    }
+
+    int size()
+    {
+        return queries.size();
+    }
+
+    /**
+     * @return queries that match the leaf name.
+     */
+    List<Query> matching( String name )
+    {
+        String[] segments = name.split( "\\." );
+        List<Query> result = new ArrayList<>();
+        collect( rootKey, segments, segments.length, true, result );
+        String node = null;
+        for ( String segment : segments )
+        {
+            node = node == null ? segment : node + "." + segment;
+            collect( node, segments, segments.length, true, result );
+        }
+        return result;
+    }
+
+    /**
+     * @return queries that may match the name or names below it.
+     */
+    List<Query> affected( String name )
+    {
+        String[] segments = name.split( "\\." );
+        List<Query> result = new ArrayList<>();
+        collect( rootKey, segments, segments.length, false, result );
+        String node = null;
+        for ( int i = 0; i < segments.length - 1; i++ )
+        {
+            node = node == null ? segments[i] : node + "." + segments[i];
+            collect( node, segments, segments.length, false, result );
+        }
+        // queries that start at the name or below it
+        Set<Query> atName = byNode.get( name );
+        if ( atName != null )
+        {
+            result.addAll( atName );
+        }
+        for ( Set<Query> s : byNode.subMap( name + ".", true, name + "/", false ).values() )
+        {
+            result.addAll( s );
+        }
+        return result;
+    }
+
+    private void collect( String node, String[] segments, int depth, boolean exactDepth, List<Query> result )
+    {
+        Collection<Query> candidates = byNode.get( node );
+        if ( candidates == null )
+        {
+            return;
+        }
+        for ( Query q : candidates )
+        {
+            if ( exactDepth ? q.parts.length == depth : q.parts.length >= depth )
+            {
+                if ( matches( q.parts, segments ) )
+                {
+                    result.add( q );
+                }
+            }
+        }
+    }
+
+    private boolean matches( QueryPart[] parts, String[] segments )
+    {
+        try
+        {
+            for ( int i = 0; i < segments.length; i++ )
+            {
+                if ( !QueryUtils.match( segments[i], parts[i], queryPatternCache ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch ( ExecutionException e )
+        {
+            Throwables.throwIfUnchecked( e.getCause() );
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    private String node( QueryPart[] parts )
+    {
+        StringBuilder node = new StringBuilder();
+        for ( QueryPart p : parts )
+        {
+            if ( p.isRegEx() )
+            {
+                break;
+            }
+            if ( node.length() > 0 )
+            {
+                node.append( '.' );
+            }
+            node.append( p.getQuery() );
+        }
+        return node.length() > 0 ? node.toString() : rootKey;
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import org.rocksdb.CompressionType;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Inverted index of leaf metric names: (segment position, segment) -> ids of metrics with the segment at the position.
+ * <p>
+ * Every posting is a separate key "position segment \0 id" with an empty value. A posting list is a range of keys
+ * sorted by id, adding or removing a metric never rewrites a list. Lists are intersected by seeking iterators of all
+ * lists to the largest current id.
+ */
+class SegmentIndex
+{
+    private static final Logger log = LoggerFactory.getLogger( SegmentIndex.class );
+
+    // key of the record written once all existing metrics are indexed
+    private static final byte[] BUILT_KEY = "built".getBytes( UTF_8 );
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // positions are stored as one byte
+    static final int MAX_POSITIONS = 128;
+
+    private final File dbDir;
+
+    private final Timer writeTimer;
+
+    private final Timer readTimer;
+
+    private RocksDB db;
+
+    private volatile boolean built;
+
+    SegmentIndex( MetricRegistry metricRegistry, File dbDir )
+    {
+        this.dbDir = Preconditions.checkNotNull( dbDir );
+        this.writeTimer = metricRegistry.timer( MetricRegistry.name( "db", "index-segment", "write" ) );
+        this.readTimer = metricRegistry.timer( MetricRegistry.name( "db", "index-segment", "read" ) );
+    }
+
+    void open()
+    {
+        log.info( "Opening segment index in [{}]", dbDir );
+        RocksDB.loadLibrary();
+        try (Options options = new Options().setCreateIfMissing( true )
+            .setCompressionType( CompressionType.SNAPPY_COMPRESSION ).setKeepLogFileNum( 10 ))
+        {
+            db = RocksDB.open( options, dbDir.getAbsolutePath() );
+            built = db.get( BUILT_KEY ) != null;
+        }
+        catch ( RocksDBException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    void close()
+    {
+        if ( db != null )
+        {
+            db.close();
+            db = null;
+        }
+    }
+
+    /**
+     * @return true if all metrics that existed before the index was enabled are indexed.
+     */
+    boolean isBuilt()
+    {
+        return built;
+    }
+
+    void markBuilt()
+    {
+        put( BUILT_KEY, EMPTY );
+        built = true;
+    }
+
+    void add( String name, long id )
+    {
+        update( name, id, false );
+    }
+
+    void remove( String name, long id )
+    {
+        update( name, id, true );
+    }
+
+    private void update( String name, long id, boolean delete )
+    {
+        String[] segments = name.split( "\\." );
+        try (Timer.Context ignored = writeTimer.time();
+             WriteBatch batch = new WriteBatch();
+             WriteOptions options = new WriteOptions())
+        {
+            for ( int pos = 0; pos < segments.length && pos < MAX_POSITIONS; pos++ )
+            {
+                byte[] key = key( pos, segments[pos], id );
+                if ( delete )
+                {
+                    batch.delete( key );
+                }
+                else
+                {
+                    batch.put( key, EMPTY );
+                }
+            }
+            db.write( options, batch );
+        }
+        catch ( RocksDBException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private void put( byte[] key, byte[] value )
+    {
+        try
+        {
+            db.put( key, value );
+        }
+        catch ( RocksDBException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    /**
+     * @return true if any metric has a segment at the position.
+     */
+    boolean hasPosition( int pos )
+    {
+        try (RocksIterator iter = db.newIterator( new ReadOptions() ))
+        {
+            iter.seek( new byte[] { (byte) pos } );
+            return iter.isValid() && iter.key().length > 0 && iter.key()[0] == (byte) pos;
+        }
+    }
+
+    /**
+     * Passes ids of metrics that have the given segments starting at the position in ascending order.
+     */
+    void find( int pos, List<String> segments, LongConsumer c )
+    {
+        Preconditions.checkArgument( !segments.isEmpty() );
+        List<RocksIterator> iters = new ArrayList<>( segments.size() );
+        List<byte[]> prefixes = new ArrayList<>( segments.size() );
+        try (Timer.Context ignored = readTimer.time())
+        {
+            for ( int i = 0; i < segments.size(); i++ )
+            {
+                byte[] prefix = prefix( pos + i, segments.get( i ) );
+                RocksIterator iter = db.newIterator( new ReadOptions() );
+                iters.add( iter );
+                prefixes.add( prefix );
+                iter.seek( prefix );
+                if ( !matches( iter, prefix ) )
+                {
+                    return;
+                }
+            }
+
+            while ( true )
+            {
+                long max = Long.MIN_VALUE;
+                for ( int i = 0; i < iters.size(); i++ )
+                {
+                    max = Math.max( max, id( iters.get( i ).key(), prefixes.get( i ) ) );
+                }
+                boolean all = true;
+                for ( int i = 0; i < iters.size(); i++ )
+                {
+                    RocksIterator iter = iters.get( i );
+                    byte[] prefix = prefixes.get( i );
+                    if ( id( iter.key(), prefix ) < max )
+                    {
+                        iter.seek( key( prefix, max ) );
+                        if ( !matches( iter, prefix ) )
+                        {
+                            return;
+                        }
+                        all &= id( iter.key(), prefix ) == max;
+                    }
+                }
+                if ( all )
+                {
+                    c.accept( max );
+                    RocksIterator first = iters.get( 0 );
+                    first.next();
+                    if ( !matches( first, prefixes.get( 0 ) ) )
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+        catch ( Throwable t )
+        {
+            Throwables.throwIfUnchecked( t );
+            throw new RuntimeException( t );
+        }
+        finally
+        {
+            iters.forEach( RocksIterator::close );
+        }
+    }
+
+    private static boolean matches( RocksIterator iter, byte[] prefix )
+    {
+        if ( !iter.isValid() )
+        {
+            return false;
+        }
+        byte[] key = iter.key();
+        return key.length == prefix.length + Long.BYTES && Arrays.equals( key, 0, prefix.length, prefix, 0,
+            prefix.length );
+    }
+
+    private static byte[] prefix( int pos, String segment )
+    {
+        byte[] s = segment.getBytes( UTF_8 );
+        byte[] prefix = new byte[s.length + 2];
+        prefix[0] = (byte) pos;
+        System.arraycopy( s, 0, prefix, 1, s.length );
+        prefix[prefix.length - 1] = 0;
+        return prefix;
+    }
+
+    private static byte[] key( int pos, String segment, long id )
+    {
+        return key( prefix( pos, segment ), id );
+    }
+
+    private static byte[] key( byte[] prefix, long id )
+    {
+        // flip sign bit so that negative ids (int id overflow) sort before positive ones
+        return ByteBuffer.allocate( prefix.length + Long.BYTES ).put( prefix ).putLong( id ^ Long.MIN_VALUE ).array();
+    }
+
+    private static long id( byte[] key, byte[] prefix )
+    {
+        return ByteBuffer.wrap( key, prefix.length, Long.BYTES ).getLong() ^ Long.MIN_VALUE;
+    }
+}
@@ -11,6 +11,9 @@ import com.demandware.carbonj.service.db.model.MetricIndex;
 import com.demandware.carbonj.service.db.model.StorageAggregationPolicySource;
 import com.demandware.carbonj.service.db.util.DatabaseMetrics;
 import com.demandware.carbonj.service.db.util.FileUtils;
+import com.demandware.carbonj.service.db.util.RocksDBResourceManager;
+import com.demandware.carbonj.service.db.util.SnapshotBootstrap;
+import com.demandware.carbonj.service.db.util.cfgRocksDBResources;
 import com.demandware.carbonj.service.engine.StorageAggregationRulesLoader;
 import com.demandware.carbonj.service.ns.NamespaceCounter;
 import com.demandware.core.config.cfgMetric;
@@ -22,6 +25,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Import;
 
 import java.io.File;
@@ -31,7 +35,7 @@ import java.util.concurrent.TimeUnit;
 import static com.demandware.carbonj.service.config.ConfigUtils.locateConfigFile;
 
 @Configuration
-@Import( cfgMetric.class )
+@Import( { cfgMetric.class, cfgRocksDBResources.class } )
 public class cfgMetricIndex
 {
     @Value( "${metrics.store.longId:false}" )
@@ -79,12 +83,51 @@ public class cfgMetricIndex
     @Value("${rocksdb.catchup.retry:3}")
     private int catchupRetry = 3;
 
+    @Value("${rocksdb.statistics.enabled:true}")
+    private boolean rocksdbStatisticsEnabled = true;
+
+    // directory with a snapshot to restore missing databases from on startup
+    @Value("${metrics.store.bootstrap.snapshotDir:}")
+    private String bootstrapSnapshotDir;
+
     @Value("${metrics.store.sync.queue.size.limit:10000}")
     private int nameIndexKeyQueueSizeLimit = 10000;
 
     @Value( "${log.invalidLeafMetrics.quota.min:10}" )
     private int maxInvalidLeafMetricsLoggedPerMin;
 
+    @Value( "${metrics.store.nameTrie.enabled:false}" )
+    private boolean nameTrieEnabled;
+
+    // one-way for the name index - see MetricIndexImpl.setChildKeysEnabled
+    @Value( "${metrics.store.childKeys.enabled:false}" )
+    private boolean childKeysEnabled;
+
+    // 0 - findMetrics walks all query levels on the calling thread
+    @Value( "${metrics.store.findMetricsParallelism:0}" )
+    private int findMetricsParallelism;
+
+    @Value( "${metrics.store.findMetricsForkThreshold:1000}" )
+    private int findMetricsForkThreshold;
+
+    @Value( "${metrics.store.segmentIndex.enabled:false}" )
+    private boolean segmentIndexEnabled;
+
+    @Value( "${metrics.store.incrementalQueryCache:false}" )
+    private boolean incrementalQueryCache;
+
+    @Value( "${metrics.store.hotSet.enabled:false}" )
+    private boolean hotSetEnabled;
+
+    @Value( "${metrics.store.hotSet.saveIntervalInMinutes:10}" )
+    private int hotSetSaveIntervalInMinutes;
+
+    @Value( "${metrics.store.hotSet.warmUpThreads:8}" )
+    private int hotSetWarmUpThreads;
+
+    @Value( "${metrics.store.hotSet.warmUpTimeBudgetInSeconds:60}" )
+    private int hotSetWarmUpTimeBudgetInSeconds;
+
     // TODO duplicated in different cfg beans
     @Value( "${app.servicedir:}" )
     private String serviceDir;
@@ -92,24 +135,43 @@ public class cfgMetricIndex
     @Autowired
     MetricRegistry metricRegistry;
 
+    @Autowired
+    RocksDBResourceManager rocksDBResourceManager;
+
     @Bean
     @ConditionalOnProperty(name = "metrics.store.sync.secondary.db", havingValue = "true")
     File indexNameDbDir() {
         return dbDir("index-name");
     }
 
+    @Bean
+    SnapshotBootstrap snapshotBootstrap()
+    {
+        SnapshotBootstrap bootstrap = new SnapshotBootstrap(
+                StringUtils.isNotEmpty( bootstrapSnapshotDir ) ? new File( bootstrapSnapshotDir ) : null );
+        if ( StringUtils.isNotEmpty( bootstrapSnapshotDir ) )
+        {
+            bootstrap.restore( dbDir( "index-name" ).getParentFile(), FileUtils.writableDir( dataDir ) );
+        }
+        return bootstrap;
+    }
+
     @Bean( name = "metricNameIndexStore" )
+    @DependsOn( "snapshotBootstrap" )
     IndexStore<String, NameRecord> metricNameIndexStore()
     {
         File dbDir = dbDir( "index-name" );
-        return new IndexStoreRocksDB<>( metricRegistry, "index-name", dbDir, new NameRecordSerializer(longId), rocksdbReadonly, catchupRetry);
+        return new IndexStoreRocksDB<>( metricRegistry, "index-name", dbDir, new NameRecordSerializer(longId), rocksdbReadonly, catchupRetry,
+                rocksdbStatisticsEnabled, rocksDBResourceManager);
     }
 
     @Bean( name = "metricIdIndexStore" )
+    @DependsOn( "snapshotBootstrap" )
     IndexStore<Long, IdRecord> metricIdIndexStore()
     {
         File dbDir = dbDir( "index-id" );
-        return new IndexStoreRocksDB<>( metricRegistry,"index-id", dbDir, new IdRecordSerializer(longId), rocksdbReadonly, catchupRetry);
+        return new IndexStoreRocksDB<>( metricRegistry,"index-id", dbDir, new IdRecordSerializer(longId), rocksdbReadonly, catchupRetry,
+                rocksdbStatisticsEnabled, rocksDBResourceManager);
     }
 
     @Bean
@@ -138,6 +200,20 @@ public class cfgMetricIndex
                 nameIndexQueryCacheMaxSize, expireAfterWriteQueryCacheInSeconds, enableIdCache, longId,
                 namespaceCounter, rocksdbReadonly, syncSecondaryDb, nameIndexKeyQueueSizeLimit,
                 nameIndexQueryPatternCacheMaxSize, expireAfterWriteQueryPatternCacheInSeconds, maxInvalidLeafMetricsLoggedPerMin);
+        metricIndex.setNameTrieEnabled( nameTrieEnabled );
+        metricIndex.setChildKeysEnabled( childKeysEnabled );
+        metricIndex.setParallelFind( findMetricsParallelism, findMetricsForkThreshold );
+        metricIndex.setIncrementalQueryCache( incrementalQueryCache );
+        if ( hotSetEnabled )
+        {
+            metricIndex.setHotSet( dbDir( "index-hot-set" ), hotSetWarmUpThreads, hotSetWarmUpTimeBudgetInSeconds );
+            s.scheduleWithFixedDelay( metricIndex::saveHotSet, hotSetSaveIntervalInMinutes,
+                hotSetSaveIntervalInMinutes, TimeUnit.MINUTES );
+        }
+        if ( segmentIndexEnabled )
+        {
+            metricIndex.setSegmentIndex( new SegmentIndex( metricRegistry, dbDir( "index-segment" ) ) );
+        }
         s.scheduleWithFixedDelay(metricIndex::reload, 300, 300, TimeUnit.SECONDS);
         return metricIndex;
     }
@@ -14,15 +14,18 @@ public class QueryStats {
     private final LongSummaryStatistics seriesReadTimeMillis;
     private final LongSummaryStatistics seriesWriteTimeMillis;
     private final LongSummaryStatistics emptySeriesReadTimeMillis;
+    private final LongSummaryStatistics batchReadTimeMillis;
 
     public QueryStats(int totalNoOfDataPoints, LongSummaryStatistics waitTimeMillis, LongSummaryStatistics seriesReadTimeMillis,
                       LongSummaryStatistics seriesWriteTimeMillis,
-                      LongSummaryStatistics emptySeriesReadTimeMillis) {
+                      LongSummaryStatistics emptySeriesReadTimeMillis,
+                      LongSummaryStatistics batchReadTimeMillis) {
         this.totalNoOfDataPoints = totalNoOfDataPoints;
         this.waitTimeMillis = waitTimeMillis;
         this.seriesReadTimeMillis = seriesReadTimeMillis;
         this.seriesWriteTimeMillis = seriesWriteTimeMillis;
         this.emptySeriesReadTimeMillis = emptySeriesReadTimeMillis;
+        this.batchReadTimeMillis = batchReadTimeMillis;
     }
 
     public QueryStats() {
@@ -31,6 +34,7 @@ public class QueryStats {
         this.seriesReadTimeMillis = new LongSummaryStatistics();
         this.seriesWriteTimeMillis = new LongSummaryStatistics();
         this.emptySeriesReadTimeMillis = new LongSummaryStatistics();
+        this.batchReadTimeMillis = new LongSummaryStatistics();
     }
 
     public LongSummaryStatistics getWaitTimeMillis() {
@@ -49,6 +53,10 @@ public class QueryStats {
         return emptySeriesReadTimeMillis;
     }
 
+    public LongSummaryStatistics getBatchReadTimeMillis() {
+        return batchReadTimeMillis;
+    }
+
     public int getTotalNoOfDataPoints() {
         return totalNoOfDataPoints;
     }
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.model;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Functions used to combine adjacent values of a series into one value when the series has more points than
+ * requested. Missing (NaN) values are ignored. Result is NaN when all combined values are missing.
+ */
+public enum Consolidation
+{
+    AVG
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double sum = 0;
+                int count = 0;
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) )
+                    {
+                        sum += values[i];
+                        count++;
+                    }
+                }
+                return count == 0 ? Double.NaN : sum / count;
+            }
+        },
+    SUM
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double sum = Double.NaN;
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) )
+                    {
+                        sum = Double.isNaN( sum ) ? values[i] : sum + values[i];
+                    }
+                }
+                return sum;
+            }
+        },
+    MIN
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double min = Double.NaN;
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) && ( Double.isNaN( min ) || values[i] < min ) )
+                    {
+                        min = values[i];
+                    }
+                }
+                return min;
+            }
+        },
+    MAX
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double max = Double.NaN;
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) && ( Double.isNaN( max ) || values[i] > max ) )
+                    {
+                        max = values[i];
+                    }
+                }
+                return max;
+            }
+        },
+    FIRST
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) )
+                    {
+                        return values[i];
+                    }
+                }
+                return Double.NaN;
+            }
+        },
+    LAST
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                for ( int i = to - 1; i >= from; i-- )
+                {
+                    if ( !Double.isNaN( values[i] ) )
+                    {
+                        return values[i];
+                    }
+                }
+                return Double.NaN;
+            }
+        },
+    /**
+     * Average over all combined values, missing values count as 0.
+     */
+    AVG_ZERO
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double sum = SUM.apply( values, from, to );
+                return Double.isNaN( sum ) ? Double.NaN : sum / ( to - from );
+            }
+        },
+    MEDIAN
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double[] present = present( values, from, to );
+                if ( present.length == 0 )
+                {
+                    return Double.NaN;
+                }
+                Arrays.sort( present );
+                int mid = present.length / 2;
+                return present.length % 2 == 1 ? present[mid] : ( present[mid - 1] + present[mid] ) / 2;
+            }
+        },
+    MULTIPLY
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double product = Double.NaN;
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) )
+                    {
+                        product = Double.isNaN( product ) ? values[i] : product * values[i];
+                    }
+                }
+                return product;
+            }
+        },
+    /**
+     * First value minus all following values.
+     */
+    DIFF
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double diff = Double.NaN;
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) )
+                    {
+                        diff = Double.isNaN( diff ) ? values[i] : diff - values[i];
+                    }
+                }
+                return diff;
+            }
+        },
+    /**
+     * Population standard deviation.
+     */
+    STDDEV
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                double avg = AVG.apply( values, from, to );
+                if ( Double.isNaN( avg ) )
+                {
+                    return Double.NaN;
+                }
+                double sum = 0;
+                int count = 0;
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) )
+                    {
+                        sum += ( values[i] - avg ) * ( values[i] - avg );
+                        count++;
+                    }
+                }
+                return Math.sqrt( sum / count );
+            }
+        },
+    RANGE
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                return MAX.apply( values, from, to ) - MIN.apply( values, from, to );
+            }
+        },
+    COUNT
+        {
+            @Override
+            public double apply( double[] values, int from, int to )
+            {
+                int count = 0;
+                for ( int i = from; i < to; i++ )
+                {
+                    if ( !Double.isNaN( values[i] ) )
+                    {
+                        count++;
+                    }
+                }
+                return count == 0 ? Double.NaN : count;
+            }
+        };
+
+    private static final Logger log = LoggerFactory.getLogger( Consolidation.class );
+
+    /**
+     * Combines values between from (inclusive) and to (exclusive).
+     */
+    public abstract double apply( double[] values, int from, int to );
+
+    private static double[] present( double[] values, int from, int to )
+    {
+        double[] present = new double[to - from];
+        int n = 0;
+        for ( int i = from; i < to; i++ )
+        {
+            if ( !Double.isNaN( values[i] ) )
+            {
+                present[n++] = values[i];
+            }
+        }
+        return Arrays.copyOf( present, n );
+    }
+
+    /**
+     * Resolves function by name accepted by graphite consolidateBy().
+     *
+     * @return avg if name is not specified or not supported.
+     */
+    public static Consolidation fromName( String name )
+    {
+        if ( name == null || name.isEmpty() )
+        {
+            return AVG;
+        }
+        return switch ( name.toLowerCase() )
+        {
+            case "avg", "average" -> AVG;
+            case "sum" -> SUM;
+            case "min" -> MIN;
+            case "max" -> MAX;
+            case "first" -> FIRST;
+            case "last" -> LAST;
+            case "avg_zero" -> AVG_ZERO;
+            case "median" -> MEDIAN;
+            case "multiply" -> MULTIPLY;
+            case "diff" -> DIFF;
+            case "stddev" -> STDDEV;
+            case "range", "rangeof" -> RANGE;
+            case "count" -> COUNT;
+            default -> {
+                log.warn( "Unsupported consolidation function [{}], using average", name );
+                yield AVG;
+            }
+        };
+    }
+}
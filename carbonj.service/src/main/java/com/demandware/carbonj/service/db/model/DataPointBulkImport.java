@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.model;
+
+import com.demandware.carbonj.service.engine.DataPoints;
+
+/**
+ * Bulk load of historical data points into one archive. Points are buffered, sorted by key and written into external
+ * sst files that are ingested into the archive database directly, bypassing memtables, WAL and most of compaction.
+ * Points become visible chunk by chunk as files are ingested and all of them after {@link #finish()}. A point
+ * overrides earlier points of the same metric and interval.
+ */
+public interface DataPointBulkImport
+    extends AutoCloseable
+{
+    void add( DataPoints points );
+
+    /**
+     * Writes and ingests remaining buffered points.
+     *
+     * @return total number of ingested points.
+     */
+    long finish();
+
+    long addedPoints();
+
+    long ingestedPoints();
+
+    int ingestedFiles();
+
+    /**
+     * Discards buffered points that were not ingested yet and releases resources.
+     */
+    @Override
+    void close();
+}
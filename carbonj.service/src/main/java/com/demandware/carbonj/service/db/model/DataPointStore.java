@@ -6,8 +6,10 @@
  */
 package com.demandware.carbonj.service.db.model;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.OptionalLong;
 
 import com.demandware.carbonj.service.db.util.StatsAware;
 import com.demandware.carbonj.service.engine.DataPoint;
@@ -21,17 +23,98 @@ public interface DataPointStore extends StatsAware
 
     void importDataPoints( String dbName, DataPoints points );
 
+    /**
+     * Starts import of historical data points into the archive that bypasses the regular write path.
+     */
+    DataPointBulkImport startBulkImport( String dbName );
+
     long delete( String archive, int ts );
 
     void delete( List<Metric> m );
 
     Series getSeries( Metric metric, int from, int until, int now );
 
+    /**
+     * Reads series for a batch of metrics. Results are returned in the same order as metrics.
+     */
+    default List<Series> getSeries( List<Metric> metrics, int from, int until, int now )
+    {
+        List<Series> series = new ArrayList<>( metrics.size() );
+        for ( Metric m : metrics )
+        {
+            series.add( getSeries( m, from, until, now ) );
+        }
+        return series;
+    }
+
+    /**
+     * Reads series for a batch of metrics. Points of lower resolution archives provide the given statistic of the
+     * aggregated values if it is stored.
+     */
+    default List<Series> getSeries( List<Metric> metrics, int from, int until, int now, IntervalStats.Statistic statistic )
+    {
+        return getSeries( metrics, from, until, now );
+    }
+
+    /**
+     * Same as {@link #getSeries(List, int, int, int, IntervalStats.Statistic)} and records the time spent reading each
+     * series in readMillis, in the same order as metrics, when readMillis is not null.
+     */
+    default List<Series> getSeries( List<Metric> metrics, int from, int until, int now, IntervalStats.Statistic statistic,
+                                    long[] readMillis )
+    {
+        List<Series> series = new ArrayList<>( metrics.size() );
+        for ( int i = 0; i < metrics.size(); i++ )
+        {
+            long start = System.currentTimeMillis();
+            series.add( getSeries( metrics.get( i ), from, until, now ) );
+            if ( readMillis != null )
+            {
+                readMillis[i] = System.currentTimeMillis() - start;
+            }
+        }
+        return series;
+    }
+
+    /**
+     * @return upper bound of the number of data points stored for the metrics in the archive between from and until,
+     * empty if the store doesn't track where metrics have data.
+     */
+    default OptionalLong estimateDataPoints( RetentionPolicy archivePolicy, List<Metric> metrics, int from, int until )
+    {
+        return OptionalLong.empty();
+    }
+
     List<DataPointValue> getValues( RetentionPolicy archivePolicy, long metricId, int from, int to );
 
     void open();
 
     void close();
 
+    /**
+     * Persists all data points accepted so far. Required before acknowledging input when archives are written
+     * without a write-ahead log.
+     *
+     * @return start of the oldest rollup interval with points that are still held only in memory,
+     * {@link Integer#MAX_VALUE} if there are none.
+     */
+    default int flush()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates point-in-time snapshot of all archives in the given directory.
+     */
+    void checkpoint( File snapshotDir );
+
     DataPointValue getFirst( RetentionPolicy instanceForDbName, long id, int from, int to );
+
+    /**
+     * @return false only if the archive is known to have no data points of the metric between from and until.
+     */
+    default boolean mayHaveData( RetentionPolicy archivePolicy, long metricId, int from, int until )
+    {
+        return true;
+    }
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.model;
+
+import java.util.List;
+
+/**
+ * Statistics of the values aggregated into one point of a lower resolution archive. Stored next to the point value
+ * when enabled for the archive.
+ */
+public class IntervalStats
+{
+    public final double min;
+    public final double max;
+    public final double sum;
+    public final int count;
+
+    public IntervalStats( double min, double max, double sum, int count )
+    {
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.count = count;
+    }
+
+    /**
+     * @return statistics of non-null values or null if there are no values.
+     */
+    public static IntervalStats of( List<Double> values )
+    {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        int count = 0;
+        for ( Double v : values )
+        {
+            if ( v == null )
+            {
+                continue;
+            }
+            min = Math.min( min, v );
+            max = Math.max( max, v );
+            sum += v;
+            count++;
+        }
+        return count == 0 ? null : new IntervalStats( min, max, sum, count );
+    }
+
+    public double get( Statistic statistic )
+    {
+        return switch ( statistic )
+        {
+            case MIN -> min;
+            case MAX -> max;
+            case SUM -> sum;
+            case COUNT -> count;
+            case VALUE -> throw new IllegalArgumentException( "Value is not part of interval stats" );
+        };
+    }
+
+    @Override
+    public String toString()
+    {
+        return "IntervalStats{min=" + min + ", max=" + max + ", sum=" + sum + ", count=" + count + '}';
+    }
+
+    /**
+     * Value read from a point of a lower resolution archive.
+     */
+    public enum Statistic
+    {
+        // value computed with the aggregation policy of the metric
+        VALUE,
+        MIN,
+        MAX,
+        SUM,
+        COUNT;
+
+        /**
+         * @return statistic that serves the consolidation function from points of lower resolution archives.
+         */
+        public static Statistic forConsolidation( Consolidation consolidation )
+        {
+            return switch ( consolidation )
+            {
+                case MIN -> MIN;
+                case MAX -> MAX;
+                case SUM -> SUM;
+                case COUNT -> COUNT;
+                default -> VALUE;
+            };
+        }
+    }
+}
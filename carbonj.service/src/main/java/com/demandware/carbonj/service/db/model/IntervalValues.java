@@ -27,12 +27,21 @@ public class IntervalValues
     public final String dbName;
     public final List<Double> values;
 
+    // merged stats of the values when some of them were aggregated from other points already
+    public final IntervalStats stats;
+
     public IntervalValues(Metric metric, List<Double> values, int intervalStart, String dbName)
+    {
+        this( metric, values, intervalStart, dbName, null );
+    }
+
+    public IntervalValues(Metric metric, List<Double> values, int intervalStart, String dbName, IntervalStats stats)
     {
         this.metric = Preconditions.checkNotNull( metric );
         this.intervalStart = intervalStart;
         this.values = Preconditions.checkNotNull(values);
         this.dbName = Preconditions.checkNotNull( dbName );
+        this.stats = stats;
     }
 
     public DataPoint toDataPoint()
@@ -55,6 +64,7 @@ public class IntervalValues
         {
             DataPoint p = new DataPoint( metric.name, od.getAsDouble(), intervalStart, false );
             p.metricId = metric.id;
+            p.stats = stats != null ? stats : IntervalStats.of( values );
             return p;
         }
         else
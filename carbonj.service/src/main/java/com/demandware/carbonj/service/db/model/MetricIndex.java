@@ -7,6 +7,7 @@
 package com.demandware.carbonj.service.db.model;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -23,8 +24,18 @@ public interface MetricIndex
 
     void setMaxId(long maxId);
 
+    /**
+     * @return largest metric id assigned so far.
+     */
+    long getMaxId();
+
     void close();
 
+    /**
+     * Creates point-in-time snapshot of name and id index stores in the given directory.
+     */
+    void checkpoint( File snapshotDir );
+
     /**
      * In strict mode exception is thrown when any data inconsistency is detected. And in non-strict mode details about
      * invalid state are logged and the data is skipped/ignored if possible. By default strictMode is set to false.
@@ -38,6 +49,13 @@ public interface MetricIndex
 
     DeleteAPIResult deleteAPI( String name, boolean delete, Set<String> exclude );
 
+    /**
+     * Deletes the leaf metric and its ancestors that are left without children.
+     *
+     * @return deleted metrics, empty if the name is not a leaf.
+     */
+    List<Metric> deleteLeafAndEmptyParents( String name );
+
 
 //    /**
 //     * Retrieves metrics that match provided pattern. Threshold based on configuration will be enforced.
@@ -78,6 +96,30 @@ public interface MetricIndex
 
     Metric createLeafMetric( String name );
 
+    /**
+     * Creates leaf metrics for names of the same namespace. Implementations may combine index writes of the names.
+     *
+     * @return metric of each name in the order of names, null for names that could not be created.
+     */
+    default List<Metric> createLeafMetrics( List<String> names )
+    {
+        List<Metric> metrics = new ArrayList<>( names.size() );
+        for ( String name : names )
+        {
+            Metric m = null;
+            try
+            {
+                m = createLeafMetric( name );
+            }
+            catch ( RuntimeException e )
+            {
+                // same as an invalid name
+            }
+            metrics.add( m );
+        }
+        return metrics;
+    }
+
     Metric getMetric( String name );
 
     Metric getMetric( long metricId );
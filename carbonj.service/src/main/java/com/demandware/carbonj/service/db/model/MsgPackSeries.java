@@ -6,9 +6,17 @@
  */
 package com.demandware.carbonj.service.db.model;
 
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 
 /**
@@ -27,11 +35,12 @@ public class MsgPackSeries
     @JsonProperty("pathExpression")
     final public String pathExpression;
     @JsonProperty("values")
+    @JsonSerialize(using = ValuesSerializer.class)
     final public List<Double> values;
 
     public MsgPackSeries( Series series)
     {
-        this(series.start, series.end, series.step, series.name, series.name, series.values);
+        this(series.start, series.end, series.step, series.name, series.name, new Values(series.values));
     }
 
     @JsonCreator
@@ -60,4 +69,75 @@ public class MsgPackSeries
                         ", values=" + values +
                         '}';
     }
+
+    /**
+     * List view of series values without copying. Intervals without data are null.
+     */
+    private static class Values
+        extends AbstractList<Double>
+        implements RandomAccess
+    {
+        private final double[] values;
+
+        Values( double[] values )
+        {
+            this.values = values;
+        }
+
+        @Override
+        public Double get( int index )
+        {
+            double v = values[index];
+            return Double.isNaN( v ) ? null : v;
+        }
+
+        @Override
+        public int size()
+        {
+            return values.length;
+        }
+    }
+
+    /**
+     * Writes values of series read from the store straight from the primitive array.
+     */
+    public static class ValuesSerializer
+        extends JsonSerializer<List<Double>>
+    {
+        @Override
+        public void serialize( List<Double> list, JsonGenerator gen, SerializerProvider serializers )
+            throws IOException
+        {
+            gen.writeStartArray();
+            if ( list instanceof Values )
+            {
+                for ( double v : ( (Values) list ).values )
+                {
+                    if ( Double.isNaN( v ) )
+                    {
+                        gen.writeNull();
+                    }
+                    else
+                    {
+                        gen.writeNumber( v );
+                    }
+                }
+            }
+            else
+            {
+                for ( Double v : list )
+                {
+                    if ( v == null )
+                    {
+                        gen.writeNull();
+                    }
+                    else
+                    {
+                        gen.writeNumber( v );
+                    }
+                }
+            }
+            gen.writeEndArray();
+        }
+    }
 }
@@ -6,6 +6,7 @@
  */
 package com.demandware.carbonj.service.db.model;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -17,10 +18,10 @@ public class Series
     final public long start;
     final public long end;
     final public long step;
-    final public List<Double> values;
+    // one value per interval between start and end. NaN marks intervals without data.
+    final public double[] values;
 
-    //TODO: replace with double[]
-    public Series( String name, long start, long end, long step, List<Double> values)
+    public Series( String name, long start, long end, long step, double[] values)
     {
         this.name = name;
         this.start = start;
@@ -29,6 +30,82 @@ public class Series
         this.values = values;
     }
 
+    public Series( String name, long start, long end, long step, List<Double> values)
+    {
+        this( name, start, end, step, toArray( values ) );
+    }
+
+    /**
+     * Creates array of values for intervals between from and until with all intervals marked as missing.
+     */
+    public static double[] emptyValues( int from, int until, int step )
+    {
+        double[] values = new double[size( from, until, step )];
+        Arrays.fill( values, Double.NaN );
+        return values;
+    }
+
+    /**
+     * Number of intervals between from and until (inclusive).
+     */
+    public static int size( int from, int until, int step )
+    {
+        return until < from ? 0 : ( until - from ) / step + 1;
+    }
+
+    /**
+     * Combines adjacent values so that the series has at most maxDataPoints values. Buckets are aligned to multiples
+     * of the new step so that they stay stable while the query window slides.
+     *
+     * @return this series if it already has no more than maxDataPoints values.
+     */
+    public Series consolidate( int maxDataPoints, Consolidation fn )
+    {
+        if ( maxDataPoints <= 0 || values.length <= maxDataPoints || step <= 0 )
+        {
+            return this;
+        }
+        long valuesPerPoint = ( values.length + maxDataPoints - 1 ) / maxDataPoints;
+        // aligned buckets may add one partial bucket
+        while ( buckets( step * valuesPerPoint ) > maxDataPoints )
+        {
+            valuesPerPoint++;
+        }
+        long newStep = step * valuesPerPoint;
+        long newStart = start - Math.floorMod( start, newStep );
+        double[] consolidated = new double[buckets( newStep )];
+        int from = 0;
+        for ( int b = 0; b < consolidated.length; b++ )
+        {
+            long bucketEnd = newStart + ( b + 1 ) * newStep;
+            int to = from;
+            while ( to < values.length && start + to * step < bucketEnd )
+            {
+                to++;
+            }
+            consolidated[b] = fn.apply( values, from, to );
+            from = to;
+        }
+        return new Series( name, newStart, newStart + ( consolidated.length - 1 ) * newStep, newStep, consolidated );
+    }
+
+    private int buckets( long bucketStep )
+    {
+        long last = start + ( values.length - 1 ) * step;
+        return (int) ( Math.floorDiv( last, bucketStep ) - Math.floorDiv( start, bucketStep ) + 1 );
+    }
+
+    private static double[] toArray( List<Double> values )
+    {
+        double[] a = new double[values.size()];
+        for ( int i = 0; i < a.length; i++ )
+        {
+            Double v = values.get( i );
+            a[i] = v == null ? Double.NaN : v;
+        }
+        return a;
+    }
+
     @Override
     public String toString()
     {
@@ -37,7 +114,7 @@ public class Series
                         ", start=" + start +
                         ", end=" + end +
                         ", step=" + step +
-                        ", values=" + values +
+                        ", values=" + Arrays.toString( values ) +
                         '}';
     }
 }
@@ -0,0 +1,457 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Implementation of staging file sort for binary staging files without forking external processes.
+ * <p>
+ * Binary staging file is a 4 byte header followed by fixed width records of 8 byte metric id and 8 byte value. All
+ * records of a staging file belong to the same interval, so the timestamp is part of the file name only. Metric
+ * names are not stored - they are resolved by metric id when the sorted file is processed. A value aggregated from
+ * other points is followed by a record holding {@link #STATS_MARKER} and four records with the min, max, sum and
+ * count of its interval stats, all with the same metric id. Stable sort keeps these records next to each other.
+ * Staging files with stats records can't be read by versions without stats support, they have to be drained before
+ * such a downgrade.
+ * <p>
+ * The input file is memory mapped and split into chunks that are sorted by metric id in parallel into run files.
+ * Runs and the previously sorted file are then merged into the output file. Sorting is stable - records of the same
+ * metric keep the order they were written in, and new records come before records of the previously sorted file
+ * (same as with the system sort). Text staging files left over from before the switch to binary format are
+ * converted first.
+ */
+class BinaryStagingSort
+    implements StagingFilesSort
+{
+    private static final Logger log = LoggerFactory.getLogger( BinaryStagingSort.class );
+
+    // first byte is not a digit, so text staging files are never mistaken for binary files
+    static final int MAGIC = 0xCB5A0001;
+
+    static final int HEADER_BYTES = 4;
+
+    static final int RECORD_BYTES = 16;
+
+    // NaN bit pattern ("STATS" in the payload) that is never produced by arithmetic on values
+    static final long STATS_MARKER = 0x7FF8_0053_5441_5453L;
+
+    // records mapped at once by merge readers
+    private static final int WINDOW_RECORDS = 512 * 1024;
+
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private final int chunkRecords;
+
+    private final ExecutorService executor;
+
+    BinaryStagingSort( int threads, int chunkRecords )
+    {
+        Preconditions.checkArgument( threads > 0 );
+        Preconditions.checkArgument( chunkRecords > 0 );
+        this.chunkRecords = chunkRecords;
+        this.executor = Executors.newFixedThreadPool( threads,
+            new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "staging-sort-%d" ).build() );
+    }
+
+    @Override
+    public boolean binary()
+    {
+        return true;
+    }
+
+    /**
+     * @return true if the file starts with the binary staging file header.
+     */
+    static boolean isBinary( File file )
+        throws IOException
+    {
+        if ( file.length() < HEADER_BYTES )
+        {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream( new FileInputStream( file ) ))
+        {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    @Override
+    public void sort( File inFile, Optional<File> extraMergeFile, File outFile )
+        throws IOException
+    {
+        log.debug( String.format( "sorting [%s], with mergeFile [%s], into [%s]", inFile, extraMergeFile.orElse( null ),
+            outFile ) );
+        List<File> tmpFiles = new ArrayList<>();
+        try
+        {
+            List<File> runs = sortRuns( toBinary( inFile, tmpFiles ), outFile, tmpFiles );
+            if ( extraMergeFile.isPresent() )
+            {
+                runs.add( toBinary( extraMergeFile.get(), tmpFiles ) );
+            }
+            if ( runs.size() == 1 )
+            {
+                Files.move( runs.get( 0 ).toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+            else
+            {
+                merge( runs, outFile );
+            }
+        }
+        finally
+        {
+            tmpFiles.forEach( File::delete );
+        }
+    }
+
+    private File toBinary( File file, List<File> tmpFiles )
+        throws IOException
+    {
+        if ( file.length() == 0 || isBinary( file ) )
+        {
+            return file;
+        }
+        File converted = new File( file.getParentFile(), file.getName() + ".bin" );
+        tmpFiles.add( converted );
+        convert( file, converted );
+        return converted;
+    }
+
+    /**
+     * Writes records of a text staging file into a binary staging file. Metric names are dropped.
+     */
+    static void convert( File textFile, File binaryFile )
+        throws IOException
+    {
+        log.info( "converting text staging file [{}] to binary format", textFile );
+        try (BufferedReader reader = new BufferedReader( new FileReader( textFile ) );
+             DataOutputStream out = newOutput( binaryFile ))
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                write( out, new StagingFileRecord( null, line ) );
+            }
+        }
+    }
+
+    /**
+     * Writes the record value followed by its stats records if the record has stats.
+     */
+    static void write( DataOutputStream out, StagingFileRecord r )
+        throws IOException
+    {
+        out.writeLong( r.metricId );
+        out.writeDouble( r.val() );
+        if ( r.stats != null )
+        {
+            out.writeLong( r.metricId );
+            out.writeLong( STATS_MARKER );
+            out.writeLong( r.metricId );
+            out.writeDouble( r.stats.min );
+            out.writeLong( r.metricId );
+            out.writeDouble( r.stats.max );
+            out.writeLong( r.metricId );
+            out.writeDouble( r.stats.sum );
+            out.writeLong( r.metricId );
+            out.writeDouble( r.stats.count );
+        }
+    }
+
+    /**
+     * Sorts chunks of the input file in parallel into run files.
+     */
+    private List<File> sortRuns( File inFile, File outFile, List<File> tmpFiles )
+        throws IOException
+    {
+        long records = recordCount( inFile );
+        int chunks = (int) Math.max( 1, ( records + chunkRecords - 1 ) / chunkRecords );
+        List<Future<File>> futures = new ArrayList<>( chunks );
+        for ( int c = 0; c < chunks; c++ )
+        {
+            long first = (long) c * chunkRecords;
+            int count = (int) Math.min( chunkRecords, records - first );
+            File run = new File( outFile.getParentFile(), outFile.getName() + ".run" + c );
+            tmpFiles.add( run );
+            futures.add( executor.submit( ( ) -> sortChunk( inFile, first, count, run ) ) );
+        }
+        List<File> runs = new ArrayList<>( chunks );
+        for ( Future<File> f : futures )
+        {
+            try
+            {
+                runs.add( f.get() );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Interrupted while sorting " + inFile, e );
+            }
+            catch ( ExecutionException e )
+            {
+                Throwables.throwIfInstanceOf( e.getCause(), IOException.class );
+                Throwables.throwIfUnchecked( e.getCause() );
+                throw new IOException( "Failed to sort " + inFile, e.getCause() );
+            }
+        }
+        return runs;
+    }
+
+    private File sortChunk( File inFile, long first, int count, File run )
+        throws IOException
+    {
+        long[] ids = new long[count];
+        long[] values = new long[count];
+        if ( count > 0 )
+        {
+            try (FileChannel ch = FileChannel.open( inFile.toPath(), StandardOpenOption.READ ))
+            {
+                MappedByteBuffer buf = ch.map( FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * RECORD_BYTES,
+                    (long) count * RECORD_BYTES );
+                for ( int i = 0; i < count; i++ )
+                {
+                    ids[i] = buf.getLong();
+                    values[i] = buf.getLong();
+                }
+            }
+        }
+        sort( ids, values, count );
+        try (DataOutputStream out = newOutput( run ))
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                out.writeLong( ids[i] );
+                out.writeLong( values[i] );
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Stable merge sort of records by metric id.
+     */
+    static void sort( long[] ids, long[] values, int n )
+    {
+        for ( int lo = 0; lo < n; lo += INSERTION_SORT_THRESHOLD )
+        {
+            insertionSort( ids, values, lo, Math.min( lo + INSERTION_SORT_THRESHOLD, n ) );
+        }
+        if ( n <= INSERTION_SORT_THRESHOLD )
+        {
+            return;
+        }
+        long[] srcIds = ids, srcValues = values;
+        long[] dstIds = new long[n], dstValues = new long[n];
+        for ( int width = INSERTION_SORT_THRESHOLD; width < n; width *= 2 )
+        {
+            for ( int lo = 0; lo < n; lo += 2 * width )
+            {
+                int mid = Math.min( lo + width, n );
+                int hi = Math.min( lo + 2 * width, n );
+                merge( srcIds, srcValues, dstIds, dstValues, lo, mid, hi );
+            }
+            long[] t = srcIds;
+            srcIds = dstIds;
+            dstIds = t;
+            t = srcValues;
+            srcValues = dstValues;
+            dstValues = t;
+        }
+        if ( srcIds != ids )
+        {
+            System.arraycopy( srcIds, 0, ids, 0, n );
+            System.arraycopy( srcValues, 0, values, 0, n );
+        }
+    }
+
+    private static void insertionSort( long[] ids, long[] values, int lo, int hi )
+    {
+        for ( int i = lo + 1; i < hi; i++ )
+        {
+            long id = ids[i];
+            long value = values[i];
+            int j = i - 1;
+            while ( j >= lo && ids[j] > id )
+            {
+                ids[j + 1] = ids[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void merge( long[] ids, long[] values, long[] dstIds, long[] dstValues, int lo, int mid, int hi )
+    {
+        int i = lo, j = mid, k = lo;
+        while ( i < mid && j < hi )
+        {
+            if ( ids[j] < ids[i] )
+            {
+                dstIds[k] = ids[j];
+                dstValues[k++] = values[j++];
+            }
+            else
+            {
+                dstIds[k] = ids[i];
+                dstValues[k++] = values[i++];
+            }
+        }
+        System.arraycopy( ids, i, dstIds, k, mid - i );
+        System.arraycopy( values, i, dstValues, k, mid - i );
+        k += mid - i;
+        System.arraycopy( ids, j, dstIds, k, hi - j );
+        System.arraycopy( values, j, dstValues, k, hi - j );
+    }
+
+    /**
+     * K-way merge of sorted runs. Ties are resolved in the order of runs.
+     */
+    private void merge( List<File> runs, File outFile )
+        throws IOException
+    {
+        List<RunReader> readers = new ArrayList<>( runs.size() );
+        PriorityQueue<RunReader> heap = new PriorityQueue<>( Math.max( 1, runs.size() ),
+            Comparator.<RunReader>comparingLong( r -> r.id ).thenComparingInt( r -> r.order ) );
+        try (DataOutputStream out = newOutput( outFile ))
+        {
+            for ( int i = 0; i < runs.size(); i++ )
+            {
+                RunReader r = new RunReader( runs.get( i ), i );
+                readers.add( r );
+                if ( r.next() )
+                {
+                    heap.add( r );
+                }
+            }
+            while ( !heap.isEmpty() )
+            {
+                RunReader r = heap.poll();
+                out.writeLong( r.id );
+                out.writeLong( r.value );
+                if ( r.next() )
+                {
+                    heap.add( r );
+                }
+            }
+        }
+        finally
+        {
+            for ( RunReader r : readers )
+            {
+                r.close();
+            }
+        }
+    }
+
+    private static long recordCount( File file )
+    {
+        return Math.max( 0, file.length() - HEADER_BYTES ) / RECORD_BYTES;
+    }
+
+    private static DataOutputStream newOutput( File file )
+        throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( file ), 1024 * 1024 ) );
+        out.writeInt( MAGIC );
+        return out;
+    }
+
+    /**
+     * Sequential reader of a sorted binary file through memory mapped windows.
+     */
+    private static final class RunReader
+        implements Closeable
+    {
+        private final FileChannel channel;
+
+        private final int order;
+
+        private final long end;
+
+        private long pos = HEADER_BYTES;
+
+        private MappedByteBuffer window;
+
+        long id;
+
+        long value;
+
+        RunReader( File file, int order )
+            throws IOException
+        {
+            this.channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+            this.order = order;
+            this.end = HEADER_BYTES + recordCount( file ) * RECORD_BYTES;
+        }
+
+        boolean next()
+        {
+            if ( pos >= end )
+            {
+                return false;
+            }
+            try
+            {
+                if ( window == null || !window.hasRemaining() )
+                {
+                    long size = Math.min( (long) WINDOW_RECORDS * RECORD_BYTES, end - pos );
+                    window = channel.map( FileChannel.MapMode.READ_ONLY, pos, size );
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+            id = window.getLong();
+            value = window.getLong();
+            pos += RECORD_BYTES;
+            return true;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            channel.close();
+        }
+    }
+}
@@ -6,9 +6,12 @@
  */
 package com.demandware.carbonj.service.db.points;
 
+import java.io.File;
 import java.util.List;
 
+import com.demandware.carbonj.service.db.model.DataPointBulkImport;
 import com.demandware.carbonj.service.db.model.DataPointValue;
+import com.demandware.carbonj.service.db.model.IntervalStats.Statistic;
 import com.demandware.carbonj.service.engine.DataPoints;
 
 interface DataPointArchive
@@ -20,14 +23,59 @@ interface DataPointArchive
 
     int put( DataPoints points );
 
-    List<Double> getDataPoints( long metricId, int startTime, int endTime, int step );
+    /**
+     * @return one value per interval between startTime and endTime, NaN for intervals without data.
+     */
+    double[] getDataPoints( long metricId, int startTime, int endTime, int step );
+
+    /**
+     * Reads series for a batch of metrics with a single iterator.
+     *
+     * @param sortedMetricIds metric ids in ascending order
+     * @return one array of values per metric id, in the same order as metric ids
+     */
+    List<double[]> getDataPoints( long[] sortedMetricIds, int startTime, int endTime, int step );
+
+    /**
+     * Same as {@link #getDataPoints(long[], int, int, int)} but reads the given statistic of each point.
+     *
+     * @param readMillis if not null, receives the time spent reading each series, in the same order as metric ids
+     */
+    List<double[]> getDataPoints( long[] sortedMetricIds, int startTime, int endTime, int step, Statistic statistic,
+                                  long[] readMillis );
 
     List<DataPointValue> getDataPoints( long metricId, int startTime, int endTime );
 
+    /**
+     * @return false if the metric is known to have no data points between startTime and endTime.
+     */
+    boolean mayHaveData( long metricId, int startTime, int endTime );
+
+    /**
+     * @return upper bound of the number of data points stored for the metrics between startTime and endTime, or -1
+     * if not known.
+     */
+    long estimateDataPoints( long[] metricIds, int startTime, int endTime );
+
     void close();
 
     void open();
 
+    /**
+     * Persists memtables to disk and waits for completion.
+     */
+    void flush();
+
+    /**
+     * Creates consistent point-in-time snapshot of the archive in a sub-directory of the given directory.
+     */
+    void checkpoint( File snapshotDir );
+
+    /**
+     * Starts import of historical data points through external sst files.
+     */
+    DataPointBulkImport startBulkImport();
+
     void dumpStats();
 
     long delete( int ts );
@@ -8,11 +8,13 @@ package com.demandware.carbonj.service.db.points;
 
 import java.io.File;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Preconditions;
 
 import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.util.RocksDBResourceManager;
 
 class DataPointArchiveFactory
 {
@@ -26,9 +28,20 @@ class DataPointArchiveFactory
 
     private boolean longId;
 
+    private RocksDBResourceManager resourceManager;
+
+    private volatile ObjIntConsumer<String> catchUpListener;
+
     DataPointArchiveFactory(MetricRegistry metricRegistry, File dataDir, RocksDBConfig rocksDBConfig, boolean longId)
+    {
+        this(metricRegistry, dataDir, rocksDBConfig, longId, null);
+    }
+
+    DataPointArchiveFactory(MetricRegistry metricRegistry, File dataDir, RocksDBConfig rocksDBConfig, boolean longId,
+                            RocksDBResourceManager resourceManager)
     {
         this.metricRegistry = metricRegistry;
+        this.resourceManager = resourceManager;
         this.dataDir = Preconditions.checkNotNull( dataDir );
         this.rocksDBConfig = Preconditions.checkNotNull( rocksDBConfig );
         this.longId = longId;
@@ -48,14 +61,69 @@ class DataPointArchiveFactory
     private DataPointArchive open(String dbName, RetentionPolicy policy)
     {
         File dbDir = dbDir( dbName );
-        DataPointArchive db = new DataPointArchiveRocksDB(metricRegistry, dbName, policy, dbDir, rocksDBConfig, longId );
+        DataPointArchiveRocksDB db = new DataPointArchiveRocksDB(metricRegistry, dbName, policy, dbDir, rocksDBConfig, longId, resourceManager );
+        db.setCatchUpListener( ( name, since ) -> {
+            ObjIntConsumer<String> listener = catchUpListener;
+            if ( listener != null )
+            {
+                listener.accept( name, since );
+            }
+        } );
         db.open();
         return db;
     }
 
+    /**
+     * @param catchUpListener receives db name and the earliest affected timestamp each time a readonly archive
+     *                        catches up with primary.
+     */
+    void setCatchUpListener( ObjIntConsumer<String> catchUpListener )
+    {
+        this.catchUpListener = catchUpListener;
+    }
+
+    /**
+     * @return true if archives notify the catch-up listener.
+     */
+    boolean reportsCatchUp()
+    {
+        return rocksDBConfig.readOnly && rocksDBConfig.catchupAdaptive;
+    }
+
     public void dumpStats()
     {
         archiveStores.forEachValue( 5, v -> v.dumpStats());
+        if ( resourceManager != null )
+        {
+            resourceManager.dumpStats();
+        }
+    }
+
+    /**
+     * Flushes memtables of all open archives.
+     */
+    public void flush()
+    {
+        archiveStores.forEachValue( 1, DataPointArchive::flush );
+    }
+
+    /**
+     * Creates snapshots of all open archives and archives of known retention policies that exist in data dir.
+     */
+    public void checkpoint( File snapshotDir )
+    {
+        String[] names = dataDir.list();
+        if ( names != null )
+        {
+            for ( String dbName : names )
+            {
+                if ( !archiveStores.containsKey( dbName ) && RetentionPolicy.dbNameExists( dbName ) )
+                {
+                    get( dbName );
+                }
+            }
+        }
+        archiveStores.values().forEach( db -> db.checkpoint( snapshotDir ) );
     }
 
     public void close()
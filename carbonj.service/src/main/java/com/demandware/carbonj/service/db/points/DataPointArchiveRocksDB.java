@@ -9,6 +9,7 @@ package com.demandware.carbonj.service.db.points;
 import static com.demandware.carbonj.service.db.util.MetricFormatUtils.formatDBReadWriteTimerStats;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -19,18 +20,24 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
 
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.CatchUpScheduler;
 import com.demandware.carbonj.service.db.SyncPrimaryDbTask;
 import com.demandware.carbonj.service.db.index.NameUtils;
 import com.demandware.carbonj.service.db.util.MetricUtils;
+import com.demandware.carbonj.service.db.util.DbSnapshots;
+import com.demandware.carbonj.service.db.util.RocksDBResourceManager;
+import com.demandware.carbonj.service.db.util.RocksDBStatsReporter;
 import com.demandware.carbonj.service.db.util.time.TimeSource;
 import org.rocksdb.BlockBasedTableConfig;
 import org.rocksdb.BloomFilter;
 import org.rocksdb.CompactionPriority;
 import org.rocksdb.CompressionType;
 import org.rocksdb.Env;
+import org.rocksdb.FlushOptions;
 import org.rocksdb.LRUCache;
 import org.rocksdb.Options;
 import org.rocksdb.Priority;
@@ -39,6 +46,8 @@ import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
 import org.rocksdb.RocksObject;
+import org.rocksdb.Slice;
+import org.rocksdb.Statistics;
 import org.rocksdb.TtlDB;
 import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
@@ -47,9 +56,12 @@ import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
+import com.demandware.carbonj.service.db.model.DataPointBulkImport;
 import com.demandware.carbonj.service.db.model.DataPointValue;
+import com.demandware.carbonj.service.db.model.IntervalStats.Statistic;
 import com.demandware.carbonj.service.db.model.Metric;
 import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.model.Series;
 import com.demandware.carbonj.service.engine.DataPoint;
 import com.demandware.carbonj.service.engine.DataPoints;
 import com.google.common.base.Preconditions;
@@ -70,18 +82,28 @@ class DataPointArchiveRocksDB
 
     private RocksDB db;
 
+    private Options options;
+
     private final Timer writeTimer;
 
     private final Timer batchWriteTimer;
 
+    // time spent by put() waiting for the write stage to commit its records
+    private final Timer writeStageWaitTimer;
+
     private final Meter savedRecordsMeter;
 
     private final Timer readTimer;
 
+    private final Timer batchReadTimer;
+
     private final Timer deleteTimer;
 
     private ReadOptions readOptions;
 
+    // used by full scans that cross metric id prefixes
+    private ReadOptions totalOrderReadOptions;
+
     private WriteOptions writeOptions;
 
     private final RocksDBConfig rocksdbConfig;
@@ -108,6 +130,27 @@ class DataPointArchiveRocksDB
 
     private final NameUtils nameUtils = new NameUtils();
 
+    private Statistics statistics;
+
+    private RocksDBStatsReporter statsReporter;
+
+    private final RocksDBResourceManager resourceManager;
+
+    private DataPointWriteStage writeStage;
+
+    private CatchUpScheduler catchUpScheduler;
+
+    private volatile ObjIntConsumer<String> catchUpListener;
+
+    private final File extentIndexFile;
+
+    private final Meter extentIndexSkipped;
+
+    // null when extent index is disabled
+    private DataPointExtentIndex extentIndex;
+
+    private Thread extentIndexRebuild;
+
     DataPointArchiveRocksDB(MetricRegistry metricRegistry,
                                 String dbName,
                                 RetentionPolicy policy,
@@ -115,6 +158,18 @@ class DataPointArchiveRocksDB
                                 RocksDBConfig rocksdbConfig,
                                 boolean longId)
     {
+        this(metricRegistry, dbName, policy, dbDir, rocksdbConfig, longId, null);
+    }
+
+    DataPointArchiveRocksDB(MetricRegistry metricRegistry,
+                                String dbName,
+                                RetentionPolicy policy,
+                                File dbDir,
+                                RocksDBConfig rocksdbConfig,
+                                boolean longId,
+                                RocksDBResourceManager resourceManager)
+    {
+        this.resourceManager = resourceManager;
         this.metricRegistry = metricRegistry;
         this.dbName = Preconditions.checkNotNull( dbName );
         this.policy = Preconditions.checkNotNull( policy );
@@ -124,12 +179,16 @@ class DataPointArchiveRocksDB
         this.savedRecordsMeter = metricRegistry.meter(MetricUtils.dbSavedRecordsMeterName(dbName));
         this.writeTimer = metricRegistry.timer(MetricUtils.dbWriteTimerName(dbName));
         this.batchWriteTimer = metricRegistry.timer(MetricUtils.dbBatchWriteTimerName(dbName));
+        this.writeStageWaitTimer = metricRegistry.timer(MetricUtils.dbWriteStageWaitTimerName(dbName));
         this.readTimer = metricRegistry.timer(MetricUtils.dbReadTimerName(dbName));
+        this.batchReadTimer = metricRegistry.timer(MetricUtils.dbBatchReadTimerName(dbName));
         this.emptyReadTimer = metricRegistry.timer(MetricUtils. dbEmptyReadTimerName(dbName));
         this.deleteTimer = metricRegistry.timer(MetricUtils.dbDeleteTimerName(dbName));
         this.catchUpTimer = metricRegistry.timer(MetricUtils.dbCatchUpTimerName(dbName));
         this.catchUpTimerError = metricRegistry.meter(MetricUtils.dbCatchUpTimerErrorName(dbName));
         this.longId = longId;
+        this.extentIndexFile = new File( dbDir.getParentFile(), dbName + ".extents" );
+        this.extentIndexSkipped = metricRegistry.meter( MetricUtils.dbExtentIndexSkippedName( dbName ) );
         this.cleaner = new ThreadPoolExecutor( 1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(
                 rocksdbConfig.objectCleanerQueueSize ), new ThreadFactoryBuilder().setDaemon( true ).build(), new ThreadPoolExecutor.DiscardPolicy()
         {
@@ -149,6 +208,10 @@ class DataPointArchiveRocksDB
         String readStats = String.format( "READ(%s)", formatDBReadWriteTimerStats( readTimer ) );
         String writeStats = String.format( "WRITE(%s)", formatDBReadWriteTimerStats( writeTimer ) );
         log.info( String.format( "Data points store %s. %s %s", getName(), readStats, writeStats ) );
+        if ( statsReporter != null )
+        {
+            statsReporter.dumpStats();
+        }
         try
         {
             log.info( String.format( "RocksDB Memory usage: index and filter blocks [%s]",
@@ -220,7 +283,7 @@ class DataPointArchiveRocksDB
         RocksIterator iter = null;
         try
         {
-            iter = db.newIterator( readOptions );
+            iter = db.newIterator( totalOrderReadOptions );
             for ( iter.seekToFirst(); iter.isValid(); iter.next(), i++ )
             {
                 byte[] key = iter.key();
@@ -292,8 +355,10 @@ class DataPointArchiveRocksDB
         if (rocksdbConfig.readOnly) {
             throw new UnsupportedOperationException("Method put is not supported for readonly mode");
         }
-        WriteBatch batch = new WriteBatch();
         int now = timeSource.getEpochSecond();
+        byte[][] keys = new byte[points.size()][];
+        byte[][] values = new byte[points.size()][];
+        int count = 0;
         try {
             for (int i = 0, n = points.size(); i < n; i++) {
                 DataPoint p = points.get(i);
@@ -322,9 +387,13 @@ class DataPointArchiveRocksDB
                 // exclude points that have policy for different db
                 if (dbName.equals(pointPolicy.dbName)) {
                     int interval = policy.interval(p.ts);
-                    byte[] key = DataPointRecord.toKeyBytes(p.metricId, interval, longId);
-                    byte[] value = DataPointRecord.toValueBytes(p.val);
-                    batch.put(key, value);
+                    keys[count] = DataPointRecord.toKeyBytes(p.metricId, interval, longId);
+                    values[count] = p.stats != null && rocksdbConfig.intervalStatsEnabled
+                                    ? DataPointRecord.toValueBytes(p.val, p.stats) : DataPointRecord.toValueBytes(p.val);
+                    count++;
+                    if (extentIndex != null) {
+                        extentIndex.record(p.metricId, interval);
+                    }
                     String namespace = nameUtils.firstSegment(p.name);
                     if (!latencyByNamespaceMap.containsKey(namespace)) {
                         Histogram latency = metricRegistry.histogram(MetricRegistry.name(MetricUtils.dbDataPointLatencyName(dbName, namespace)));
@@ -333,22 +402,44 @@ class DataPointArchiveRocksDB
                     latencyByNamespaceMap.get(namespace).update(now - p.ts);
                 }
             }
-            int batchSize = batch.count();
-            try (Timer.Context ignored = batchWriteTimer.time()) {
-                db.write(writeOptions, batch);
-                savedRecordsMeter.mark(batchSize);
+            if (writeStage != null) {
+                try (Timer.Context ignored = writeStageWaitTimer.time()) {
+                    writeStage.write(keys, values, count);
+                }
+            } else {
+                try (Timer.Context ignored = batchWriteTimer.time()) {
+                    write(keys, values, count);
+                }
             }
-            return batchSize;
+            savedRecordsMeter.mark(count);
+            return count;
         }
         catch ( RocksDBException e )
         {
-            Throwables.throwIfUnchecked(e);
+            log.error( "Failed to write " + count + " points to data point archive database [" + dbName + "]", e );
+            return 0;
+        }
+    }
+
+    private void write(byte[][] keys, byte[][] values, int count) throws RocksDBException {
+        WriteBatch batch = new WriteBatch();
+        try {
+            for (int i = 0; i < count; i++) {
+                batch.put(keys[i], values[i]);
+            }
+            db.write(writeOptions, batch);
         }
         finally
         {
             dispose( batch );
         }
-        return 0;  // not reached in case of exception
+    }
+
+    // group commit of the write stage
+    private void writeGroup(WriteBatch batch) throws RocksDBException {
+        try (Timer.Context ignored = batchWriteTimer.time()) {
+            db.write(writeOptions, batch);
+        }
     }
 
     private boolean isWithinRetentionPeriod(DataPoint p, int now) {
@@ -363,6 +454,10 @@ class DataPointArchiveRocksDB
         }
         byte[] key = DataPointRecord.toKeyBytes( metricId, interval, longId );
         byte[] value = DataPointRecord.toValueBytes( v );
+        if ( extentIndex != null )
+        {
+            extentIndex.record( metricId, interval );
+        }
         try (Timer.Context ignored = writeTimer.time())
         {
             db.put( writeOptions, key, value );
@@ -424,72 +519,204 @@ class DataPointArchiveRocksDB
     }
 
     @Override
-    public List<Double> getDataPoints( long metricId, int startTime, int endTime, int step )
+    public double[] getDataPoints( long metricId, int startTime, int endTime, int step )
     {
-        // TODO: SB code duplication!!! the method needs to be rewritten to utilize getDataPoints()
-        // API and implementation needs to be consistent.
+        if ( !mayHaveData( metricId, startTime, endTime ) )
+        {
+            extentIndexSkipped.mark();
+            return Series.emptyValues( startTime, endTime, step );
+        }
         boolean emptyRead = true;
         final Timer.Context timerContext = readTimer.time();
-        // TODO: use array instead
-        List<Double> points = new ArrayList<>();
+        double[] points = Series.emptyValues( startTime, endTime, step );
         RocksIterator iter = null;
         try
         {
-            // TODO: just to get started. Revisit as part of tuning.
             iter = db.newIterator( readOptions );
-            byte[] startKey = DataPointRecord.toKeyBytes( metricId, startTime, longId );
-            byte[] endKey = DataPointRecord.toKeyBytes( metricId, endTime, longId );
+            emptyRead = readSeries( iter, metricId, startTime, endTime, step, points, Statistic.VALUE );
+        }
+        finally
+        {
+            long d = timerContext.stop();
+            if( emptyRead )
+            {
+                emptyReadTimer.update(d, TimeUnit.NANOSECONDS);
+            }
+
+            if ( iter != null )
+            {
+                final RocksIterator iterToDispose = iter;
+                // contains global lock. Dispose in a separate thread to avoid contention.
+                cleaner.execute(() -> dispose(iterToDispose));
+            }
+        }
 
-            int ts = startTime;
+        return points;
+    }
 
-            iter.seek( startKey );
+    @Override
+    public List<double[]> getDataPoints( long[] sortedMetricIds, int startTime, int endTime, int step )
+    {
+        return getDataPoints( sortedMetricIds, startTime, endTime, step, Statistic.VALUE, null );
+    }
 
-            for ( ; iter.isValid(); iter.next() )
+    @Override
+    public List<double[]> getDataPoints( long[] sortedMetricIds, int startTime, int endTime, int step,
+                                         Statistic statistic, long[] readMillis )
+    {
+        if ( sortedMetricIds.length == 0 )
+        {
+            return new ArrayList<>();
+        }
+        if ( extentIndex != null && extentIndex.isComplete() )
+        {
+            return getDataPointsWithinExtents( sortedMetricIds, startTime, endTime, step, statistic, readMillis );
+        }
+        return readBatch( sortedMetricIds, startTime, endTime, step, statistic, readMillis );
+    }
+
+    private List<double[]> readBatch( long[] sortedMetricIds, int startTime, int endTime, int step,
+                                      Statistic statistic, long[] readMillis )
+    {
+        List<double[]> result = new ArrayList<>( sortedMetricIds.length );
+
+        // keys have fixed length so appending a zero byte produces the smallest key after the last key of the batch.
+        byte[] lastKey = DataPointRecord.toKeyBytes( sortedMetricIds[sortedMetricIds.length - 1], endTime, longId );
+        final Slice upperBound = new Slice( Arrays.copyOf( lastKey, lastKey.length + 1 ) );
+        final ReadOptions batchReadOptions = new ReadOptions()
+                .setPrefixSameAsStart( rocksdbConfig.usePrefixBloomFilter )
+                .setIterateUpperBound( upperBound );
+        RocksIterator iter = null;
+        try (Timer.Context ignored = batchReadTimer.time())
+        {
+            iter = db.newIterator( batchReadOptions );
+            for ( int i = 0; i < sortedMetricIds.length; i++ )
             {
-                byte[] key = iter.key();
-                if ( keyCompare( key, endKey ) > 0 )
+                long start = System.currentTimeMillis();
+                double[] points = Series.emptyValues( startTime, endTime, step );
+                readSeries( iter, sortedMetricIds[i], startTime, endTime, step, points, statistic );
+                result.add( points );
+                if ( readMillis != null )
                 {
-                    break;
+                    readMillis[i] = System.currentTimeMillis() - start;
                 }
+            }
+        }
+        finally
+        {
+            final RocksIterator iterToDispose = iter;
+            // contains global lock. Dispose in a separate thread to avoid contention.
+            cleaner.execute( ( ) -> {
+                if ( iterToDispose != null )
+                {
+                    iterToDispose.close();
+                }
+                batchReadOptions.close();
+                upperBound.close();
+            } );
+        }
+        return result;
+    }
 
-                byte[] value = iter.value();
-
-                int iterTime = DataPointRecord.toTimestamp( key, longId );
-
-                // fill missing intervals with null
-                while ( ts < iterTime )
+    /**
+     * Reads only metrics whose extent intersects the range. Other metrics get empty series without a seek.
+     */
+    private List<double[]> getDataPointsWithinExtents( long[] sortedMetricIds, int startTime, int endTime, int step,
+                                                       Statistic statistic, long[] readMillis )
+    {
+        long[] readIds = new long[sortedMetricIds.length];
+        int readCount = 0;
+        for ( long metricId : sortedMetricIds )
+        {
+            if ( extentIndex.mayHaveData( metricId, startTime, endTime ) )
+            {
+                readIds[readCount++] = metricId;
+            }
+        }
+        if ( readCount == sortedMetricIds.length )
+        {
+            return readBatch( sortedMetricIds, startTime, endTime, step, statistic, readMillis );
+        }
+        extentIndexSkipped.mark( sortedMetricIds.length - readCount );
+        long[] readMillisOfRead = readMillis == null ? null : new long[readCount];
+        List<double[]> read = readCount == 0 ? List.of()
+                        : readBatch( Arrays.copyOf( readIds, readCount ), startTime, endTime, step, statistic,
+                                     readMillisOfRead );
+        List<double[]> result = new ArrayList<>( sortedMetricIds.length );
+        int r = 0;
+        for ( int i = 0; i < sortedMetricIds.length; i++ )
+        {
+            if ( r < readCount && readIds[r] == sortedMetricIds[i] )
+            {
+                if ( readMillis != null )
                 {
-                    points.add( null );
-                    ts = ts + step;
+                    readMillis[i] = readMillisOfRead[r];
                 }
-                emptyRead = false;
-                points.add( DataPointRecord.toValue( value ) );
-                ts = ts + step; // next expected interval
+                result.add( read.get( r++ ) );
             }
+            else
+            {
+                result.add( Series.emptyValues( startTime, endTime, step ) );
+            }
+        }
+        return result;
+    }
 
-            while ( ts <= endTime )
+    @Override
+    public boolean mayHaveData( long metricId, int startTime, int endTime )
+    {
+        return extentIndex == null || extentIndex.mayHaveData( metricId, startTime, endTime );
+    }
+
+    @Override
+    public long estimateDataPoints( long[] metricIds, int startTime, int endTime )
+    {
+        if ( extentIndex == null )
+        {
+            return -1;
+        }
+        long total = 0;
+        for ( long metricId : metricIds )
+        {
+            long n = extentIndex.estimate( metricId, policy.interval( startTime ), endTime, policy.precision );
+            if ( n < 0 )
             {
-                points.add( null );
-                ts = ts + step;
+                return -1;
             }
+            total += n;
         }
-        finally
+        return total;
+    }
+
+    /**
+     * Seeks iterator to the start of the series and copies values into the interval slots between startTime and
+     * endTime. Slots for missing intervals are left untouched.
+     *
+     * @return true if no data points were found.
+     */
+    private boolean readSeries( RocksIterator iter, long metricId, int startTime, int endTime, int step,
+                                double[] points, Statistic statistic )
+    {
+        boolean emptyRead = true;
+        byte[] startKey = DataPointRecord.toKeyBytes( metricId, startTime, longId );
+        byte[] endKey = DataPointRecord.toKeyBytes( metricId, endTime, longId );
+
+        for ( iter.seek( startKey ); iter.isValid(); iter.next() )
         {
-            long d = timerContext.stop();
-            if( emptyRead )
+            byte[] key = iter.key();
+            if ( keyCompare( key, endKey ) > 0 )
             {
-                emptyReadTimer.update(d, TimeUnit.NANOSECONDS);
+                break;
             }
 
-            if ( iter != null )
+            int slot = ( DataPointRecord.toTimestamp( key, longId ) - startTime ) / step;
+            if ( slot < points.length )
             {
-                final RocksIterator iterToDispose = iter;
-                // contains global lock. Dispose in a separate thread to avoid contention.
-                cleaner.execute(() -> dispose(iterToDispose));
+                emptyRead = false;
+                points[slot] = DataPointRecord.toValue( iter.value(), statistic );
             }
         }
-
-        return points;
+        return emptyRead;
     }
 
     private static int keyCompare( byte[] keyBytes1, byte[] keyBytes2 )
@@ -502,12 +729,14 @@ class DataPointArchiveRocksDB
     {
         log.info( "Opening rocksdb '" + dbName + "'. Config options: " + rocksdbConfig );
 
-        Options options = new Options()
+        options = new Options()
                 .setMaxOpenFiles(-1)
                 .setKeepLogFileNum(rocksdbConfig.keepLogFileNum);
         BlockBasedTableConfig cfg = new BlockBasedTableConfig();
         // TODO: For backward compatibility, should move to latest 6 later
         cfg.setFormatVersion(5);
+        // block cache and memtables are accounted against the process-wide memory budget when one is configured
+        boolean sharedMemory = resourceManager != null && resourceManager.configure(dbName, options, cfg);
 
         if (rocksdbConfig.readOnly) {
             options.setCreateIfMissing(false);
@@ -546,19 +775,33 @@ class DataPointArchiveRocksDB
             }
 
             if (rocksdbConfig.useBlockBasedTableConfig) {
-                if (rocksdbConfig.useBloomFilter) {
+                if (rocksdbConfig.useBloomFilter || rocksdbConfig.usePrefixBloomFilter) {
                     BloomFilter filter = new BloomFilter(10);
                     cfg.setFilterPolicy(filter);
                 }
-                cfg.setBlockCache(new LRUCache(rocksdbConfig.blockCacheSize));
+                if (rocksdbConfig.usePrefixBloomFilter) {
+                    // archives are only read through iterators, whole key filters are never consulted
+                    cfg.setWholeKeyFiltering(rocksdbConfig.useBloomFilter);
+                }
+                if (!sharedMemory) {
+                    cfg.setBlockCache(new LRUCache(rocksdbConfig.blockCacheSize));
+                }
                 cfg.setBlockSize(rocksdbConfig.blockSize);
                 cfg.setCacheIndexAndFilterBlocks(true);
                 cfg.setPinL0FilterAndIndexBlocksInCache(true);
             }
         }
+        if (rocksdbConfig.usePrefixBloomFilter) {
+            options.useFixedLengthPrefixExtractor(DataPointRecord.metricIdLength(longId));
+        }
         options.setTableFormatConfig(cfg);
+        if (rocksdbConfig.statisticsEnabled) {
+            statistics = new Statistics();
+            options.setStatistics(statistics);
+        }
 
         readOptions = new ReadOptions();
+        totalOrderReadOptions = new ReadOptions().setTotalOrderSeek(true);
         writeOptions = new WriteOptions();
         int ttl = policy.retention;
         try
@@ -566,13 +809,32 @@ class DataPointArchiveRocksDB
             if (rocksdbConfig.readOnly) {
                 db = RocksDB.openAsSecondary(options, dbDir.getAbsolutePath(), secondaryDbDir.getAbsolutePath());
                 log.info("Rocks DB {} opened in secondary mode", dbName);
-                scheduledExecutorService.scheduleAtFixedRate(
-                        new SyncPrimaryDbTask(db, dbDir, catchUpTimer, catchUpTimerError, rocksdbConfig.catchupRetry),
-                        60, dbName.startsWith("60s") ? 60 : 60 * 30, TimeUnit.SECONDS);
+                SyncPrimaryDbTask syncTask = new SyncPrimaryDbTask(db, dbDir, catchUpTimer, catchUpTimerError, rocksdbConfig.catchupRetry);
+                int syncIntervalSeconds = dbName.startsWith("60s") ? 60 : 60 * 30;
+                if (rocksdbConfig.catchupAdaptive) {
+                    catchUpScheduler = new CatchUpScheduler(metricRegistry, dbName, dbDir, syncTask::catchUp,
+                            this::onCatchUp, scheduledExecutorService, rocksdbConfig.catchupMinDelayMillis,
+                            TimeUnit.SECONDS.toMillis(syncIntervalSeconds));
+                    catchUpScheduler.start();
+                } else {
+                    scheduledExecutorService.scheduleAtFixedRate(syncTask, 60, syncIntervalSeconds, TimeUnit.SECONDS);
+                }
             } else {
                 db = TtlDB.open(options, dbDir.getAbsolutePath(), ttl, false);
                 writeOptions.setDisableWAL( rocksdbConfig.disableWAL );
                 log.info("Rocks DB {} opened in normal mode", dbName);
+                if (rocksdbConfig.writeStageEnabled) {
+                    writeStage = new DataPointWriteStage(metricRegistry, dbName, this::writeGroup,
+                            rocksdbConfig.writeStageQueueSize, rocksdbConfig.writeStageMaxBatchSize,
+                            rocksdbConfig.writeStageMaxBatchDelayMillis, rocksdbConfig.writeStageWriterThreads);
+                }
+                if (rocksdbConfig.extentIndexEnabled) {
+                    openExtentIndex();
+                }
+            }
+            statsReporter = new RocksDBStatsReporter(metricRegistry, dbName, db, statistics);
+            if (resourceManager != null) {
+                resourceManager.register(dbName, db);
             }
         }
         catch ( RocksDBException e )
@@ -581,12 +843,141 @@ class DataPointArchiveRocksDB
         }
     }
 
+    /**
+     * Loads extent index saved on the last clean shutdown. The file is removed once loaded, so that after a crash the
+     * index is rebuilt from the archive records instead of using stale extents. Until the rebuild completes the index
+     * only collects new writes and doesn't skip any reads.
+     */
+    private void openExtentIndex()
+    {
+        try
+        {
+            extentIndex = DataPointExtentIndex.load( extentIndexFile );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Failed to load extent index of [" + dbName + "] from " + extentIndexFile, e );
+        }
+        if ( extentIndexFile.exists() && !extentIndexFile.delete() )
+        {
+            log.warn( "Failed to remove extent index file {}", extentIndexFile );
+        }
+        if ( extentIndex != null )
+        {
+            log.info( "Loaded extent index of [{}] from {}", dbName, extentIndexFile );
+            return;
+        }
+        extentIndex = new DataPointExtentIndex();
+        extentIndexRebuild = new Thread( this::rebuildExtentIndex, dbName + "-extent-index-rebuild" );
+        extentIndexRebuild.setDaemon( true );
+        extentIndexRebuild.start();
+    }
+
+    private void rebuildExtentIndex()
+    {
+        long start = System.currentTimeMillis();
+        long records = 0;
+        try (RocksIterator iter = db.newIterator( totalOrderReadOptions ))
+        {
+            for ( iter.seekToFirst(); iter.isValid(); iter.next(), records++ )
+            {
+                if ( Thread.currentThread().isInterrupted() )
+                {
+                    log.info( "Extent index rebuild of [{}] interrupted after {} records", dbName, records );
+                    return;
+                }
+                byte[] key = iter.key();
+                extentIndex.record( DataPointRecord.toMetricId( key, longId ),
+                    DataPointRecord.toTimestamp( key, longId ) );
+            }
+            extentIndex.markComplete();
+            log.info( "Rebuilt extent index of [{}] from {} records in {} ms", dbName, records,
+                System.currentTimeMillis() - start );
+        }
+        catch ( RuntimeException e )
+        {
+            log.error( "Failed to rebuild extent index of [" + dbName + "]", e );
+        }
+    }
+
+    private void closeExtentIndex()
+    {
+        if ( extentIndexRebuild != null )
+        {
+            extentIndexRebuild.interrupt();
+            try
+            {
+                extentIndexRebuild.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ( extentIndex != null && extentIndex.isComplete() )
+        {
+            try
+            {
+                extentIndex.save( extentIndexFile );
+                log.info( "Saved extent index of [{}] to {}", dbName, extentIndexFile );
+            }
+            catch ( RuntimeException e )
+            {
+                log.error( "Failed to save extent index of [" + dbName + "]", e );
+            }
+        }
+    }
+
+    /**
+     * Notifies listener about data that became visible with the last catch-up with primary.
+     */
+    private void onCatchUp( long previousCatchUpMillis )
+    {
+        ObjIntConsumer<String> listener = catchUpListener;
+        if ( listener != null )
+        {
+            // points arrive with recent timestamps - data older than the previous catch-up is not affected
+            listener.accept( dbName, (int) TimeUnit.MILLISECONDS.toSeconds( previousCatchUpMillis ) - policy.precision );
+        }
+    }
+
+    /**
+     * @param catchUpListener receives db name and the earliest timestamp affected by data that became visible after
+     *                        catch-up with primary in readonly mode.
+     */
+    void setCatchUpListener( ObjIntConsumer<String> catchUpListener )
+    {
+        this.catchUpListener = catchUpListener;
+    }
+
     private void closeQuietly( RocksDB db )
     {
+        if ( catchUpScheduler != null )
+        {
+            catchUpScheduler.stop();
+        }
         if (rocksdbConfig.readOnly) {
             scheduledExecutorService.shutdownNow();
         }
 
+        if ( writeStage != null )
+        {
+            writeStage.close();
+        }
+
+        // after the last write and before the db is closed under a running rebuild
+        closeExtentIndex();
+
+        if ( statsReporter != null )
+        {
+            statsReporter.close();
+        }
+
+        if ( resourceManager != null )
+        {
+            resourceManager.unregister( dbName );
+        }
+
         if ( db != null )
         {
             try
@@ -598,6 +989,52 @@ class DataPointArchiveRocksDB
                 log.error( "Error while closing data point archive database [" + dbName + "].", e );
             }
         }
+
+        if ( statistics != null )
+        {
+            statistics.close();
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        if ( rocksdbConfig.readOnly )
+        {
+            return;
+        }
+        try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush( true ))
+        {
+            db.flush( flushOptions );
+        }
+        catch ( RocksDBException e )
+        {
+            throw new RuntimeException( "Failed to flush data point archive database [" + dbName + "]", e );
+        }
+    }
+
+    @Override
+    public void checkpoint( File snapshotDir )
+    {
+        if ( rocksdbConfig.disableWAL )
+        {
+            // without WAL data in memtables is not part of the checkpoint
+            flush();
+        }
+        DbSnapshots.checkpoint( db, dbName, snapshotDir );
+    }
+
+    @Override
+    public DataPointBulkImport startBulkImport()
+    {
+        if ( rocksdbConfig.readOnly )
+        {
+            throw new UnsupportedOperationException( "Method startBulkImport is not supported for readonly mode" );
+        }
+        // sst files are moved into the db - work dir has to be on the same file system
+        File workDir = new File( dbDir.getParentFile(), dbName + "-bulk" );
+        return new SstFileBulkImport( dbName, policy, db, options, longId, workDir, rocksdbConfig.bulkImportChunkSize,
+            rocksdbConfig.bulkImportThreads, extentIndex );
     }
 
     @Override
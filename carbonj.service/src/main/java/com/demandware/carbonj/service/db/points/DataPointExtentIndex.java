@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Timestamps of the first and the last data point written for each metric of an archive. Metric ids are allocated
+ * sequentially, so extents are kept in primitive arrays of fixed size pages indexed by metric id.
+ * <p>
+ * Extents are only conservative (a metric may have no data within its extent, e.g. after expiration) and they can
+ * be used to skip reads only once the index is complete - either loaded from a file saved on clean shutdown or
+ * rebuilt from all records of the archive.
+ */
+class DataPointExtentIndex
+{
+    private static final int PAGE_BITS = 16;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // metric ids above 2^31 are not tracked
+    private static final int MAX_PAGES = 1 << ( 31 - PAGE_BITS );
+
+    private static final int FILE_MAGIC = 0x45585431;
+
+    private static final int NONE = 0;
+
+    // first and last interval of metric id i are at positions 2 * i and 2 * i + 1 of its page
+    private volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[0];
+
+    private volatile boolean complete;
+
+    boolean isComplete()
+    {
+        return complete;
+    }
+
+    void markComplete()
+    {
+        complete = true;
+    }
+
+    void record( long metricId, int interval )
+    {
+        AtomicIntegerArray page = page( metricId, true );
+        if ( page == null || interval == NONE )
+        {
+            return;
+        }
+        int pos = 2 * (int) ( metricId & ( PAGE_SIZE - 1 ) );
+        int first;
+        while ( ( ( first = page.get( pos ) ) == NONE || interval < first )
+            && !page.compareAndSet( pos, first, interval ) )
+        {
+            // retry
+        }
+        int last;
+        while ( interval > ( last = page.get( pos + 1 ) ) && !page.compareAndSet( pos + 1, last, interval ) )
+        {
+            // retry
+        }
+    }
+
+    /**
+     * @return false only if the index is complete and the metric has no data points between from and until.
+     */
+    boolean mayHaveData( long metricId, int from, int until )
+    {
+        if ( !complete )
+        {
+            return true;
+        }
+        if ( !isTracked( metricId ) )
+        {
+            return true;
+        }
+        AtomicIntegerArray page = page( metricId, false );
+        if ( page == null )
+        {
+            return false;
+        }
+        int pos = 2 * (int) ( metricId & ( PAGE_SIZE - 1 ) );
+        int first = page.get( pos );
+        return first != NONE && first <= until && page.get( pos + 1 ) >= from;
+    }
+
+    /**
+     * @return upper bound of the number of intervals with data between from and until or -1 if unknown.
+     */
+    long estimate( long metricId, int from, int until, int precision )
+    {
+        if ( !complete || !isTracked( metricId ) )
+        {
+            return -1;
+        }
+        AtomicIntegerArray page = page( metricId, false );
+        if ( page == null )
+        {
+            return 0;
+        }
+        int pos = 2 * (int) ( metricId & ( PAGE_SIZE - 1 ) );
+        int first = page.get( pos );
+        if ( first == NONE )
+        {
+            return 0;
+        }
+        int lo = Math.max( from, first );
+        int hi = Math.min( until, page.get( pos + 1 ) );
+        return hi < lo ? 0 : ( hi - lo ) / precision + 1;
+    }
+
+    private static boolean isTracked( long metricId )
+    {
+        return metricId >= 0 && ( metricId >>> PAGE_BITS ) < MAX_PAGES;
+    }
+
+    private AtomicIntegerArray page( long metricId, boolean create )
+    {
+        if ( !isTracked( metricId ) )
+        {
+            return null;
+        }
+        int p = (int) ( metricId >>> PAGE_BITS );
+        AtomicIntegerArray[] current = pages;
+        if ( p < current.length && current[p] != null )
+        {
+            return current[p];
+        }
+        return create ? createPage( p ) : null;
+    }
+
+    private synchronized AtomicIntegerArray createPage( int p )
+    {
+        AtomicIntegerArray[] current = pages;
+        if ( p >= current.length )
+        {
+            current = Arrays.copyOf( current, Math.max( p + 1, current.length * 2 ) );
+        }
+        else if ( current[p] != null )
+        {
+            return current[p];
+        }
+        else
+        {
+            current = current.clone();
+        }
+        current[p] = new AtomicIntegerArray( 2 * PAGE_SIZE );
+        pages = current;
+        return current[p];
+    }
+
+    /**
+     * Writes complete index to the file. Written into a temp file first, so the file is either complete or absent.
+     */
+    void save( File file )
+    {
+        File tmp = new File( file.getPath() + ".tmp" );
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( Files.newOutputStream( tmp.toPath() ), 1 << 16 ) ))
+        {
+            AtomicIntegerArray[] current = pages;
+            out.writeInt( FILE_MAGIC );
+            out.writeInt( PAGE_BITS );
+            out.writeInt( (int) Arrays.stream( current ).filter( p -> p != null ).count() );
+            for ( int p = 0; p < current.length; p++ )
+            {
+                if ( current[p] == null )
+                {
+                    continue;
+                }
+                out.writeInt( p );
+                for ( int i = 0; i < 2 * PAGE_SIZE; i++ )
+                {
+                    out.writeInt( current[p].get( i ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( "Failed to save extent index to " + tmp, e );
+        }
+        try
+        {
+            Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( "Failed to save extent index to " + file, e );
+        }
+    }
+
+    /**
+     * @return complete index read from the file or null if the file doesn't exist or has unexpected format.
+     */
+    static DataPointExtentIndex load( File file )
+        throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream( Files.newInputStream( file.toPath() ), 1 << 16 ) ))
+        {
+            if ( in.readInt() != FILE_MAGIC || in.readInt() != PAGE_BITS )
+            {
+                return null;
+            }
+            DataPointExtentIndex index = new DataPointExtentIndex();
+            int count = in.readInt();
+            for ( int n = 0; n < count; n++ )
+            {
+                AtomicIntegerArray page = index.createPage( in.readInt() );
+                for ( int i = 0; i < 2 * PAGE_SIZE; i++ )
+                {
+                    page.set( i, in.readInt() );
+                }
+            }
+            index.markComplete();
+            return index;
+        }
+    }
+}
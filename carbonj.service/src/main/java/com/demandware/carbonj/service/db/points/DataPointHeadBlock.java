@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.model.Series;
+import com.demandware.carbonj.service.db.util.time.TimeSource;
+import com.demandware.carbonj.service.engine.DataPoint;
+import com.demandware.carbonj.service.engine.DataPoints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Most recent hours of one archive kept in memory for series that are being queried. Each series has a ring buffer
+ * with one slot per archive interval. A ring is created and filled from the archive the first time a series is
+ * queried within the head window. From then on every point written to the archive is also written to the ring, so
+ * that recent window queries are served from memory. Series that were not queried for a while are evicted, and the
+ * number of series is limited by a memory budget.
+ */
+class DataPointHeadBlock
+{
+    private static final Logger log = LoggerFactory.getLogger( DataPointHeadBlock.class );
+
+    // estimated per series overhead of ring object, array header and map entry
+    private static final int SERIES_OVERHEAD_BYTES = 96;
+
+    private final RetentionPolicy policy;
+
+    private final int slots;
+
+    private final int maxSeries;
+
+    private final long idleMillis;
+
+    private final ConcurrentHashMap<Long, SeriesRing> rings = new ConcurrentHashMap<>();
+
+    private final TimeSource timeSource = TimeSource.defaultTimeSource();
+
+    private final ScheduledExecutorService sweeper;
+
+    private final MetricRegistry metricRegistry;
+
+    private final Meter hits;
+
+    private final Meter misses;
+
+    private final Meter evictions;
+
+    interface ArchiveReader
+    {
+        double[] read( long metricId, int from, int until );
+    }
+
+    /**
+     * Ring buffer of values of one series. Slot of interval t is (t / step) % slots. Intervals after the latest
+     * written interval are empty.
+     */
+    static final class SeriesRing
+    {
+        private final double[] values;
+
+        private final int step;
+
+        // first interval with complete data in the ring, set once the ring is filled from the archive
+        private int start;
+
+        private int latest;
+
+        private volatile long lastReadMillis;
+
+        SeriesRing( int slots, int step, int start, int latest )
+        {
+            this.values = new double[slots];
+            Arrays.fill( values, Double.NaN );
+            this.step = step;
+            this.start = start;
+            this.latest = latest;
+            this.lastReadMillis = System.currentTimeMillis();
+        }
+
+        private int slot( int interval )
+        {
+            return ( interval / step ) % values.length;
+        }
+
+        private int oldestSlotInterval()
+        {
+            return latest - ( values.length - 1 ) * step;
+        }
+
+        synchronized int coveredFrom()
+        {
+            return Math.max( start, oldestSlotInterval() );
+        }
+
+        synchronized void put( int interval, double val )
+        {
+            if ( interval > latest )
+            {
+                // clear slots of intervals skipped since the latest write - they still hold values of the old lap
+                if ( interval - latest >= values.length * step )
+                {
+                    Arrays.fill( values, Double.NaN );
+                }
+                else
+                {
+                    for ( int i = latest + step; i < interval; i += step )
+                    {
+                        values[slot( i )] = Double.NaN;
+                    }
+                }
+                latest = interval;
+            }
+            else if ( interval < oldestSlotInterval() )
+            {
+                return;
+            }
+            values[slot( interval )] = val;
+        }
+
+        /**
+         * Fills slots that were not written yet with values read from the archive.
+         */
+        synchronized void fill( int from, double[] archiveValues )
+        {
+            int oldest = oldestSlotInterval();
+            for ( int i = 0; i < archiveValues.length; i++ )
+            {
+                int interval = from + i * step;
+                if ( interval >= oldest && interval <= latest && Double.isNaN( values[slot( interval )] ) )
+                {
+                    values[slot( interval )] = archiveValues[i];
+                }
+            }
+            start = Math.max( from, oldest );
+        }
+
+        /**
+         * @return values between from and until or null if the ring doesn't cover the range.
+         */
+        synchronized double[] read( int from, int until )
+        {
+            if ( from < coveredFrom() )
+            {
+                return null;
+            }
+            double[] result = Series.emptyValues( from, until, step );
+            for ( int i = 0; i < result.length; i++ )
+            {
+                int interval = from + i * step;
+                if ( interval <= latest )
+                {
+                    result[i] = values[slot( interval )];
+                }
+            }
+            return result;
+        }
+    }
+
+    DataPointHeadBlock( MetricRegistry metricRegistry, RetentionPolicy policy, int hours, long maxBytes,
+                        int idleSeconds )
+    {
+        this.metricRegistry = metricRegistry;
+        this.policy = policy;
+        // one extra slot so that a query for exactly the window length is covered while current interval is open
+        this.slots = (int) TimeUnit.HOURS.toSeconds( hours ) / policy.precision + 2;
+        this.maxSeries = (int) Math.min( Integer.MAX_VALUE, maxBytes / ( slots * 8L + SERIES_OVERHEAD_BYTES ) );
+        this.idleMillis = TimeUnit.SECONDS.toMillis( idleSeconds );
+        this.hits = metricRegistry.meter( MetricRegistry.name( "headBlock", "hits" ) );
+        this.misses = metricRegistry.meter( MetricRegistry.name( "headBlock", "misses" ) );
+        this.evictions = metricRegistry.meter( MetricRegistry.name( "headBlock", "evictions" ) );
+        String seriesName = MetricRegistry.name( "headBlock", "series" );
+        metricRegistry.remove( seriesName );
+        metricRegistry.register( seriesName, (Gauge<Integer>) rings::size );
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "head-block-sweeper-%d" ).build() );
+        sweeper.scheduleWithFixedDelay( this::sweep, 60, 60, TimeUnit.SECONDS );
+        log.info( String.format( "Head block for %s: %s hours, %s slots per series, max %s series", policy.dbName,
+            hours, slots, maxSeries ) );
+    }
+
+    RetentionPolicy policy()
+    {
+        return policy;
+    }
+
+    /**
+     * Writes points of the head block archive to rings of queried series.
+     */
+    void put( DataPoints points )
+    {
+        if ( rings.isEmpty() )
+        {
+            return;
+        }
+        for ( int i = 0, n = points.size(); i < n; i++ )
+        {
+            DataPoint p = points.get( i );
+            RetentionPolicy pointPolicy = points.getPolicy( i );
+            if ( !p.isValid() || !p.hasMetricId() || pointPolicy == null || !policy.dbName.equals( pointPolicy.dbName ) )
+            {
+                continue;
+            }
+            SeriesRing ring = rings.get( p.metricId );
+            if ( ring != null )
+            {
+                ring.put( policy.interval( p.ts ), p.val );
+            }
+        }
+    }
+
+    /**
+     * @param archiveReader used to fill the ring of a series queried for the first time.
+     * @return series values between archive intervals from and until, or null if the range has to be read from the
+     * archive.
+     */
+    double[] read( long metricId, int from, int until, ArchiveReader archiveReader )
+    {
+        int now = policy.interval( timeSource.getEpochSecond() );
+        int windowStart = now - ( slots - 1 ) * policy.precision;
+        if ( from < windowStart )
+        {
+            return null;
+        }
+        SeriesRing ring = rings.get( metricId );
+        if ( ring == null )
+        {
+            if ( rings.size() >= maxSeries )
+            {
+                misses.mark();
+                return null;
+            }
+            // register first so that points written while the archive is read are not lost
+            SeriesRing created = new SeriesRing( slots, policy.precision, Integer.MAX_VALUE, now );
+            ring = rings.putIfAbsent( metricId, created );
+            if ( ring == null )
+            {
+                ring = created;
+                ring.fill( windowStart, archiveReader.read( metricId, windowStart, now ) );
+            }
+        }
+        ring.lastReadMillis = System.currentTimeMillis();
+        double[] values = ring.read( from, until );
+        if ( values == null )
+        {
+            misses.mark();
+        }
+        else
+        {
+            hits.mark();
+        }
+        return values;
+    }
+
+    /**
+     * Drops series that were changed outside of the regular write path.
+     */
+    void invalidate( long metricId )
+    {
+        rings.remove( metricId );
+    }
+
+    void clear()
+    {
+        rings.clear();
+    }
+
+    int size()
+    {
+        return rings.size();
+    }
+
+    void sweep()
+    {
+        long now = System.currentTimeMillis();
+        int before = rings.size();
+        rings.values().removeIf( r -> now - r.lastReadMillis > idleMillis );
+        int excess = rings.size() - maxSeries;
+        if ( excess > 0 )
+        {
+            List<Long> coldest = rings.entrySet().stream()
+                .sorted( Comparator.comparingLong( e -> e.getValue().lastReadMillis ) ).limit( excess )
+                .map( Map.Entry::getKey ).collect( Collectors.toList() );
+            coldest.forEach( rings::remove );
+        }
+        int evicted = before - rings.size();
+        if ( evicted > 0 )
+        {
+            evictions.mark( evicted );
+            log.debug( "Evicted {} cold series from head block", evicted );
+        }
+    }
+
+    void close()
+    {
+        sweeper.shutdownNow();
+        rings.clear();
+        metricRegistry.remove( MetricRegistry.name( "headBlock", "series" ) );
+    }
+}
@@ -6,6 +6,10 @@
  */
 package com.demandware.carbonj.service.db.points;
 
+import java.nio.ByteBuffer;
+
+import com.demandware.carbonj.service.db.model.IntervalStats;
+import com.demandware.carbonj.service.db.model.IntervalStats.Statistic;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
@@ -13,6 +17,8 @@ import com.google.common.primitives.Longs;
 
 class DataPointRecord
 {
+    private static final int VALUE_WITH_STATS_LENGTH = 4 * Double.BYTES + Integer.BYTES;
+
     public static byte[] toKeyBytes(long metricId, int ts, boolean longId)
     {
         ByteArrayDataOutput out = ByteStreams.newDataOutput();
@@ -29,16 +35,60 @@ class DataPointRecord
         return out.toByteArray();
     }
 
+    public static int metricIdLength(boolean longId)
+    {
+        return longId ? Long.BYTES : Integer.BYTES;
+    }
+
     public static byte[] toValueBytes(double v)
     {
         return Longs.toByteArray(Double.doubleToLongBits(v));
     }
 
+    /**
+     * Value followed by min, max, sum and count of the aggregated values.
+     */
+    public static byte[] toValueBytes(double v, IntervalStats stats)
+    {
+        return ByteBuffer.allocate( VALUE_WITH_STATS_LENGTH )
+                         .putDouble( v )
+                         .putDouble( stats.min )
+                         .putDouble( stats.max )
+                         .putDouble( stats.sum )
+                         .putInt( stats.count )
+                         .array();
+    }
+
     public static double toValue(byte[] valueBytes)
     {
         return Double.longBitsToDouble( Longs.fromByteArray( valueBytes ) );
     }
 
+    /**
+     * @return statistic of the point. Points stored without statistics are treated as a single value - min, max and sum
+     * are the value itself, count is 1.
+     */
+    public static double toValue(byte[] valueBytes, Statistic statistic)
+    {
+        if ( statistic == Statistic.VALUE )
+        {
+            return toValue( valueBytes );
+        }
+        if ( valueBytes.length < VALUE_WITH_STATS_LENGTH )
+        {
+            return statistic == Statistic.COUNT ? 1 : toValue( valueBytes );
+        }
+        ByteBuffer buf = ByteBuffer.wrap( valueBytes );
+        return switch ( statistic )
+        {
+            case MIN -> buf.getDouble( Double.BYTES );
+            case MAX -> buf.getDouble( 2 * Double.BYTES );
+            case SUM -> buf.getDouble( 3 * Double.BYTES );
+            case COUNT -> buf.getInt( 4 * Double.BYTES );
+            case VALUE -> toValue( valueBytes );
+        };
+    }
+
     public static Long toMetricId(byte[] keyBytes, boolean longId)
     {
         if(longId)
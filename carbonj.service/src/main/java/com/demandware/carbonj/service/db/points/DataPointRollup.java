@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import com.demandware.carbonj.service.db.model.DataPointStore;
+import com.demandware.carbonj.service.db.model.IntervalStats;
+
+/**
+ * Aggregates points of higher resolution archives into points of the next lower resolution archive.
+ */
+interface DataPointRollup
+{
+    /**
+     * @param pointStore receives aggregated points.
+     */
+    void open( DataPointStore pointStore );
+
+    /**
+     * @param from start of the interval of the lower resolution archive the value belongs to.
+     */
+    default void add( String dbName, int from, long metricId, double val, String metricName )
+    {
+        add( dbName, from, metricId, val, null, metricName );
+    }
+
+    /**
+     * @param from start of the interval of the lower resolution archive the value belongs to.
+     * @param stats stats of the values aggregated into val, null if val is a point of the highest resolution archive.
+     * Merged into the stats of the aggregated point instead of counting val as a single value.
+     */
+    void add( String dbName, int from, long metricId, double val, IntervalStats stats, String metricName );
+
+    /**
+     * Makes points added so far durable, as far as the rollup supports it.
+     *
+     * @return start of the oldest interval with points that are still held only in memory, {@link Integer#MAX_VALUE}
+     * if there are none.
+     */
+    default int flush()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    void dumpStats();
+
+    void closeQuietly();
+}
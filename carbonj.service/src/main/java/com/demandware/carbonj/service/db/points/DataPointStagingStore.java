@@ -6,9 +6,9 @@
  */
 package com.demandware.carbonj.service.db.points;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
@@ -25,15 +25,17 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.demandware.carbonj.service.db.model.DataPointStore;
+import com.demandware.carbonj.service.db.model.IntervalStats;
 import com.demandware.carbonj.service.db.util.time.TimeSource;
 import com.demandware.carbonj.service.engine.DataPoint;
 import com.google.common.base.Preconditions;
 
 /**
- * Staging queue processor.
+ * Staging queue processor. Records are written by {@link StagingWriter} threads, each owning a shard of staging file
+ * sets.
  */
 public class DataPointStagingStore
-                extends Thread
+                implements DataPointRollup
 {
     private static final Logger log = LoggerFactory.getLogger( DataPointStagingStore.class );
 
@@ -45,11 +47,14 @@ public class DataPointStagingStore
 
     static Meter saved;
     
-    private final int emptyQueuePauseInMillis;
+    // staging files of an interval are split into groups by metric id
+    static final int GROUPS = 10;
+
+    private static final long FLUSH_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis( 1 );
 
-    private volatile boolean stop = false;
+    private final int emptyQueuePauseInMillis;
 
-    private ArrayBlockingQueue<StagingFileRecord> queue;
+    private StagingWriter[] writers;
 
     private ExecutorService intervalProcessorExecutorService;
     private ExecutorCompletionService<IntervalProcessors.Stats> executorCompletionService;
@@ -60,6 +65,14 @@ public class DataPointStagingStore
 
     private final int queueSize;
 
+    private final int writerCount;
+
+    private final File overflowDir;
+
+    private final long overflowMaxBytes;
+
+    private final boolean binary;
+
     private IntervalProcessors intervalProcessors;
 
     final private int stagingIntervalQueueConsumerBatchSize;
@@ -73,13 +86,32 @@ public class DataPointStagingStore
                                  int stagingIntervalsQueueSizePerDb, int stagingIntervalsQueueConsumersPerDb,
                                  int emptyQueuePauseInMillis, int timeAggrJobIntervalInMins, int timeAggrJobThreads)
     {
+        this(metricRegistry, stagingFiles, stagingQueueSize, stagingIntervalQueueConsumerBatchSize,
+            stagingIntervalsQueueSizePerDb, stagingIntervalsQueueConsumersPerDb, emptyQueuePauseInMillis,
+            timeAggrJobIntervalInMins, timeAggrJobThreads, 1, null, 0);
+    }
+
+    /**
+     * @param writers number of writer threads, at most {@link #GROUPS}.
+     * @param overflowDir dir for records that don't fit into writer queues. Producers wait for space in the queue
+     *                    when overflow dir is not set or the overflow file of a writer exceeds overflowMaxBytes.
+     */
+    public DataPointStagingStore(MetricRegistry metricRegistry, StagingFiles stagingFiles,
+                                 int stagingQueueSize, int stagingIntervalQueueConsumerBatchSize,
+                                 int stagingIntervalsQueueSizePerDb, int stagingIntervalsQueueConsumersPerDb,
+                                 int emptyQueuePauseInMillis, int timeAggrJobIntervalInMins, int timeAggrJobThreads,
+                                 int writers, File overflowDir, long overflowMaxBytes)
+    {
+        Preconditions.checkArgument( writers > 0 && writers <= GROUPS, "writers must be within [1, %s]", GROUPS );
         this.metricRegistry = metricRegistry;
+        this.writerCount = writers;
+        this.overflowDir = overflowDir;
+        this.overflowMaxBytes = overflowDir != null ? overflowMaxBytes : 0;
         this.emptyQueuePauseInMillis = emptyQueuePauseInMillis;
         this.timeAggrJobIntervalInMins = timeAggrJobIntervalInMins;
         this.timeAggrJobThreads = timeAggrJobThreads;
-        this.setName( this.getClass().getSimpleName() );
-        this.setDaemon( true );
         this.stagingFiles = Preconditions.checkNotNull(stagingFiles);
+        this.binary = stagingFiles.binary();
         this.queueSize = stagingQueueSize;
         this.stagingIntervalQueueConsumerBatchSize = stagingIntervalQueueConsumerBatchSize;
         this.stagingIntervalsQueueSizePerDb = stagingIntervalsQueueSizePerDb;
@@ -90,10 +122,16 @@ public class DataPointStagingStore
         saved = metricRegistry.meter( MetricRegistry.name( "staging", "saved" ) );
     }
 
+    @Override
     public void open(DataPointStore pointStore)
     {
         ScheduledExecutorService s = Executors.newSingleThreadScheduledExecutor();
-        this.queue = new ArrayBlockingQueue<>( queueSize );
+        this.writers = new StagingWriter[writerCount];
+        for ( int i = 0; i < writerCount; i++ )
+        {
+            writers[i] = new StagingWriter( metricRegistry, i, writerCount, stagingFiles,
+                Math.max( 1, queueSize / writerCount ), overflowDir, overflowMaxBytes, saved );
+        }
         IntervalProcessorTaskFactory taskFactory = new IntervalProcessorTaskFactoryImpl( pointStore);
         this.intervalProcessors = new IntervalProcessors(metricRegistry, stagingIntervalQueueConsumerBatchSize,
             stagingIntervalsQueueSizePerDb, stagingIntervalsQueueConsumersPerDb, taskFactory, emptyQueuePauseInMillis );
@@ -115,7 +153,11 @@ public class DataPointStagingStore
         });
         executorCompletionService = new ExecutorCompletionService<>(intervalProcessorExecutorService);
 
-        this.start();
+        registerQueueDepthGauge();
+        for ( StagingWriter w : writers )
+        {
+            w.start();
+        }
     }
 
     public void cleanup()
@@ -171,85 +213,66 @@ public class DataPointStagingStore
         }
     }
 
+    /**
+     * Waits for interval processors to write aggregated points of propagated staging files and flushes staging
+     * records of all writers. Synchronized with propagation, so that no staging file is between the two stages.
+     */
+    @Override
+    public synchronized int flush()
+    {
+        try
+        {
+            if ( !intervalProcessors.awaitIdle( FLUSH_TIMEOUT_MILLIS ) )
+            {
+                throw new RuntimeException( "Interval processors didn't finish within " + FLUSH_TIMEOUT_MILLIS + "ms" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        for ( StagingWriter w : writers )
+        {
+            w.flush( FLUSH_TIMEOUT_MILLIS );
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
     public void dumpStats()
     {
         log.info(String.format("Staging store stats: received: %s, dropped: %s, saved: %s",
                         received.getCount(), drop.getCount(), saved.getCount()));
     }
 
-    public void add( String dbName, int from, long metricId, double val, String metricName )
+    /**
+     * @return index of the writer that owns staging files of the file set.
+     */
+    static int shardOf( StagingFileSet fileSet, int writers )
+    {
+        return fileSet.group % writers;
+    }
+
+    @Override
+    public void add( String dbName, int from, long metricId, double val, IntervalStats stats, String metricName )
     {
         received.mark();
 
-        StagingFileSet stagingFile = stagingFileSetProvider.get( dbName, from, (int) (metricId % 10));
-        StagingFileRecord r = new StagingFileRecord( stagingFile, metricId, DataPoint.strValue(val), metricName );
+        StagingFileSet stagingFile = stagingFileSetProvider.get( dbName, from, (int) (metricId % GROUPS));
+        // binary staging records keep the value as is and resolve the metric by id
+        StagingFileRecord r = binary ? new StagingFileRecord( stagingFile, metricId, val, stats )
+                        : new StagingFileRecord( stagingFile, metricId, DataPoint.strValue( val ), stats, metricName );
 
-        if ( queue.offer( r ) ) //TODO: slow down instead of dropping?
+        if ( writers[shardOf( stagingFile, writers.length )].add( r ) )
         {
             return;
         }
+        // only when writers are stopped
         drop.mark();
         if ( log.isDebugEnabled() )
         {
-            log.debug( "Dropped->" + this + ". Queue size " + queue.size() + ". Total dropped " + drop.getCount() );
-        }
-    }
-
-    @Override
-    public void run()
-    {
-        int batchSize = 10000;
-        List<StagingFileRecord> batch = new ArrayList<>( batchSize );
-        try
-        {
-            registerQueueDepthGauge();
-
-            while ( true )
-            {
-                if ( stop )
-                {
-                    return;
-                }
-
-                try
-                {
-                    queue.drainTo(batch, batchSize);
-                    if(batch.isEmpty())
-                    {
-                        // no new data. take this opportunity to flush
-                        stagingFiles.flush();
-
-                        // check again
-                        queue.drainTo(batch, batchSize);
-                        if(batch.isEmpty())
-                        {
-                            // still nothing.
-                            TimeUnit.MILLISECONDS.sleep( 100 );
-                            continue;
-                        }
-                    }
-
-                    for ( StagingFileRecord r : batch )
-                    {
-                        stagingFiles.write( r );
-                    }
-                    saved.mark( batch.size() );
-                    batch.clear();
-                }
-                catch ( Exception e )
-                {
-                    log.error( "Failure saving metrics for aggregation.", e );
-                }
-            }
-        }
-        catch ( Throwable e )
-        {
-            log.error( "Unhandled error." + this, e );
-        }
-        finally
-        {
-            stagingFiles.close();
-            unregisterQueueDepthGauge();
+            log.debug( "Dropped->" + this + ". Total dropped " + drop.getCount() );
         }
     }
 
@@ -265,9 +288,11 @@ public class DataPointStagingStore
 
     private void registerQueueDepthGauge()
     {
-        metricRegistry.register( queueSizeGaugeName(), (Gauge<Number>) () -> queue.size() );
+        metricRegistry.register( queueSizeGaugeName(),
+            (Gauge<Number>) () -> Arrays.stream( writers ).mapToInt( StagingWriter::queueSize ).sum() );
     }
 
+    @Override
     public void closeQuietly()
     {
         try
@@ -283,19 +308,33 @@ public class DataPointStagingStore
     void close()
     {
         log.info( "Stopping " + this );
-        stop = true;
-        try
+        RuntimeException failure = null;
+        for ( StagingWriter w : writers )
         {
-            TimeUnit.SECONDS.timedJoin( this, 30 );
-            log.info( this + " stopped." );
+            try
+            {
+                w.close();
+            }
+            catch ( RuntimeException e )
+            {
+                failure = e;
+            }
         }
-        catch ( InterruptedException e )
+        // a writer that is still running may write to staging files
+        if ( failure == null )
         {
-            throw new RuntimeException(e);
+            stagingFiles.close();
         }
+        unregisterQueueDepthGauge();
 
         intervalProcessorExecutorService.shutdown();
         this.intervalProcessors.shutdown();
+        if ( failure != null )
+        {
+            throw new IllegalStateException( "Staging files of " + this + " were left open, a writer didn't stop",
+                failure );
+        }
+        log.info( this + " stopped." );
     }
 
     public Future<IntervalProcessors.Stats> submitIntervalProcessorTask(SortedStagingFile sortedFile) {
@@ -7,9 +7,12 @@
 package com.demandware.carbonj.service.db.points;
 
 import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.DataPointBulkImport;
 import com.demandware.carbonj.service.db.model.DataPointImportResults;
 import com.demandware.carbonj.service.db.model.DataPointStore;
 import com.demandware.carbonj.service.db.model.DataPointValue;
+import com.demandware.carbonj.service.db.model.IntervalStats;
+import com.demandware.carbonj.service.db.model.IntervalStats.Statistic;
 import com.demandware.carbonj.service.db.model.Metric;
 import com.demandware.carbonj.service.db.model.QueryCachePolicy;
 import com.demandware.carbonj.service.db.model.RetentionPolicy;
@@ -23,12 +26,24 @@ import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
@@ -42,7 +57,7 @@ class DataPointStoreImpl
 
     private final DatabaseMetrics dbMetrics;
 
-    private final DataPointStagingStore stagingStore;
+    private final DataPointRollup stagingStore;
 
     private final boolean updateLowerResolutionArchives;
 
@@ -51,10 +66,15 @@ class DataPointStoreImpl
     private final CacheStatsReporter seriesCacheStatsReporter;
     private final LoadingCache<SeriesCacheKey, Series> seriesCache;
 
+    // cached series keys by archive and end of range. Only kept when archives report catch-up with primary.
+    private final Map<String, NavigableMap<Integer, Set<SeriesCacheKey>>> seriesByArchive;
+
     private final QueryCachePolicy queryCachePolicy;
 
     private final Predicate<String> metricNamePresent;
 
+    private final DataPointHeadBlock headBlock;
+
     private static class SeriesCacheKey
     {
         final Metric m;
@@ -113,19 +133,32 @@ class DataPointStoreImpl
     }
 
     DataPointStoreImpl(MetricRegistry metricRegistry, DataPointArchiveFactory dbFactory, DatabaseMetrics dbMetrics,
-                       DataPointStagingStore stagingStore, boolean updateLowerResolutionArchives,
+                       DataPointRollup stagingStore, boolean updateLowerResolutionArchives,
                        int timeSeriesCacheMaxSize, int timeSeriesCacheExpireInSec,
                        QueryCachePolicy queryCachePolicy, Predicate<String> metricNamePresentPredicate)
     {
+        this(metricRegistry, dbFactory, dbMetrics, stagingStore, updateLowerResolutionArchives, timeSeriesCacheMaxSize,
+            timeSeriesCacheExpireInSec, queryCachePolicy, metricNamePresentPredicate, null);
+    }
+
+    DataPointStoreImpl(MetricRegistry metricRegistry, DataPointArchiveFactory dbFactory, DatabaseMetrics dbMetrics,
+                       DataPointRollup stagingStore, boolean updateLowerResolutionArchives,
+                       int timeSeriesCacheMaxSize, int timeSeriesCacheExpireInSec,
+                       QueryCachePolicy queryCachePolicy, Predicate<String> metricNamePresentPredicate,
+                       DataPointHeadBlock headBlock)
+    {
+        this.headBlock = headBlock;
         this.dbFactory = Preconditions.checkNotNull( dbFactory );
         this.dbMetrics = Preconditions.checkNotNull( dbMetrics );
         this.stagingStore = stagingStore;
         this.updateLowerResolutionArchives = updateLowerResolutionArchives;
         this.queryCachePolicy = Preconditions.checkNotNull( queryCachePolicy );
         this.metricNamePresent = metricNamePresentPredicate;
+        this.seriesByArchive = dbFactory.reportsCatchUp() ? new ConcurrentHashMap<>() : null;
         seriesCache =
             CacheBuilder.newBuilder().initialCapacity( timeSeriesCacheMaxSize ).maximumSize( timeSeriesCacheMaxSize )
                 .recordStats().concurrencyLevel( 8 ).expireAfterWrite( timeSeriesCacheExpireInSec, TimeUnit.SECONDS )
+                .removalListener( this::untrackSeries )
                 .build( new CacheLoader<>()
                 {
                     @SuppressWarnings("NullableProblems")
@@ -133,10 +166,72 @@ class DataPointStoreImpl
                     public Series load( SeriesCacheKey key )
                         throws Exception
                     {
-                        return getSeries( key );
+                        Series series = getSeries( key );
+                        key.m.pickArchiveForQuery( key.from, key.until, key.now )
+                            .ifPresent( p -> trackSeries( p.dbName, key ) );
+                        return series;
                     }
                 } );
         seriesCacheStatsReporter = new CacheStatsReporter( metricRegistry,"SeriesQueryResults", timeSeriesCacheMaxSize, seriesCache );
+        dbFactory.setCatchUpListener( this::invalidateSeries );
+    }
+
+    /**
+     * Removes cached series served from the given archive that end at or after the given time. Used in readonly mode
+     * when catch-up with primary makes new data visible.
+     */
+    void invalidateSeries( String dbName, int since )
+    {
+        NavigableMap<Integer, Set<SeriesCacheKey>> byUntil = seriesByArchive != null ? seriesByArchive.get( dbName ) : null;
+        if ( byUntil == null )
+        {
+            return;
+        }
+        List<SeriesCacheKey> keys = new ArrayList<>();
+        synchronized ( byUntil )
+        {
+            byUntil.tailMap( since, true ).values().forEach( keys::addAll );
+        }
+        seriesCache.invalidateAll( keys );
+    }
+
+    private void trackSeries( String dbName, SeriesCacheKey key )
+    {
+        if ( seriesByArchive == null )
+        {
+            return;
+        }
+        NavigableMap<Integer, Set<SeriesCacheKey>> byUntil =
+            seriesByArchive.computeIfAbsent( dbName, n -> new TreeMap<>() );
+        synchronized ( byUntil )
+        {
+            byUntil.computeIfAbsent( key.until, u -> new HashSet<>() ).add( key );
+        }
+    }
+
+    private void untrackSeries( RemovalNotification<SeriesCacheKey, Series> n )
+    {
+        // replaced entries are still cached
+        if ( seriesByArchive == null || n.getCause() == RemovalCause.REPLACED )
+        {
+            return;
+        }
+        SeriesCacheKey key = n.getKey();
+        key.m.pickArchiveForQuery( key.from, key.until, key.now ).ifPresent( p -> {
+            NavigableMap<Integer, Set<SeriesCacheKey>> byUntil = seriesByArchive.get( p.dbName );
+            if ( byUntil == null )
+            {
+                return;
+            }
+            synchronized ( byUntil )
+            {
+                Set<SeriesCacheKey> keys = byUntil.get( key.until );
+                if ( keys != null && keys.remove( key ) && keys.isEmpty() )
+                {
+                    byUntil.remove( key.until );
+                }
+            }
+        } );
     }
 
     @Override
@@ -163,6 +258,15 @@ class DataPointStoreImpl
         return db.getDataPoints( metricId, from, to );
     }
 
+    @Override
+    public OptionalLong estimateDataPoints( RetentionPolicy archivePolicy, List<Metric> metrics, int from, int until )
+    {
+        DataPointArchive db = dbFactory.get( archivePolicy );
+        long[] metricIds = metrics.stream().mapToLong( m -> m.id ).toArray();
+        long estimate = db.estimateDataPoints( metricIds, from, until );
+        return estimate < 0 ? OptionalLong.empty() : OptionalLong.of( estimate );
+    }
+
     @Override
     public DataPointImportResults importDataPoints( String dbName, List<DataPoint> points, int maxAllowedImportErrors )
     {
@@ -215,6 +319,7 @@ class DataPointStoreImpl
         if ( rp.includes( p.ts, now ) )
         {
             db.put( p.metricId, p.ts, p.val );
+            invalidateHeadBlock( rp.dbName, p.metricId );
         }
         else
         {
@@ -233,6 +338,7 @@ class DataPointStoreImpl
                 {
                     DataPointArchive db = dbFactory.get( rp );
                     db.deleteMetric( m.id );
+                    invalidateHeadBlock( rp.dbName, m.id );
                 }
             }
         }
@@ -243,7 +349,12 @@ class DataPointStoreImpl
     {
         RetentionPolicy rp = RetentionPolicy.getInstanceForDbName( dbName );
         DataPointArchive db = dbFactory.get( rp );
-        return db.delete( rp.interval( ts ) );
+        long deleted = db.delete( rp.interval( ts ) );
+        if ( isHeadBlockArchive( dbName ) )
+        {
+            headBlock.clear();
+        }
+        return deleted;
     }
 
     @Override
@@ -269,6 +380,184 @@ class DataPointStoreImpl
         }
     }
 
+    @Override
+    public List<Series> getSeries( List<Metric> metrics, int from, int until, int now )
+    {
+        return getSeries( metrics, from, until, now, Statistic.VALUE, null );
+    }
+
+    @Override
+    public List<Series> getSeries( List<Metric> metrics, int from, int until, int now, Statistic statistic )
+    {
+        return getSeries( metrics, from, until, now, statistic, null );
+    }
+
+    @Override
+    public List<Series> getSeries( List<Metric> metrics, int from, int until, int now, Statistic statistic,
+                                   long[] readMillis )
+    {
+        if ( statistic == Statistic.VALUE )
+        {
+            return getValueSeries( metrics, from, until, now, readMillis );
+        }
+
+        // statistics are only kept for points of lower resolution archives. Points of other archives are single values,
+        // so the value is their min, max and sum, and the count is 1
+        Series[] results = new Series[metrics.size()];
+        Map<RetentionPolicy, List<Integer>> toRead = new HashMap<>();
+        List<Integer> values = new ArrayList<>();
+        for ( int i = 0; i < metrics.size(); i++ )
+        {
+            Metric m = metrics.get( i );
+            RetentionPolicy archivePolicy = m.pickArchiveForQuery( from, until, now ).orElse( null );
+            if ( archivePolicy == null || isObsolete( archivePolicy, m )
+                            || !( archivePolicy.is5m7d() || archivePolicy.is30m2y() ) )
+            {
+                values.add( i );
+                continue;
+            }
+            dbMetrics.markQueriesServed();
+            toRead.computeIfAbsent( archivePolicy, k -> new ArrayList<>() ).add( i );
+        }
+
+        if ( !values.isEmpty() )
+        {
+            long[] valuesReadMillis = readMillis == null ? null : new long[values.size()];
+            List<Series> read = getValueSeries( values.stream().map( metrics::get ).toList(), from, until, now,
+                valuesReadMillis );
+            for ( int i = 0; i < values.size(); i++ )
+            {
+                results[values.get( i )] = statistic == Statistic.COUNT ? toCounts( read.get( i ) ) : read.get( i );
+                if ( readMillis != null )
+                {
+                    readMillis[values.get( i )] = valuesReadMillis[i];
+                }
+            }
+        }
+        toRead.forEach( ( archivePolicy, positions ) -> readSeries( archivePolicy, metrics, positions, from, until, now,
+            statistic, results, readMillis ) );
+        return Arrays.asList( results );
+    }
+
+    private static Series toCounts( Series series )
+    {
+        double[] counts = new double[series.values.length];
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            counts[i] = Double.isNaN( series.values[i] ) ? Double.NaN : 1;
+        }
+        return new Series( series.name, series.start, series.end, series.step, counts );
+    }
+
+    private List<Series> getValueSeries( List<Metric> metrics, int from, int until, int now, long[] readMillis )
+    {
+        if ( metrics.size() < 2 )
+        {
+            List<Series> series = new ArrayList<>( metrics.size() );
+            for ( int i = 0; i < metrics.size(); i++ )
+            {
+                long start = System.currentTimeMillis();
+                series.add( getSeries( metrics.get( i ), from, until, now ) );
+                if ( readMillis != null )
+                {
+                    readMillis[i] = System.currentTimeMillis() - start;
+                }
+            }
+            return series;
+        }
+
+        Series[] results = new Series[metrics.size()];
+        Map<RetentionPolicy, List<Integer>> toRead = new HashMap<>();
+        for ( int i = 0; i < metrics.size(); i++ )
+        {
+            long start = System.currentTimeMillis();
+            dbMetrics.markQueriesServed();
+            Metric m = metrics.get( i );
+            SeriesCacheKey key = new SeriesCacheKey( m, from, until, now );
+            RetentionPolicy archivePolicy = m.pickArchiveForQuery( from, until, now ).orElse( null );
+            if ( archivePolicy == null || isObsolete( archivePolicy, m ) )
+            {
+                results[i] = getSeries( key );
+            }
+            else
+            {
+                if ( queryCachePolicy.useCache( archivePolicy ) )
+                {
+                    results[i] = seriesCache.getIfPresent( key );
+                }
+                if ( results[i] == null && isHeadBlockArchive( archivePolicy.dbName ) )
+                {
+                    int archiveFrom = archivePolicy.interval( from );
+                    int archiveUntil = archivePolicy.interval( until );
+                    double[] points = readHeadBlock( archivePolicy, m.id, archiveFrom, archiveUntil );
+                    if ( points != null )
+                    {
+                        results[i] = new Series( m.name, archiveFrom, archiveUntil, archivePolicy.precision, points );
+                    }
+                }
+                if ( results[i] == null )
+                {
+                    toRead.computeIfAbsent( archivePolicy, k -> new ArrayList<>() ).add( i );
+                }
+            }
+            if ( readMillis != null )
+            {
+                readMillis[i] = System.currentTimeMillis() - start;
+            }
+        }
+
+        toRead.forEach( ( archivePolicy, positions ) -> readSeries( archivePolicy, metrics, positions, from, until, now,
+            Statistic.VALUE, results, readMillis ) );
+        return Arrays.asList( results );
+    }
+
+    /**
+     * Reads series for metrics at given positions from one archive using a single batch read. Only values are cached.
+     * Time spent reading each series is added to readMillis at its position when readMillis is not null.
+     */
+    private void readSeries( RetentionPolicy archivePolicy, List<Metric> metrics, List<Integer> positions,
+                             int from, int until, int now, Statistic statistic, Series[] results, long[] readMillis )
+    {
+        positions.sort( Comparator.comparingLong( i -> metrics.get( i ).id ) );
+        long[] metricIds = new long[positions.size()];
+        for ( int i = 0; i < metricIds.length; i++ )
+        {
+            metricIds[i] = metrics.get( positions.get( i ) ).id;
+        }
+
+        int archiveFrom = archivePolicy.interval( from );
+        int step = archivePolicy.precision;
+        int archiveUntil = archivePolicy.interval( until );
+        DataPointArchive db = dbFactory.get( archivePolicy );
+        long[] archiveReadMillis = readMillis == null ? null : new long[metricIds.length];
+        List<double[]> points = db.getDataPoints( metricIds, archiveFrom, archiveUntil, step, statistic,
+            archiveReadMillis );
+
+        boolean useCache = statistic == Statistic.VALUE && queryCachePolicy.useCache( archivePolicy );
+        for ( int i = 0; i < metricIds.length; i++ )
+        {
+            int pos = positions.get( i );
+            Metric m = metrics.get( pos );
+            Series series = new Series( m.name, archiveFrom, archiveUntil, step, points.get( i ) );
+            if ( useCache )
+            {
+                SeriesCacheKey key = new SeriesCacheKey( m, from, until, now );
+                trackSeries( archivePolicy.dbName, key );
+                seriesCache.put( key, series );
+            }
+            results[pos] = series;
+            if ( readMillis != null )
+            {
+                readMillis[pos] += archiveReadMillis[i];
+            }
+        }
+    }
+
+    private boolean isObsolete( RetentionPolicy archivePolicy, Metric m )
+    {
+        return (archivePolicy.is5m7d() || archivePolicy.is60s24h() || archivePolicy.is60s30d()) && !metricNamePresent.test( m.name );
+    }
+
     private Series getSeries( SeriesCacheKey key )
     {
         RetentionPolicy archivePolicy = key.m.pickArchiveForQuery( key.from, key.until, key.now ).orElse( null );
@@ -277,25 +566,24 @@ class DataPointStoreImpl
             int from = archivePolicy.interval( key.from );
             int step = archivePolicy.precision;
             int until = archivePolicy.interval( key.until );
-            List<Double> points;
+            double[] points;
 
             // for empty one
-            if( (archivePolicy.is5m7d() || archivePolicy.is60s24h() || archivePolicy.is60s30d()) && !metricNamePresent.test(key.m.name)  )
+            if( isObsolete( archivePolicy, key.m ) )
             {
                 DatabaseMetrics.obsoleteSeriesAccessMeter.mark();
 
-                points = new ArrayList<>();
-                int ts = from;
-                while ( ts <= until )
-                {
-                    points.add( null );
-                    ts = ts + step;
-                }
+                points = Series.emptyValues( from, until, step );
             }
             else
             {
-                DataPointArchive db = dbFactory.get(archivePolicy);
-                points = db.getDataPoints(key.m.id, from, until, step);
+                points = isHeadBlockArchive( archivePolicy.dbName ) ? readHeadBlock( archivePolicy, key.m.id, from,
+                    until ) : null;
+                if ( points == null )
+                {
+                    DataPointArchive db = dbFactory.get(archivePolicy);
+                    points = db.getDataPoints(key.m.id, from, until, step);
+                }
             }
             return new Series( key.m.name, from, until, step, points );
         }
@@ -303,10 +591,47 @@ class DataPointStoreImpl
         {
             // TODO: check what python code is doing in such cases?
             // TODO: maybe just use lowest precision archive and return list of null values?
-            return new Series( key.m.name, key.from, key.until, key.now, new ArrayList<Double>() );
+            return new Series( key.m.name, key.from, key.until, key.now, new double[0] );
         }
     }
 
+    private boolean isHeadBlockArchive( String dbName )
+    {
+        return headBlock != null && headBlock.policy().dbName.equals( dbName );
+    }
+
+    /**
+     * @return values between archive intervals from and until or null if they have to be read from the archive.
+     */
+    private double[] readHeadBlock( RetentionPolicy archivePolicy, long metricId, int from, int until )
+    {
+        DataPointArchive db = dbFactory.get( archivePolicy );
+        return headBlock.read( metricId, from, until, ( id, windowFrom, windowUntil ) -> db.getDataPoints( id,
+            windowFrom, windowUntil, archivePolicy.precision ) );
+    }
+
+    private void invalidateHeadBlock( String dbName, long metricId )
+    {
+        if ( isHeadBlockArchive( dbName ) )
+        {
+            headBlock.invalidate( metricId );
+        }
+    }
+
+    @Override
+    public int flush()
+    {
+        // rollup flushes aggregated points into archives, flush archives afterwards
+        int pending = stagingStore != null ? stagingStore.flush() : Integer.MAX_VALUE;
+        dbFactory.flush();
+        return pending;
+    }
+
+    @Override
+    public void checkpoint( File snapshotDir )
+    {
+        dbFactory.checkpoint( snapshotDir );
+    }
 
     @Override
     public void close()
@@ -316,6 +641,10 @@ class DataPointStoreImpl
         }
         dbFactory.close();
         seriesCacheStatsReporter.close();
+        if ( headBlock != null )
+        {
+            headBlock.close();
+        }
     }
 
     @Override
@@ -334,6 +663,11 @@ class DataPointStoreImpl
             DataPointArchive db = dbFactory.get( policy );
             int n = db.put( points );
             dbMetrics.markPointsSaved( n );
+            // archive writes are all or nothing - head block serves only points that were written
+            if ( n > 0 && isHeadBlockArchive( policy.dbName ) )
+            {
+                headBlock.put( points );
+            }
         }
 
         if ( updateLowerResolutionArchives )
@@ -367,20 +701,21 @@ class DataPointStoreImpl
                 RetentionPolicy nextPolicy = m.retentionPolicyAfter( policy ).orElse( null );
                 if ( nextPolicy != null )
                 {
-                    updateLowerResolutionArchive( m, p.ts, p.val, nextPolicy );
+                    updateLowerResolutionArchive( m, p.ts, p.val, p.stats, nextPolicy );
                 }
             }
         }
     }
 
-    private void updateLowerResolutionArchive( Metric metric, int ts, double val, RetentionPolicy nextPolicy )
+    private void updateLowerResolutionArchive( Metric metric, int ts, double val, IntervalStats stats,
+                                               RetentionPolicy nextPolicy )
     {
         DataPointArchive nextArchive = dbFactory.get( nextPolicy );
         String dbName = nextArchive.getName();
         // from also identifies interval in nextArchive for this data point
         int from = nextPolicy.interval( ts );
         if (stagingStore != null) {
-            stagingStore.add(dbName, from, metric.id, val, metric.name);
+            stagingStore.add(dbName, from, metric.id, val, stats, metric.name);
         }
     }
 
@@ -389,6 +724,71 @@ class DataPointStoreImpl
     {
         DataPointArchive db = dbFactory.get( dbName );
         db.put( points );
+        if ( isHeadBlockArchive( dbName ) )
+        {
+            for ( int i = 0, n = points.size(); i < n; i++ )
+            {
+                headBlock.invalidate( points.get( i ).metricId );
+            }
+        }
+    }
+
+    @Override
+    public DataPointBulkImport startBulkImport( String dbName )
+    {
+        DataPointBulkImport bulkImport = dbFactory.get( dbName ).startBulkImport();
+        if ( !isHeadBlockArchive( dbName ) )
+        {
+            return bulkImport;
+        }
+        // ingested files are not seen by the head block - drop series that may have been read before ingestion
+        headBlock.clear();
+        return new DataPointBulkImport()
+        {
+            @Override
+            public void add( DataPoints points )
+            {
+                bulkImport.add( points );
+            }
+
+            @Override
+            public long finish()
+            {
+                try
+                {
+                    return bulkImport.finish();
+                }
+                finally
+                {
+                    headBlock.clear();
+                }
+            }
+
+            @Override
+            public long addedPoints()
+            {
+                return bulkImport.addedPoints();
+            }
+
+            @Override
+            public long ingestedPoints()
+            {
+                return bulkImport.ingestedPoints();
+            }
+
+            @Override
+            public int ingestedFiles()
+            {
+                return bulkImport.ingestedFiles();
+            }
+
+            @Override
+            public void close()
+            {
+                bulkImport.close();
+                headBlock.clear();
+            }
+        };
     }
 
     @Override
@@ -397,4 +797,10 @@ class DataPointStoreImpl
         DataPointArchive db = dbFactory.get( archivePolicy );
         return db.getFirst( metricId, from, to );
     }
+
+    @Override
+    public boolean mayHaveData( RetentionPolicy archivePolicy, long metricId, int from, int until )
+    {
+        return dbFactory.get( archivePolicy ).mayHaveData( metricId, from, until );
+    }
 }
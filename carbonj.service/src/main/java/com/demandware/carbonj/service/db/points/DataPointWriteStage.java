@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.demandware.carbonj.service.db.util.MetricUtils;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Group commit for data point archive writes. Producer threads queue their records and wait for the commit. Writer
+ * threads coalesce queued records from all producers into one large write batch limited by size and latency targets
+ * so that rocksdb sees few large writes instead of many small concurrent ones. A full queue blocks producers.
+ */
+class DataPointWriteStage
+{
+    private static final Logger log = LoggerFactory.getLogger( DataPointWriteStage.class );
+
+    interface BatchWriter
+    {
+        void write( WriteBatch batch ) throws RocksDBException;
+    }
+
+    private static class PendingWrite
+    {
+        final byte[][] keys;
+
+        final byte[][] values;
+
+        final int count;
+
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingWrite( byte[][] keys, byte[][] values, int count )
+        {
+            this.keys = keys;
+            this.values = values;
+            this.count = count;
+        }
+    }
+
+    private final String dbName;
+
+    private final BatchWriter writer;
+
+    private final BlockingQueue<PendingWrite> queue;
+
+    private final int maxBatchSize;
+
+    private final long maxBatchDelayNanos;
+
+    private final ExecutorService writers;
+
+    private final MetricRegistry metricRegistry;
+
+    private final Histogram batchSize;
+
+    private final Timer commitTimer;
+
+    private final Timer blockedTimer;
+
+    private volatile boolean running = true;
+
+    DataPointWriteStage( MetricRegistry metricRegistry, String dbName, BatchWriter writer, int queueSize,
+                         int maxBatchSize, int maxBatchDelayMillis, int writerThreads )
+    {
+        this.metricRegistry = metricRegistry;
+        this.dbName = dbName;
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<>( queueSize );
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos( maxBatchDelayMillis );
+        this.batchSize = metricRegistry.histogram( MetricUtils.dbWriteStageBatchSizeName( dbName ) );
+        this.commitTimer = metricRegistry.timer( MetricUtils.dbWriteStageCommitTimerName( dbName ) );
+        this.blockedTimer = metricRegistry.timer( MetricUtils.dbWriteStageBlockedTimerName( dbName ) );
+        metricRegistry.remove( MetricUtils.dbWriteStageQueueName( dbName ) );
+        metricRegistry.register( MetricUtils.dbWriteStageQueueName( dbName ),
+            ( Gauge<Integer> ) queue::size );
+        this.writers = Executors.newFixedThreadPool( writerThreads,
+            new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( dbName + "-writer-%d" ).build() );
+        for ( int i = 0; i < writerThreads; i++ )
+        {
+            writers.execute( this::run );
+        }
+    }
+
+    /**
+     * Queues records for the next group commit and waits until they are written.
+     */
+    void write( byte[][] keys, byte[][] values, int count )
+        throws RocksDBException
+    {
+        if ( count == 0 )
+        {
+            return;
+        }
+        if ( !running )
+        {
+            throw new IllegalStateException( "Write stage of " + dbName + " is closed" );
+        }
+        PendingWrite pending = new PendingWrite( keys, values, count );
+        try
+        {
+            if ( !queue.offer( pending ) )
+            {
+                try (Timer.Context ignored = blockedTimer.time())
+                {
+                    queue.put( pending );
+                }
+            }
+            // close() may have drained the queue after the check above and writers may be gone - take the write
+            // back unless a writer or the drain already owns it and will complete it
+            if ( !running && queue.remove( pending ) )
+            {
+                throw new IllegalStateException( "Write stage of " + dbName + " is closed" );
+            }
+            pending.done.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted while writing to " + dbName, e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwables.throwIfInstanceOf( e.getCause(), RocksDBException.class );
+            Throwables.throwIfUnchecked( e.getCause() );
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    private void run()
+    {
+        List<PendingWrite> group = new ArrayList<>();
+        boolean interrupted = false;
+        while ( !interrupted && ( running || !queue.isEmpty() ) )
+        {
+            int records = 0;
+            try
+            {
+                PendingWrite first = queue.poll( 100, TimeUnit.MILLISECONDS );
+                if ( first == null )
+                {
+                    continue;
+                }
+                group.add( first );
+                records = first.count;
+                long deadline = System.nanoTime() + maxBatchDelayNanos;
+                while ( records < maxBatchSize )
+                {
+                    PendingWrite next = queue.poll();
+                    if ( next == null )
+                    {
+                        long wait = deadline - System.nanoTime();
+                        if ( wait <= 0 || ( next = queue.poll( wait, TimeUnit.NANOSECONDS ) ) == null )
+                        {
+                            break;
+                        }
+                    }
+                    group.add( next );
+                    records += next.count;
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+            }
+            // records already taken from the queue are committed even if the writer was interrupted
+            if ( !group.isEmpty() )
+            {
+                commit( group, records );
+                group.clear();
+            }
+        }
+    }
+
+    private void commit( List<PendingWrite> group, int records )
+    {
+        try (WriteBatch batch = new WriteBatch(); Timer.Context ignored = commitTimer.time())
+        {
+            for ( PendingWrite pending : group )
+            {
+                for ( int i = 0; i < pending.count; i++ )
+                {
+                    batch.put( pending.keys[i], pending.values[i] );
+                }
+            }
+            writer.write( batch );
+            batchSize.update( records );
+            group.forEach( p -> p.done.complete( null ) );
+        }
+        catch ( Throwable t )
+        {
+            log.error( "Failed to write batch of " + records + " records to " + dbName, t );
+            group.forEach( p -> p.done.completeExceptionally( t ) );
+        }
+    }
+
+    void close()
+    {
+        running = false;
+        writers.shutdown();
+        try
+        {
+            if ( !writers.awaitTermination( 30, TimeUnit.SECONDS ) )
+            {
+                log.warn( "Timed out waiting for writers of " + dbName + " to finish" );
+                writers.shutdownNow();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        PendingWrite pending;
+        while ( ( pending = queue.poll() ) != null )
+        {
+            pending.done.completeExceptionally( new IllegalStateException( "Write stage of " + dbName + " is closed" ) );
+        }
+        metricRegistry.remove( MetricUtils.dbWriteStageQueueName( dbName ) );
+    }
+}
@@ -10,5 +10,11 @@ import com.demandware.carbonj.service.db.model.IntervalValues;
 
 public interface IntervalProcessor extends Runnable {
     void put(IntervalValues intervalValues) throws InterruptedException;
+
+    /**
+     * @return true if all intervals put so far have been written to the point store.
+     */
+    boolean isIdle();
+
     void close();
 }
@@ -13,6 +13,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
@@ -43,6 +44,9 @@ public class IntervalProcessorImpl implements IntervalProcessor
     final private int queueSize;
 
     private final ArrayBlockingQueue<IntervalValues> queue;
+
+    // intervals put on the queue that haven't been written yet
+    private final AtomicInteger pending = new AtomicInteger();
     private final int emptyQueuePauseInMillis;
 
     private final Executor s;
@@ -94,7 +98,22 @@ public class IntervalProcessorImpl implements IntervalProcessor
             return;
         }
         // will block if the queue is full
-        queue.put( intervalValues );
+        pending.incrementAndGet();
+        try
+        {
+            queue.put( intervalValues );
+        }
+        catch ( InterruptedException e )
+        {
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isIdle()
+    {
+        return pending.get() == 0;
     }
 
     @Override
@@ -123,7 +142,17 @@ public class IntervalProcessorImpl implements IntervalProcessor
                         continue;
                     }
                     Runnable task = taskFactory.create( batch );
-                    s.execute( task );
+                    int n = batch.size();
+                    s.execute( ( ) -> {
+                        try
+                        {
+                            task.run();
+                        }
+                        finally
+                        {
+                            pending.addAndGet( -n );
+                        }
+                    } );
                 }
                 catch ( Exception e )
                 {
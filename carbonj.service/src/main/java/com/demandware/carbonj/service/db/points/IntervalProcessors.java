@@ -9,6 +9,7 @@ package com.demandware.carbonj.service.db.points;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import com.codahale.metrics.MetricRegistry;
 import org.slf4j.Logger;
@@ -59,6 +60,26 @@ class IntervalProcessors
         return p;
     }
 
+    /**
+     * Waits until intervals of all processed files have been written to the point store.
+     *
+     * @return false if processors are still busy after the timeout.
+     */
+    public boolean awaitIdle(long timeoutMillis)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while ( !map.values().stream().allMatch( IntervalProcessor::isIdle ) )
+        {
+            if ( System.currentTimeMillis() > deadline )
+            {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep( 10 );
+        }
+        return true;
+    }
+
     public void shutdown()
     {
         map.values().forEach(IntervalProcessor::close);
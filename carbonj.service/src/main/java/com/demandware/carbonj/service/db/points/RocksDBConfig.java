@@ -70,9 +70,49 @@ public class RocksDBConfig
     @Value("${rocksdb.useBloomFilter:false}")
     boolean useBloomFilter = false;
 
+    // metric id prefix bloom filters let batched series reads skip files that don't contain the metric
+    // changes the table format of new sst files, existing files are read without prefix filtering until compacted
+    @Value("${rocksdb.usePrefixBloomFilter:false}")
+    boolean usePrefixBloomFilter = false;
+
+    @Value("${rocksdb.statistics.enabled:true}")
+    boolean statisticsEnabled = true;
+
     @Value("${rocksdb.disableWAL:false}")
     boolean disableWAL = false;
 
+    // group commit of data point writes from all producer threads into large write batches
+    @Value("${rocksdb.writeStage.enabled:false}")
+    boolean writeStageEnabled = false;
+
+    @Value("${rocksdb.writeStage.queueSize:1000}")
+    int writeStageQueueSize = 1000;
+
+    @Value("${rocksdb.writeStage.maxBatchSize:50000}")
+    int writeStageMaxBatchSize = 50000;
+
+    @Value("${rocksdb.writeStage.maxBatchDelayMillis:2}")
+    int writeStageMaxBatchDelayMillis = 2;
+
+    @Value("${rocksdb.writeStage.writerThreads:1}")
+    int writeStageWriterThreads = 1;
+
+    // points buffered by admin bulk import before they are sorted and written into external sst files
+    @Value("${rocksdb.bulkImport.chunkSize:5000000}")
+    int bulkImportChunkSize = 5000000;
+
+    // number of key ranges of a chunk that are sorted and written into sst files in parallel
+    @Value("${rocksdb.bulkImport.threads:4}")
+    int bulkImportThreads = 4;
+
+    // per metric first/last written interval, used to skip reads of metrics without data in the query range
+    @Value("${rocksdb.extentIndex.enabled:false}")
+    boolean extentIndexEnabled = false;
+
+    // min, max, sum and count of aggregated values stored next to the value of lower resolution archive points
+    @Value("${rocksdb.intervalStats.enabled:false}")
+    boolean intervalStatsEnabled = false;
+
     @Value("${rocksdb.maxGrandparentOverlapFactor:-1}")
     int maxGrandparentOverlapFactor = -1;
 
@@ -88,6 +128,13 @@ public class RocksDBConfig
     @Value("${rocksdb.catchup.retry:3}")
     int catchupRetry = 3;
 
+    // catch up with primary as soon as primary MANIFEST or WAL changes instead of at a fixed interval
+    @Value("${rocksdb.catchup.adaptive:false}")
+    boolean catchupAdaptive = false;
+
+    @Value("${rocksdb.catchup.minDelayMillis:1000}")
+    int catchupMinDelayMillis = 1000;
+
     @Value("${rocksdb.object.cleaner.queue.size:100000}")
     int objectCleanerQueueSize = 100000;
 
@@ -105,8 +152,15 @@ public class RocksDBConfig
                         ", levelZeroFileNumCompactionTrigger=" + levelZeroFileNumCompactionTrigger +
                         ", disableWAL=" + disableWAL +
                         ", useBloomFilter=" + useBloomFilter +
+                        ", usePrefixBloomFilter=" + usePrefixBloomFilter +
+                        ", statisticsEnabled=" + statisticsEnabled +
+                        ", writeStageEnabled=" + writeStageEnabled +
+                        ", bulkImportChunkSize=" + bulkImportChunkSize +
+                        ", extentIndexEnabled=" + extentIndexEnabled +
+                        ", intervalStatsEnabled=" + intervalStatsEnabled +
                         ", readOnly=" + readOnly +
                         ", catchupRetry=" + catchupRetry +
+                        ", catchupAdaptive=" + catchupAdaptive +
                         ", objectCleanerQueueSize=" + objectCleanerQueueSize +
                         '}';
     }
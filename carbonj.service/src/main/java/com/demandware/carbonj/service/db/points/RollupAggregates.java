@@ -0,0 +1,778 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.demandware.carbonj.service.db.model.IntervalStats;
+
+/**
+ * Partial aggregates (sum, count, min, max, last) of one interval of a lower resolution archive, in an open
+ * addressing hash map keyed by metric id. Not thread safe.
+ * <p>
+ * Sum and count aggregate the added values, they compute the point value. Min, max, stat sum and stat count
+ * aggregate the interval stats of the added values, they compute the stats of the point - values added with stats
+ * of a higher resolution point contribute their stats, other values count as a single value. Min and max serve both.
+ * <p>
+ * Runs written with stat sum and stat count can't be read by versions without stats support, they have to be drained
+ * before such a downgrade. Runs of the previous format are still read.
+ */
+final class RollupAggregates
+{
+    // metric ids are never negative
+    private static final long EMPTY = -1;
+
+    // runs without stat sum and stat count
+    private static final int RUN_MAGIC_V1 = 0xCB520001;
+
+    private static final int RUN_MAGIC = 0xCB520002;
+
+    private long[] ids;
+
+    private double[] sum;
+
+    private int[] count;
+
+    private double[] min;
+
+    private double[] max;
+
+    private double[] last;
+
+    private double[] statSum;
+
+    private int[] statCount;
+
+    // set for metrics that changed since the interval was emitted last time
+    private boolean[] dirty;
+
+    private int size;
+
+    RollupAggregates( int capacity )
+    {
+        allocate( Integer.highestOneBit( Math.max( 16, capacity ) - 1 ) << 1 );
+    }
+
+    private void allocate( int capacity )
+    {
+        ids = new long[capacity];
+        Arrays.fill( ids, EMPTY );
+        sum = new double[capacity];
+        count = new int[capacity];
+        min = new double[capacity];
+        max = new double[capacity];
+        last = new double[capacity];
+        statSum = new double[capacity];
+        statCount = new int[capacity];
+        dirty = new boolean[capacity];
+        size = 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    private int slot( long id )
+    {
+        int mask = ids.length - 1;
+        int i = Long.hashCode( id * 0x9E3779B97F4A7C15L ) & mask;
+        while ( ids[i] != EMPTY && ids[i] != id )
+        {
+            i = ( i + 1 ) & mask;
+        }
+        return i;
+    }
+
+    void add( long id, double val )
+    {
+        add( id, val, null );
+    }
+
+    /**
+     * @param stats stats of the values aggregated into val, null if val is a single value.
+     */
+    void add( long id, double val, IntervalStats stats )
+    {
+        if ( stats == null )
+        {
+            merge( id, val, 1, val, val, val, val, 1, true );
+        }
+        else
+        {
+            merge( id, val, 1, stats.min, stats.max, val, stats.sum, stats.count, true );
+        }
+    }
+
+    void merge( long id, double s, int c, double mn, double mx, double lst, double ss, int sc, boolean changed )
+    {
+        if ( ( size + 1 ) * 4L > ids.length * 3L )
+        {
+            grow();
+        }
+        int i = slot( id );
+        if ( ids[i] == EMPTY )
+        {
+            ids[i] = id;
+            sum[i] = s;
+            count[i] = c;
+            min[i] = mn;
+            max[i] = mx;
+            last[i] = lst;
+            statSum[i] = ss;
+            statCount[i] = sc;
+            dirty[i] = changed;
+            size++;
+            return;
+        }
+        sum[i] += s;
+        count[i] += c;
+        min[i] = Math.min( min[i], mn );
+        max[i] = Math.max( max[i], mx );
+        last[i] = lst;
+        statSum[i] += ss;
+        statCount[i] += sc;
+        dirty[i] |= changed;
+    }
+
+    private void grow()
+    {
+        long[] oldIds = ids;
+        double[] oldSum = sum, oldMin = min, oldMax = max, oldLast = last, oldStatSum = statSum;
+        int[] oldCount = count, oldStatCount = statCount;
+        boolean[] oldDirty = dirty;
+        allocate( oldIds.length * 2 );
+        for ( int i = 0; i < oldIds.length; i++ )
+        {
+            if ( oldIds[i] != EMPTY )
+            {
+                merge( oldIds[i], oldSum[i], oldCount[i], oldMin[i], oldMax[i], oldLast[i], oldStatSum[i],
+                    oldStatCount[i], oldDirty[i] );
+            }
+        }
+    }
+
+    /**
+     * Copies aggregates and clears dirty flags.
+     *
+     * @param onlyDirty copy only aggregates that changed since the last snapshot.
+     */
+    Partials snapshot( boolean onlyDirty )
+    {
+        Partials p = new Partials( onlyDirty ? 16 : size );
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            if ( ids[i] != EMPTY && ( dirty[i] || !onlyDirty ) )
+            {
+                p.add( ids[i], sum[i], count[i], min[i], max[i], last[i], statSum[i], statCount[i], dirty[i] );
+                dirty[i] = false;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Removes and returns all aggregates.
+     */
+    Partials drain()
+    {
+        Partials p = new Partials( size );
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            if ( ids[i] != EMPTY )
+            {
+                p.add( ids[i], sum[i], count[i], min[i], max[i], last[i], statSum[i], statCount[i], dirty[i] );
+            }
+        }
+        allocate( 16 );
+        return p;
+    }
+
+    /**
+     * Sequential access to partial aggregates ordered by metric id.
+     */
+    interface Cursor
+    {
+        boolean next();
+
+        long id();
+
+        double sum();
+
+        int count();
+
+        double min();
+
+        double max();
+
+        double last();
+
+        double statSum();
+
+        int statCount();
+
+        boolean dirty();
+    }
+
+    /**
+     * Partial aggregates in plain arrays.
+     */
+    static final class Partials
+        implements Cursor
+    {
+        private long[] ids;
+
+        private double[] sum;
+
+        private int[] count;
+
+        private double[] min;
+
+        private double[] max;
+
+        private double[] last;
+
+        private double[] statSum;
+
+        private int[] statCount;
+
+        private boolean[] dirty;
+
+        private int size;
+
+        private int pos = -1;
+
+        Partials( int capacity )
+        {
+            int c = Math.max( 16, capacity );
+            ids = new long[c];
+            sum = new double[c];
+            count = new int[c];
+            min = new double[c];
+            max = new double[c];
+            last = new double[c];
+            statSum = new double[c];
+            statCount = new int[c];
+            dirty = new boolean[c];
+        }
+
+        static Partials concat( List<Partials> parts )
+        {
+            Partials all = new Partials( parts.stream().mapToInt( Partials::size ).sum() );
+            for ( Partials p : parts )
+            {
+                for ( int i = 0; i < p.size; i++ )
+                {
+                    all.add( p.ids[i], p.sum[i], p.count[i], p.min[i], p.max[i], p.last[i], p.statSum[i],
+                        p.statCount[i], p.dirty[i] );
+                }
+            }
+            return all;
+        }
+
+        void add( long id, double s, int c, double mn, double mx, double lst, double ss, int sc, boolean d )
+        {
+            if ( size == ids.length )
+            {
+                int capacity = size * 2;
+                ids = Arrays.copyOf( ids, capacity );
+                sum = Arrays.copyOf( sum, capacity );
+                count = Arrays.copyOf( count, capacity );
+                min = Arrays.copyOf( min, capacity );
+                max = Arrays.copyOf( max, capacity );
+                last = Arrays.copyOf( last, capacity );
+                statSum = Arrays.copyOf( statSum, capacity );
+                statCount = Arrays.copyOf( statCount, capacity );
+                dirty = Arrays.copyOf( dirty, capacity );
+            }
+            ids[size] = id;
+            sum[size] = s;
+            count[size] = c;
+            min[size] = mn;
+            max[size] = mx;
+            last[size] = lst;
+            statSum[size] = ss;
+            statCount[size] = sc;
+            dirty[size] = d;
+            size++;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        /**
+         * Clears dirty flags and moves the cursor back to the start.
+         */
+        Partials clean()
+        {
+            Arrays.fill( dirty, 0, size, false );
+            pos = -1;
+            return this;
+        }
+
+        /**
+         * Sorts by metric id. Metric ids are unique.
+         */
+        Partials sort()
+        {
+            quickSort( 0, size - 1 );
+            return this;
+        }
+
+        private void quickSort( int lo, int hi )
+        {
+            while ( hi - lo > 16 )
+            {
+                long pivot = ids[( lo + hi ) >>> 1];
+                int i = lo, j = hi;
+                while ( i <= j )
+                {
+                    while ( ids[i] < pivot )
+                    {
+                        i++;
+                    }
+                    while ( ids[j] > pivot )
+                    {
+                        j--;
+                    }
+                    if ( i <= j )
+                    {
+                        swap( i++, j-- );
+                    }
+                }
+                // recurse into the smaller part to bound stack depth
+                if ( j - lo < hi - i )
+                {
+                    quickSort( lo, j );
+                    lo = i;
+                }
+                else
+                {
+                    quickSort( i, hi );
+                    hi = j;
+                }
+            }
+            for ( int i = lo + 1; i <= hi; i++ )
+            {
+                for ( int j = i; j > lo && ids[j - 1] > ids[j]; j-- )
+                {
+                    swap( j, j - 1 );
+                }
+            }
+        }
+
+        private void swap( int a, int b )
+        {
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double d = sum[a];
+            sum[a] = sum[b];
+            sum[b] = d;
+            int c = count[a];
+            count[a] = count[b];
+            count[b] = c;
+            d = min[a];
+            min[a] = min[b];
+            min[b] = d;
+            d = max[a];
+            max[a] = max[b];
+            max[b] = d;
+            d = last[a];
+            last[a] = last[b];
+            last[b] = d;
+            d = statSum[a];
+            statSum[a] = statSum[b];
+            statSum[b] = d;
+            c = statCount[a];
+            statCount[a] = statCount[b];
+            statCount[b] = c;
+            boolean f = dirty[a];
+            dirty[a] = dirty[b];
+            dirty[b] = f;
+        }
+
+        @Override
+        public boolean next()
+        {
+            return ++pos < size;
+        }
+
+        @Override
+        public long id()
+        {
+            return ids[pos];
+        }
+
+        @Override
+        public double sum()
+        {
+            return sum[pos];
+        }
+
+        @Override
+        public int count()
+        {
+            return count[pos];
+        }
+
+        @Override
+        public double min()
+        {
+            return min[pos];
+        }
+
+        @Override
+        public double max()
+        {
+            return max[pos];
+        }
+
+        @Override
+        public double last()
+        {
+            return last[pos];
+        }
+
+        @Override
+        public double statSum()
+        {
+            return statSum[pos];
+        }
+
+        @Override
+        public int statCount()
+        {
+            return statCount[pos];
+        }
+
+        @Override
+        public boolean dirty()
+        {
+            return dirty[pos];
+        }
+    }
+
+    /**
+     * Writes partial aggregates ordered by metric id into a run file.
+     */
+    static void writeRun( File file, Cursor cursor )
+        throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( file ), 256 * 1024 ) ))
+        {
+            out.writeInt( RUN_MAGIC );
+            while ( cursor.next() )
+            {
+                out.writeLong( cursor.id() );
+                out.writeDouble( cursor.sum() );
+                out.writeInt( cursor.count() );
+                out.writeDouble( cursor.min() );
+                out.writeDouble( cursor.max() );
+                out.writeDouble( cursor.last() );
+                out.writeDouble( cursor.statSum() );
+                out.writeInt( cursor.statCount() );
+                out.writeBoolean( cursor.dirty() );
+            }
+        }
+    }
+
+    /**
+     * Reader of a run file written by {@link #writeRun(File, Cursor)}.
+     */
+    static final class RunReader
+        implements Cursor, Closeable
+    {
+        private final DataInputStream in;
+
+        private final boolean hasStats;
+
+        private long id;
+
+        private double sum;
+
+        private int count;
+
+        private double min;
+
+        private double max;
+
+        private double last;
+
+        private double statSum;
+
+        private int statCount;
+
+        private boolean dirty;
+
+        RunReader( File file )
+            throws IOException
+        {
+            this.in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 256 * 1024 ) );
+            int magic = in.readInt();
+            if ( magic != RUN_MAGIC && magic != RUN_MAGIC_V1 )
+            {
+                in.close();
+                throw new IOException( "Not a rollup run file: " + file );
+            }
+            this.hasStats = magic == RUN_MAGIC;
+        }
+
+        @Override
+        public boolean next()
+        {
+            try
+            {
+                id = in.readLong();
+                sum = in.readDouble();
+                count = in.readInt();
+                min = in.readDouble();
+                max = in.readDouble();
+                last = in.readDouble();
+                if ( hasStats )
+                {
+                    statSum = in.readDouble();
+                    statCount = in.readInt();
+                }
+                else
+                {
+                    statSum = sum;
+                    statCount = count;
+                }
+                dirty = in.readBoolean();
+                return true;
+            }
+            catch ( EOFException e )
+            {
+                return false;
+            }
+            catch ( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+        }
+
+        @Override
+        public long id()
+        {
+            return id;
+        }
+
+        @Override
+        public double sum()
+        {
+            return sum;
+        }
+
+        @Override
+        public int count()
+        {
+            return count;
+        }
+
+        @Override
+        public double min()
+        {
+            return min;
+        }
+
+        @Override
+        public double max()
+        {
+            return max;
+        }
+
+        @Override
+        public double last()
+        {
+            return last;
+        }
+
+        @Override
+        public double statSum()
+        {
+            return statSum;
+        }
+
+        @Override
+        public int statCount()
+        {
+            return statCount;
+        }
+
+        @Override
+        public boolean dirty()
+        {
+            return dirty;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Combines aggregates of the same metric from cursors ordered by age - last value is taken from the newest one.
+     */
+    static final class MergeCursor
+        implements Cursor
+    {
+        private final Cursor[] cursors;
+
+        private final boolean[] valid;
+
+        private long id;
+
+        private double sum;
+
+        private int count;
+
+        private double min;
+
+        private double max;
+
+        private double last;
+
+        private double statSum;
+
+        private int statCount;
+
+        private boolean dirty;
+
+        MergeCursor( List<? extends Cursor> oldestFirst )
+        {
+            this.cursors = oldestFirst.toArray( new Cursor[0] );
+            this.valid = new boolean[cursors.length];
+            for ( int i = 0; i < cursors.length; i++ )
+            {
+                valid[i] = cursors[i].next();
+            }
+        }
+
+        @Override
+        public boolean next()
+        {
+            long next = Long.MAX_VALUE;
+            boolean found = false;
+            for ( int i = 0; i < cursors.length; i++ )
+            {
+                if ( valid[i] && cursors[i].id() <= next )
+                {
+                    next = cursors[i].id();
+                    found = true;
+                }
+            }
+            if ( !found )
+            {
+                return false;
+            }
+            id = next;
+            count = 0;
+            for ( int i = 0; i < cursors.length; i++ )
+            {
+                Cursor c = cursors[i];
+                if ( valid[i] && c.id() == next )
+                {
+                    if ( count == 0 )
+                    {
+                        sum = c.sum();
+                        min = c.min();
+                        max = c.max();
+                        statSum = c.statSum();
+                        statCount = c.statCount();
+                        dirty = c.dirty();
+                    }
+                    else
+                    {
+                        sum += c.sum();
+                        min = Math.min( min, c.min() );
+                        max = Math.max( max, c.max() );
+                        statSum += c.statSum();
+                        statCount += c.statCount();
+                        dirty |= c.dirty();
+                    }
+                    count += c.count();
+                    last = c.last();
+                    valid[i] = c.next();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public long id()
+        {
+            return id;
+        }
+
+        @Override
+        public double sum()
+        {
+            return sum;
+        }
+
+        @Override
+        public int count()
+        {
+            return count;
+        }
+
+        @Override
+        public double min()
+        {
+            return min;
+        }
+
+        @Override
+        public double max()
+        {
+            return max;
+        }
+
+        @Override
+        public double last()
+        {
+            return last;
+        }
+
+        @Override
+        public double statSum()
+        {
+            return statSum;
+        }
+
+        @Override
+        public int statCount()
+        {
+            return statCount;
+        }
+
+        @Override
+        public boolean dirty()
+        {
+            return dirty;
+        }
+    }
+}
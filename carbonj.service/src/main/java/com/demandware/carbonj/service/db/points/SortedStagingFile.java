@@ -6,14 +6,19 @@
  */
 package com.demandware.carbonj.service.db.points;
 
+import com.demandware.carbonj.service.db.model.IntervalStats;
 import com.demandware.carbonj.service.db.model.IntervalValues;
 import com.demandware.carbonj.service.db.model.Metric;
 import com.demandware.carbonj.service.db.model.MetricProvider;
 import com.google.common.base.Preconditions;
 import org.apache.commons.io.IOUtils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -34,6 +39,17 @@ public class SortedStagingFile
 
     private StagingFileRecord returnedRecord;
 
+    // used instead of br for binary staging files
+    private DataInputStream in;
+
+    private boolean hasReturnedBinaryRecord;
+
+    private long returnedMetricId;
+
+    private double returnedValue;
+
+    private long returnedValueBits;
+
     SortedStagingFile( File file, MetricProvider metricProvider )
     {
         this.file = Preconditions.checkNotNull(file);
@@ -49,9 +65,18 @@ public class SortedStagingFile
     public void open()
     {
         returnedRecord = null;
+        hasReturnedBinaryRecord = false;
         try
         {
-            this.br = new BufferedReader( new FileReader( file ) );
+            if ( BinaryStagingSort.isBinary( file ) )
+            {
+                this.in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 64 * 1024 ) );
+                in.skipNBytes( BinaryStagingSort.HEADER_BYTES );
+            }
+            else
+            {
+                this.br = new BufferedReader( new FileReader( file ) );
+            }
         }
         catch(IOException e)
         {
@@ -99,16 +124,107 @@ public class SortedStagingFile
     public void close()
     {
         IOUtils.closeQuietly(br);
+        IOUtils.closeQuietly(in);
         br = null;
+        in = null;
     }
 
     public boolean isClosed()
     {
-        return br == null;
+        return br == null && in == null;
+    }
+
+    /**
+     * Reads next binary record into returnedMetricId and returnedValue.
+     *
+     * @return false at the end of file.
+     */
+    private boolean nextBinaryRecord()
+    {
+        if ( hasReturnedBinaryRecord )
+        {
+            hasReturnedBinaryRecord = false;
+            return true;
+        }
+        try
+        {
+            returnedMetricId = in.readLong();
+            returnedValueBits = in.readLong();
+            returnedValue = Double.longBitsToDouble( returnedValueBits );
+            return true;
+        }
+        catch ( EOFException e )
+        {
+            return false;
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private Optional<IntervalValues> loadBinaryNeighbours()
+    {
+        if ( !nextBinaryRecord() )
+        {
+            return Optional.empty();
+        }
+        long metricId = returnedMetricId;
+        List<Double> vals = new ArrayList<>();
+        StatsAccumulator stats = new StatsAccumulator();
+        // value is added to stats once it's known that no stats records follow it
+        boolean pending = false;
+        double pendingValue = 0;
+        do
+        {
+            if ( returnedMetricId != metricId )
+            {
+                hasReturnedBinaryRecord = true;
+                break;
+            }
+            if ( returnedValueBits == BinaryStagingSort.STATS_MARKER )
+            {
+                Preconditions.checkState( pending, "Stats without value in [%s]", file );
+                stats.add( nextStatsRecord( metricId ), nextStatsRecord( metricId ), nextStatsRecord( metricId ),
+                    (int) nextStatsRecord( metricId ) );
+                pending = false;
+                continue;
+            }
+            if ( pending )
+            {
+                stats.add( pendingValue );
+            }
+            vals.add( returnedValue );
+            pending = true;
+            pendingValue = returnedValue;
+        }
+        while ( nextBinaryRecord() );
+        if ( pending )
+        {
+            stats.add( pendingValue );
+        }
+
+        Metric m = metricProvider.forId( metricId );
+        if ( m == null )
+        {
+            throw new RuntimeException( String.format( "Failed to find metric with metricId [%s].", metricId ) );
+        }
+        return Optional.of( new IntervalValues( m, vals, fileName.from, fileName.dbName, stats.toStats() ) );
+    }
+
+    private double nextStatsRecord( long metricId )
+    {
+        Preconditions.checkState( nextBinaryRecord() && returnedMetricId == metricId,
+            "Incomplete stats of metric [%s] in [%s]", metricId, file );
+        return returnedValue;
     }
 
     public Optional<IntervalValues> loadNeighbours()
     {
+        if ( in != null )
+        {
+            return loadBinaryNeighbours();
+        }
         StagingFileRecord r = nextRecord();
         if ( r == null )
         {
@@ -118,6 +234,7 @@ public class SortedStagingFile
         long metricId = r.metricId;
         String metricName = r.metricName;
         List<Double> vals = new ArrayList<>();
+        StatsAccumulator stats = new StatsAccumulator();
 
         while ( true )
         {
@@ -133,7 +250,16 @@ public class SortedStagingFile
                 break;
             }
 
-            vals.add( r.val() );
+            double val = r.val();
+            vals.add( val );
+            if ( r.stats != null )
+            {
+                stats.add( r.stats.min, r.stats.max, r.stats.sum, r.stats.count );
+            }
+            else
+            {
+                stats.add( val );
+            }
             r = nextRecord();
         }
 
@@ -147,7 +273,36 @@ public class SortedStagingFile
         {
             throw new RuntimeException(String.format("Failed to find metric with metricId [%s].", metricId));
         }
-        return Optional.of( new IntervalValues( m, vals, fileName.from, fileName.dbName ) );
+        return Optional.of( new IntervalValues( m, vals, fileName.from, fileName.dbName, stats.toStats() ) );
+    }
+
+    /**
+     * Merges stats of staged values - values without stats count as a single value.
+     */
+    private static class StatsAccumulator
+    {
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+        private int count;
+
+        void add( double val )
+        {
+            add( val, val, val, 1 );
+        }
+
+        void add( double min, double max, double sum, int count )
+        {
+            this.min = Math.min( this.min, min );
+            this.max = Math.max( this.max, max );
+            this.sum += sum;
+            this.count += count;
+        }
+
+        IntervalStats toStats()
+        {
+            return count == 0 ? null : new IntervalStats( min, max, sum, count );
+        }
     }
 
     @Override
@@ -0,0 +1,425 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.rocksdb.EnvOptions;
+import org.rocksdb.IngestExternalFileOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.SstFileWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.demandware.carbonj.service.db.model.DataPointBulkImport;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.util.time.TimeSource;
+import com.demandware.carbonj.service.engine.DataPoint;
+import com.demandware.carbonj.service.engine.DataPoints;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bulk import into a data point archive through external sst files. Points are buffered in a chunk. A full chunk is
+ * split into metric id ranges that are sorted and written into one sst file each in parallel. Files of a chunk don't
+ * overlap each other and are ingested with one call so that rocksdb can place them at the lowest level that has no
+ * overlapping data.
+ */
+class SstFileBulkImport
+    implements DataPointBulkImport
+{
+    private static final Logger log = LoggerFactory.getLogger( SstFileBulkImport.class );
+
+    // sample size used to find key range boundaries of a chunk
+    private static final int RANGE_SAMPLE_SIZE = 1024;
+
+    private final String dbName;
+
+    private final RetentionPolicy policy;
+
+    private final RocksDB db;
+
+    private final Options options;
+
+    private final boolean longId;
+
+    private final File workDir;
+
+    private final int chunkSize;
+
+    private final int ranges;
+
+    private final ExecutorService executor;
+
+    // extents of imported points, null if the archive doesn't keep an extent index
+    private final DataPointExtentIndex extentIndex;
+
+    private final TimeSource timeSource = TimeSource.defaultTimeSource();
+
+    private long[] ids;
+
+    private int[] times;
+
+    private double[] values;
+
+    private int size;
+
+    private int chunkCount;
+
+    private long addedPoints;
+
+    private long skippedPoints;
+
+    private volatile long ingestedPoints;
+
+    private volatile int ingestedFiles;
+
+    private boolean closed;
+
+    SstFileBulkImport( String dbName, RetentionPolicy policy, RocksDB db, Options options, boolean longId, File workDir,
+                       int chunkSize, int threads, DataPointExtentIndex extentIndex )
+    {
+        this.dbName = dbName;
+        this.policy = policy;
+        this.db = db;
+        this.options = options;
+        this.longId = longId;
+        this.workDir = workDir;
+        this.chunkSize = Math.max( 1, chunkSize );
+        this.ranges = Math.max( 1, threads );
+        this.extentIndex = extentIndex;
+        this.executor = Executors.newFixedThreadPool( ranges,
+            new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( dbName + "-bulk-import-%d" ).build() );
+        int initialCapacity = Math.min( this.chunkSize, 64 * 1024 );
+        this.ids = new long[initialCapacity];
+        this.times = new int[initialCapacity];
+        this.values = new double[initialCapacity];
+        try
+        {
+            FileUtils.deleteDirectory( workDir );
+            FileUtils.forceMkdir( workDir );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( "Failed to create bulk import dir " + workDir, e );
+        }
+        log.info( "Started bulk import into [{}] using [{}]", dbName, workDir );
+    }
+
+    @Override
+    public synchronized void add( DataPoints points )
+    {
+        if ( closed )
+        {
+            throw new IllegalStateException( "Bulk import into " + dbName + " is closed" );
+        }
+        int now = timeSource.getEpochSecond();
+        for ( int i = 0, n = points.size(); i < n; i++ )
+        {
+            DataPoint p = points.get( i );
+            RetentionPolicy pointPolicy = points.getPolicy( i );
+            // same filtering as regular writes: only valid points of this archive within retention period
+            if ( !p.isValid() || !p.hasMetricId() || pointPolicy == null || !dbName.equals( pointPolicy.dbName )
+                || !policy.includes( p.ts, now ) )
+            {
+                skippedPoints++;
+                continue;
+            }
+            if ( size == ids.length )
+            {
+                int capacity = Math.min( chunkSize, size * 2 );
+                ids = Arrays.copyOf( ids, capacity );
+                times = Arrays.copyOf( times, capacity );
+                values = Arrays.copyOf( values, capacity );
+            }
+            ids[size] = p.metricId;
+            times[size] = policy.interval( p.ts );
+            values[size] = p.val;
+            if ( extentIndex != null )
+            {
+                // recorded before ingestion - extents may only be wider than actual data, never narrower
+                extentIndex.record( p.metricId, times[size] );
+            }
+            size++;
+            addedPoints++;
+            if ( size == chunkSize )
+            {
+                writeChunk();
+            }
+        }
+    }
+
+    @Override
+    public synchronized long finish()
+    {
+        writeChunk();
+        log.info( "Finished bulk import into [{}]. Ingested [{}] points in [{}] files, skipped [{}] points", dbName,
+            ingestedPoints, ingestedFiles, skippedPoints );
+        close();
+        return ingestedPoints;
+    }
+
+    @Override
+    public synchronized long addedPoints()
+    {
+        return addedPoints;
+    }
+
+    @Override
+    public long ingestedPoints()
+    {
+        return ingestedPoints;
+    }
+
+    @Override
+    public int ingestedFiles()
+    {
+        return ingestedFiles;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+        closed = true;
+        executor.shutdownNow();
+        if ( size > 0 )
+        {
+            log.warn( "Bulk import into [{}] closed with [{}] points that were not ingested", dbName, size );
+        }
+        ids = null;
+        times = null;
+        values = null;
+        size = 0;
+        FileUtils.deleteQuietly( workDir );
+    }
+
+    /**
+     * Sorts buffered points by key, writes them into sst files - one per key range - and ingests the files.
+     */
+    private void writeChunk()
+    {
+        if ( size == 0 )
+        {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int chunk = chunkCount++;
+        List<Future<File>> futures = new ArrayList<>();
+        for ( int[] rangeIndexes : splitByKeyRange() )
+        {
+            if ( rangeIndexes.length > 0 )
+            {
+                int range = futures.size();
+                futures.add( executor.submit(
+                    ( ) -> writeSstFile( new File( workDir, chunk + "-" + range + ".sst" ), rangeIndexes ) ) );
+            }
+        }
+
+        List<String> files = new ArrayList<>();
+        long points = 0;
+        try
+        {
+            for ( Future<File> f : futures )
+            {
+                files.add( f.get().getAbsolutePath() );
+            }
+            try (IngestExternalFileOptions ingestOptions = new IngestExternalFileOptions().setMoveFiles( true )
+                .setAllowGlobalSeqNo( true ).setAllowBlockingFlush( true ))
+            {
+                db.ingestExternalFile( files, ingestOptions );
+            }
+            points = size;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted bulk import into " + dbName, e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwables.throwIfUnchecked( e.getCause() );
+            throw new RuntimeException( "Failed to write sst files for " + dbName, e.getCause() );
+        }
+        catch ( RocksDBException e )
+        {
+            throw new RuntimeException( "Failed to ingest sst files into " + dbName, e );
+        }
+        finally
+        {
+            size = 0;
+            files.forEach( f -> FileUtils.deleteQuietly( new File( f ) ) );
+        }
+        ingestedPoints += points;
+        ingestedFiles += files.size();
+        log.info( String.format( "Bulk import into [%s]: ingested chunk %s with %s points in %s files in %s ms. "
+            + "Total ingested %s points", dbName, chunk, points, files.size(), System.currentTimeMillis() - start,
+            ingestedPoints ) );
+    }
+
+    /**
+     * Splits buffered points into ranges of metric ids of about the same size. All points of a metric are in the
+     * same range and ranges are in key order.
+     *
+     * @return indexes of buffered points for each range, in the order points were added.
+     */
+    private List<int[]> splitByKeyRange()
+    {
+        long[] boundaries = rangeBoundaries();
+        int[] counts = new int[boundaries.length + 1];
+        int[] rangeOf = new int[size];
+        for ( int i = 0; i < size; i++ )
+        {
+            int pos = Arrays.binarySearch( boundaries, ids[i] );
+            // range r contains ids in [boundaries[r-1], boundaries[r])
+            int r = pos >= 0 ? pos + 1 : -pos - 1;
+            rangeOf[i] = r;
+            counts[r]++;
+        }
+        List<int[]> result = new ArrayList<>( counts.length );
+        for ( int count : counts )
+        {
+            result.add( new int[count] );
+        }
+        int[] filled = new int[counts.length];
+        for ( int i = 0; i < size; i++ )
+        {
+            int r = rangeOf[i];
+            result.get( r )[filled[r]++] = i;
+        }
+        return result;
+    }
+
+    private long[] rangeBoundaries()
+    {
+        if ( ranges == 1 )
+        {
+            return new long[0];
+        }
+        int sampleSize = Math.min( size, RANGE_SAMPLE_SIZE );
+        long[] sample = new long[sampleSize];
+        for ( int i = 0; i < sampleSize; i++ )
+        {
+            sample[i] = ids[(int) ( (long) i * size / sampleSize )];
+        }
+        Arrays.sort( sample );
+        long[] boundaries = new long[ranges - 1];
+        int n = 0;
+        for ( int r = 1; r < ranges; r++ )
+        {
+            long b = sample[r * sampleSize / ranges];
+            if ( n == 0 || b > boundaries[n - 1] )
+            {
+                boundaries[n++] = b;
+            }
+        }
+        return Arrays.copyOf( boundaries, n );
+    }
+
+    private File writeSstFile( File file, int[] rangeIndexes )
+        throws RocksDBException
+    {
+        // stable sort keeps points with the same key in the order they were added. Metric ids and timestamps are
+        // positive so numeric order is the same as order of the big endian encoded keys.
+        int[] order = sortByKey( rangeIndexes );
+
+        int ttlTimestamp = timeSource.getEpochSecond();
+        try (EnvOptions envOptions = new EnvOptions(); SstFileWriter writer = new SstFileWriter( envOptions, options ))
+        {
+            writer.open( file.getAbsolutePath() );
+            for ( int i = 0; i < order.length; i++ )
+            {
+                int idx = order[i];
+                // sst file keys have to be unique - the last added point wins
+                if ( i + 1 < order.length && ids[order[i + 1]] == ids[idx] && times[order[i + 1]] == times[idx] )
+                {
+                    continue;
+                }
+                writer.put( DataPointRecord.toKeyBytes( ids[idx], times[idx], longId ),
+                    toTtlValueBytes( values[idx], ttlTimestamp ) );
+            }
+            writer.finish();
+        }
+        return file;
+    }
+
+    /**
+     * Stable bottom-up merge sort of point indexes by metric id and timestamp. Indexes are sorted as primitives, a
+     * range holds millions of points.
+     *
+     * @return sorted indexes, either the given array or a new one.
+     */
+    private int[] sortByKey( int[] indexes )
+    {
+        int n = indexes.length;
+        int[] src = indexes;
+        int[] dst = new int[n];
+        for ( int width = 1; width < n; width *= 2 )
+        {
+            for ( int lo = 0; lo < n; lo += 2 * width )
+            {
+                merge( src, dst, lo, Math.min( lo + width, n ), Math.min( lo + 2 * width, n ) );
+            }
+            int[] t = src;
+            src = dst;
+            dst = t;
+        }
+        return src;
+    }
+
+    private void merge( int[] src, int[] dst, int lo, int mid, int hi )
+    {
+        int i = lo;
+        int j = mid;
+        for ( int k = lo; k < hi; k++ )
+        {
+            // takes the left element on equal keys to keep the sort stable
+            if ( i < mid && ( j >= hi || compareKeys( src[i], src[j] ) <= 0 ) )
+            {
+                dst[k] = src[i++];
+            }
+            else
+            {
+                dst[k] = src[j++];
+            }
+        }
+    }
+
+    private int compareKeys( int a, int b )
+    {
+        int c = Long.compare( ids[a], ids[b] );
+        return c != 0 ? c : Integer.compare( times[a], times[b] );
+    }
+
+    /**
+     * Archives are opened as TtlDB that stores write time after each value. Files ingested directly have to contain
+     * it as well.
+     */
+    static byte[] toTtlValueBytes( double v, int ttlTimestamp )
+    {
+        byte[] value = DataPointRecord.toValueBytes( v );
+        return ByteBuffer.allocate( value.length + Integer.BYTES ).put( value ).order( ByteOrder.LITTLE_ENDIAN )
+            .putInt( ttlTimestamp ).array();
+    }
+}
@@ -6,8 +6,10 @@
  */
 package com.demandware.carbonj.service.db.points;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -20,6 +22,7 @@ import java.util.concurrent.ConcurrentMap;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.demandware.carbonj.service.db.model.MetricProvider;
+import com.demandware.carbonj.service.engine.DataPoint;
 import com.google.common.base.Preconditions;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -33,6 +36,9 @@ public class StagingFile implements Closeable
 
     private BufferedWriter bw;
 
+    // used instead of bw when the sort works with binary staging files
+    private DataOutputStream out;
+
     private final StagingFilesSort sort;
 
     private final MetricProvider metricProvider;
@@ -57,6 +63,11 @@ public class StagingFile implements Closeable
         }
     }
 
+    File file()
+    {
+        return file;
+    }
+
     public synchronized int lastModified()
     {
         return Math.toIntExact( file.lastModified() / 1000 );
@@ -67,7 +78,19 @@ public class StagingFile implements Closeable
         //Should handle cases when file already exists.
         try
         {
-            this.bw = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file, true ) ) );
+            if ( sort.binary() )
+            {
+                boolean empty = file.length() == 0;
+                this.out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ), 64 * 1024 ) );
+                if ( empty )
+                {
+                    out.writeInt( BinaryStagingSort.MAGIC );
+                }
+            }
+            else
+            {
+                this.bw = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file, true ) ) );
+            }
         }
         catch(IOException e)
         {
@@ -84,9 +107,14 @@ public class StagingFile implements Closeable
 
         try
         {
+            if ( out != null )
+            {
+                BinaryStagingSort.write( out, r );
+                return true;
+            }
             bw.append( String.valueOf( r.metricId ) );
             bw.write( " " );
-            bw.write( r.strValue );
+            bw.write( r.strValue != null ? r.valueToken() : DataPoint.strValue( r.val() ) );
             bw.write( " " );
             bw.write( r.metricName );
             bw.write( "\n");
@@ -102,7 +130,11 @@ public class StagingFile implements Closeable
     {
         try
         {
-            if( !isClosed() )
+            if( out != null )
+            {
+                out.flush();
+            }
+            else if( !isClosed() )
             {
                 bw.flush();
             }
@@ -116,6 +148,21 @@ public class StagingFile implements Closeable
     public synchronized void close()
     {
         log.info("closing staging file [" + file + "]");
+        if( out != null )
+        {
+            try
+            {
+                out.close();
+            }
+            catch(Exception e)
+            {
+                log.error( "Error when closing file [" + file + "]", e );
+            }
+            finally
+            {
+                out = null;
+            }
+        }
         if( bw != null )
         {
             try
@@ -135,7 +182,22 @@ public class StagingFile implements Closeable
 
     public synchronized boolean isClosed()
     {
-        return bw == null;
+        return bw == null && out == null;
+    }
+
+    /**
+     * @return true if the existing file was written in a different format than the sort expects.
+     */
+    synchronized boolean hasOtherFormat()
+    {
+        try
+        {
+            return file.length() > 0 && BinaryStagingSort.isBinary( file ) != sort.binary();
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException( e );
+        }
     }
 
     /**
@@ -6,19 +6,56 @@
  */
 package com.demandware.carbonj.service.db.points;
 
+import com.demandware.carbonj.service.db.model.IntervalStats;
+
+/**
+ * Text form of a record is "&lt;metricId&gt; &lt;value&gt;[;&lt;min&gt;;&lt;max&gt;;&lt;sum&gt;;&lt;count&gt;] [&lt;metricName&gt;]".
+ * Statistics follow the value of points that were aggregated from other points already.
+ */
 public class StagingFileRecord
 {
+    private static final char STATS_SEPARATOR = ';';
+
     public final StagingFileSet fileName;
     public final long metricId;
     public final String strValue;
     public final String metricName;
 
+    // statistics of the values aggregated into the value, null for points of the highest resolution archive
+    public final IntervalStats stats;
+
+    // used when strValue is not set - records of binary staging files are never formatted as text
+    private final double value;
+
     StagingFileRecord( StagingFileSet fileName, long metricId, String strValue, String metricName)
+    {
+        this( fileName, metricId, strValue, null, metricName );
+    }
+
+    StagingFileRecord( StagingFileSet fileName, long metricId, String strValue, IntervalStats stats,
+                       String metricName )
     {
         this.fileName = fileName;
         this.metricId = metricId;
         this.strValue = strValue;
+        this.stats = stats;
         this.metricName = metricName;
+        this.value = Double.NaN;
+    }
+
+    StagingFileRecord( StagingFileSet fileName, long metricId, double value )
+    {
+        this( fileName, metricId, value, null );
+    }
+
+    StagingFileRecord( StagingFileSet fileName, long metricId, double value, IntervalStats stats )
+    {
+        this.fileName = fileName;
+        this.metricId = metricId;
+        this.strValue = null;
+        this.stats = stats;
+        this.metricName = null;
+        this.value = value;
     }
 
     StagingFileRecord( StagingFileSet fileName, String line)
@@ -32,18 +69,59 @@ public class StagingFileRecord
         metricId = Long.parseLong( line.substring( idStart, idEnd ) );
         idStart = idEnd + 1;
         idEnd = line.indexOf(' ', idStart);
+        String valueToken;
         if (idEnd < 0) {
-            strValue = line.substring(idStart);
+            valueToken = line.substring(idStart);
             metricName = null;
         } else {
-            strValue = line.substring(idStart, idEnd);
+            valueToken = line.substring(idStart, idEnd);
             metricName = line.substring(idEnd + 1);
         }
+        int statsStart = valueToken.indexOf( STATS_SEPARATOR );
+        if ( statsStart < 0 )
+        {
+            strValue = valueToken;
+            stats = null;
+        }
+        else
+        {
+            strValue = valueToken.substring( 0, statsStart );
+            stats = parseStats( valueToken, statsStart + 1 );
+        }
+        value = Double.NaN;
+    }
+
+    private static IntervalStats parseStats( String s, int start )
+    {
+        int end = s.indexOf( STATS_SEPARATOR, start );
+        double min = Double.parseDouble( s.substring( start, end ) );
+        start = end + 1;
+        end = s.indexOf( STATS_SEPARATOR, start );
+        double max = Double.parseDouble( s.substring( start, end ) );
+        start = end + 1;
+        end = s.indexOf( STATS_SEPARATOR, start );
+        double sum = Double.parseDouble( s.substring( start, end ) );
+        int count = Integer.parseInt( s.substring( end + 1 ) );
+        return new IntervalStats( min, max, sum, count );
+    }
+
+    /**
+     * @return value followed by statistics if present, as written to text staging and overflow files.
+     */
+    String valueToken()
+    {
+        String v = strValue != null ? strValue : Double.toString( value );
+        if ( stats == null )
+        {
+            return v;
+        }
+        return v + STATS_SEPARATOR + stats.min + STATS_SEPARATOR + stats.max + STATS_SEPARATOR + stats.sum
+            + STATS_SEPARATOR + stats.count;
     }
 
     double val()
     {
-        return Double.parseDouble( strValue );
+        return strValue == null ? value : Double.parseDouble( strValue );
     }
 
     @Override
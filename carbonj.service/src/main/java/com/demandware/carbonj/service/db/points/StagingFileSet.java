@@ -97,7 +97,10 @@ public class StagingFileSet
         return dbName + PARTS_DELIMITER + from + PARTS_DELIMITER + group;
     }
 
-    private int getCollectionIntervalSeconds(String dbName)
+    /**
+     * @return seconds without new points after which points of an interval are considered complete.
+     */
+    static int getCollectionIntervalSeconds(String dbName)
     {
         return switch (dbName) {
             case "5m7d" -> 90; // 90 sec
@@ -29,10 +29,15 @@ public class StagingFileSetProvider
                 } );
 
     StagingFileSet get(String dbName, int from, int group)
+    {
+        return get(StagingFileSet.getId(dbName, from, group));
+    }
+
+    StagingFileSet get(String id)
     {
         try
         {
-            return cache.get(StagingFileSet.getId(dbName, from, group));
+            return cache.get(id);
         }
         catch(ExecutionException e)
         {
@@ -8,10 +8,14 @@ package com.demandware.carbonj.service.db.points;
 
 import javax.annotation.PostConstruct;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 import com.codahale.metrics.MetricRegistry;
 import com.demandware.carbonj.service.db.model.MetricProvider;
@@ -62,11 +66,39 @@ public class StagingFiles
         int lastUnsortedSeq = fn.lastUnsorted( dir );
         if( fn.lastSorted( dir ) < lastUnsortedSeq )
         {
+            StagingFile f = new StagingFile( metricRegistry, new File( dir, fn.nameForUnsorted( fn.id, lastUnsortedSeq ) ),
+                sort, metricProvider, fn.dbName );
+            if( f.hasOtherFormat() && !convertToBinary( f.file() ) )
+            {
+                log.warn("found incomplete staging file: [" + fn.id + "] in a format that can't be appended to. Points of the file will not be rolled up.");
+                return;
+            }
             log.info("found incomplete staging file: [" + fn.id + "]. Adding to list of open files.");
             files.put( fn, reopen(fn, lastUnsortedSeq) );
         }
     }
 
+    private boolean convertToBinary(File f)
+    {
+        if( !sort.binary() )
+        {
+            return false;
+        }
+        File converted = new File( f.getParentFile(), f.getName() + ".bin" );
+        try
+        {
+            BinaryStagingSort.convert( f, converted );
+            Files.move( converted.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            return true;
+        }
+        catch(IOException e)
+        {
+            log.error( "Failed to convert staging file [" + f + "] to binary format", e );
+            converted.delete();
+            return false;
+        }
+    }
+
     private File[] files()
     {
         File[] files = dir.listFiles();
@@ -115,13 +147,21 @@ public class StagingFiles
         return fileSetCollector.collectEligibleFiles(files, dbName, dataPointStagingStore);
     }
 
+    /**
+     * @return true if staging records are written in binary format.
+     */
+    public boolean binary()
+    {
+        return sort.binary();
+    }
+
     public void write(StagingFileRecord r)
     {
 
         StagingFile f = files.get( r.fileName );
         if( f == null )
         {
-            // only one thread writes to files but propagating/sorting thread can close the file.
+            // only one writer thread writes to files of a file set but propagating/sorting thread can close the file.
             f = open(r.fileName);
             files.put( r.fileName, f );
         }
@@ -164,6 +204,16 @@ public class StagingFiles
         files.values().forEach(StagingFile::flush);
     }
 
+    public void flush(Predicate<StagingFileSet> fileSets)
+    {
+        files.forEach( (fs, f) -> {
+            if( fileSets.test( fs ) )
+            {
+                f.flush();
+            }
+        });
+    }
+
     public void close()
     {
         files.values().forEach(StagingFile::close);
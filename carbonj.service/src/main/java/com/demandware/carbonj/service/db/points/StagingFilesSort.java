@@ -13,4 +13,12 @@ import java.util.Optional;
 interface StagingFilesSort
 {
     void sort( File inFile, Optional<File> extraMergeFile, File outFile) throws IOException;
+
+    /**
+     * @return true if staging files sorted by this implementation use binary format instead of text lines.
+     */
+    default boolean binary()
+    {
+        return false;
+    }
 }
@@ -0,0 +1,529 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+
+/**
+ * Writes staging records of one shard of staging file sets. Only this thread writes to the staging files of the shard.
+ * <p>
+ * When the queue is full, records are appended to an overflow file that is replayed once the queue is drained. When
+ * the overflow file reached its size limit as well, producers wait for space in the queue. Records are never dropped
+ * while the writer is running. Order of records doesn't matter, all aggregation methods are order independent.
+ * <p>
+ * Replay progress is saved to an offset file after the replayed records are flushed to staging files, so a replay
+ * interrupted by stop or crash resumes where it left off. Records replayed after the last saved offset are written
+ * again after crash - at most {@link #REPLAY_CHECKPOINT_RECORDS}.
+ * <p>
+ * Overflow file content:
+ * <p>
+ * <staging file set id> <metricId> <value> [<metricName>]
+ */
+class StagingWriter
+    extends Thread
+{
+    private static final Logger log = LoggerFactory.getLogger( StagingWriter.class );
+
+    private static final String REPLAY_EXT = ".replay";
+
+    private static final String OFFSET_EXT = ".offset";
+
+    static final int REPLAY_CHECKPOINT_RECORDS = 100000;
+
+    private static final int BATCH_SIZE = 10000;
+
+    private final MetricRegistry metricRegistry;
+
+    private final int shard;
+
+    private final int shards;
+
+    private final StagingFiles stagingFiles;
+
+    private final ArrayBlockingQueue<StagingFileRecord> queue;
+
+    private final File overflowFile;
+
+    private final long overflowMaxBytes;
+
+    private final boolean binary;
+
+    private final Meter saved;
+
+    private final Meter overflowed;
+
+    private final Meter replayed;
+
+    private final Meter blocked;
+
+    private final StagingFileSetProvider fileSetProvider = new StagingFileSetProvider();
+
+    private final Object overflowLock = new Object();
+
+    // guarded by overflowLock
+    private BufferedWriter overflow;
+
+    private volatile long overflowBytes;
+
+    private volatile boolean stop = false;
+
+    /**
+     * Queued behind records added before a flush. Completed once those records are flushed to staging files or to
+     * the overflow file.
+     */
+    private static final class FlushMarker
+        extends StagingFileRecord
+    {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        FlushMarker()
+        {
+            super( null, 0, Double.NaN );
+        }
+    }
+
+    StagingWriter( MetricRegistry metricRegistry, int shard, int shards, StagingFiles stagingFiles, int queueSize,
+                   File overflowDir, long overflowMaxBytes, Meter saved )
+    {
+        this.metricRegistry = metricRegistry;
+        this.shard = shard;
+        this.shards = shards;
+        this.stagingFiles = Preconditions.checkNotNull( stagingFiles );
+        this.queue = new ArrayBlockingQueue<>( queueSize );
+        this.overflowFile = overflowDir != null ? new File( overflowDir, "staging-" + shard + ".overflow" ) : null;
+        this.overflowMaxBytes = overflowMaxBytes;
+        this.binary = stagingFiles.binary();
+        this.saved = saved;
+        this.overflowed = metricRegistry.meter( metricName( "overflow" ) );
+        this.replayed = metricRegistry.meter( metricName( "replayed" ) );
+        this.blocked = metricRegistry.meter( metricName( "blocked" ) );
+        this.overflowBytes = overflowFile != null ? overflowFile.length() : 0;
+        this.setName( "StagingWriter-" + shard );
+        this.setDaemon( true );
+    }
+
+    private String metricName( String name )
+    {
+        return MetricRegistry.name( "staging", "shard", String.valueOf( shard ), name );
+    }
+
+    int queueSize()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return false if the writer is stopped and the record wasn't accepted.
+     */
+    boolean add( StagingFileRecord r )
+    {
+        if ( stop )
+        {
+            return false;
+        }
+        if ( queue.offer( r ) )
+        {
+            return queued( r );
+        }
+        if ( writeOverflow( r, false ) )
+        {
+            return true;
+        }
+
+        // queue and overflow file are full - slow down producers
+        blocked.mark();
+        try
+        {
+            while ( !stop )
+            {
+                if ( queue.offer( r, 100, TimeUnit.MILLISECONDS ) )
+                {
+                    return queued( r );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Handles a record queued while the writer stopped. Remaining records are drained once the writer loop ends - if
+     * the record is still in the queue it was added after that and is moved to the overflow file here.
+     */
+    private boolean queued( StagingFileRecord r )
+    {
+        if ( !stop || !queue.remove( r ) )
+        {
+            return true;
+        }
+        synchronized ( overflowLock )
+        {
+            boolean written = writeOverflow( r, true );
+            closeOverflow();
+            return written;
+        }
+    }
+
+    /**
+     * Waits until all records added so far are flushed to staging files or to the overflow file, so that they are
+     * kept when the process dies.
+     */
+    void flush( long timeoutMillis )
+    {
+        FlushMarker marker = new FlushMarker();
+        try
+        {
+            if ( stop || !queue.offer( marker, timeoutMillis, TimeUnit.MILLISECONDS )
+                || ( stop && queue.remove( marker ) ) )
+            {
+                throw new RuntimeException( "Failed to flush " + this + ", writer is stopped or queue is full" );
+            }
+            marker.done.get( timeoutMillis, TimeUnit.MILLISECONDS );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        catch ( ExecutionException | TimeoutException e )
+        {
+            throw new RuntimeException( "Failed to flush " + this, e );
+        }
+    }
+
+    /**
+     * @param force ignore the size limit, used to keep queued records on shutdown.
+     */
+    private boolean writeOverflow( StagingFileRecord r, boolean force )
+    {
+        if ( overflowFile == null )
+        {
+            return false;
+        }
+        synchronized ( overflowLock )
+        {
+            if ( !force && ( stop || overflowBytes >= overflowMaxBytes ) )
+            {
+                return false;
+            }
+            try
+            {
+                if ( overflow == null )
+                {
+                    overflow = new BufferedWriter( new FileWriter( overflowFile, StandardCharsets.UTF_8, true ),
+                        256 * 1024 );
+                }
+                String line = r.fileName.id + " " + r.metricId + " "
+                    + r.valueToken()
+                    + ( r.metricName != null ? " " + r.metricName : "" ) + "\n";
+                overflow.write( line );
+                overflowBytes += line.length();
+                overflowed.mark();
+                return true;
+            }
+            catch ( IOException e )
+            {
+                log.error( "Failed to write staging record to overflow file [" + overflowFile + "]", e );
+                return false;
+            }
+        }
+    }
+
+    private void flushOverflow()
+        throws IOException
+    {
+        synchronized ( overflowLock )
+        {
+            if ( overflow != null )
+            {
+                overflow.flush();
+            }
+        }
+    }
+
+    private void flushShard()
+        throws IOException
+    {
+        stagingFiles.flush( fs -> DataPointStagingStore.shardOf( fs, shards ) == shard );
+        flushOverflow();
+    }
+
+    private void closeOverflow()
+    {
+        synchronized ( overflowLock )
+        {
+            try
+            {
+                if ( overflow != null )
+                {
+                    overflow.close();
+                }
+            }
+            catch ( IOException e )
+            {
+                log.error( "Failed to close overflow file [" + overflowFile + "]", e );
+            }
+            overflow = null;
+        }
+    }
+
+    /**
+     * Moves records of the overflow file to staging files.
+     */
+    private void replayOverflow()
+        throws IOException
+    {
+        if ( overflowFile == null )
+        {
+            return;
+        }
+        File replay = new File( overflowFile.getPath() + REPLAY_EXT );
+        // replay file is left over if the writer was stopped during replay
+        if ( !replay.exists() )
+        {
+            synchronized ( overflowLock )
+            {
+                if ( overflowBytes == 0 )
+                {
+                    return;
+                }
+                closeOverflow();
+                if ( !overflowFile.renameTo( replay ) )
+                {
+                    throw new IOException( "Failed to rename [" + overflowFile + "] to [" + replay + "]" );
+                }
+                overflowBytes = 0;
+            }
+        }
+
+        File offsetFile = new File( replay.getPath() + OFFSET_EXT );
+        long offset = readReplayOffset( offsetFile );
+        log.info( "Replaying staging overflow file [" + replay + "] from offset " + offset );
+        long n = 0;
+        boolean done = false;
+        try (FileInputStream fin = new FileInputStream( replay ))
+        {
+            fin.getChannel().position( offset );
+            BufferedReader in = new BufferedReader( new InputStreamReader( fin, StandardCharsets.UTF_8 ), 256 * 1024 );
+            // replay stops with the writer, the rest is replayed after restart
+            while ( !stop )
+            {
+                String line = in.readLine();
+                if ( line == null )
+                {
+                    done = true;
+                    break;
+                }
+                int sep = line.indexOf( ' ' );
+                StagingFileRecord r = new StagingFileRecord( fileSetProvider.get( line.substring( 0, sep ) ),
+                    line.substring( sep + 1 ) );
+                stagingFiles.write( binary ? new StagingFileRecord( r.fileName, r.metricId, r.val(), r.stats ) : r );
+                offset += line.getBytes( StandardCharsets.UTF_8 ).length + 1;
+                n++;
+                if ( n % REPLAY_CHECKPOINT_RECORDS == 0 )
+                {
+                    flushShard();
+                    saveReplayOffset( offsetFile, offset );
+                }
+            }
+        }
+        replayed.mark( n );
+        saved.mark( n );
+        if ( !done )
+        {
+            flushShard();
+            saveReplayOffset( offsetFile, offset );
+            log.info( "Stopped replay of staging overflow file after " + n + " records at offset " + offset );
+            return;
+        }
+        if ( !replay.delete() )
+        {
+            log.error( "Failed to delete replayed overflow file [" + replay + "]" );
+        }
+        else
+        {
+            Files.deleteIfExists( offsetFile.toPath() );
+        }
+        log.info( "Replayed " + n + " records from staging overflow file" );
+    }
+
+    private static long readReplayOffset( File offsetFile )
+        throws IOException
+    {
+        if ( !offsetFile.exists() )
+        {
+            return 0;
+        }
+        return Long.parseLong( Files.readString( offsetFile.toPath() ).trim() );
+    }
+
+    private static void saveReplayOffset( File offsetFile, long offset )
+        throws IOException
+    {
+        File tmp = new File( offsetFile.getPath() + ".tmp" );
+        Files.writeString( tmp.toPath(), Long.toString( offset ) );
+        Files.move( tmp.toPath(), offsetFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    @Override
+    public void run()
+    {
+        List<StagingFileRecord> batch = new ArrayList<>( BATCH_SIZE );
+        List<FlushMarker> markers = new ArrayList<>();
+        try
+        {
+            registerGauges();
+
+            while ( !stop )
+            {
+                try
+                {
+                    queue.drainTo( batch, BATCH_SIZE );
+                    if ( batch.isEmpty() )
+                    {
+                        // no new data. take this opportunity to flush and catch up with overflow
+                        flushShard();
+                        replayOverflow();
+
+                        // check again
+                        queue.drainTo( batch, BATCH_SIZE );
+                        if ( batch.isEmpty() )
+                        {
+                            // still nothing.
+                            TimeUnit.MILLISECONDS.sleep( 100 );
+                            continue;
+                        }
+                    }
+
+                    for ( StagingFileRecord r : batch )
+                    {
+                        if ( r instanceof FlushMarker )
+                        {
+                            markers.add( (FlushMarker) r );
+                            continue;
+                        }
+                        stagingFiles.write( r );
+                    }
+                    saved.mark( batch.size() - markers.size() );
+                    if ( !markers.isEmpty() )
+                    {
+                        flushShard();
+                        markers.forEach( m -> m.done.complete( null ) );
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    return;
+                }
+                catch ( Exception e )
+                {
+                    log.error( "Failure saving metrics for aggregation.", e );
+                    markers.forEach( m -> m.done.completeExceptionally( e ) );
+                }
+                finally
+                {
+                    batch.clear();
+                    markers.clear();
+                }
+            }
+        }
+        catch ( Throwable e )
+        {
+            log.error( "Unhandled error." + this, e );
+        }
+        finally
+        {
+            // records left in the queue are kept for the next start
+            if ( !queue.isEmpty() && overflowFile == null )
+            {
+                log.warn( "Dropping " + queue.size() + " staging records of " + this + " on stop" );
+            }
+            // drained at once - records added after that are handled by the producer, see queued()
+            List<StagingFileRecord> remaining = new ArrayList<>( queue.size() );
+            queue.drainTo( remaining );
+            remaining.forEach( r -> {
+                if ( r instanceof FlushMarker )
+                {
+                    ( (FlushMarker) r ).done.completeExceptionally( new IllegalStateException( this + " stopped" ) );
+                }
+                else
+                {
+                    writeOverflow( r, true );
+                }
+            } );
+            closeOverflow();
+            unregisterGauges();
+        }
+    }
+
+    private void registerGauges()
+    {
+        metricRegistry.register( metricName( "queue" ), (Gauge<Number>) queue::size );
+        metricRegistry.register( metricName( "overflowBytes" ), (Gauge<Number>) () -> overflowBytes );
+    }
+
+    private void unregisterGauges()
+    {
+        metricRegistry.remove( metricName( "queue" ) );
+        metricRegistry.remove( metricName( "overflowBytes" ) );
+    }
+
+    /**
+     * @throws IllegalStateException if the writer is still running after the timeout.
+     */
+    void close()
+    {
+        stop = true;
+        try
+        {
+            TimeUnit.SECONDS.timedJoin( this, 30 );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        if ( isAlive() )
+        {
+            throw new IllegalStateException( this + " didn't stop within 30 seconds" );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StagingWriter{shard=" + shard + '}';
+    }
+}
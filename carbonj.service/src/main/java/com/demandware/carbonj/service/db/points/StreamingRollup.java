@@ -0,0 +1,547 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.AggregationPolicy;
+import com.demandware.carbonj.service.db.model.DataPointStore;
+import com.demandware.carbonj.service.db.model.IntervalStats;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.MetricProvider;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.util.time.TimeSource;
+import com.demandware.carbonj.service.engine.AggregationMethod;
+import com.demandware.carbonj.service.engine.DataPoint;
+import com.demandware.carbonj.service.engine.DataPoints;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Rollup of points into lower resolution archives without staging files. Partial aggregates of every open interval
+ * are kept in memory, sharded by metric id. An interval is emitted to the point store once it is complete - at the
+ * same delay after the end of the interval as staging files are collected. Points that arrive later, up to the late
+ * window, are added to the interval and the changed metrics are emitted again.
+ * <p>
+ * When the number of aggregates exceeds the memory budget, aggregates of the largest intervals are spilled to runs
+ * sorted by metric id and merged back when the interval is emitted. On shutdown all open intervals are spilled, so
+ * that they are completed after restart.
+ */
+class StreamingRollup
+    implements DataPointRollup
+{
+    private static final Logger log = LoggerFactory.getLogger( StreamingRollup.class );
+
+    private static final String RUN_EXT = ".run";
+
+    // approximate heap used by one aggregate in a shard at the maximum load factor
+    static final int BYTES_PER_AGGREGATE = 80;
+
+    private static final int EMIT_BATCH_SIZE = 10000;
+
+    private final MetricRegistry metricRegistry;
+
+    private final MetricProvider metricProvider;
+
+    private final File dir;
+
+    private final int shards;
+
+    private final long maxAggregates;
+
+    private final int lateSeconds;
+
+    private final ConcurrentHashMap<StagingFileSet, Interval> intervals = new ConcurrentHashMap<>();
+
+    private final AtomicLong aggregates = new AtomicLong();
+
+    TimeSource timeSource = TimeSource.defaultTimeSource();
+
+    private final Meter received;
+
+    private final Meter late;
+
+    private final Meter emitted;
+
+    private final Meter spilled;
+
+    private ScheduledExecutorService scheduler;
+
+    volatile DataPointStore pointStore;
+
+    /**
+     * Aggregates of one interval of one archive.
+     */
+    private final class Interval
+    {
+        final StagingFileSet key;
+
+        final RetentionPolicy policy;
+
+        final RollupAggregates[] shardAggregates;
+
+        // runs spilled to disk, oldest first. Only accessed by the scheduler thread.
+        final List<File> runs = new ArrayList<>();
+
+        int nextRunSeq = 1;
+
+        // runs contain aggregates that changed since the last emit
+        boolean runsDirty;
+
+        boolean emittedOnce;
+
+        volatile boolean closed;
+
+        Interval( StagingFileSet key )
+        {
+            this.key = key;
+            this.policy = RetentionPolicy.getInstanceForDbName( key.dbName );
+            this.shardAggregates = new RollupAggregates[shards];
+            for ( int i = 0; i < shards; i++ )
+            {
+                shardAggregates[i] = new RollupAggregates( 16 );
+            }
+        }
+
+        int completeAt()
+        {
+            return key.from + policy.precision + StagingFileSet.getCollectionIntervalSeconds( key.dbName );
+        }
+
+        boolean add( long metricId, double val, IntervalStats stats )
+        {
+            RollupAggregates shard = shardAggregates[(int) ( ( metricId & Long.MAX_VALUE ) % shards )];
+            synchronized ( shard )
+            {
+                if ( closed )
+                {
+                    return false;
+                }
+                int before = shard.size();
+                shard.add( metricId, val, stats );
+                aggregates.addAndGet( shard.size() - before );
+                return true;
+            }
+        }
+
+        long size()
+        {
+            long n = 0;
+            for ( RollupAggregates shard : shardAggregates )
+            {
+                synchronized ( shard )
+                {
+                    n += shard.size();
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Removes all aggregates from memory.
+         */
+        RollupAggregates.Partials drain()
+        {
+            List<RollupAggregates.Partials> parts = new ArrayList<>( shards );
+            for ( RollupAggregates shard : shardAggregates )
+            {
+                synchronized ( shard )
+                {
+                    RollupAggregates.Partials p = shard.drain();
+                    aggregates.addAndGet( -p.size() );
+                    parts.add( p );
+                }
+            }
+            return RollupAggregates.Partials.concat( parts ).sort();
+        }
+
+        File newRunFile()
+        {
+            return new File( dir, key.nameForUnsorted( key.id, nextRunSeq++ ) + RUN_EXT );
+        }
+
+        void deleteRuns()
+        {
+            runs.forEach( File::delete );
+            runs.clear();
+        }
+    }
+
+    StreamingRollup( MetricRegistry metricRegistry, MetricProvider metricProvider, File dir, int shards,
+                     long maxBytes, int lateSeconds )
+    {
+        Preconditions.checkArgument( shards > 0 );
+        this.metricRegistry = metricRegistry;
+        this.metricProvider = Preconditions.checkNotNull( metricProvider );
+        this.dir = Preconditions.checkNotNull( dir );
+        this.shards = shards;
+        this.maxAggregates = Math.max( 1, maxBytes / BYTES_PER_AGGREGATE );
+        this.lateSeconds = lateSeconds;
+        this.received = metricRegistry.meter( MetricRegistry.name( "rollup", "recv" ) );
+        this.late = metricRegistry.meter( MetricRegistry.name( "rollup", "late" ) );
+        this.emitted = metricRegistry.meter( MetricRegistry.name( "rollup", "emitted" ) );
+        this.spilled = metricRegistry.meter( MetricRegistry.name( "rollup", "spilled" ) );
+    }
+
+    @Override
+    public void open( DataPointStore pointStore )
+    {
+        this.pointStore = Preconditions.checkNotNull( pointStore );
+        loadRuns();
+        metricRegistry.register( MetricRegistry.name( "rollup", "aggregates" ), (Gauge<Long>) aggregates::get );
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "streaming-rollup-%d" ).build() );
+        scheduler.scheduleWithFixedDelay( this::process, 1, 1, TimeUnit.SECONDS );
+        log.info( String.format( "Started streaming rollup with %s shards, max %s aggregates, late window %s sec",
+            shards, maxAggregates, lateSeconds ) );
+    }
+
+    /**
+     * Picks up runs spilled before the last shutdown.
+     */
+    void loadRuns()
+    {
+        File[] files = dir.listFiles( ( d, name ) -> name.endsWith( RUN_EXT ) );
+        if ( files == null )
+        {
+            return;
+        }
+        List<File> sorted = new ArrayList<>( List.of( files ) );
+        sorted.sort( Comparator.comparingInt( StreamingRollup::runSeq ) );
+        for ( File f : sorted )
+        {
+            try
+            {
+                StagingFileSet key = new StagingFileSet( f );
+                Interval interval = intervals.computeIfAbsent( key, Interval::new );
+                interval.runs.add( f );
+                interval.nextRunSeq = Math.max( interval.nextRunSeq, runSeq( f ) + 1 );
+            }
+            catch ( RuntimeException e )
+            {
+                log.warn( "Ignoring unexpected file in rollup dir [" + f + "]", e );
+            }
+        }
+        log.info( "Loaded {} spilled rollup runs of {} intervals", sorted.size(), intervals.size() );
+    }
+
+    private static int runSeq( File f )
+    {
+        String name = f.getName();
+        try
+        {
+            return Integer.parseInt( name.substring( name.indexOf( '.' ) + 1, name.length() - RUN_EXT.length() ) );
+        }
+        catch ( RuntimeException e )
+        {
+            return 0;
+        }
+    }
+
+    @Override
+    public void add( String dbName, int from, long metricId, double val, IntervalStats stats, String metricName )
+    {
+        received.mark();
+        StagingFileSet key = new StagingFileSet( dbName, from );
+        Interval interval = intervals.get( key );
+        if ( interval == null )
+        {
+            interval = new Interval( key );
+            if ( timeSource.getEpochSecond() > interval.completeAt() + lateSeconds )
+            {
+                late.mark();
+                return;
+            }
+            Interval existing = intervals.putIfAbsent( key, interval );
+            interval = existing != null ? existing : interval;
+        }
+        if ( !interval.add( metricId, val, stats ) )
+        {
+            late.mark();
+        }
+    }
+
+    void process()
+    {
+        try
+        {
+            int now = timeSource.getEpochSecond();
+            List<Interval> sorted = new ArrayList<>( intervals.values() );
+            sorted.sort( Comparator.comparingInt( i -> i.key.from ) );
+            for ( Interval interval : sorted )
+            {
+                if ( now < interval.completeAt() )
+                {
+                    continue;
+                }
+                if ( now > interval.completeAt() + lateSeconds )
+                {
+                    // no more points are accepted - emit what arrived since the last emit and forget the interval
+                    interval.closed = true;
+                    emit( interval );
+                    intervals.remove( interval.key );
+                    interval.drain();
+                    interval.deleteRuns();
+                }
+                else
+                {
+                    emit( interval );
+                }
+            }
+            spillOverBudget();
+        }
+        catch ( Throwable t )
+        {
+            log.error( "Failed to process rollup intervals", t );
+        }
+    }
+
+    private void emit( Interval interval )
+        throws IOException
+    {
+        if ( interval.emittedOnce && !interval.runsDirty && interval.size() == 0 )
+        {
+            return;
+        }
+        boolean all = !interval.emittedOnce;
+        interval.emittedOnce = true;
+        if ( interval.runs.isEmpty() )
+        {
+            for ( RollupAggregates shard : interval.shardAggregates )
+            {
+                RollupAggregates.Partials p;
+                synchronized ( shard )
+                {
+                    p = shard.snapshot( !all );
+                }
+                emit( interval, p, all );
+            }
+            return;
+        }
+
+        // combine spilled runs with aggregates in memory and replace them with a single run
+        List<RollupAggregates.Cursor> cursors = new ArrayList<>();
+        List<RollupAggregates.RunReader> readers = new ArrayList<>();
+        File merged = interval.newRunFile();
+        try
+        {
+            for ( File run : interval.runs )
+            {
+                RollupAggregates.RunReader r = new RollupAggregates.RunReader( run );
+                readers.add( r );
+                cursors.add( r );
+            }
+            cursors.add( interval.drain() );
+            RollupAggregates.Partials combined = new RollupAggregates.Partials( 16 );
+            RollupAggregates.MergeCursor m = new RollupAggregates.MergeCursor( cursors );
+            while ( m.next() )
+            {
+                combined.add( m.id(), m.sum(), m.count(), m.min(), m.max(), m.last(), m.statSum(), m.statCount(),
+                    m.dirty() );
+            }
+            emit( interval, combined, all );
+            RollupAggregates.writeRun( merged, combined.clean() );
+        }
+        finally
+        {
+            for ( RollupAggregates.RunReader r : readers )
+            {
+                r.close();
+            }
+        }
+        interval.deleteRuns();
+        interval.runs.add( merged );
+        interval.runsDirty = false;
+    }
+
+    /**
+     * Writes aggregated values of a metric set to the point store.
+     *
+     * @param all emit all aggregates, otherwise only aggregates that changed since the last emit.
+     */
+    private void emit( Interval interval, RollupAggregates.Cursor cursor, boolean all )
+    {
+        List<DataPoint> points = new ArrayList<>( EMIT_BATCH_SIZE );
+        List<Metric> metrics = new ArrayList<>( EMIT_BATCH_SIZE );
+        while ( cursor.next() )
+        {
+            if ( !all && !cursor.dirty() )
+            {
+                continue;
+            }
+            Metric m = metricProvider.forId( cursor.id() );
+            if ( m == null )
+            {
+                log.error( String.format( "Failed to find metric with metricId [%s].", cursor.id() ) );
+                continue;
+            }
+            AggregationPolicy aggr = m.isLeaf() ? m.getAggregationPolicy() : null;
+            if ( aggr == null || aggr.getMethod() == AggregationMethod.NOT_AVAILABLE )
+            {
+                log.error( String.format( "Metric with id: [%s], name: [%s] is not a leaf or is missing AggregationPolicy.",
+                    m.id, m.name ) );
+                continue;
+            }
+            DataPoint p = new DataPoint( m.name, value( aggr, cursor ), interval.key.from, false );
+            p.metricId = m.id;
+            p.stats = new IntervalStats( cursor.min(), cursor.max(), cursor.statSum(), cursor.statCount() );
+            points.add( p );
+            metrics.add( m );
+            if ( points.size() == EMIT_BATCH_SIZE )
+            {
+                insert( interval, points, metrics );
+            }
+        }
+        insert( interval, points, metrics );
+    }
+
+    private void insert( Interval interval, List<DataPoint> points, List<Metric> metrics )
+    {
+        if ( points.isEmpty() )
+        {
+            return;
+        }
+        DataPoints dataPoints = new DataPoints( new ArrayList<>( points ) );
+        for ( int i = 0; i < metrics.size(); i++ )
+        {
+            dataPoints.assignMetric( i, metrics.get( i ), interval.policy );
+        }
+        pointStore.insertDataPoints( dataPoints );
+        emitted.mark( points.size() );
+        points.clear();
+        metrics.clear();
+    }
+
+    /**
+     * Same values as {@link AggregationMethod} computes from all points of the
+     * interval.
+     */
+    static double value( AggregationPolicy aggr, RollupAggregates.Cursor c )
+    {
+        return switch ( aggr.getMethod() )
+        {
+            case AVG -> c.sum() / c.count();
+            case SUM -> c.sum();
+            case MAX -> c.max();
+            // AggregationMethod.LAST is computed as the minimum of interval values
+            case MIN, LAST -> c.min();
+            default -> throw new IllegalArgumentException( "Unsupported aggregation method " + aggr.getMethod() );
+        };
+    }
+
+    private void spillOverBudget()
+        throws IOException
+    {
+        while ( aggregates.get() > maxAggregates )
+        {
+            Interval largest = null;
+            long largestSize = 0;
+            for ( Interval interval : intervals.values() )
+            {
+                long size = interval.size();
+                if ( size > largestSize )
+                {
+                    largest = interval;
+                    largestSize = size;
+                }
+            }
+            if ( largest == null )
+            {
+                return;
+            }
+            spill( largest );
+        }
+    }
+
+    private void spill( Interval interval )
+        throws IOException
+    {
+        RollupAggregates.Partials p = interval.drain();
+        if ( p.size() == 0 )
+        {
+            return;
+        }
+        File run = interval.newRunFile();
+        RollupAggregates.writeRun( run, p );
+        interval.runs.add( run );
+        interval.runsDirty = true;
+        spilled.mark( p.size() );
+        log.info( "Spilled {} rollup aggregates of [{}] to {}", p.size(), interval.key.id, run );
+    }
+
+    /**
+     * Aggregates in memory are lost when the process dies, so points of an interval are durable only once the
+     * interval was emitted for the last time and removed. Check points lag behind by the interval size plus the
+     * collection delay and the late window.
+     */
+    @Override
+    public int flush()
+    {
+        int oldest = Integer.MAX_VALUE;
+        for ( Interval interval : intervals.values() )
+        {
+            if ( interval.key.from < oldest && interval.size() > 0 )
+            {
+                oldest = interval.key.from;
+            }
+        }
+        return oldest;
+    }
+
+    @Override
+    public void dumpStats()
+    {
+        log.info( String.format( "Streaming rollup stats: received: %s, late: %s, emitted: %s, spilled: %s, "
+            + "aggregates: %s, intervals: %s", received.getCount(), late.getCount(), emitted.getCount(),
+            spilled.getCount(), aggregates.get(), intervals.size() ) );
+    }
+
+    @Override
+    public void closeQuietly()
+    {
+        try
+        {
+            if ( scheduler != null )
+            {
+                scheduler.shutdown();
+                scheduler.awaitTermination( 60, TimeUnit.SECONDS );
+            }
+            // keep aggregates of open intervals for the next start
+            for ( Interval interval : intervals.values() )
+            {
+                interval.closed = true;
+                spill( interval );
+            }
+            metricRegistry.remove( MetricRegistry.name( "rollup", "aggregates" ) );
+        }
+        catch ( Exception e )
+        {
+            log.error( "Failed to close [" + this + "]", e );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StreamingRollup{dir=" + dir + '}';
+    }
+}
@@ -11,17 +11,20 @@ import com.demandware.carbonj.service.db.index.cfgMetricIndex;
 import com.demandware.carbonj.service.db.model.DataPointStore;
 import com.demandware.carbonj.service.db.model.MetricProvider;
 import com.demandware.carbonj.service.db.model.QueryCachePolicy;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
 import com.demandware.carbonj.service.db.util.DatabaseMetrics;
 import com.demandware.carbonj.service.db.util.FileUtils;
+import com.demandware.carbonj.service.db.util.RocksDBResourceManager;
 import com.demandware.carbonj.service.ns.NamespaceCounter;
 import com.demandware.carbonj.service.ns.cfgNamespaces;
 import com.google.common.base.Preconditions;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Import;
 
 import java.io.File;
@@ -46,6 +49,15 @@ public class cfgDataPoints
     @Value( "${metrics.store.stagingQueueSize:1000000}" )
     private int stagingQueueSize = 1000000;
 
+    // writer threads, each owning a share of the staging files, at most DataPointStagingStore.GROUPS
+    @Value( "${metrics.store.stagingWriters:1}" )
+    int stagingWriters = 1;
+
+    // records that don't fit into a writer queue are kept in an overflow file of up to this size per writer.
+    // Producers wait for the queue beyond that. 0 disables overflow files.
+    @Value( "${metrics.store.stagingOverflowMaxBytes:1073741824}" )
+    long stagingOverflowMaxBytes = 1073741824L;
+
     @Value("${metrics.store.stagingIntervalQueueConsumerBatchSize:10000}")
     int stagingIntervalQueueConsumerBatchSize = 10000;
     @Value("${metrics.store.stagingIntervalsQueueSizePerDb:1000000}")
@@ -86,9 +98,59 @@ public class cfgDataPoints
     @Value("${staging.systemSort.timeoutInSec:300}")
     long systemSortTimeoutInSeconds = 300;
 
+    // binary staging records sorted in-process instead of text lines sorted by the linux sort command.
+    // Incomplete text staging files are converted on start. Switching back requires an empty staging dir.
+    @Value("${staging.binarySort.enabled:false}")
+    boolean binarySortEnabled = false;
+
+    @Value("${staging.binarySort.threads:4}")
+    int binarySortThreads = 4;
+
+    // records sorted in memory at once by each thread
+    @Value("${staging.binarySort.chunkRecords:1048576}")
+    int binarySortChunkRecords = 1048576;
+
+    // partial aggregates of lower resolution archives kept in memory instead of staging files
+    @Value("${staging.streamingRollup.enabled:false}")
+    boolean streamingRollupEnabled = false;
+
+    // aggregates spilled when over the memory budget or on shutdown
+    @Value("${staging.streamingRollup.dir:work/carbonj-rollup}")
+    String streamingRollupDir = "work/carbonj-rollup";
+
+    @Value("${staging.streamingRollup.shards:16}")
+    int streamingRollupShards = 16;
+
+    @Value("${staging.streamingRollup.maxBytes:1073741824}")
+    long streamingRollupMaxBytes = 1073741824L;
+
+    // points that arrive this long after an interval was emitted update it, later points are dropped
+    @Value("${staging.streamingRollup.lateSeconds:600}")
+    int streamingRollupLateSeconds = 600;
+
     @Value("${metrics.store.query.disableNameSpaceCounterCheck:false}")
     boolean disableNameSpaceCounterCheck;
 
+    // recent hours of the highest resolution archive kept in memory for queried series
+    @Value("${metrics.store.headBlock.enabled:false}")
+    boolean headBlockEnabled = false;
+
+    @Value("${metrics.store.headBlock.dbName:60s24h}")
+    String headBlockDbName = "60s24h";
+
+    @Value("${metrics.store.headBlock.hours:6}")
+    int headBlockHours = 6;
+
+    @Value("${metrics.store.headBlock.maxBytes:1073741824}")
+    long headBlockMaxBytes = 1073741824L;
+
+    // series not queried for this long are evicted from the head block
+    @Value("${metrics.store.headBlock.idleSeconds:3600}")
+    int headBlockIdleSeconds = 3600;
+
+    @Value("${rocksdb.readonly:false}")
+    boolean rocksdbReadonly = false;
+
     @Autowired
     MetricRegistry metricRegistry;
     
@@ -105,13 +167,18 @@ public class cfgDataPoints
     }
 
     @Bean
-    DataPointArchiveFactory pointArchiveFactory(RocksDBConfig dbConfig)
+    @DependsOn( "snapshotBootstrap" )
+    DataPointArchiveFactory pointArchiveFactory(RocksDBConfig dbConfig, RocksDBResourceManager resourceManager)
     {
-        return new DataPointArchiveFactory(metricRegistry, dataDir(), dbConfig, longId);
+        return new DataPointArchiveFactory(metricRegistry, dataDir(), dbConfig, longId, resourceManager);
     }
 
     private StagingFilesSort fileSort()
     {
+        if ( binarySortEnabled )
+        {
+            return new BinaryStagingSort( binarySortThreads, binarySortChunkRecords );
+        }
         SystemSort sort = new SystemSort( systemSortTimeoutInSeconds );
         sort.setBufSizeKb( systemSortBufSizeInKB );
         sort.setTmpDir( systemSortTmpDir );
@@ -120,24 +187,35 @@ public class cfgDataPoints
     }
 
     @Bean
-    @ConditionalOnProperty(name = "rocksdb.readonly", havingValue = "false", matchIfMissing = true)
+    @ConditionalOnExpression("!${rocksdb.readonly:false} && !${staging.streamingRollup.enabled:false}")
     StagingFiles stagingFiles(MetricProvider mProvider)
     {
         return new StagingFiles(metricRegistry, stagingDir(), fileSort(), mProvider);
     }
 
     @Bean
-    @ConditionalOnProperty(name = "rocksdb.readonly", havingValue = "false", matchIfMissing = true)
+    @ConditionalOnExpression("!${rocksdb.readonly:false} && !${staging.streamingRollup.enabled:false}")
     DataPointStagingStore pointStagingStore( StagingFiles stagingFiles)
     {
         return new DataPointStagingStore(metricRegistry, stagingFiles, stagingQueueSize,
             stagingIntervalQueueConsumerBatchSize, stagingIntervalsQueueSizePerDb, stagingIntervalsQueueConsumersPerDb,
-                emptyQueuePauseInMillis, timeAggrJobIntervalInMins, timeAggrJobThreads);
+                emptyQueuePauseInMillis, timeAggrJobIntervalInMins, timeAggrJobThreads, stagingWriters,
+                stagingOverflowMaxBytes > 0 ? stagingOverflowDir() : null,
+                stagingOverflowMaxBytes);
+    }
+
+    @Bean
+    @ConditionalOnExpression("!${rocksdb.readonly:false} && ${staging.streamingRollup.enabled:false}")
+    StreamingRollup streamingRollup(MetricProvider mProvider)
+    {
+        return new StreamingRollup(metricRegistry, mProvider, FileUtils.writableDir( streamingRollupDir ),
+            streamingRollupShards, streamingRollupMaxBytes, streamingRollupLateSeconds);
     }
 
     @Bean
     DataPointStore dataPointStore(DataPointArchiveFactory dbFactory, DatabaseMetrics dbMetrics,
-                                  @Autowired(required = false) DataPointStagingStore stagingStore, NamespaceCounter nsCounter)
+                                  @Autowired(required = false) DataPointStagingStore stagingStore,
+                                  @Autowired(required = false) StreamingRollup streamingRollup, NamespaceCounter nsCounter)
     {
         QueryCachePolicy qcp = new QueryCachePolicy( useTimeSeriesCacheFor60s24h, useTimeSeriesCacheFor60s30d,
                 useTimeSeriesCacheFor5m7d, useTimeSeriesCacheFor30m2y );
@@ -149,8 +227,17 @@ public class cfgDataPoints
             nameSpaceCounterCheck = nsCounter::exists;
         }
 
-        return new DataPointStoreImpl(metricRegistry, dbFactory, dbMetrics, stagingStore, updateLowerResolutionArchives,
-            timeSeriesCacheMaxSize, timeSeriesCacheExpireInSec, qcp, nameSpaceCounterCheck);
+        // readonly replicas don't see writes, so they can't keep the head block current
+        DataPointHeadBlock headBlock = null;
+        if ( headBlockEnabled && !rocksdbReadonly )
+        {
+            headBlock = new DataPointHeadBlock( metricRegistry, RetentionPolicy.getInstanceForDbName( headBlockDbName ),
+                headBlockHours, headBlockMaxBytes, headBlockIdleSeconds );
+        }
+
+        DataPointRollup rollup = streamingRollup != null ? streamingRollup : stagingStore;
+        return new DataPointStoreImpl(metricRegistry, dbFactory, dbMetrics, rollup, updateLowerResolutionArchives,
+            timeSeriesCacheMaxSize, timeSeriesCacheExpireInSec, qcp, nameSpaceCounterCheck, headBlock);
     }
 
     private File dataDir()
@@ -168,4 +255,14 @@ public class cfgDataPoints
                         "metrics.store.stagingDir");
         return FileUtils.writableDir( stagingDir );
     }
+
+    private File stagingOverflowDir()
+    {
+        File dir = new File( stagingDir(), "overflow" );
+        if ( !dir.exists() && !dir.mkdir() )
+        {
+            throw new IllegalStateException( "Failed to create dir for staging overflow files " + dir.getAbsolutePath() );
+        }
+        return FileUtils.writableDir( dir.getPath() );
+    }
 }
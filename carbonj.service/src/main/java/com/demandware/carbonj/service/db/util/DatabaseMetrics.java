@@ -45,6 +45,8 @@ public class DatabaseMetrics
 
     // tracks total time spent on series read operations across all tasks created for one getSeries request
     public static Timer getSeriesReadTimer;
+    // tracks total time spent on batched series reads across all tasks created for one getSeries request
+    public static Timer getSeriesBatchReadTimer;
     // tracks total time spent on serialization of data before sending across all tasks created for one getSeries request
     public static Timer getSeriesSerializeTimer;
     // tracks total time spent on all send operations performed across all tasks created for one getSeries request
@@ -56,6 +58,9 @@ public class DatabaseMetrics
 
     public static Meter deletedMetricAccessError;
 
+    // counts query levels walked in parallel by findMetrics
+    public static Meter parallelFindMetrics;
+
     // counts how many queries exceeded max datapoints threshold
     public static Meter datapointsLimitExceeded;
 
@@ -69,6 +74,7 @@ public class DatabaseMetrics
         invalidLeafMetricsReceived = metricRegistry.meter( MetricRegistry.name( "db", "invalidLeafMetricsReceived" ) );
         deletedMetrics = metricRegistry.meter( MetricRegistry.name( "db", "deletedMetrics" ) );
         deletedMetricAccessError = metricRegistry.meter( MetricRegistry.name( "db", "deletedMetricAccessError" ) );
+        parallelFindMetrics = metricRegistry.meter( MetricRegistry.name( "db", "parallelFindMetrics" ) );
         queriesServed = metricRegistry.meter( MetricRegistry.name( "db", "queriesServed" ) );
         obsoleteSeriesAccessMeter = metricRegistry.meter( MetricRegistry.name( "db", "obsoleteSeriesAccess" ) );
         getSeriesTimer = metricRegistry.timer( MetricRegistry.name("db", "getSeries") );
@@ -87,6 +93,7 @@ public class DatabaseMetrics
         getSeriesTaskSendErrors = metricRegistry.meter(MetricRegistry.name("db", "getSeriesTaskSendErrors"));
         getSeriesWaitForTasksErrors = metricRegistry.meter(MetricRegistry.name("db", "getSeriesWaitForTasksErrors"));
         getSeriesReadTimer = metricRegistry.timer(MetricRegistry.name("db", "getSeriesReadTimer") );
+        getSeriesBatchReadTimer = metricRegistry.timer(MetricRegistry.name("db", "getSeriesBatchReadTimer") );
         getSeriesSerializeTimer = metricRegistry.timer(MetricRegistry.name("db", "getSeriesSerializeTimer") );
         getSeriesSendTimer = metricRegistry.timer(MetricRegistry.name("db", "getSeriesSendTimer") );
         getSeriesSendOpTimer = metricRegistry.timer( MetricRegistry.name("db", "getSeriesSendOpTimer") );
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.rocksdb.Checkpoint;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helpers to create RocksDB checkpoint snapshots of carbonj databases and to bootstrap a node from a snapshot.
+ *
+ * Snapshot directory contains one sub-directory per database (named after the database) and a properties file with
+ * the time the snapshot was started. Data newer than that time has to be replayed from the stream.
+ */
+public class DbSnapshots
+{
+    private static final Logger log = LoggerFactory.getLogger( DbSnapshots.class );
+
+    public static final String PROPERTIES_FILE = "snapshot.properties";
+
+    private static final String TIMESTAMP = "timestamp";
+
+    private static final String RESTORE_EXT = ".restoring";
+
+    /**
+     * Creates checkpoint of the database in the given directory. Files are hard linked when snapshot directory is on
+     * the same file system as the database.
+     */
+    public static void checkpoint( RocksDB db, String dbName, File snapshotDir )
+    {
+        File target = new File( snapshotDir, dbName );
+        try (Checkpoint checkpoint = Checkpoint.create( db ))
+        {
+            checkpoint.createCheckpoint( target.getAbsolutePath() );
+            log.info( "Created checkpoint of database [{}] in [{}]", dbName, target );
+        }
+        catch ( RocksDBException e )
+        {
+            throw new RuntimeException( "Failed to create checkpoint of database [" + dbName + "] in [" + target + "]", e );
+        }
+    }
+
+    public static void writeProperties( File snapshotDir, long timestampMillis )
+    {
+        Properties props = new Properties();
+        props.setProperty( TIMESTAMP, String.valueOf( timestampMillis ) );
+        try (Writer w = Files.newBufferedWriter( new File( snapshotDir, PROPERTIES_FILE ).toPath() ))
+        {
+            props.store( w, "carbonj snapshot" );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * @return snapshot start time in millis or -1 if the directory doesn't contain a complete snapshot.
+     */
+    public static long readTimestamp( File snapshotDir )
+    {
+        File f = new File( snapshotDir, PROPERTIES_FILE );
+        if ( !f.exists() )
+        {
+            return -1;
+        }
+        Properties props = new Properties();
+        try (Reader r = Files.newBufferedReader( f.toPath() ))
+        {
+            props.load( r );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return Long.parseLong( props.getProperty( TIMESTAMP, "-1" ) );
+    }
+
+    /**
+     * Populates empty database directory from snapshot. Immutable sst files are hard linked if possible, all other
+     * files are copied so that the snapshot stays intact when the database is opened. Files are restored into a
+     * temporary directory that is renamed to the database directory once complete, a failed restore leaves the
+     * database directory empty.
+     *
+     * @return true if database was restored from the snapshot.
+     */
+    public static boolean restore( File snapshotDir, String dbName, File dbDir )
+    {
+        File source = new File( snapshotDir, dbName );
+        if ( !source.isDirectory() )
+        {
+            return false;
+        }
+        String[] existing = dbDir.list();
+        if ( existing != null && existing.length > 0 )
+        {
+            log.warn( "Database directory [{}] is not empty. Skip restoring it from snapshot [{}].", dbDir, source );
+            return false;
+        }
+        Path tmp = dbDir.toPath().resolveSibling( dbDir.getName() + RESTORE_EXT );
+        try
+        {
+            // left over by a failed restore
+            deleteRecursively( tmp );
+            Files.createDirectories( tmp );
+            try (Stream<Path> files = Files.list( source.toPath() ))
+            {
+                for ( Path f : (Iterable<Path>) files::iterator )
+                {
+                    Path target = tmp.resolve( f.getFileName() );
+                    if ( !f.getFileName().toString().endsWith( ".sst" ) || !link( f, target ) )
+                    {
+                        Files.copy( f, target );
+                    }
+                }
+            }
+            Files.deleteIfExists( dbDir.toPath() );
+            Files.move( tmp, dbDir.toPath(), StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException e )
+        {
+            try
+            {
+                deleteRecursively( tmp );
+            }
+            catch ( IOException suppressed )
+            {
+                e.addSuppressed( suppressed );
+            }
+            throw new UncheckedIOException( "Failed to restore database [" + dbName + "] from [" + source + "]", e );
+        }
+        log.info( "Restored database [{}] in [{}] from snapshot [{}]", dbName, dbDir, source );
+        return true;
+    }
+
+    private static void deleteRecursively( Path dir )
+        throws IOException
+    {
+        if ( !Files.exists( dir ) )
+        {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk( dir ))
+        {
+            for ( Path p : (Iterable<Path>) paths.sorted( Comparator.reverseOrder() )::iterator )
+            {
+                Files.delete( p );
+            }
+        }
+    }
+
+    private static boolean link( Path source, Path target )
+    {
+        try
+        {
+            Files.createLink( target, source );
+            return true;
+        }
+        catch ( IOException | UnsupportedOperationException e )
+        {
+            // different file system
+            return false;
+        }
+    }
+}
@@ -19,6 +19,10 @@ public class MetricUtils {
         return "db." + dbName + ".read.time";
     }
 
+    public static String dbBatchReadTimerName(String dbName) {
+        return "db." + dbName + ".batchRead.time";
+    }
+
     public static String dbDeleteTimerName(String dbName) {
         return "db." + dbName + ".delete.time";
     }
@@ -35,10 +39,42 @@ public class MetricUtils {
         return "db." + dbName + ".records.saved";
     }
 
+    public static String dbExtentIndexSkippedName(String dbName) {
+        return "db." + dbName + ".extentIndex.skipped";
+    }
+
     public static String dbEmptyReadTimerName(String dbName) {
         return "db." + dbName + ".emptyRead.time";
     }
 
+    public static String dbRocksDBStatName(String dbName, String stat) {
+        return "db." + dbName + ".rocksdb." + stat;
+    }
+
+    public static String dbWriteStageBatchSizeName(String dbName) {
+        return "db." + dbName + ".writeStage.batchSize";
+    }
+
+    public static String dbWriteStageCommitTimerName(String dbName) {
+        return "db." + dbName + ".writeStage.commit.time";
+    }
+
+    public static String dbWriteStageBlockedTimerName(String dbName) {
+        return "db." + dbName + ".writeStage.blocked.time";
+    }
+
+    public static String dbWriteStageWaitTimerName(String dbName) {
+        return "db." + dbName + ".writeStage.wait.time";
+    }
+
+    public static String dbWriteStageQueueName(String dbName) {
+        return "db." + dbName + ".writeStage.queue";
+    }
+
+    public static String rocksDBMemoryName(String name) {
+        return "rocksdb.memory." + name;
+    }
+
     public static String dbDataPointLatencyName(String dbName, String namespace) {
         return "db." + dbName + ".namespace." + namespace + ".latency";
     }
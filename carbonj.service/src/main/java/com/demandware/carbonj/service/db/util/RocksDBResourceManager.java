@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.rocksdb.LRUCache;
+import org.rocksdb.MemoryUsageType;
+import org.rocksdb.MemoryUtil;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.WriteBufferManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+
+/**
+ * Process-wide owner of RocksDB memory. All databases opened by carbonj (data point archives and index stores) share
+ * one block cache and one {@link WriteBufferManager} sized from a single memory budget. Memtable memory is charged
+ * to the shared block cache so that the combined off-heap usage of all databases stays within the budget.
+ *
+ * When the budget is 0 the manager is disabled and every database keeps using its own cache and memtable settings.
+ */
+public class RocksDBResourceManager
+{
+    private static final Logger log = LoggerFactory.getLogger( RocksDBResourceManager.class );
+
+    private final MetricRegistry metricRegistry;
+
+    private final long memoryBudget;
+
+    private final Set<String> highPriorityDbs;
+
+    private final Cache blockCache;
+
+    private final WriteBufferManager writeBufferManager;
+
+    private final Map<String, RocksDB> consumers = new ConcurrentHashMap<>();
+
+    public RocksDBResourceManager( MetricRegistry metricRegistry, long memoryBudget, double writeBufferRatio,
+                                   double highPriorityPoolRatio, boolean strictCapacityLimit,
+                                   Set<String> highPriorityDbs )
+    {
+        Preconditions.checkArgument( memoryBudget >= 0, "memory budget can't be negative" );
+        Preconditions.checkArgument( writeBufferRatio > 0 && writeBufferRatio < 1,
+            "write buffer ratio must be between 0 and 1" );
+        this.metricRegistry = metricRegistry;
+        this.memoryBudget = memoryBudget;
+        this.highPriorityDbs = highPriorityDbs == null ? Collections.emptySet() : highPriorityDbs;
+        if ( memoryBudget > 0 )
+        {
+            RocksDB.loadLibrary();
+            this.blockCache = new LRUCache( memoryBudget, -1, strictCapacityLimit, highPriorityPoolRatio );
+            this.writeBufferManager = new WriteBufferManager( (long) ( memoryBudget * writeBufferRatio ), blockCache );
+            metricRegistry.register( MetricUtils.rocksDBMemoryName( "budget" ), (Gauge<Long>) ( ) -> memoryBudget );
+            metricRegistry.register( MetricUtils.rocksDBMemoryName( "blockCache.usage" ),
+                (Gauge<Long>) blockCache::getUsage );
+            metricRegistry.register( MetricUtils.rocksDBMemoryName( "blockCache.pinnedUsage" ),
+                (Gauge<Long>) blockCache::getPinnedUsage );
+            log.info( String.format( "RocksDB shared memory budget %s bytes, write buffers %s bytes, high priority pool ratio %s, high priority dbs %s",
+                memoryBudget, (long) ( memoryBudget * writeBufferRatio ), highPriorityPoolRatio, this.highPriorityDbs ) );
+        }
+        else
+        {
+            this.blockCache = null;
+            this.writeBufferManager = null;
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return memoryBudget > 0;
+    }
+
+    /**
+     * Points database options and table config of the given consumer to the shared block cache and write buffer
+     * manager. Index and filter blocks of high priority databases are kept in the high priority pool of the cache.
+     *
+     * @return false if the manager is disabled and the caller has to configure its own cache.
+     */
+    public boolean configure( String dbName, Options options, BlockBasedTableConfig tableConfig )
+    {
+        if ( !isEnabled() )
+        {
+            return false;
+        }
+        options.setWriteBufferManager( writeBufferManager );
+        tableConfig.setBlockCache( blockCache );
+        tableConfig.setCacheIndexAndFilterBlocks( true );
+        tableConfig.setCacheIndexAndFilterBlocksWithHighPriority( highPriorityDbs.contains( dbName ) );
+        return true;
+    }
+
+    /**
+     * Starts reporting memory usage of the opened database.
+     */
+    public void register( String dbName, RocksDB db )
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+        consumers.put( dbName, db );
+        registerGauge( MetricUtils.rocksDBMemoryName( dbName + ".memtable" ),
+            ( ) -> usage( dbName, MemoryUsageType.kMemTableTotal ) );
+        registerGauge( MetricUtils.rocksDBMemoryName( dbName + ".tableReaders" ),
+            ( ) -> usage( dbName, MemoryUsageType.kTableReadersTotal ) );
+    }
+
+    public void unregister( String dbName )
+    {
+        if ( consumers.remove( dbName ) != null )
+        {
+            metricRegistry.remove( MetricUtils.rocksDBMemoryName( dbName + ".memtable" ) );
+            metricRegistry.remove( MetricUtils.rocksDBMemoryName( dbName + ".tableReaders" ) );
+        }
+    }
+
+    private void registerGauge( String name, Gauge<Long> gauge )
+    {
+        metricRegistry.remove( name );
+        metricRegistry.register( name, gauge );
+    }
+
+    /**
+     * @return approximate memory used by the given database for the given usage type or 0 if database is not known.
+     */
+    public long usage( String dbName, MemoryUsageType type )
+    {
+        RocksDB db = consumers.get( dbName );
+        if ( db == null )
+        {
+            return 0;
+        }
+        Long value = MemoryUtil.getApproximateMemoryUsageByType( Collections.singletonList( db ), null ).get( type );
+        return value == null ? 0 : value;
+    }
+
+    public void dumpStats()
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        consumers.keySet().forEach( dbName -> sb.append( String.format( " %s: memtable %s bytes, table readers %s bytes;",
+            dbName, usage( dbName, MemoryUsageType.kMemTableTotal ), usage( dbName, MemoryUsageType.kTableReadersTotal ) ) ) );
+        log.info( String.format( "RocksDB shared memory: budget %s bytes, block cache usage %s bytes, pinned %s bytes.%s",
+            memoryBudget, blockCache.getUsage(), blockCache.getPinnedUsage(), sb ) );
+    }
+
+    public void close()
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+        metricRegistry.removeMatching( ( name, metric ) -> name.startsWith( MetricUtils.rocksDBMemoryName( "" ) ) );
+        consumers.clear();
+        writeBufferManager.close();
+        blockCache.close();
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import org.rocksdb.HistogramData;
+import org.rocksdb.HistogramType;
+import org.rocksdb.LevelMetaData;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Exposes RocksDB statistics tickers, histograms and db properties of one RocksDB instance as gauges in the
+ * metric registry so they are reported together with the rest of carbonj metrics.
+ */
+public class RocksDBStatsReporter implements StatsAware
+{
+    private static final Logger log = LoggerFactory.getLogger( RocksDBStatsReporter.class );
+
+    private static final Object[][] TICKERS = {
+        { "blockCache.hit", TickerType.BLOCK_CACHE_HIT },
+        { "blockCache.miss", TickerType.BLOCK_CACHE_MISS },
+        { "blockCache.indexMiss", TickerType.BLOCK_CACHE_INDEX_MISS },
+        { "blockCache.filterMiss", TickerType.BLOCK_CACHE_FILTER_MISS },
+        { "blockCache.dataMiss", TickerType.BLOCK_CACHE_DATA_MISS },
+        { "bloom.useful", TickerType.BLOOM_FILTER_USEFUL },
+        { "bloom.prefixChecked", TickerType.BLOOM_FILTER_PREFIX_CHECKED },
+        { "bloom.prefixUseful", TickerType.BLOOM_FILTER_PREFIX_USEFUL },
+        { "memtable.hit", TickerType.MEMTABLE_HIT },
+        { "memtable.miss", TickerType.MEMTABLE_MISS },
+        { "stall.micros", TickerType.STALL_MICROS },
+        { "compaction.readBytes", TickerType.COMPACT_READ_BYTES },
+        { "compaction.writeBytes", TickerType.COMPACT_WRITE_BYTES },
+        { "flush.writeBytes", TickerType.FLUSH_WRITE_BYTES },
+        { "bytesWritten", TickerType.BYTES_WRITTEN },
+        { "bytesRead", TickerType.BYTES_READ },
+        { "seeks", TickerType.NUMBER_DB_SEEK },
+        { "wal.bytes", TickerType.WAL_FILE_BYTES },
+        { "wal.syncs", TickerType.WAL_FILE_SYNCED },
+    };
+
+    private static final Object[][] HISTOGRAMS = {
+        { "get", HistogramType.DB_GET },
+        { "write", HistogramType.DB_WRITE },
+        { "seek", HistogramType.DB_SEEK },
+        { "writeStall", HistogramType.WRITE_STALL },
+        { "compaction", HistogramType.COMPACTION_TIME },
+        { "flush", HistogramType.FLUSH_TIME },
+        { "sstRead", HistogramType.SST_READ_MICROS },
+    };
+
+    private static final String[][] PROPERTIES = {
+        { "pendingCompactionBytes", "rocksdb.estimate-pending-compaction-bytes" },
+        { "runningCompactions", "rocksdb.num-running-compactions" },
+        { "runningFlushes", "rocksdb.num-running-flushes" },
+        { "memtableSize", "rocksdb.cur-size-all-mem-tables" },
+        { "immutableMemtables", "rocksdb.num-immutable-mem-table" },
+        { "delayedWriteRate", "rocksdb.actual-delayed-write-rate" },
+        { "writeStopped", "rocksdb.is-write-stopped" },
+        { "blockCacheUsage", "rocksdb.block-cache-usage" },
+        { "tableReadersMem", "rocksdb.estimate-table-readers-mem" },
+        { "sstFilesSize", "rocksdb.total-sst-files-size" },
+        { "estimatedKeys", "rocksdb.estimate-num-keys" },
+    };
+
+    // stall counters by cause reported as part of "rocksdb.cfstats" map property
+    private static final String[][] STALL_COUNTERS = {
+        { "stall.level0Slowdown", "io_stalls.level0_slowdown" },
+        { "stall.level0NumFiles", "io_stalls.level0_numfiles" },
+        { "stall.memtableCompaction", "io_stalls.memtable_compaction" },
+        { "stall.memtableSlowdown", "io_stalls.memtable_slowdown" },
+        { "stall.pendingCompactionBytesSlowdown", "io_stalls.slowdown_for_pending_compaction_bytes" },
+        { "stall.pendingCompactionBytesStop", "io_stalls.stop_for_pending_compaction_bytes" },
+        { "stall.totalSlowdown", "io_stalls.total_slowdown" },
+        { "stall.totalStop", "io_stalls.total_stop" },
+    };
+
+    private final MetricRegistry metricRegistry;
+
+    private final String dbName;
+
+    private final RocksDB db;
+
+    private final Statistics statistics;
+
+    // keep track of created names to unregister as part of close.
+    private final List<String> metricNames = new ArrayList<>();
+
+    private final CachedGauge<long[][]> levels;
+
+    private final CachedGauge<Map<String, String>> cfStats;
+
+    public RocksDBStatsReporter( MetricRegistry metricRegistry, String dbName, RocksDB db, Statistics statistics )
+    {
+        this.metricRegistry = metricRegistry;
+        this.dbName = dbName;
+        this.db = db;
+        this.statistics = statistics;
+        this.levels = new CachedGauge<>( 10, TimeUnit.SECONDS )
+        {
+            @Override
+            protected long[][] loadValue()
+            {
+                return loadLevels();
+            }
+        };
+        this.cfStats = new CachedGauge<>( 10, TimeUnit.SECONDS )
+        {
+            @Override
+            protected Map<String, String> loadValue()
+            {
+                return loadCfStats();
+            }
+        };
+
+        if ( statistics != null )
+        {
+            for ( Object[] ticker : TICKERS )
+            {
+                TickerType type = (TickerType) ticker[1];
+                register( (String) ticker[0], ( ) -> statistics.getTickerCount( type ) );
+            }
+            for ( Object[] histogram : HISTOGRAMS )
+            {
+                HistogramType type = (HistogramType) histogram[1];
+                registerHistogram( (String) histogram[0], type );
+            }
+        }
+        for ( String[] property : PROPERTIES )
+        {
+            String propertyName = property[1];
+            register( property[0], ( ) -> longProperty( propertyName ) );
+        }
+        for ( String[] counter : STALL_COUNTERS )
+        {
+            String key = counter[1];
+            register( counter[0], ( ) -> parseLong( cfStats.getValue().get( key ) ) );
+        }
+        int numLevels = loadLevels().length;
+        for ( int level = 0; level < numLevels; level++ )
+        {
+            final int l = level;
+            register( "level" + l + ".files", ( ) -> l < levels.getValue().length ? levels.getValue()[l][0] : 0 );
+            register( "level" + l + ".size", ( ) -> l < levels.getValue().length ? levels.getValue()[l][1] : 0 );
+        }
+    }
+
+    private void registerHistogram( String name, HistogramType type )
+    {
+        register( name + ".p50", type, HistogramData::getMedian );
+        register( name + ".p95", type, HistogramData::getPercentile95 );
+        register( name + ".p99", type, HistogramData::getPercentile99 );
+        register( name + ".mean", type, HistogramData::getAverage );
+        register( name + ".max", type, HistogramData::getMax );
+    }
+
+    private void register( String name, HistogramType type, ToDoubleFunction<HistogramData> f )
+    {
+        register( name, ( Gauge<Number> ) ( ) -> f.applyAsDouble( statistics.getHistogramData( type ) ) );
+    }
+
+    private void register( String name, Gauge<Number> gauge )
+    {
+        String metricName = MetricUtils.dbRocksDBStatName( dbName, name );
+        try
+        {
+            metricRegistry.register( metricName, gauge );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // this can happen in unit tests when the same database is reopened with the same metric registry.
+            metricRegistry.remove( metricName );
+            metricRegistry.register( metricName, gauge );
+        }
+        metricNames.add( metricName );
+    }
+
+    private long longProperty( String property )
+    {
+        try
+        {
+            return db.getLongProperty( property );
+        }
+        catch ( RocksDBException e )
+        {
+            log.debug( "Failed to retrieve property {} for db {} - {}", property, dbName, e.getMessage() );
+            return 0;
+        }
+    }
+
+    private Map<String, String> loadCfStats()
+    {
+        try
+        {
+            return db.getMapProperty( "rocksdb.cfstats" );
+        }
+        catch ( RocksDBException e )
+        {
+            log.debug( "Failed to retrieve cfstats for db {} - {}", dbName, e.getMessage() );
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * @return number of files and total size in bytes for each level.
+     */
+    private long[][] loadLevels()
+    {
+        List<LevelMetaData> levelMetaData = db.getColumnFamilyMetaData().levels();
+        long[][] result = new long[levelMetaData.size()][2];
+        for ( LevelMetaData level : levelMetaData )
+        {
+            if ( level.level() < result.length )
+            {
+                result[level.level()][0] = level.files().size();
+                result[level.level()][1] = level.size();
+            }
+        }
+        return result;
+    }
+
+    private static long parseLong( String value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+        try
+        {
+            return (long) Double.parseDouble( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
+    @Override
+    public void dumpStats()
+    {
+        long[][] l = levels.getValue();
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < l.length; i++ )
+        {
+            sb.append( String.format( " L%s: %s files %s bytes;", i, l[i][0], l[i][1] ) );
+        }
+        log.info( String.format( "RocksDB [%s] pending compaction bytes: %s, memtables: %s bytes, stall micros: %s.%s",
+            dbName, longProperty( "rocksdb.estimate-pending-compaction-bytes" ),
+            longProperty( "rocksdb.cur-size-all-mem-tables" ),
+            statistics != null ? statistics.getTickerCount( TickerType.STALL_MICROS ) : "n/a", sb ) );
+    }
+
+    public void close()
+    {
+        metricNames.forEach( metricRegistry::remove );
+        metricNames.clear();
+    }
+}
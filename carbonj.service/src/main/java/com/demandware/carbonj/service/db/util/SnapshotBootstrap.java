@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.util;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bootstraps a new node from a snapshot created with the snapshot admin API. Databases that don't exist yet are
+ * restored from the snapshot before they are opened. After restore the stream has to be replayed from the snapshot
+ * time which is available through {@link #restoredTimestamp()}.
+ */
+public class SnapshotBootstrap
+{
+    private static final Logger log = LoggerFactory.getLogger( SnapshotBootstrap.class );
+
+    private final File snapshotDir;
+
+    private long restoredTimestamp = -1;
+
+    public SnapshotBootstrap( File snapshotDir )
+    {
+        this.snapshotDir = snapshotDir;
+    }
+
+    /**
+     * Restores index stores into index dir and archives into data dir.
+     */
+    public void restore( File indexDir, File dataDir )
+    {
+        if ( snapshotDir == null )
+        {
+            return;
+        }
+        long timestamp = DbSnapshots.readTimestamp( snapshotDir );
+        if ( timestamp < 0 )
+        {
+            throw new IllegalStateException( "Directory [" + snapshotDir + "] doesn't contain a complete snapshot" );
+        }
+        String[] dbNames = snapshotDir.list( ( dir, name ) -> new File( dir, name ).isDirectory() );
+        boolean restored = false;
+        for ( String dbName : dbNames == null ? new String[0] : dbNames )
+        {
+            File parent = dbName.startsWith( "index-" ) ? indexDir : dataDir;
+            restored |= DbSnapshots.restore( snapshotDir, dbName, new File( parent, dbName ) );
+        }
+        if ( restored )
+        {
+            restoredTimestamp = timestamp;
+            log.info( "Bootstrapped from snapshot [{}] taken at {}", snapshotDir, timestamp );
+        }
+    }
+
+    /**
+     * @return time of the snapshot in millis if any database was restored from it, -1 otherwise.
+     */
+    public long restoredTimestamp()
+    {
+        return restoredTimestamp;
+    }
+}
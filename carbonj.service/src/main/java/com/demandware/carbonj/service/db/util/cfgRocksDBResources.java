@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.util;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.codahale.metrics.MetricRegistry;
+
+@Configuration
+public class cfgRocksDBResources
+{
+    // total off-heap memory shared by block cache and memtables of all rocksdb databases. 0 - disabled.
+    @Value( "${rocksdb.memory.budget:0}" )
+    private long memoryBudget = 0;
+
+    @Value( "${rocksdb.memory.writeBufferRatio:0.25}" )
+    private double writeBufferRatio = 0.25;
+
+    @Value( "${rocksdb.memory.highPriorityPoolRatio:0.1}" )
+    private double highPriorityPoolRatio = 0.1;
+
+    @Value( "${rocksdb.memory.strictCapacityLimit:false}" )
+    private boolean strictCapacityLimit = false;
+
+    // comma separated list of db names that keep index and filter blocks in the high priority pool
+    @Value( "${rocksdb.memory.highPriorityDbs:index-name,index-id,60s24h}" )
+    private String highPriorityDbs = "index-name,index-id,60s24h";
+
+    @Autowired
+    MetricRegistry metricRegistry;
+
+    @Bean( destroyMethod = "close" )
+    public RocksDBResourceManager rocksDBResourceManager()
+    {
+        Set<String> dbs = Arrays.stream( highPriorityDbs.split( "," ) )
+                        .map( String::trim )
+                        .filter( s -> !s.isEmpty() )
+                        .collect( Collectors.toSet() );
+        return new RocksDBResourceManager( metricRegistry, memoryBudget, writeBufferRatio, highPriorityPoolRatio,
+                        strictCapacityLimit, dbs );
+    }
+}
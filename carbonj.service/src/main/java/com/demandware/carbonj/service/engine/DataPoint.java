@@ -8,6 +8,7 @@ package com.demandware.carbonj.service.engine;
 
 import org.joda.time.DateTime;
 
+import com.demandware.carbonj.service.db.model.IntervalStats;
 import com.demandware.carbonj.service.strings.StringsCache;
 
 public class DataPoint
@@ -25,6 +26,9 @@ public class DataPoint
 
     public long metricId = UNKNOWN_ID;
 
+    // statistics of the aggregated values for points of lower resolution archives, null otherwise
+    public IntervalStats stats;
+
     public DataPoint( String name, double val, int ts )
     {
         this(name, val, ts, true);
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.engine;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Check point manager used when data point archives are written without a write-ahead log. Points that are only in
+ * rocksdb memtables are lost on crash and have to be replayed from kinesis, so a check point is persisted only after
+ * memtables of all archives have been flushed. Flushes are rate limited to one per flush interval - check points
+ * received in between are skipped because the next accepted check point covers them.
+ * <p>
+ * Points can be held in memory before they reach the archives - while their names are created or while they are
+ * rolled up into lower resolution archives. The flush returns the timestamp of the oldest of them and the check point
+ * is limited to it, so replay after crash starts early enough to restore them. Check points never move backwards.
+ */
+public class FlushingCheckPointMgr implements CheckPointMgr<Date> {
+
+    private static final Logger log = LoggerFactory.getLogger(FlushingCheckPointMgr.class);
+
+    private final CheckPointMgr<Date> checkPointMgr;
+
+    private final IntSupplier flush;
+
+    private final long flushIntervalMillis;
+
+    private final Timer flushTimer;
+
+    private final Meter skipped;
+
+    private final Meter limited;
+
+    private long lastFlushTimeMillis;
+
+    private Date lastSaved;
+
+    /**
+     * @param flush flushes archives and returns the timestamp (epoch seconds) of the oldest point that is still held
+     *              only in memory, {@link Integer#MAX_VALUE} if there are none.
+     */
+    public FlushingCheckPointMgr(MetricRegistry metricRegistry, CheckPointMgr<Date> checkPointMgr, IntSupplier flush,
+                                 int flushIntervalSeconds) {
+        this.checkPointMgr = checkPointMgr;
+        this.flush = flush;
+        this.flushIntervalMillis = TimeUnit.SECONDS.toMillis(flushIntervalSeconds);
+        this.flushTimer = metricRegistry.timer(MetricRegistry.name("checkPoint", "flush", "time"));
+        this.skipped = metricRegistry.meter(MetricRegistry.name("checkPoint", "skipped"));
+        this.limited = metricRegistry.meter(MetricRegistry.name("checkPoint", "limited"));
+    }
+
+    @Override
+    public synchronized void checkPoint(Date checkPoint) throws Exception {
+        long now = System.currentTimeMillis();
+        if (now - lastFlushTimeMillis < flushIntervalMillis) {
+            skipped.mark();
+            return;
+        }
+        int pendingSince;
+        try (Timer.Context ignored = flushTimer.time()) {
+            pendingSince = flush.getAsInt();
+        }
+        lastFlushTimeMillis = now;
+        if (pendingSince != Integer.MAX_VALUE && pendingSince * 1000L < checkPoint.getTime()) {
+            limited.mark();
+            checkPoint = new Date(pendingSince * 1000L);
+        }
+        if (lastSaved != null && checkPoint.before(lastSaved)) {
+            log.info("Flushed data point archives, check point {} is limited by points held in memory. Keeping {}",
+                    checkPoint, lastSaved);
+            return;
+        }
+        checkPointMgr.checkPoint(checkPoint);
+        lastSaved = checkPoint;
+        log.info("Flushed data point archives and saved check point {}", checkPoint);
+    }
+
+    @Override
+    public Date lastCheckPoint() throws Exception {
+        return checkPointMgr.lastCheckPoint();
+    }
+}
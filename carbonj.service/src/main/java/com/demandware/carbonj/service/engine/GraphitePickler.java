@@ -47,6 +47,9 @@ public class GraphitePickler extends Pickler implements ResponseStream
 
     private boolean closed = false;
 
+    // big-endian buffer for BINFLOAT values. Only used inside synchronized writeSeries().
+    private final byte[] doubleBytes = new byte[8];
+
     public GraphitePickler( OutputStream out ) throws IOException
     {
         this( true, out );
@@ -127,11 +130,40 @@ public class GraphitePickler extends Pickler implements ResponseStream
         save( s.step );
 
         save( "values" );
-        save( s.values );
+        saveValues( s.values );
 
         out.write( Opcodes.SETITEMS );
     }
 
+    /**
+     * Writes values as a list of floats straight from the array without boxing. NaN is written as None.
+     */
+    private void saveValues( double[] values )
+        throws IOException
+    {
+        // @see Pickler.put_collection(Collection<?> list) and Pickler.put_float(double d)
+        out.write( Opcodes.EMPTY_LIST );
+        out.write( Opcodes.MARK );
+        for ( double v : values )
+        {
+            if ( Double.isNaN( v ) )
+            {
+                out.write( Opcodes.NONE );
+            }
+            else
+            {
+                long bits = Double.doubleToLongBits( v );
+                for ( int i = 0; i < 8; i++ )
+                {
+                    doubleBytes[i] = (byte) ( bits >>> ( 56 - 8 * i ) );
+                }
+                out.write( Opcodes.BINFLOAT );
+                out.write( doubleBytes );
+            }
+        }
+        out.write( Opcodes.APPENDS );
+    }
+
     @Override
     public synchronized void closeSeriesList()
         throws IOException
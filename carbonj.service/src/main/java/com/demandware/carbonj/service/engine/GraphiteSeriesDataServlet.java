@@ -7,6 +7,7 @@
 package com.demandware.carbonj.service.engine;
 
 import java.io.IOException;
+import java.lang.reflect.Type;
 import java.util.List;
 
 import jakarta.servlet.ServletConfig;
@@ -17,9 +18,17 @@ import jakarta.servlet.http.HttpServletResponse;
 
 import com.demandware.carbonj.service.events.EventsLogger;
 import com.demandware.carbonj.service.db.TimeSeriesStore;
+import com.demandware.carbonj.service.db.model.Consolidation;
 import com.demandware.carbonj.service.db.model.Series;
 import com.demandware.carbonj.service.db.util.SystemTime;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -80,6 +89,14 @@ public class GraphiteSeriesDataServlet
         String from = req.getParameter( "from" );
         String until = req.getParameter( "until" );
         String nowText = req.getParameter("now");
+        String maxDataPointsText = req.getParameter( "maxDataPoints" );
+        Consolidation consolidation = Consolidation.fromName( req.getParameter( "consolidateBy" ) );
+        int maxDataPoints = parseMaxDataPoints( maxDataPointsText );
+        if ( maxDataPoints < 0 )
+        {
+            res.sendError( HttpServletResponse.SC_BAD_REQUEST, "Invalid maxDataPoints: " + maxDataPointsText );
+            return;
+        }
 
         boolean randomTest = req.getParameter("randomTest") != null;
         boolean json = "json".equals( format );
@@ -137,21 +154,20 @@ public class GraphiteSeriesDataServlet
             throw new RuntimeException(msg);
         }
 
+        Query query = new Query( target, Integer.parseInt( from ), Integer.parseInt( until ), now,
+                System.currentTimeMillis(), maxDataPoints, consolidation );
         if( json )
         {
-            List<Series> series = store.fetchSeriesData( new Query(target, Integer.parseInt( from ),
-                    Integer.parseInt( until ), now, System.currentTimeMillis()) );
+            List<Series> series = store.fetchSeriesData( query );
 
-            Gson gson = new Gson();
-            res.getWriter().write( gson.toJson( series ) );
+            Gson gson = new GsonBuilder().registerTypeAdapter( Series.class, new SeriesJsonSerializer() ).create();
+            gson.toJson( series, res.getWriter() );
             res.getWriter().close();
         }
         else if ( msgpack )
         {
             try (MessagePackHttpResponseWriter httpResponseWriter = new MessagePackHttpResponseWriter(res)) {
-                store.streamSeriesData(
-                        new Query(target, Integer.parseInt(from), Integer.parseInt(until), now, System.currentTimeMillis()),
-                        httpResponseWriter);
+                store.streamSeriesData(query, httpResponseWriter);
             } catch (IOException e) {
                 LOG.error("Error streaming message pack series data", e);
                 throw e;
@@ -162,7 +178,7 @@ public class GraphiteSeriesDataServlet
             ResponseStream seriesStream = new GraphitePickler( false, res.getOutputStream() );
             try
             {
-                store.streamSeriesData(new Query(target, Integer.parseInt(from), Integer.parseInt(until), now, System.currentTimeMillis()), seriesStream);
+                store.streamSeriesData(query, seriesStream);
             }
             finally
             {
@@ -171,4 +187,52 @@ public class GraphiteSeriesDataServlet
         }
     }
 
+    /**
+     * @return max number of data points per series, 0 when not set or -1 when the value is not a non-negative number.
+     */
+    private static int parseMaxDataPoints( String text )
+    {
+        if ( text == null )
+        {
+            return 0;
+        }
+        try
+        {
+            return Math.max( -1, Integer.parseInt( text ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes series values straight from the values array. Intervals without data are written as null.
+     */
+    private static class SeriesJsonSerializer implements JsonSerializer<Series>
+    {
+        @Override
+        public JsonElement serialize( Series s, Type typeOfSrc, JsonSerializationContext context )
+        {
+            JsonObject json = new JsonObject();
+            json.addProperty( "name", s.name );
+            json.addProperty( "start", s.start );
+            json.addProperty( "end", s.end );
+            json.addProperty( "step", s.step );
+            JsonArray values = new JsonArray( s.values.length );
+            for ( double v : s.values )
+            {
+                if ( Double.isNaN( v ) )
+                {
+                    values.add( JsonNull.INSTANCE );
+                }
+                else
+                {
+                    values.add( v );
+                }
+            }
+            json.add( "values", values );
+            return json;
+        }
+    }
 }
@@ -83,7 +83,7 @@ public class GraphiteSeriesDataTestServlet
             List<Series> series = store.fetchSeriesData( new Query(m.name, from, until, now, System.currentTimeMillis()) );
             for(Series s : series)
             {
-                nPoints = nPoints + s.values.size();
+                nPoints = nPoints + s.values.length;
                 names.add( s.name );
             }
         }
@@ -51,6 +51,7 @@ public class MessagePackHttpResponseWriter implements ResponseStream, AutoClosea
         if (!seriesListOpened || seriesListClosed) {
             throw new IOException("Series list is not open or already closed.");
         }
+        // values are written straight from the series array by MsgPackSeries.ValuesSerializer
         MsgPackSeries msgPackSeries = new MsgPackSeries(s);
         objectMapper.writeValue(generator, msgPackSeries);
     }
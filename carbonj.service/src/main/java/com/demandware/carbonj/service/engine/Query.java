@@ -6,19 +6,33 @@
  */
 package com.demandware.carbonj.service.engine;
 
+import com.demandware.carbonj.service.db.model.Consolidation;
+import com.demandware.carbonj.service.db.model.IntervalStats;
+import com.demandware.carbonj.service.db.model.Series;
+
 public class Query {
     private final String pattern;
     private final int from;
     private final int to;
     private final int now;
     private final long receivedTimeInMillis;
+    // 0 - return series at archive resolution
+    private final int maxDataPoints;
+    private final Consolidation consolidation;
 
     public Query(String pattern, int from, int to, int now, long receivedTimeInMillis) {
+        this(pattern, from, to, now, receivedTimeInMillis, 0, Consolidation.AVG);
+    }
+
+    public Query(String pattern, int from, int to, int now, long receivedTimeInMillis, int maxDataPoints,
+                 Consolidation consolidation) {
         this.pattern = pattern;
         this.from = from;
         this.to = to;
         this.now = now;
         this.receivedTimeInMillis = receivedTimeInMillis;
+        this.maxDataPoints = maxDataPoints;
+        this.consolidation = consolidation;
     }
 
     public String pattern() {
@@ -41,6 +55,30 @@ public class Query {
         return now;
     }
 
+    public int maxDataPoints() {
+        return maxDataPoints;
+    }
+
+    public Consolidation consolidation() {
+        return consolidation;
+    }
+
+    /**
+     * @return statistic read from points of lower resolution archives, e.g. max of the aggregated values for max.
+     */
+    public IntervalStats.Statistic statistic() {
+        return IntervalStats.Statistic.forConsolidation(consolidation);
+    }
+
+    /**
+     * @return series consolidated to at most maxDataPoints values, or the series itself if no limit is requested.
+     * Counts read from points of lower resolution archives are added up.
+     */
+    public Series consolidate(Series series) {
+        return series.consolidate(maxDataPoints,
+                statistic() == IntervalStats.Statistic.COUNT ? Consolidation.SUM : consolidation);
+    }
+
     @Override
     public String toString() {
         return "QueryContext{" +
@@ -49,6 +87,8 @@ public class Query {
                 ", to=" + to +
                 ", now=" + now +
                 ", receivedTimeInMillis=" + receivedTimeInMillis +
+                ", maxDataPoints=" + maxDataPoints +
+                ", consolidation=" + consolidation +
                 '}';
     }
 }
@@ -6,12 +6,16 @@
  */
 package com.demandware.carbonj.service.engine.kinesis;
 
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.TimeSeriesStore;
+import com.demandware.carbonj.service.db.util.SnapshotBootstrap;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import com.demandware.carbonj.service.accumulator.Accumulator;
 import com.demandware.carbonj.service.accumulator.cfgAccumulator;
 import com.demandware.carbonj.service.engine.CheckPointMgr;
 import com.demandware.carbonj.service.engine.DynamoDbCheckPointMgr;
 import com.demandware.carbonj.service.engine.FileCheckPointMgr;
+import com.demandware.carbonj.service.engine.FlushingCheckPointMgr;
 import com.demandware.carbonj.service.engine.KinesisConfig;
 import com.demandware.carbonj.service.engine.cfgKinesis;
 import org.slf4j.Logger;
@@ -43,11 +47,17 @@ public class cfgCheckPointMgr {
     @Value( "${metrics.store.checkPoint.table.provisioned.throughput:2}" ) private int
             checkPointTableProvisionedThroughput;
 
+    @Value( "${rocksdb.disableWAL:false}" ) private boolean disableWAL;
+
+    @Value( "${metrics.store.checkPoint.flushIntervalSeconds:300}" ) private int checkPointFlushIntervalSeconds;
+
     private static final Logger log = LoggerFactory.getLogger( cfgCheckPointMgr.class );
 
     @Bean
-    CheckPointMgr<Date> checkPointMgr(ScheduledExecutorService s, KinesisConfig kinesisConfig,
-                                      @Autowired( required = false ) @Qualifier( "accumulator" ) Accumulator accu )
+    CheckPointMgr<Date> checkPointMgr(ScheduledExecutorService s, KinesisConfig kinesisConfig, MetricRegistry metricRegistry,
+                                      @Autowired( required = false ) @Qualifier( "accumulator" ) Accumulator accu,
+                                      @Autowired( required = false ) TimeSeriesStore timeSeriesStore,
+                                      @Autowired( required = false ) SnapshotBootstrap snapshotBootstrap )
             throws Exception
     {
         if (!kinesisConfig.isKinesisConsumerEnabled()) {
@@ -64,18 +74,38 @@ public class cfgCheckPointMgr {
             }
         }
 
-        CheckPointMgr<Date> checkPointMgr;
+        CheckPointMgr<Date> checkPointStore;
         if ( checkPointProvider.equalsIgnoreCase( "dynamodb" ) )
         {
             log.info( "Creating Dynamo DB Checkpoint Mgr" );
             DynamoDbClient dynamoDbClient = DynamoDbClient.builder().build();
-            checkPointMgr = new DynamoDbCheckPointMgr( dynamoDbClient, checkPointApplicationName,
+            checkPointStore = new DynamoDbCheckPointMgr( dynamoDbClient, checkPointApplicationName,
                     defaultCheckPointOffset, checkPointTableProvisionedThroughput );
         }
         else
         {
             log.info( "Creating File Checkpoint Mgr" );
-            checkPointMgr = new FileCheckPointMgr( Paths.get( checkPointDir ), defaultCheckPointOffset );
+            checkPointStore = new FileCheckPointMgr( Paths.get( checkPointDir ), defaultCheckPointOffset );
+        }
+
+        CheckPointMgr<Date> checkPointMgr;
+        if ( disableWAL && timeSeriesStore != null )
+        {
+            // without WAL points are durable only after memtable flush. Replay after crash starts from last check point.
+            log.info( "Write-ahead log is disabled. Check points will advance after flushing data point archives, up to the oldest point held in memory." );
+            checkPointMgr = new FlushingCheckPointMgr( metricRegistry, checkPointStore, timeSeriesStore::flush,
+                    checkPointFlushIntervalSeconds );
+        }
+        else
+        {
+            checkPointMgr = checkPointStore;
+        }
+
+        if ( snapshotBootstrap != null && snapshotBootstrap.restoredTimestamp() > 0 )
+        {
+            // node was bootstrapped from a snapshot - replay the stream from the snapshot time
+            log.info( "Setting check point to snapshot time {}", snapshotBootstrap.restoredTimestamp() );
+            checkPointStore.checkPoint( new Date( snapshotBootstrap.restoredTimestamp() ) );
         }
 
         if (accu != null) {
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.ns;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Estimates the number of distinct names added to it in fixed memory. With the default precision 2^12 registers are
+ * used and the standard error of the estimate is about 1.6%.
+ * <p>
+ * Safe to use from multiple threads.
+ */
+class HyperLogLog
+{
+    static final int DEFAULT_PRECISION = 12;
+
+    private static final HashFunction hash = Hashing.murmur3_128();
+
+    private final int precision;
+
+    private final AtomicIntegerArray registers;
+
+    HyperLogLog()
+    {
+        this( DEFAULT_PRECISION );
+    }
+
+    HyperLogLog( int precision )
+    {
+        Preconditions.checkArgument( precision >= 4 && precision <= 16 );
+        this.precision = precision;
+        this.registers = new AtomicIntegerArray( 1 << precision );
+    }
+
+    void add( String name )
+    {
+        long h = hash.hashUnencodedChars( name ).asLong();
+        int i = (int) ( h >>> ( 64 - precision ) );
+        // guard bit keeps the rank within 64 - precision + 1
+        int rank = Long.numberOfLeadingZeros( ( h << precision ) | ( 1L << ( precision - 1 ) ) ) + 1;
+        int current = registers.get( i );
+        while ( rank > current && !registers.compareAndSet( i, current, rank ) )
+        {
+            current = registers.get( i );
+        }
+    }
+
+    long estimate()
+    {
+        return estimate( null );
+    }
+
+    /**
+     * @return estimated number of distinct names added to this or the other sketch.
+     */
+    long estimate( HyperLogLog other )
+    {
+        Preconditions.checkArgument( other == null || other.precision == precision );
+        int m = registers.length();
+        double sum = 0;
+        int zeros = 0;
+        for ( int i = 0; i < m; i++ )
+        {
+            int r = other == null ? registers.get( i ) : Math.max( registers.get( i ), other.registers.get( i ) );
+            sum += 1.0 / ( 1L << r );
+            if ( r == 0 )
+            {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / ( 1 + 1.079 / m );
+        double estimate = alpha * m * m / sum;
+        if ( estimate <= 2.5 * m && zeros > 0 )
+        {
+            // linear counting is more accurate for small cardinalities
+            estimate = m * Math.log( (double) m / zeros );
+        }
+        return Math.round( estimate );
+    }
+}
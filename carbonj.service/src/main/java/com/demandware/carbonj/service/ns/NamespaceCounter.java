@@ -12,9 +12,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.util.Quota;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +46,21 @@ public class NamespaceCounter
      */
     private final int removeInactiveAfterSec;
 
+    // distinct names and created metrics per namespace, empty when cardinality is not tracked
+    private final ConcurrentHashMap<String, Cardinality> namespaceCardinality = new ConcurrentHashMap<>();
+
+    private volatile boolean trackCardinality = false;
+
+    private volatile long maxNames = 0;
+
+    private volatile int maxNewMetrics = 0;
+
+    private final Meter createdMeter;
+
+    private final Meter rejectedMeter;
+
+    private final Quota rejectedLogQuota = new Quota( 10, 60 );
+
     public NamespaceCounter(MetricRegistry metricRegistry, int removeInactiveAfterSec)
     {
         this.metricRegistry = metricRegistry;
@@ -53,6 +71,10 @@ public class NamespaceCounter
         this.addedMeter  = metricRegistry.meter(
                 MetricRegistry.name( "namespaces.all.added" ) );
 
+        this.createdMeter = metricRegistry.meter( MetricRegistry.name( "namespaces.all.createdMetrics" ) );
+
+        this.rejectedMeter = metricRegistry.meter( MetricRegistry.name( "namespaces.all.rejectedMetrics" ) );
+
     }
 
     public void count(String name)
@@ -65,6 +87,143 @@ public class NamespaceCounter
             m = namespaceMeters.computeIfAbsent( ns, key ->  addNamespace(key, name));
         }
         m.mark();
+        if ( trackCardinality )
+        {
+            cardinalityOf( ns ).names.add( name );
+        }
+    }
+
+    /**
+     * Track the number of distinct names and created metrics per namespace over a sliding window: the current and
+     * the previous period between calls to {@link #nextWindow()}.
+     *
+     * @param maxNames new metrics are rejected for namespaces with more distinct names in the window, 0 - no limit.
+     * @param maxNewMetrics new metrics are rejected for namespaces with as many metrics created in the window,
+     *                      0 - no limit.
+     */
+    public void setCardinalityLimits( boolean trackCardinality, long maxNames, int maxNewMetrics )
+    {
+        this.trackCardinality = trackCardinality;
+        this.maxNames = maxNames;
+        this.maxNewMetrics = maxNewMetrics;
+    }
+
+    /**
+     * Called when a metric with a new name is created in the name index.
+     */
+    public void countNewMetric( String name )
+    {
+        createdMeter.mark();
+        if ( trackCardinality )
+        {
+            cardinalityOf( namespace( name ) ).created.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return false if a metric with the new name should not be created because its namespace is over the limits.
+     */
+    public boolean allowNewMetric( String name )
+    {
+        if ( !trackCardinality )
+        {
+            return true;
+        }
+        String ns = namespace( name );
+        Cardinality c = namespaceCardinality.get( ns );
+        if ( c == null )
+        {
+            return true;
+        }
+        long names = maxNames > 0 ? c.names() : 0;
+        int created = c.created();
+        if ( ( maxNames > 0 && names > maxNames ) || ( maxNewMetrics > 0 && created >= maxNewMetrics ) )
+        {
+            rejectedMeter.mark();
+            if ( rejectedLogQuota.allow() )
+            {
+                log.warn( String.format( "rejected new metric [%s]: namespace [%s] has %s distinct names and %s new "
+                    + "metrics, limits: %s, %s", name, ns, names, created, maxNames, maxNewMetrics ) );
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return estimated number of distinct names of the namespace in the window, 0 if cardinality is not tracked.
+     */
+    public long distinctNames( String ns )
+    {
+        Cardinality c = namespaceCardinality.get( ns );
+        return c == null ? 0 : c.names();
+    }
+
+    /**
+     * @return number of metrics of the namespace created in the window, 0 if cardinality is not tracked.
+     */
+    public int newMetrics( String ns )
+    {
+        Cardinality c = namespaceCardinality.get( ns );
+        return c == null ? 0 : c.created();
+    }
+
+    /**
+     * Starts the next period of the window, names and metrics of the oldest period are forgotten.
+     */
+    public void nextWindow()
+    {
+        namespaceCardinality.values().forEach( Cardinality::next );
+    }
+
+    private Cardinality cardinalityOf( String ns )
+    {
+        Cardinality c = namespaceCardinality.get( ns );
+        if ( c == null )
+        {
+            c = namespaceCardinality.computeIfAbsent( ns, key -> {
+                Cardinality added = new Cardinality();
+                String gaugeName = cardinalityGaugeName( key );
+                metricRegistry.remove( gaugeName );
+                metricRegistry.register( gaugeName, (Gauge<Long>) added::names );
+                return added;
+            } );
+        }
+        return c;
+    }
+
+    private static String cardinalityGaugeName( String ns )
+    {
+        return MetricRegistry.name( "namespaces.cardinality", ns );
+    }
+
+    private static class Cardinality
+    {
+        volatile HyperLogLog names = new HyperLogLog();
+
+        volatile HyperLogLog previousNames = new HyperLogLog();
+
+        volatile AtomicInteger created = new AtomicInteger();
+
+        volatile int previousCreated = 0;
+
+        long names()
+        {
+            return names.estimate( previousNames );
+        }
+
+        int created()
+        {
+            return created.get() + previousCreated;
+        }
+
+        synchronized void next()
+        {
+            previousNames = names;
+            names = new HyperLogLog();
+            previousCreated = created.get();
+            created = new AtomicInteger();
+        }
     }
 
     private Meter addNamespace(String ns, String name)
@@ -146,6 +305,10 @@ public class NamespaceCounter
         toRemove.forEach( key -> {
             namespaceMeters.remove(key);
             metricRegistry.remove(key);
+            if ( namespaceCardinality.remove( key ) != null )
+            {
+                metricRegistry.remove( cardinalityGaugeName( key ) );
+            }
             candidatesForRemoval.remove(key);
             log.info(String.format("removed inactive namespace counter with key: [%s]", key));
         } );
@@ -6,6 +6,9 @@
  */
 package com.demandware.carbonj.service.ns;
 
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import com.codahale.metrics.MetricRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -17,12 +20,34 @@ import org.springframework.context.annotation.Configuration;
     @Value( "${namespaces.removeInactiveAfterSeconds:7200}")
     private int removeInactiveAfterSeconds = 7200; // 2hours
 
+    @Value( "${namespaces.cardinality.enabled:false}" )
+    private boolean cardinalityEnabled;
+
+    // distinct names and new metrics are counted over the current and the previous period
+    @Value( "${namespaces.cardinality.periodInMinutes:60}" )
+    private int cardinalityPeriodInMinutes;
+
+    // 0 - no limit
+    @Value( "${namespaces.cardinality.maxNames:0}" )
+    private long cardinalityMaxNames;
+
+    // 0 - no limit
+    @Value( "${namespaces.cardinality.maxNewMetrics:0}" )
+    private int cardinalityMaxNewMetrics;
+
     @Autowired
     MetricRegistry metricRegistry;
 
-    @Bean NamespaceCounter namespaceCounter()
+    @Bean NamespaceCounter namespaceCounter( ScheduledExecutorService s )
     {
-        return new NamespaceCounter(metricRegistry, removeInactiveAfterSeconds);
+        NamespaceCounter namespaceCounter = new NamespaceCounter(metricRegistry, removeInactiveAfterSeconds);
+        if ( cardinalityEnabled )
+        {
+            namespaceCounter.setCardinalityLimits( true, cardinalityMaxNames, cardinalityMaxNewMetrics );
+            s.scheduleWithFixedDelay( namespaceCounter::nextWindow, cardinalityPeriodInMinutes,
+                cardinalityPeriodInMinutes, TimeUnit.MINUTES );
+        }
+        return namespaceCounter;
     }
 
 }
@@ -76,8 +76,8 @@ public class Test60s30dTimeSeries extends BaseTest {
         assertEquals("a.b.c", series.get(0).name);
         assertEquals(60, series.get(0).step);
         // This could be a query boundary issue
-        assertTrue(series.get(0).values.size() == 1 || series.get(0).values.size() == 2);
-        assertEquals(123, series.get(0).values.get(0).intValue());
+        assertTrue(series.get(0).values.length == 1 || series.get(0).values.length == 2);
+        assertEquals(123, (int) series.get(0).values[0]);
 
         dataPointStore.close();
         metricIndex.close();
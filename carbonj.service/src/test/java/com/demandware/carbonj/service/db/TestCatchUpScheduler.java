@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCatchUpScheduler
+{
+    @TempDir
+    File dbDir;
+
+    @Test
+    public void testCatchUpOnPrimaryChange() throws Exception
+    {
+        File wal = new File( dbDir, "000001.log" );
+        Files.write( wal.toPath(), new byte[] { 1 } );
+        AtomicInteger catchUps = new AtomicInteger();
+        AtomicBoolean succeed = new AtomicBoolean( true );
+        List<Long> notifications = new ArrayList<>();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        CatchUpScheduler scheduler = new CatchUpScheduler( metricRegistry, "60s24h", dbDir, ( ) -> {
+            catchUps.incrementAndGet();
+            return succeed.get();
+        }, notifications::add, null, 10, 60000 );
+
+        scheduler.tick();
+        assertEquals( 1, catchUps.get() );
+        assertEquals( 1, notifications.size() );
+        assertEquals( 0, scheduler.lagMillis() );
+
+        // primary didn't change - nothing to do
+        scheduler.tick();
+        assertEquals( 1, catchUps.get() );
+
+        // failed catch-up keeps replica lagging
+        Files.write( wal.toPath(), new byte[] { 2 }, StandardOpenOption.APPEND );
+        succeed.set( false );
+        scheduler.tick();
+        assertEquals( 2, catchUps.get() );
+        assertEquals( 1, notifications.size() );
+        Thread.sleep( 5 );
+        assertTrue( scheduler.lagMillis() > 0 );
+        assertTrue( metricRegistry.getGauges().containsKey( "db.60s24h.replicaLag" ) );
+
+        succeed.set( true );
+        scheduler.tick();
+        assertEquals( 3, catchUps.get() );
+        assertEquals( 2, notifications.size() );
+        assertEquals( 0, scheduler.lagMillis() );
+
+        scheduler.stop();
+        assertTrue( metricRegistry.getGauges().isEmpty() );
+    }
+
+    @Test
+    public void testFingerprint() throws Exception
+    {
+        long empty = CatchUpScheduler.fingerprint( dbDir );
+        Files.write( new File( dbDir, "LOG" ).toPath(), new byte[] { 1 } );
+        assertEquals( empty, CatchUpScheduler.fingerprint( dbDir ) );
+        Files.write( new File( dbDir, "MANIFEST-000005" ).toPath(), new byte[] { 1 } );
+        assertNotEquals( empty, CatchUpScheduler.fingerprint( dbDir ) );
+    }
+}
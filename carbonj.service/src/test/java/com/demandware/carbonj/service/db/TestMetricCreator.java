@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.MetricIndex;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.engine.DataPoint;
+import com.demandware.carbonj.service.engine.DataPoints;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestMetricCreator
+{
+    private final List<String> received = Collections.synchronizedList( new ArrayList<>() );
+
+    private void receive( DataPoints points )
+    {
+        for ( int i = 0; i < points.size(); i++ )
+        {
+            DataPoint p = points.get( i );
+            received.add( p.name + "=" + p.val );
+        }
+    }
+
+    private static Metric metric( String name )
+    {
+        return new Metric( name, 1, null, List.of( RetentionPolicy.getInstance( "60s:24h" ) ), null );
+    }
+
+    @Test
+    public void testPointsAreResubmittedOnceNameIsCreated()
+        throws Exception
+    {
+        CountDownLatch creating = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        // batches of names go through createLeafMetric
+        MetricIndex nameIndex = mock( MetricIndex.class, CALLS_REAL_METHODS );
+        when( nameIndex.createLeafMetric( anyString() ) ).thenAnswer( inv -> {
+            String name = inv.getArgument( 0 );
+            if ( name.equals( "a.b" ) )
+            {
+                creating.countDown();
+                assertTrue( release.await( 10, TimeUnit.SECONDS ) );
+            }
+            return name.equals( "invalid" ) ? null : metric( name );
+        } );
+
+        MetricCreator creator = new MetricCreator( new MetricRegistry(), nameIndex, 2, 100 );
+        creator.start( this::receive );
+        assertTrue( creator.add( new DataPoint( "a.b", 1, 60 ) ) );
+        assertTrue( creating.await( 10, TimeUnit.SECONDS ) );
+        // arrive while the name is created
+        assertTrue( creator.add( new DataPoint( "a.b", 2, 120 ) ) );
+        assertTrue( creator.add( new DataPoint( "x.y", 3, 60 ) ) );
+        assertTrue( creator.add( new DataPoint( "invalid", 4, 60 ) ) );
+        release.countDown();
+
+        creator.drain();
+        creator.close();
+        assertEquals( 0, creator.pendingPoints() );
+        assertEquals( List.of( "a.b=1.0", "a.b=2.0", "x.y=3.0" ), received.stream().sorted().toList() );
+        verify( nameIndex, times( 1 ) ).createLeafMetric( "x.y" );
+    }
+
+    @Test
+    public void testNameIsCreatedOnceWhilePointsArrive()
+        throws Exception
+    {
+        CountDownLatch creating = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        MetricIndex nameIndex = mock( MetricIndex.class, CALLS_REAL_METHODS );
+        when( nameIndex.createLeafMetric( anyString() ) ).thenAnswer( inv -> {
+            creating.countDown();
+            assertTrue( release.await( 10, TimeUnit.SECONDS ) );
+            return metric( inv.getArgument( 0 ) );
+        } );
+
+        MetricCreator creator = new MetricCreator( new MetricRegistry(), nameIndex, 2, 10000 );
+        creator.start( this::receive );
+        assertTrue( creator.add( new DataPoint( "a.b", 0, 60 ) ) );
+        assertTrue( creating.await( 10, TimeUnit.SECONDS ) );
+
+        int threads = 4;
+        int pointsPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        List<Future<?>> futures = new ArrayList<>();
+        for ( int t = 0; t < threads; t++ )
+        {
+            int thread = t;
+            futures.add( executor.submit( ( ) -> {
+                for ( int i = 1; i <= pointsPerThread; i++ )
+                {
+                    assertTrue( creator.add( new DataPoint( "a.b", thread * pointsPerThread + i, 60 + i ) ) );
+                }
+            } ) );
+        }
+        for ( Future<?> f : futures )
+        {
+            f.get( 10, TimeUnit.SECONDS );
+        }
+        executor.shutdown();
+        assertEquals( 1 + threads * pointsPerThread, creator.pendingPoints() );
+        release.countDown();
+
+        creator.drain();
+        creator.close();
+        assertEquals( 0, creator.pendingPoints() );
+        assertEquals( 1 + threads * pointsPerThread, received.size() );
+        verify( nameIndex, times( 1 ) ).createLeafMetric( "a.b" );
+    }
+
+    @Test
+    public void testPendingPointsAreBounded()
+    {
+        MetricIndex nameIndex = mock( MetricIndex.class );
+        MetricCreator creator = new MetricCreator( new MetricRegistry(), nameIndex, 1, 2 );
+        assertTrue( creator.add( new DataPoint( "a.b", 1, 60 ) ) );
+        assertTrue( creator.add( new DataPoint( "a.c", 1, 60 ) ) );
+        assertFalse( creator.add( new DataPoint( "a.d", 1, 60 ) ) );
+        assertEquals( 2, creator.pendingPoints() );
+    }
+}
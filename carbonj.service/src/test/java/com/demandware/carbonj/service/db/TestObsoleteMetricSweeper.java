@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.DataPointStore;
+import com.demandware.carbonj.service.db.model.DataPointValue;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.MetricIndex;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestObsoleteMetricSweeper
+{
+    private final RetentionPolicy rp60s = RetentionPolicy.getInstance( "60s:24h" );
+
+    private final RetentionPolicy rp5m = RetentionPolicy.getInstance( "5m:7d" );
+
+    private final Metric active = metric( "a.active", 1 );
+
+    private final Metric activeOlder = metric( "a.older", 2 );
+
+    private final Metric inactive = metric( "b.inactive", 3 );
+
+    private MetricIndex nameIndex;
+
+    private DataPointStore pointStore;
+
+    private Metric metric( String name, long id )
+    {
+        return new Metric( name, id, null, List.of( rp60s, rp5m ), null );
+    }
+
+    @BeforeEach
+    @SuppressWarnings( "unchecked" )
+    public void setUp()
+    {
+        nameIndex = mock( MetricIndex.class );
+        pointStore = mock( DataPointStore.class );
+        when( nameIndex.getMaxId() ).thenReturn( 3L );
+        when( nameIndex.scanNames( eq( 1L ), eq( 3L ), any() ) ).thenAnswer( inv -> {
+            Consumer<Metric> c = inv.getArgument( 2 );
+            c.accept( active );
+            c.accept( activeOlder );
+            c.accept( inactive );
+            return 3L;
+        } );
+        when( nameIndex.deleteLeafAndEmptyParents( "b.inactive" ) ).thenReturn( List.of( inactive ) );
+
+        when( pointStore.mayHaveData( any(), anyLong(), anyInt(), anyInt() ) ).thenReturn( true );
+        // skipped without a read
+        when( pointStore.mayHaveData( eq( rp60s ), eq( 3L ), anyInt(), anyInt() ) ).thenReturn( false );
+        DataPointValue value = new DataPointValue( 60, 1.0 );
+        when( pointStore.getFirst( eq( rp60s ), eq( 1L ), anyInt(), anyInt() ) ).thenReturn( value );
+        // only in the lower resolution archive
+        when( pointStore.getFirst( eq( rp5m ), eq( 2L ), anyInt(), anyInt() ) ).thenReturn( value );
+    }
+
+    @Test
+    public void testDeletesMetricsWithoutData()
+    {
+        ObsoleteMetricSweeper sweeper =
+            new ObsoleteMetricSweeper( new MetricRegistry(), nameIndex, pointStore, 48, 1000, 10, 24, false );
+        assertEquals( 1, sweeper.sweep() );
+        verify( nameIndex ).deleteLeafAndEmptyParents( "b.inactive" );
+        verify( nameIndex, never() ).deleteLeafAndEmptyParents( "a.active" );
+        verify( nameIndex, never() ).deleteLeafAndEmptyParents( "a.older" );
+        verify( pointStore ).delete( List.of( inactive ) );
+        verify( pointStore, never() ).getFirst( eq( rp60s ), eq( 3L ), anyInt(), anyInt() );
+    }
+
+    @Test
+    public void testDryRun()
+    {
+        ObsoleteMetricSweeper sweeper =
+            new ObsoleteMetricSweeper( new MetricRegistry(), nameIndex, pointStore, 48, 1000, 10, 24, true );
+        assertEquals( 1, sweeper.sweep() );
+        verify( nameIndex, never() ).deleteLeafAndEmptyParents( anyString() );
+        verify( pointStore, never() ).delete( any( List.class ) );
+    }
+}
@@ -13,8 +13,10 @@ import com.demandware.carbonj.service.engine.DataPoint;
 import com.demandware.carbonj.service.engine.DataPoints;
 import com.demandware.carbonj.service.engine.GraphitePickler;
 import com.demandware.carbonj.service.engine.Query;
+import com.demandware.carbonj.service.engine.ResponseStream;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,6 +35,36 @@ public class TestStreamSeriesBatchMetricsTask {
         assertEquals(String.format("Task [%d] for pattern [foo.bar], from=0, until=60, now=0, size=1", streamSeriesBatchMetricsTask.hashCode()), streamSeriesBatchMetricsTask.toString());
     }
 
+    @Test
+    public void testConsolidation() {
+        Metric metric = new Metric("foo.bar", 1, null, List.of(RetentionPolicy.getInstance("60s:24h")), new ArrayList<>());
+        List<Series> written = new ArrayList<>();
+        ResponseStream stream = new ResponseStream() {
+            @Override
+            public void openSeriesList() {
+            }
+
+            @Override
+            public void writeSeries(Series s) {
+                written.add(s);
+            }
+
+            @Override
+            public void closeSeriesList() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        new StreamSeriesBatchMetricsTask(new MockDataPointStore(), List.of(metric),
+                new Query("foo.bar", 0, 60, 0, 1000, 1, Consolidation.SUM), stream, new QueryDurations()).call();
+        assertEquals(1, written.size());
+        assertEquals(120, written.get(0).step);
+        assertEquals(1, written.get(0).values.length);
+        assertEquals(3.0, written.get(0).values[0]);
+    }
+
     private static class MockDataPointStore implements DataPointStore {
 
         @Override
@@ -75,6 +107,16 @@ public class TestStreamSeriesBatchMetricsTask {
 
         }
 
+        @Override
+        public void checkpoint(File snapshotDir) {
+
+        }
+
+        @Override
+        public DataPointBulkImport startBulkImport(String dbName) {
+            return null;
+        }
+
         @Override
         public void close() {
 
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.util.List;
+
+import com.demandware.carbonj.service.db.model.Metric;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class _ChildKeys extends BaseIndexTest
+{
+    private List<String> names( String pattern )
+    {
+        return index.findMetrics( pattern ).stream().map( m -> m.name ).sorted().toList();
+    }
+
+    private void reopen()
+    {
+        index.close();
+        index = IndexUtils.metricIndex( dbDirFile, false );
+        ( (MetricIndexImpl) index ).setChildKeysEnabled( true );
+        index.open();
+    }
+
+    @Test
+    public void testRecordsAreConvertedOnAdd()
+    {
+        findOrCreate( "a.b.c1" );
+        findOrCreate( "a.b.c2" );
+
+        ( (MetricIndexImpl) index ).setChildKeysEnabled( true );
+        findOrCreate( "a.b.c3" );
+        findOrCreate( "a.d.c1" );
+        findOrCreate( "x.y" );
+
+        assertEquals( List.of( "a.b.c1", "a.b.c2", "a.b.c3", "a.d.c1" ), names( "a.*.*" ) );
+        assertEquals( List.of( "a", "x" ), names( "*" ) );
+
+        reopen();
+        assertEquals( List.of( "c1", "c2", "c3" ), index.getChildNames( "a.b" ).stream().sorted().toList() );
+        assertEquals( List.of( "a", "x" ), index.getTopLevelNames().stream().sorted().toList() );
+        Metric m = index.getMetric( "a.b.c3" );
+        assertTrue( m.isLeaf() );
+    }
+
+    @Test
+    public void testDelete()
+    {
+        ( (MetricIndexImpl) index ).setChildKeysEnabled( true );
+        findOrCreate( "a.b.c1" );
+        findOrCreate( "a.b.c2" );
+        findOrCreate( "a.d.c1" );
+
+        index.deleteMetric( "a.b.c1", false, false );
+        assertEquals( List.of( "a.b.c2", "a.d.c1" ), names( "a.*.*" ) );
+
+        index.deleteMetric( "a.b", true, false );
+        reopen();
+        assertEquals( List.of( "d" ), index.getChildNames( "a" ) );
+
+        // children of the deleted name are not picked up when it is created again
+        findOrCreate( "a.b.c3" );
+        assertEquals( List.of( "a.b.c3", "a.d.c1" ), names( "a.*.*" ) );
+        assertEquals( List.of( "c3" ), index.getChildNames( "a.b" ) );
+    }
+
+    @Test
+    public void testCreateInBatch()
+    {
+        ( (MetricIndexImpl) index ).setChildKeysEnabled( true );
+        findOrCreate( "a.b.c1" );
+        List<Metric> metrics = index.createLeafMetrics( List.of( "a.b.c2", "a.b.c3", "a.d.c1" ) );
+        assertTrue( metrics.stream().allMatch( Metric::isLeaf ) );
+        assertEquals( List.of( "a.b.c1", "a.b.c2", "a.b.c3", "a.d.c1" ), names( "a.*.*" ) );
+
+        reopen();
+        assertEquals( List.of( "c1", "c2", "c3" ), index.getChildNames( "a.b" ).stream().sorted().toList() );
+        assertEquals( List.of( "b", "d" ), index.getChildNames( "a" ).stream().sorted().toList() );
+    }
+
+    @Test
+    public void testChildNameIsValidated()
+    {
+        NameRecord e = new NameRecord( "a.b", 0, false );
+        e.setChildKeys( true );
+        assertEquals( "c", e.childName( "a.b.c" ) );
+        assertThrows( IllegalStateException.class, () -> e.childName( "a.b.c.d" ) );
+        assertThrows( IllegalStateException.class, () -> e.childName( "x.y.c" ) );
+    }
+}
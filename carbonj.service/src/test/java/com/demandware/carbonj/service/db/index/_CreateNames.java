@@ -7,6 +7,7 @@
 package com.demandware.carbonj.service.db.index;
 
 import java.io.File;
+import java.util.List;
 
 import com.demandware.carbonj.service.db.model.Metric;
 import com.demandware.carbonj.service.db.model.MetricIndex;
@@ -16,6 +17,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -113,6 +115,30 @@ public class _CreateNames {
         checkStats(5, 2);
     }
 
+    @Test
+    public void createNamesOfNamespaceInBatch() {
+        List<Metric> metrics = index.createLeafMetrics( List.of( "n.a.x", "n.a.x.w", "n.a.y", "n.b.z" ) );
+        assertEquals( 4, metrics.size() );
+        assertTrue( metrics.get( 0 ).isLeaf() );
+        // parent is a leaf, partial nodes are removed within the batch
+        assertNull( metrics.get( 1 ) );
+        assertEquals( "n.a.y", metrics.get( 2 ).name );
+        assertEquals( "n.b.z", metrics.get( 3 ).name );
+
+        assertEquals( List.of( "x", "y" ), index.getChildNames( "n.a" ) );
+        assertEquals( List.of( "a", "b" ), index.getChildNames( "n" ) );
+
+        index.close();
+        index = IndexUtils.metricIndex( dbDirFile, false );
+        index.open();
+        assertNull( index.getMetric( "n.a.x.w" ) );
+        assertEquals( List.of( "x", "y" ), index.getChildNames( "n.a" ) );
+        assertEquals( List.of( "n" ), index.getTopLevelNames() );
+        Metric z = index.getMetric( "n.b.z" );
+        assertNotNull( z );
+        assertEquals( "n.b.z", index.getMetric( z.id ).name );
+    }
+
     private void checkStats(long expectedIndexNameCount, long expectedIndexIdCount) {
         assertEquals(1, ((MetricIndexImpl) index).getNameIndexStorePropertyMetricMap().size());
         assertTrue(((MetricIndexImpl) index).getNameIndexStorePropertyMetricMap().containsKey("estimate-num-keys"));
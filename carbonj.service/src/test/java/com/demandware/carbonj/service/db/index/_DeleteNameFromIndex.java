@@ -97,6 +97,27 @@ public class _DeleteNameFromIndex extends BaseIndexTest
         assertCanCreateAgain("a.b.c", cMetric.id);
     }
 
+    @Test
+    public void deleteLeafAndEmptyParents() throws Exception
+    {
+        index.setStrictMode( true );
+
+        Metric cMetric = findOrCreate( "a.b.c" );
+        Metric eMetric = findOrCreate( "a.d.e" );
+        List<Metric> deleted = index.deleteLeafAndEmptyParents( "a.b.c" );
+        assertEquals( List.of( "a.b.c", "a.b" ), deleted.stream().map( m -> m.name ).toList() );
+        assertMetricsDoNotExist( List.of( "a.b.c", "a.b" ), List.of( cMetric.id ) );
+        assertMetricsExist( List.of( "a", "a.d", "a.d.e" ), List.of( eMetric.id ) );
+
+        deleted = index.deleteLeafAndEmptyParents( "a.d.e" );
+        assertEquals( List.of( "a.d.e", "a.d", "a" ), deleted.stream().map( m -> m.name ).toList() );
+        assertMetricsDoNotExist( List.of( "a.d.e", "a.d", "a" ), List.of( eMetric.id ) );
+
+        // not a leaf
+        findOrCreate( "x.y" );
+        assertTrue( index.deleteLeafAndEmptyParents( "x" ).isEmpty() );
+    }
+
     @Test
     public void deleteSubtreeBelowTopLevelInTestMode() throws Exception
     {
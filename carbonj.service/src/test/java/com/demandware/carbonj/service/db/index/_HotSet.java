@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class _HotSet extends BaseIndexTest
+{
+    private File hotSetFile()
+    {
+        return new File( dbDirFile, "index-hot-set" );
+    }
+
+    @Test
+    public void testSaveAndLoad()
+        throws Exception
+    {
+        HotSet.save( hotSetFile(), List.of( "a.b", "a.c" ), List.of( "a.*", "x y" ) );
+        HotSet hotSet = HotSet.load( hotSetFile() );
+        assertEquals( List.of( "a.b", "a.c" ), hotSet.names );
+        assertEquals( List.of( "a.*", "x y" ), hotSet.queries );
+
+        hotSet = HotSet.load( new File( dbDirFile, "does-not-exist" ) );
+        assertTrue( hotSet.names.isEmpty() );
+        assertTrue( hotSet.queries.isEmpty() );
+    }
+
+    @Test
+    public void testCachesAreWarmedUpOnOpen()
+    {
+        ( (MetricIndexImpl) index ).setHotSet( hotSetFile(), 2, 60 );
+        findOrCreate( "a.b.c" );
+        findOrCreate( "a.b.d" );
+        findOrCreate( "x.y" );
+        index.findMetrics( "a.b.*", true, true, true );
+        index.close();
+        assertTrue( hotSetFile().exists() );
+
+        index = IndexUtils.metricIndex( dbDirFile, false );
+        ( (MetricIndexImpl) index ).setHotSet( hotSetFile(), 2, 60 );
+        index.open();
+        MetricIndexImpl impl = (MetricIndexImpl) index;
+        assertNotNull( impl.getMetricCache().getIfPresent( "a.b.c" ) );
+        assertNotNull( impl.getMetricCache().getIfPresent( "x.y" ) );
+        assertNull( impl.getMetricCache().getIfPresent( "x.z" ) );
+        assertEquals( List.of( "a.b.c", "a.b.d" ),
+            index.findMetrics( "a.b.*", true, true, true ).stream().map( m -> m.name ).sorted().toList() );
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class _IncrementalQueryCache extends BaseIndexTest
+{
+    private List<String> cached( String pattern )
+    {
+        return index.findMetrics( pattern, true, true, true ).stream().map( m -> m.name ).sorted().toList();
+    }
+
+    @Test
+    public void testCachedResultsWaitForExpiry()
+    {
+        findOrCreate( "a.b.c" );
+        assertEquals( List.of( "a.b.c" ), cached( "a.*.c" ) );
+        findOrCreate( "a.x.c" );
+        assertEquals( List.of( "a.b.c" ), cached( "a.*.c" ) );
+    }
+
+    @Test
+    public void testCreatedNamesAreAdded()
+    {
+        ( (MetricIndexImpl) index ).setIncrementalQueryCache( true );
+        findOrCreate( "a.b.c" );
+        assertEquals( List.of( "a.b.c" ), cached( "a.*.c" ) );
+        assertEquals( List.of( "a.b.c" ), cached( "*.b.*" ) );
+        assertEquals( List.of(), cached( "a.y.c" ) );
+
+        findOrCreate( "a.x.c" );
+        findOrCreate( "a.x.d" );
+        findOrCreate( "a.y.c" );
+        findOrCreate( "b.b.c.d" );
+        assertEquals( List.of( "a.b.c", "a.x.c", "a.y.c" ), cached( "a.*.c" ) );
+        assertEquals( List.of( "a.b.c" ), cached( "*.b.*" ) );
+        assertEquals( List.of( "a.y.c" ), cached( "a.y.c" ) );
+    }
+
+    @Test
+    public void testDeletedNamesAreRemoved()
+    {
+        ( (MetricIndexImpl) index ).setIncrementalQueryCache( true );
+        findOrCreate( "a.b.c" );
+        findOrCreate( "a.x.c" );
+        findOrCreate( "a.x.d.e" );
+        assertEquals( List.of( "a.b.c", "a.x.c" ), cached( "a.*.c" ) );
+        assertEquals( List.of( "a.x.d.e" ), cached( "a.x.d.*" ) );
+
+        index.deleteMetric( "a.x", true, false );
+        assertEquals( List.of( "a.b.c" ), cached( "a.*.c" ) );
+        assertEquals( List.of(), cached( "a.x.d.*" ) );
+
+        findOrCreate( "a.x.d.f" );
+        assertEquals( List.of( "a.x.d.f" ), cached( "a.x.d.*" ) );
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.model.TooManyMetricsFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class _NameTrie
+{
+    private final List<RetentionPolicy> policies = List.of( RetentionPolicy.getInstance( "60s:24h" ) );
+
+    private NameTrie trie;
+
+    @BeforeEach
+    public void setUp()
+    {
+        trie = new NameTrie();
+        trie.add( "a", 0, null );
+        trie.add( "a.b", 0, null );
+        trie.add( "a.b.c1", 1, policies );
+        trie.add( "a.b.c2", 2, policies );
+        trie.add( "a.d.c1", 3, policies );
+        trie.add( "x.y", 4, policies );
+    }
+
+    private List<String> find( String query, boolean leafOnly )
+        throws Exception
+    {
+        return trie.find( QueryUtils.splitQuery( query ), leafOnly, Integer.MAX_VALUE, null ).stream()
+            .map( e -> e.name ).toList();
+    }
+
+    @Test
+    public void testFind()
+        throws Exception
+    {
+        assertEquals( List.of( "a", "x" ), find( "*", false ) );
+        assertEquals( List.of(), find( "*", true ) );
+        assertEquals( List.of( "a.b.c1", "a.b.c2" ), find( "a.b.*", true ) );
+        assertEquals( List.of( "a.b.c1", "a.d.c1" ), find( "a.*.c1", true ) );
+        assertEquals( List.of( "a.b.c2" ), find( "a.{b,d}.c2", true ) );
+        assertEquals( List.of(), find( "a.b.c3", true ) );
+
+        NameTrie.Entry e = trie.find( QueryUtils.splitQuery( "a.b" ), false, 10, null ).get( 0 );
+        assertFalse( e.isLeaf() );
+        assertEquals( List.of( "c1", "c2" ), e.children );
+
+        e = trie.find( QueryUtils.splitQuery( "x.y" ), true, 10, null ).get( 0 );
+        assertTrue( e.isLeaf() );
+        assertEquals( 4, e.id );
+        assertEquals( policies, e.retentionPolicies );
+    }
+
+    @Test
+    public void testChildrenAreSorted()
+        throws Exception
+    {
+        trie.add( "a.b.c0", 5, policies );
+        trie.add( "a.b.c10", 6, policies );
+        assertEquals( List.of( "a.b.c0", "a.b.c1", "a.b.c10", "a.b.c2" ), find( "a.b.*", true ) );
+        assertEquals( List.of( "a.b.c10" ), find( "a.b.c10", true ) );
+    }
+
+    @Test
+    public void testRemove()
+        throws Exception
+    {
+        assertEquals( 8, trie.size() );
+        assertTrue( trie.remove( "a.b.c1" ) );
+        assertFalse( trie.remove( "a.b.c1" ) );
+        assertEquals( List.of( "a.b.c2" ), find( "a.b.*", true ) );
+
+        // removes names below as well
+        assertTrue( trie.remove( "a.b" ) );
+        assertEquals( List.of( "a.d" ), find( "a.*", false ) );
+        assertEquals( 5, trie.size() );
+
+        // nodes are reused
+        trie.add( "a.b.c3", 7, policies );
+        assertEquals( List.of( "a.b.c3" ), find( "a.b.*", true ) );
+        assertEquals( 7, trie.size() );
+    }
+
+    @Test
+    public void testMax()
+    {
+        assertThrows( TooManyMetricsFoundException.class,
+            () -> trie.find( QueryUtils.splitQuery( "a.*.*" ), true, 2, null ) );
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class _ParallelFind extends BaseIndexTest
+{
+    private List<String> names( String pattern )
+    {
+        return index.findMetrics( pattern ).stream().map( m -> m.name ).toList();
+    }
+
+    @Test
+    public void testSameResultAsSequentialWalk()
+    {
+        for ( int pod = 0; pod < 5; pod++ )
+        {
+            for ( int host = 0; host < 20; host++ )
+            {
+                findOrCreate( "pod" + pod + ".host" + host + ".cpu.user" );
+                findOrCreate( "pod" + pod + ".host" + host + ".cpu.system" );
+                findOrCreate( "pod" + pod + ".host" + host + ".mem.used" );
+            }
+        }
+        List<String> sequential = names( "pod*.host*.cpu.*" );
+        assertEquals( 200, sequential.size() );
+
+        MetricIndexImpl impl = (MetricIndexImpl) index;
+        impl.setParallelFind( 4, 2 );
+        assertEquals( sequential, names( "pod*.host*.cpu.*" ) );
+        assertEquals( names( "pod1.*.*" ).size(), 40 );
+        impl.setParallelFind( 0, 0 );
+    }
+}
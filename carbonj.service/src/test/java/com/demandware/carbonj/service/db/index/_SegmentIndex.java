@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class _SegmentIndex extends BaseIndexTest
+{
+    private SegmentIndex segmentIndex;
+
+    private List<String> segmentDelete( String name )
+    {
+        // test run, nothing is deleted
+        return index.deleteAPI( name, true, Collections.emptySet() ).getMetricsList().stream().sorted().toList();
+    }
+
+    private void reopenWithSegmentIndex()
+        throws Exception
+    {
+        index.close();
+        index = IndexUtils.metricIndex( dbDirFile, false );
+        segmentIndex = new SegmentIndex( new MetricRegistry(), new File( dbDirFile, "index-segment" ) );
+        ( (MetricIndexImpl) index ).setSegmentIndex( segmentIndex );
+        index.open();
+        for ( int i = 0; i < 100 && !segmentIndex.isBuilt(); i++ )
+        {
+            TimeUnit.MILLISECONDS.sleep( 50 );
+        }
+        assertTrue( segmentIndex.isBuilt() );
+    }
+
+    @Test
+    public void testSameNamesAsTreeWalk()
+        throws Exception
+    {
+        findOrCreate( "a.order.count" );
+        findOrCreate( "e.order.count.p95" );
+        findOrCreate( "a.order.total" );
+        findOrCreate( "b.x.order.count" );
+        findOrCreate( "c.order.order.count" );
+        findOrCreate( "order.count.y" );
+        findOrCreate( "d.count.order" );
+
+        List<String> expected = segmentDelete( "**.order.count" );
+        assertEquals( List.of( "a.order.count", "b.x.order.count", "c.order.order.count", "e.order.count",
+            "order.count" ), expected );
+
+        // existing names are indexed on open
+        reopenWithSegmentIndex();
+        assertEquals( expected, segmentDelete( "**.order.count" ) );
+        assertEquals( List.of( "a.order", "b.x.order", "c.order", "d.count.order", "e.order", "order" ),
+            segmentDelete( "**.order" ) );
+        assertEquals( List.of(), segmentDelete( "**.order.missing" ) );
+    }
+
+    @Test
+    public void testIndexIsUpdated()
+        throws Exception
+    {
+        findOrCreate( "a.order.count" );
+        reopenWithSegmentIndex();
+
+        findOrCreate( "b.order.count" );
+        findOrCreate( "c.order.count" );
+        assertEquals( List.of( "a.order.count", "b.order.count", "c.order.count" ), segmentDelete( "**.order.count" ) );
+
+        index.deleteMetric( "b", true, false );
+        assertEquals( List.of( "a.order.count", "c.order.count" ), segmentDelete( "**.order.count" ) );
+
+        List<Long> ids = new ArrayList<>();
+        segmentIndex.find( 1, List.of( "order", "count" ), ids::add );
+        assertEquals( 2, ids.size() );
+    }
+}
@@ -40,6 +40,10 @@ public class TestIntervalValues {
         assertEquals("a.b", dataPoint.name);
         assertEquals(120, dataPoint.ts);
         assertEquals(1.5, dataPoint.val);
+        assertEquals(1.0, dataPoint.stats.min);
+        assertEquals(2.0, dataPoint.stats.max);
+        assertEquals(3.0, dataPoint.stats.sum);
+        assertEquals(2, dataPoint.stats.count);
         assertEquals("IntervalValues{metric=Metric{id=1, name='a.b'}, intervalStart=120, dbName='60s24h', values=[1.0, 2.0]}", intervalValues.toString());
     }
 }
@@ -6,8 +6,11 @@
  */
 package com.demandware.carbonj.service.db.model;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -20,4 +23,14 @@ public class TestMsgPackSeries {
         MsgPackSeries msgPackSeries = new MsgPackSeries(series);
         assertEquals("MsgPackSeries{start=0, end=60, step=60, name=name, pathExpression=name, values=[1.0, 2.0]}", msgPackSeries.toString());
     }
+
+    @Test
+    public void testSerializeWithoutData() throws Exception {
+        Series series = new Series("name", 0, 120, 60, new double[]{1.0, Double.NaN, 3.0});
+        MsgPackSeries msgPackSeries = new MsgPackSeries(series);
+        assertEquals(Arrays.asList(1.0, null, 3.0), msgPackSeries.values);
+        ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
+        MsgPackSeries read = objectMapper.readValue(objectMapper.writeValueAsBytes(msgPackSeries), MsgPackSeries.class);
+        assertEquals(msgPackSeries.toString(), read.toString());
+    }
 }
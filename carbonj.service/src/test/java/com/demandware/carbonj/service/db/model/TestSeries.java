@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSeries {
+    private static final double NaN = Double.NaN;
+
+    @Test
+    public void testConsolidateAlignsBuckets() {
+        // 10 values starting in the middle of a 180s bucket
+        Series series = new Series("a", 120, 660, 60, new double[]{1, 2, 3, 4, 5, 6, NaN, NaN, NaN, 10});
+        Series consolidated = series.consolidate(4, Consolidation.AVG);
+        assertEquals(180, consolidated.step);
+        assertEquals(0, consolidated.start);
+        assertEquals(540, consolidated.end);
+        // buckets [0,180): 1 | [180,360): 2,3,4 | [360,540): 5,6,NaN | [540,720): NaN,NaN,10
+        assertArrayEquals(new double[]{1, 3, 5.5, 10}, consolidated.values);
+    }
+
+    @Test
+    public void testConsolidationFunctions() {
+        Series series = new Series("a", 0, 300, 60, new double[]{1, 5, NaN, 2, NaN, NaN});
+        assertArrayEquals(new double[]{6, 2, NaN}, series.consolidate(3, Consolidation.SUM).values);
+        assertArrayEquals(new double[]{1, 2, NaN}, series.consolidate(3, Consolidation.MIN).values);
+        assertArrayEquals(new double[]{5, 2, NaN}, series.consolidate(3, Consolidation.MAX).values);
+        assertArrayEquals(new double[]{5, 2, NaN}, series.consolidate(3, Consolidation.LAST).values);
+        assertTrue(Double.isNaN(series.consolidate(3, Consolidation.AVG).values[2]));
+        assertArrayEquals(new double[]{1, 2, NaN}, series.consolidate(3, Consolidation.FIRST).values);
+        assertArrayEquals(new double[]{3, 1, NaN}, series.consolidate(3, Consolidation.AVG_ZERO).values);
+        assertArrayEquals(new double[]{3, 2, NaN}, series.consolidate(3, Consolidation.MEDIAN).values);
+        assertArrayEquals(new double[]{-4, 2, NaN}, series.consolidate(3, Consolidation.DIFF).values);
+        assertArrayEquals(new double[]{4, 0, NaN}, series.consolidate(3, Consolidation.RANGE).values);
+        assertArrayEquals(new double[]{2, 1, NaN}, series.consolidate(3, Consolidation.COUNT).values);
+    }
+
+    @Test
+    public void testNoConsolidation() {
+        Series series = new Series("a", 0, 120, 60, new double[]{1, 2, 3});
+        assertSame(series, series.consolidate(0, Consolidation.AVG));
+        assertSame(series, series.consolidate(3, Consolidation.AVG));
+    }
+
+    @Test
+    public void testConsolidationFromName() {
+        assertEquals(Consolidation.AVG, Consolidation.fromName(null));
+        assertEquals(Consolidation.AVG, Consolidation.fromName("average"));
+        assertEquals(Consolidation.MAX, Consolidation.fromName("max"));
+        assertEquals(Consolidation.MEDIAN, Consolidation.fromName("median"));
+        assertEquals(Consolidation.RANGE, Consolidation.fromName("rangeOf"));
+        // unsupported functions fall back to average
+        assertEquals(Consolidation.AVG, Consolidation.fromName("unknown"));
+    }
+}
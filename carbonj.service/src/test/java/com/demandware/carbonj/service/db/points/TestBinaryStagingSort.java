@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.IntervalStats;
+import com.demandware.carbonj.service.db.model.IntervalValues;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.MetricProvider;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestBinaryStagingSort
+{
+    @TempDir
+    File dir;
+
+    @Test
+    public void testStableSort()
+    {
+        Random random = new Random( 42 );
+        int n = 1000;
+        long[] ids = new long[n];
+        long[] values = new long[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            ids[i] = random.nextInt( 50 );
+            values[i] = i;
+        }
+        BinaryStagingSort.sort( ids, values, n );
+        for ( int i = 1; i < n; i++ )
+        {
+            assertTrue( ids[i - 1] <= ids[i] );
+            if ( ids[i - 1] == ids[i] )
+            {
+                // original order of records of the same metric is kept
+                assertTrue( values[i - 1] < values[i] );
+            }
+        }
+    }
+
+    @Test
+    public void testSortAndMergeWithPreviousTextFile()
+        throws Exception
+    {
+        MetricProvider metricProvider = mock( MetricProvider.class );
+        RetentionPolicy policy = RetentionPolicy.getInstance( "5m:7d" );
+        when( metricProvider.forId( anyLong() ) ).thenAnswer(
+            inv -> new Metric( "a.m" + inv.getArgument( 0 ), inv.getArgument( 0 ), null, List.of( policy ),
+                new ArrayList<>() ) );
+        // several chunks sorted by several threads
+        BinaryStagingSort sort = new BinaryStagingSort( 3, 4 );
+
+        StagingFileSet fileSet = new StagingFileSet( "5m7d", 1734989700, 1 );
+        File unsorted = new File( dir, fileSet.nameForUnsorted( fileSet.id, 2 ) );
+        StagingFile stagingFile = new StagingFile( new MetricRegistry(), unsorted, sort, metricProvider, "5m7d" );
+        stagingFile.open();
+        long[] ids = { 7, 3, 9, 3, 1, 7, 3, 12, 1, 5, 9 };
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            assertTrue( stagingFile.write( new StagingFileRecord( fileSet, ids[i], i + 0.125 ) ) );
+        }
+        stagingFile.close();
+        assertTrue( BinaryStagingSort.isBinary( unsorted ) );
+
+        // sorted file of the previous sequence written before the switch to binary format
+        File previous = new File( dir, fileSet.nameForUnsorted( fileSet.id, 1 ) + StagingFileSet.SORTED_EXT );
+        FileUtils.writeLines( previous, List.of( "3 100 a.m3", "8 200 a.m8" ) );
+
+        SortedStagingFile sorted = stagingFile.sort( Optional.of( previous.getName() ), "5m7d" );
+        sorted.open();
+        List<IntervalValues> result = new ArrayList<>();
+        Optional<IntervalValues> values;
+        while ( ( values = sorted.loadNeighbours() ).isPresent() )
+        {
+            result.add( values.get() );
+        }
+        sorted.close();
+
+        assertArrayEquals( new long[] { 1, 3, 5, 7, 8, 9, 12 },
+            result.stream().mapToLong( v -> v.metric.id ).toArray() );
+        assertEquals( List.of( 4.125, 8.125 ), result.get( 0 ).values );
+        // full precision values of new points come before points of the previous sorted file
+        assertEquals( List.of( 1.125, 3.125, 6.125, 100.0 ), result.get( 1 ).values );
+        assertEquals( List.of( 200.0 ), result.get( 4 ).values );
+        assertEquals( 1734989700, result.get( 0 ).intervalStart );
+        assertEquals( "5m7d", result.get( 0 ).dbName );
+
+        // only the sorted output is left besides inputs
+        String[] files = dir.list();
+        assertEquals( 3, files.length );
+    }
+
+    @Test
+    public void testStatsStayWithTheirValue()
+        throws Exception
+    {
+        MetricProvider metricProvider = mock( MetricProvider.class );
+        RetentionPolicy policy = RetentionPolicy.getInstance( "30m:2y" );
+        when( metricProvider.forId( anyLong() ) ).thenAnswer(
+            inv -> new Metric( "a.m" + inv.getArgument( 0 ), inv.getArgument( 0 ), null, List.of( policy ),
+                new ArrayList<>() ) );
+        // stats records of a value are split across chunks
+        BinaryStagingSort sort = new BinaryStagingSort( 2, 4 );
+
+        StagingFileSet fileSet = new StagingFileSet( "30m2y", 1734989400, 1 );
+        File unsorted = new File( dir, fileSet.nameForUnsorted( fileSet.id, 2 ) );
+        StagingFile stagingFile = new StagingFile( new MetricRegistry(), unsorted, sort, metricProvider, "30m2y" );
+        stagingFile.open();
+        assertTrue( stagingFile.write( new StagingFileRecord( fileSet, 3, 1.0, new IntervalStats( 0.5, 2.0, 3.0, 3 ) ) ) );
+        assertTrue( stagingFile.write( new StagingFileRecord( fileSet, 1, 2.0 ) ) );
+        assertTrue( stagingFile.write( new StagingFileRecord( fileSet, 3, 4.0 ) ) );
+        assertTrue( stagingFile.write( new StagingFileRecord( fileSet, 1, 5.0, new IntervalStats( 1.0, 9.0, 10.0, 2 ) ) ) );
+        stagingFile.close();
+
+        File previous = new File( dir, fileSet.nameForUnsorted( fileSet.id, 1 ) + StagingFileSet.SORTED_EXT );
+        FileUtils.writeLines( previous, List.of( "3 100;90;110;400;4 a.m3" ) );
+
+        SortedStagingFile sorted = stagingFile.sort( Optional.of( previous.getName() ), "30m2y" );
+        sorted.open();
+        IntervalValues m1 = sorted.loadNeighbours().orElseThrow();
+        IntervalValues m3 = sorted.loadNeighbours().orElseThrow();
+        assertTrue( sorted.loadNeighbours().isEmpty() );
+        sorted.close();
+
+        assertEquals( List.of( 2.0, 5.0 ), m1.values );
+        assertEquals( 1.0, m1.stats.min );
+        assertEquals( 9.0, m1.stats.max );
+        assertEquals( 12.0, m1.stats.sum );
+        assertEquals( 3, m1.stats.count );
+
+        assertEquals( List.of( 1.0, 4.0, 100.0 ), m3.values );
+        assertEquals( 0.5, m3.stats.min );
+        assertEquals( 110.0, m3.stats.max );
+        assertEquals( 407.0, m3.stats.sum );
+        assertEquals( 8, m3.stats.count );
+    }
+}
@@ -17,6 +17,7 @@ import org.rocksdb.RocksDBException;
 import java.io.File;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -49,4 +50,42 @@ public class TestDataPointArchiveRocksDB {
         assertEquals(0, dataPointArchiveRocksDB.put(new DataPoints(List.of(dataPoint))));
         dataPointArchiveRocksDB.close();
     }
+
+    @Test
+    public void testBatchRead() {
+        batchRead(false, new File("/tmp/testbatchdb"));
+    }
+
+    @Test
+    public void testBatchReadWithPrefixBloomFilter() {
+        batchRead(true, new File("/tmp/testbatchprefixdb"));
+    }
+
+    private void batchRead(boolean usePrefixBloomFilter, File dbDir) {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RocksDBConfig rocksDBConfig = new RocksDBConfig();
+        rocksDBConfig.usePrefixBloomFilter = usePrefixBloomFilter;
+        DataPointArchiveRocksDB dataPointArchiveRocksDB = new DataPointArchiveRocksDB(
+                metricRegistry, "60s24h", RetentionPolicy.getInstance("60s:24h"), dbDir, rocksDBConfig, false);
+        dataPointArchiveRocksDB.open();
+        dataPointArchiveRocksDB.put(1L, 60, 1.0);
+        dataPointArchiveRocksDB.put(1L, 180, 1.5);
+        dataPointArchiveRocksDB.put(3L, 120, 3.0);
+        // outside of the requested range
+        dataPointArchiveRocksDB.put(3L, 240, 3.5);
+        dataPointArchiveRocksDB.put(4L, 60, 4.0);
+
+        List<double[]> series = dataPointArchiveRocksDB.getDataPoints(new long[]{1L, 2L, 3L}, 60, 180, 60);
+        assertEquals(3, series.size());
+        assertArrayEquals(new double[]{1.0, Double.NaN, 1.5}, series.get(0));
+        assertArrayEquals(new double[]{Double.NaN, Double.NaN, Double.NaN}, series.get(1));
+        assertArrayEquals(new double[]{Double.NaN, 3.0, Double.NaN}, series.get(2));
+        assertArrayEquals(series.get(0), dataPointArchiveRocksDB.getDataPoints(1L, 60, 180, 60));
+        assertTrue(dataPointArchiveRocksDB.getDataPoints(new long[0], 60, 180, 60).isEmpty());
+
+        dataPointArchiveRocksDB.deleteMetric(1L);
+        dataPointArchiveRocksDB.deleteMetric(3L);
+        dataPointArchiveRocksDB.deleteMetric(4L);
+        dataPointArchiveRocksDB.close();
+    }
 }
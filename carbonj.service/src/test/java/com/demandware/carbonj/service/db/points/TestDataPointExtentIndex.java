@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.util.MetricUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestDataPointExtentIndex
+{
+    @TempDir
+    File dataDir;
+
+    @Test
+    public void testExtents()
+        throws Exception
+    {
+        DataPointExtentIndex index = new DataPointExtentIndex();
+        index.record( 1, 600 );
+        index.record( 1, 120 );
+        index.record( 1, 300 );
+        // second page
+        index.record( 70000, 60 );
+
+        // incomplete index doesn't skip anything
+        assertTrue( index.mayHaveData( 2, 60, 600 ) );
+        assertEquals( -1, index.estimate( 1, 60, 600, 60 ) );
+
+        index.markComplete();
+        assertTrue( index.mayHaveData( 1, 600, 900 ) );
+        assertTrue( index.mayHaveData( 1, 0, 120 ) );
+        assertFalse( index.mayHaveData( 1, 660, 900 ) );
+        assertFalse( index.mayHaveData( 1, 0, 60 ) );
+        assertFalse( index.mayHaveData( 2, 0, 900 ) );
+        assertFalse( index.mayHaveData( 200000, 0, 900 ) );
+        assertTrue( index.mayHaveData( 70000, 60, 60 ) );
+        // ids outside of the tracked range are always read
+        assertTrue( index.mayHaveData( Long.MAX_VALUE, 0, 900 ) );
+
+        assertEquals( 9, index.estimate( 1, 60, 900, 60 ) );
+        assertEquals( 4, index.estimate( 1, 60, 300, 60 ) );
+        assertEquals( 0, index.estimate( 2, 60, 900, 60 ) );
+
+        File file = new File( dataDir, "60s24h.extents" );
+        index.save( file );
+        DataPointExtentIndex loaded = DataPointExtentIndex.load( file );
+        assertNotNull( loaded );
+        assertTrue( loaded.isComplete() );
+        assertEquals( 9, loaded.estimate( 1, 60, 900, 60 ) );
+        assertTrue( loaded.mayHaveData( 70000, 0, 60 ) );
+        assertFalse( loaded.mayHaveData( 3, 0, 900 ) );
+
+        assertNull( DataPointExtentIndex.load( new File( dataDir, "missing.extents" ) ) );
+    }
+
+    @Test
+    public void testArchiveSkipsReads()
+    {
+        RetentionPolicy policy = RetentionPolicy.getInstance( "60s:24h" );
+        RocksDBConfig config = new RocksDBConfig();
+        config.extentIndexEnabled = true;
+        MetricRegistry metricRegistry = new MetricRegistry();
+        File dbDir = new File( dataDir, "60s24h" );
+
+        DataPointArchiveRocksDB archive = new DataPointArchiveRocksDB( metricRegistry, "60s24h", policy, dbDir, config,
+            false );
+        archive.open();
+        try
+        {
+            archive.put( 1, 60, 1.0 );
+            archive.put( 1, 180, 1.5 );
+            archive.put( 3, 600, 3.0 );
+            awaitComplete( archive );
+
+            List<double[]> series = archive.getDataPoints( new long[] { 1, 2, 3 }, 60, 180, 60 );
+            assertArrayEquals( new double[] { 1.0, Double.NaN, 1.5 }, series.get( 0 ) );
+            assertArrayEquals( new double[] { Double.NaN, Double.NaN, Double.NaN }, series.get( 1 ) );
+            assertArrayEquals( new double[] { Double.NaN, Double.NaN, Double.NaN }, series.get( 2 ) );
+            assertEquals( 2, metricRegistry.meter( MetricUtils.dbExtentIndexSkippedName( "60s24h" ) ).getCount() );
+            assertEquals( 3, archive.estimateDataPoints( new long[] { 1, 2, 3 }, 60, 180 ) );
+        }
+        finally
+        {
+            archive.close();
+        }
+        assertTrue( new File( dataDir, "60s24h.extents" ).exists() );
+
+        // extents are loaded on the next open and the file is removed until the next clean shutdown
+        archive = new DataPointArchiveRocksDB( new MetricRegistry(), "60s24h", policy, dbDir, config, false );
+        archive.open();
+        try
+        {
+            assertFalse( new File( dataDir, "60s24h.extents" ).exists() );
+            assertEquals( 1, archive.estimateDataPoints( new long[] { 3 }, 60, 600 ) );
+            assertFalse( archive.mayHaveData( 3, 60, 540 ) );
+            assertArrayEquals( new double[] { 3.0 }, archive.getDataPoints( 3, 600, 600, 60 ) );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    private static void awaitComplete( DataPointArchiveRocksDB archive )
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( archive.estimateDataPoints( new long[] { 1 }, 0, 60 ) < 0 )
+        {
+            assertTrue( System.currentTimeMillis() < deadline, "extent index was not rebuilt" );
+            try
+            {
+                Thread.sleep( 10 );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
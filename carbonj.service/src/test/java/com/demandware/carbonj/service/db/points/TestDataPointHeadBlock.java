@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.model.Series;
+import com.demandware.carbonj.service.engine.DataPoint;
+import com.demandware.carbonj.service.engine.DataPoints;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestDataPointHeadBlock
+{
+    private final RetentionPolicy policy = RetentionPolicy.getInstance( "60s:24h" );
+
+    @Test
+    public void testReadThroughAndWrite()
+    {
+        DataPointHeadBlock headBlock = new DataPointHeadBlock( new MetricRegistry(), policy, 1, 1024 * 1024, 3600 );
+        try
+        {
+            AtomicInteger archiveReads = new AtomicInteger();
+            DataPointHeadBlock.ArchiveReader reader = ( metricId, from, until ) -> {
+                archiveReads.incrementAndGet();
+                double[] values = Series.emptyValues( from, until, policy.precision );
+                Arrays.fill( values, 1 );
+                return values;
+            };
+            int now = policy.interval( (int) ( System.currentTimeMillis() / 1000 ) );
+            int from = now - 10 * 60;
+
+            double[] values = headBlock.read( 1, from, now, reader );
+            assertNotNull( values );
+            assertEquals( 11, values.length );
+            assertEquals( 1, values[0] );
+            assertEquals( 1, archiveReads.get() );
+
+            headBlock.put( points( 1, now, 5 ) );
+            // point of a series that is not in the head block is ignored
+            headBlock.put( points( 2, now, 7 ) );
+            values = headBlock.read( 1, from, now, reader );
+            assertEquals( 5, values[values.length - 1] );
+            assertEquals( 1, archiveReads.get() );
+            assertEquals( 1, headBlock.size() );
+
+            // ranges that start before the head window are read from the archive
+            assertNull( headBlock.read( 1, now - 2 * 60 * 60, now, reader ) );
+
+            // series changed outside of the regular write path are read again
+            headBlock.invalidate( 1 );
+            headBlock.read( 1, from, now, reader );
+            assertEquals( 2, archiveReads.get() );
+        }
+        finally
+        {
+            headBlock.close();
+        }
+    }
+
+    @Test
+    public void testRingSkipsOldLap()
+    {
+        DataPointHeadBlock.SeriesRing ring = new DataPointHeadBlock.SeriesRing( 5, 60, 0, 600 );
+        ring.fill( 360, new double[] { 1, 1, 1, 1, 1 } );
+        assertEquals( 360, ring.coveredFrom() );
+
+        // jump ahead by more than one interval clears skipped slots of the previous lap
+        ring.put( 780, 9 );
+        double[] values = ring.read( 540, 780 );
+        assertNotNull( values );
+        assertEquals( 1, values[0] );
+        assertEquals( 1, values[1] );
+        assertTrue( Double.isNaN( values[2] ) );
+        assertTrue( Double.isNaN( values[3] ) );
+        assertEquals( 9, values[4] );
+
+        // too old for the ring
+        assertNull( ring.read( 480, 780 ) );
+        ring.put( 300, 3 );
+        assertNull( ring.read( 300, 780 ) );
+    }
+
+    @Test
+    public void testRingClearedAfterGapLongerThanRing()
+    {
+        DataPointHeadBlock.SeriesRing ring = new DataPointHeadBlock.SeriesRing( 4, 60, 60, 60 );
+        ring.put( 60, 1 );
+        ring.put( 120, 2 );
+
+        // no slot of the previous lap survives a gap longer than the ring
+        ring.put( 780, 9 );
+        double[] values = ring.read( 600, 780 );
+        assertNotNull( values );
+        assertEquals( 4, values.length );
+        assertTrue( Double.isNaN( values[0] ) );
+        assertTrue( Double.isNaN( values[1] ) );
+        assertTrue( Double.isNaN( values[2] ) );
+        assertEquals( 9, values[3] );
+    }
+
+    @Test
+    public void testMemoryBudgetAndEviction()
+    {
+        DataPointHeadBlock headBlock = new DataPointHeadBlock( new MetricRegistry(), policy, 1, 1200, 0 );
+        try
+        {
+            DataPointHeadBlock.ArchiveReader reader = ( metricId, from, until ) -> Series.emptyValues( from, until,
+                policy.precision );
+            int now = policy.interval( (int) ( System.currentTimeMillis() / 1000 ) );
+            // budget fits two series
+            assertNotNull( headBlock.read( 1, now - 60, now, reader ) );
+            assertNotNull( headBlock.read( 2, now - 60, now, reader ) );
+            assertNull( headBlock.read( 3, now - 60, now, reader ) );
+            assertEquals( 2, headBlock.size() );
+
+            // nothing was read since - all series are cold
+            sleep( 5 );
+            headBlock.sweep();
+            assertEquals( 0, headBlock.size() );
+        }
+        finally
+        {
+            headBlock.close();
+        }
+    }
+
+    private static void sleep( long millis )
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private DataPoints points( long metricId, int ts, double val )
+    {
+        DataPoints points = new DataPoints( List.of( new DataPoint( "a.b" + metricId, val, ts ) ) );
+        points.assignMetric( 0, new Metric( "a.b" + metricId, metricId, null, List.of( policy ), new ArrayList<>() ),
+            policy );
+        return points;
+    }
+}
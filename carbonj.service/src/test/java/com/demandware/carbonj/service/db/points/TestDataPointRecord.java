@@ -6,6 +6,8 @@
  */
 package com.demandware.carbonj.service.db.points;
 
+import com.demandware.carbonj.service.db.model.IntervalStats;
+import com.demandware.carbonj.service.db.model.IntervalStats.Statistic;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -18,4 +20,22 @@ public class TestDataPointRecord {
         bytes = DataPointRecord.toKeyBytes(3, 60, false);
         assertEquals(3, DataPointRecord.toMetricId(bytes, false));
     }
+
+    @Test
+    public void testIntervalStats() {
+        byte[] bytes = DataPointRecord.toValueBytes(2.5, new IntervalStats(1.0, 4.0, 10.0, 4));
+        assertEquals(2.5, DataPointRecord.toValue(bytes));
+        assertEquals(2.5, DataPointRecord.toValue(bytes, Statistic.VALUE));
+        assertEquals(1.0, DataPointRecord.toValue(bytes, Statistic.MIN));
+        assertEquals(4.0, DataPointRecord.toValue(bytes, Statistic.MAX));
+        assertEquals(10.0, DataPointRecord.toValue(bytes, Statistic.SUM));
+        assertEquals(4.0, DataPointRecord.toValue(bytes, Statistic.COUNT));
+
+        // points written without statistics
+        bytes = DataPointRecord.toValueBytes(2.5);
+        assertEquals(2.5, DataPointRecord.toValue(bytes, Statistic.MIN));
+        assertEquals(2.5, DataPointRecord.toValue(bytes, Statistic.MAX));
+        assertEquals(2.5, DataPointRecord.toValue(bytes, Statistic.SUM));
+        assertEquals(1.0, DataPointRecord.toValue(bytes, Statistic.COUNT));
+    }
 }
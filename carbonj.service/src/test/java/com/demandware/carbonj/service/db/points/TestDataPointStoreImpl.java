@@ -10,6 +10,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.demandware.carbonj.service.db.model.DataPointImportResults;
 import com.demandware.carbonj.service.db.model.DataPointStore;
 import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.IntervalStats.Statistic;
 import com.demandware.carbonj.service.db.model.QueryCachePolicy;
 import com.demandware.carbonj.service.db.model.RetentionPolicy;
 import com.demandware.carbonj.service.db.model.Series;
@@ -23,8 +24,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class TestDataPointStoreImpl {
@@ -67,17 +69,30 @@ public class TestDataPointStoreImpl {
 
         Metric metric = new Metric("foo.bar", 12345L, null, List.of(retentionPolicy), new ArrayList<>());
         Series series = dataPointStore.getSeries(metric, retentionPolicy.interval(current), retentionPolicy.interval(current) + 60, (int) (System.currentTimeMillis() / 1000));
-        assertEquals(2, series.values.size());
-        assertEquals(123, series.values.get(0));
-        assertNull(series.values.get(1));
+        assertEquals(2, series.values.length);
+        assertEquals(123, series.values[0]);
+        assertTrue(Double.isNaN(series.values[1]));
+
+        Metric other = new Metric("foo.baz", 12344L, null, List.of(retentionPolicy), new ArrayList<>());
+        List<Series> seriesList = dataPointStore.getSeries(List.of(metric, other), retentionPolicy.interval(current), retentionPolicy.interval(current) + 60, (int) (System.currentTimeMillis() / 1000));
+        assertEquals(2, seriesList.size());
+        assertEquals("foo.bar", seriesList.get(0).name);
+        assertArrayEquals(series.values, seriesList.get(0).values);
+        assertEquals("foo.baz", seriesList.get(1).name);
+        assertEquals(2, seriesList.get(1).values.length);
+        assertTrue(Double.isNaN(seriesList.get(1).values[0]));
+        long[] readMillis = new long[]{-1, -1};
+        seriesList = dataPointStore.getSeries(List.of(metric, other), retentionPolicy.interval(current), retentionPolicy.interval(current) + 60, (int) (System.currentTimeMillis() / 1000), Statistic.VALUE, readMillis);
+        assertArrayEquals(series.values, seriesList.get(0).values);
+        assertTrue(readMillis[0] >= 0 && readMillis[1] >= 0);
 
         assertEquals(1, dataPointStore.delete("60s24h", retentionPolicy.interval(current)));
 
         metric = new Metric("foo.bar.invalid", 12345L, null, List.of(retentionPolicy), new ArrayList<>());
         series = dataPointStore.getSeries(metric, retentionPolicy.interval(current), retentionPolicy.interval(current) + 60, (int) (System.currentTimeMillis() / 1000));
-        assertEquals(2, series.values.size());
-        assertNull(series.values.get(0));
-        assertNull(series.values.get(1));
+        assertEquals(2, series.values.length);
+        assertTrue(Double.isNaN(series.values[0]));
+        assertTrue(Double.isNaN(series.values[1]));
 
         // Negative tests
         dataPoint = new DataPoint("foo.bar", 123, 0);
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestDataPointWriteStage
+{
+    @Test
+    public void testGroupCommit() throws Exception
+    {
+        RocksDB.loadLibrary();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        AtomicInteger records = new AtomicInteger();
+        AtomicInteger batches = new AtomicInteger();
+        DataPointWriteStage stage = new DataPointWriteStage( metricRegistry, "test", batch -> {
+            records.addAndGet( batch.count() );
+            batches.incrementAndGet();
+        }, 10, 1000, 5, 1 );
+
+        int producers = 8;
+        int writesPerProducer = 100;
+        ExecutorService ex = Executors.newFixedThreadPool( producers );
+        List<Future<?>> futures = new ArrayList<>();
+        for ( int p = 0; p < producers; p++ )
+        {
+            futures.add( ex.submit( ( ) -> {
+                for ( int i = 0; i < writesPerProducer; i++ )
+                {
+                    byte[][] keys = { new byte[] { 1 }, new byte[] { 2 } };
+                    byte[][] values = { new byte[] { 1 }, new byte[] { 2 } };
+                    stage.write( keys, values, 2 );
+                }
+                return null;
+            } ) );
+        }
+        for ( Future<?> f : futures )
+        {
+            f.get();
+        }
+        ex.shutdown();
+        stage.close();
+
+        assertEquals( producers * writesPerProducer * 2, records.get() );
+        assertTrue( batches.get() < producers * writesPerProducer );
+        assertEquals( batches.get(), metricRegistry.histogram( "db.test.writeStage.batchSize" ).getCount() );
+    }
+
+    @Test
+    public void testFailedCommit()
+    {
+        RocksDB.loadLibrary();
+        DataPointWriteStage stage = new DataPointWriteStage( new MetricRegistry(), "test", batch -> {
+            throw new RocksDBException( "write failed" );
+        }, 10, 1000, 0, 1 );
+        assertThrows( RocksDBException.class,
+                        ( ) -> stage.write( new byte[][] { { 1 } }, new byte[][] { { 1 } }, 1 ) );
+        stage.close();
+        assertThrows( IllegalStateException.class,
+                        ( ) -> stage.write( new byte[][] { { 1 } }, new byte[][] { { 1 } }, 1 ) );
+    }
+}
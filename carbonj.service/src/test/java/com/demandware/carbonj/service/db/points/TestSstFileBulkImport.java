@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.DataPointBulkImport;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.engine.DataPoint;
+import com.demandware.carbonj.service.engine.DataPoints;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestSstFileBulkImport
+{
+    @TempDir
+    File dataDir;
+
+    private final RetentionPolicy policy = RetentionPolicy.getInstance( "60s:24h" );
+
+    @Test
+    public void testBulkImport()
+    {
+        RocksDBConfig config = new RocksDBConfig();
+        // several chunks with several key ranges each
+        config.bulkImportChunkSize = 7;
+        config.bulkImportThreads = 3;
+        DataPointArchiveRocksDB archive = new DataPointArchiveRocksDB( new MetricRegistry(), "60s24h", policy,
+            new File( dataDir, "60s24h" ), config, false );
+        archive.open();
+        try
+        {
+            int start = policy.interval( (int) ( System.currentTimeMillis() / 1000 ) ) - 60 * 10;
+            DataPointBulkImport bulkImport = archive.startBulkImport();
+            for ( int m = 1; m <= 5; m++ )
+            {
+                bulkImport.add( series( m, start, 10, m ) );
+            }
+            // later points override earlier points with the same key, also across chunks
+            bulkImport.add( series( 3, start, 2, 100 ) );
+            // expired points are skipped
+            bulkImport.add( series( 4, start - 2 * 24 * 60 * 60, 1, 200 ) );
+            assertEquals( 52, bulkImport.addedPoints() );
+
+            assertEquals( 52, bulkImport.finish() );
+            assertEquals( 52, bulkImport.ingestedPoints() );
+            assertFalse( new File( dataDir, "60s24h-bulk" ).exists() );
+            assertThrows( IllegalStateException.class, ( ) -> bulkImport.add( series( 1, start, 1, 1 ) ) );
+
+            for ( int m = 1; m <= 5; m++ )
+            {
+                double[] expected = new double[10];
+                Arrays.fill( expected, m );
+                if ( m == 3 )
+                {
+                    expected[0] = 100;
+                    expected[1] = 100;
+                }
+                assertArrayEquals( expected, archive.getDataPoints( m, start, start + 9 * 60, 60 ) );
+            }
+
+            // regular writes still work on top of ingested data
+            archive.put( 1, start, 42 );
+            assertEquals( 42, archive.getFirst( 1, start, start ).val );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void testCloseDiscardsBufferedPoints()
+    {
+        RocksDBConfig config = new RocksDBConfig();
+        DataPointArchiveRocksDB archive = new DataPointArchiveRocksDB( new MetricRegistry(), "60s24h", policy,
+            new File( dataDir, "60s24h" ), config, false );
+        archive.open();
+        try
+        {
+            int start = policy.interval( (int) ( System.currentTimeMillis() / 1000 ) ) - 60 * 10;
+            try (DataPointBulkImport bulkImport = archive.startBulkImport())
+            {
+                bulkImport.add( series( 1, start, 5, 1 ) );
+                assertEquals( 0, bulkImport.ingestedPoints() );
+            }
+            assertEquals( 0, archive.getDataPoints( 1, start, start + 4 * 60 ).size() );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    private DataPoints series( long metricId, int start, int count, double val )
+    {
+        List<DataPoint> points = new ArrayList<>();
+        for ( int i = 0; i < count; i++ )
+        {
+            points.add( new DataPoint( "a.b.m" + metricId, val, start + i * 60 ) );
+        }
+        DataPoints dataPoints = new DataPoints( points );
+        Metric metric = new Metric( "a.b.m" + metricId, metricId, null, List.of( policy ), new ArrayList<>() );
+        for ( int i = 0; i < count; i++ )
+        {
+            dataPoints.assignMetric( i, metric, policy );
+        }
+        return dataPoints;
+    }
+}
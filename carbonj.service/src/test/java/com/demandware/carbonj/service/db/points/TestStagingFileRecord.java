@@ -11,6 +11,7 @@ import org.junit.jupiter.api.Test;
 import java.io.File;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 public class TestStagingFileRecord {
     @Test
@@ -22,5 +23,21 @@ public class TestStagingFileRecord {
         assertEquals(11987976699L, stagingFileRecord.metricId);
         assertEquals("pod276.oracle_db_server.database.crs07.blade5-6.bkvk.bkvk2.OPS_USER.6y9rrcvjksgum.851311265.io", stagingFileRecord.metricName);
         assertEquals("StagingFileRecord{fileName=StagingFileSet{id='5m7d-1734989700-9'}, metricId=11987976699, strValue='2', metricName=pod276.oracle_db_server.database.crs07.blade5-6.bkvk.bkvk2.OPS_USER.6y9rrcvjksgum.851311265.io}", stagingFileRecord.toString());
+        assertNull(stagingFileRecord.stats);
+        assertEquals("2", stagingFileRecord.valueToken());
+    }
+
+    @Test
+    public void testStats() {
+        StagingFileSet stagingFileSet = new StagingFileSet(new File("/tmp/30m2y-1734989400-9.1.s"));
+        StagingFileRecord stagingFileRecord = new StagingFileRecord(stagingFileSet, "5 2.5;1.0;4.0;10.0;4 a.m5");
+        assertEquals(2.5, stagingFileRecord.val());
+        assertEquals(5, stagingFileRecord.metricId);
+        assertEquals("a.m5", stagingFileRecord.metricName);
+        assertEquals(1.0, stagingFileRecord.stats.min);
+        assertEquals(4.0, stagingFileRecord.stats.max);
+        assertEquals(10.0, stagingFileRecord.stats.sum);
+        assertEquals(4, stagingFileRecord.stats.count);
+        assertEquals("2.5;1.0;4.0;10.0;4", stagingFileRecord.valueToken());
     }
 }
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.MetricProvider;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class TestStagingWriter
+{
+    @TempDir
+    File dir;
+
+    private File overflowDir;
+
+    private StagingFiles stagingFiles;
+
+    private final StagingFileSet fileSet = new StagingFileSet( "5m7d", 1734989700, 3 );
+
+    @BeforeEach
+    public void setUp()
+    {
+        overflowDir = new File( dir, "overflow" );
+        assertTrue( overflowDir.mkdir() );
+        stagingFiles = new StagingFiles( new MetricRegistry(), dir, new SystemSort( 300 ), mock( MetricProvider.class ) );
+    }
+
+    private StagingFileRecord record( long id )
+    {
+        return new StagingFileRecord( fileSet, id, String.valueOf( id * 10 ), "a.m" + id );
+    }
+
+    private List<String> stagedLines()
+        throws Exception
+    {
+        List<String> lines = new ArrayList<>();
+        for ( File f : dir.listFiles( File::isFile ) )
+        {
+            lines.addAll( FileUtils.readLines( f, "UTF-8" ) );
+        }
+        lines.sort( String::compareTo );
+        return lines;
+    }
+
+    @Test
+    public void testOverflowIsReplayed()
+        throws Exception
+    {
+        StagingWriter writer = new StagingWriter( new MetricRegistry(), 0, 1, stagingFiles, 2, overflowDir,
+            1024 * 1024, new Meter() );
+        // queue takes two records, others go to the overflow file until the writer runs
+        for ( long id = 1; id <= 5; id++ )
+        {
+            assertTrue( writer.add( record( id ) ) );
+        }
+        assertEquals( 2, writer.queueSize() );
+
+        writer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( overflowDir.list().length > 0 && System.currentTimeMillis() < deadline )
+        {
+            TimeUnit.MILLISECONDS.sleep( 50 );
+        }
+        writer.close();
+        stagingFiles.close();
+
+        assertEquals( 0, overflowDir.list().length );
+        assertEquals( List.of( "1 10 a.m1", "2 20 a.m2", "3 30 a.m3", "4 40 a.m4", "5 50 a.m5" ), stagedLines() );
+    }
+
+    @Test
+    public void testQueuedRecordsAreKeptOnStop()
+        throws Exception
+    {
+        StagingWriter writer = new StagingWriter( new MetricRegistry(), 0, 1, stagingFiles, 10, overflowDir,
+            1024 * 1024, new Meter() );
+        assertTrue( writer.add( record( 1 ) ) );
+        writer.close();
+        assertFalse( writer.add( record( 2 ) ) );
+
+        // the writer was never started, the queued record is written on the next start
+        writer.run();
+        assertEquals( List.of( "5m7d-1734989700-3 1 10 a.m1" ),
+            FileUtils.readLines( new File( overflowDir, "staging-0.overflow" ), "UTF-8" ) );
+    }
+
+    @Test
+    public void testReplayResumesFromSavedOffset()
+        throws Exception
+    {
+        String first = "5m7d-1734989700-3 1 10 a.m1";
+        FileUtils.writeLines( new File( overflowDir, "staging-0.overflow.replay" ), "UTF-8",
+            List.of( first, "5m7d-1734989700-3 2 20 a.m2", "5m7d-1734989700-3 3 30 a.m3" ), "\n" );
+        // first record was staged before the writer stopped
+        FileUtils.writeStringToFile( new File( overflowDir, "staging-0.overflow.replay.offset" ),
+            String.valueOf( first.length() + 1 ), "UTF-8" );
+
+        StagingWriter writer = new StagingWriter( new MetricRegistry(), 0, 1, stagingFiles, 10, overflowDir,
+            1024 * 1024, new Meter() );
+        writer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( overflowDir.list().length > 0 && System.currentTimeMillis() < deadline )
+        {
+            TimeUnit.MILLISECONDS.sleep( 50 );
+        }
+        writer.close();
+        stagingFiles.close();
+
+        assertEquals( 0, overflowDir.list().length );
+        assertEquals( List.of( "2 20 a.m2", "3 30 a.m3" ), stagedLines() );
+    }
+
+    @Test
+    public void testFlush()
+        throws Exception
+    {
+        StagingWriter writer = new StagingWriter( new MetricRegistry(), 0, 1, stagingFiles, 10, overflowDir,
+            1024 * 1024, new Meter() );
+        writer.start();
+        assertTrue( writer.add( record( 1 ) ) );
+        writer.flush( 10000 );
+        // staging file is flushed while it is still open
+        assertEquals( List.of( "1 10 a.m1" ), stagedLines() );
+        writer.close();
+        stagingFiles.close();
+    }
+
+    @Test
+    public void testBackpressureWithoutOverflow()
+        throws Exception
+    {
+        StagingWriter writer = new StagingWriter( new MetricRegistry(), 0, 1, stagingFiles, 1, null, 0,
+            new Meter() );
+        assertTrue( writer.add( record( 1 ) ) );
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync( () -> writer.add( record( 2 ) ) );
+        TimeUnit.MILLISECONDS.sleep( 300 );
+        assertFalse( blocked.isDone() );
+
+        writer.start();
+        assertTrue( blocked.get( 10, TimeUnit.SECONDS ) );
+        writer.close();
+        stagingFiles.close();
+        assertEquals( List.of( "1 10 a.m1", "2 20 a.m2" ), stagedLines() );
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.points;
+
+import com.codahale.metrics.MetricRegistry;
+import com.demandware.carbonj.service.db.model.AggregationPolicy;
+import com.demandware.carbonj.service.db.model.DataPointStore;
+import com.demandware.carbonj.service.db.model.IntervalStats;
+import com.demandware.carbonj.service.db.model.Metric;
+import com.demandware.carbonj.service.db.model.MetricProvider;
+import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.engine.AggregationMethod;
+import com.demandware.carbonj.service.engine.DataPoint;
+import com.demandware.carbonj.service.engine.DataPoints;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestStreamingRollup
+{
+    private static final int FROM = 1734989700;
+
+    // 5m interval plus the collection delay of 5m7d
+    private static final int COMPLETE_AT = FROM + 300 + 90;
+
+    @TempDir
+    File dir;
+
+    private MetricProvider metricProvider;
+
+    private DataPointStore pointStore;
+
+    private final List<DataPoint> inserted = new ArrayList<>();
+
+    private int now;
+
+    @BeforeEach
+    public void setUp()
+    {
+        metricProvider = mock( MetricProvider.class );
+        RetentionPolicy policy = RetentionPolicy.getInstance( "5m:7d" );
+        when( metricProvider.forId( anyLong() ) ).thenAnswer( inv -> {
+            long id = inv.getArgument( 0 );
+            AggregationMethod method = id == 2 ? AggregationMethod.SUM : AggregationMethod.AVG;
+            return new Metric( "a.m" + id, id, new AggregationPolicy( method, 0, null ), List.of( policy ),
+                new ArrayList<>() );
+        } );
+        pointStore = mock( DataPointStore.class );
+        doAnswer( inv -> {
+            DataPoints points = inv.getArgument( 0 );
+            for ( int i = 0; i < points.size(); i++ )
+            {
+                assertEquals( "5m7d", points.getPolicy( i ).name );
+                inserted.add( points.get( i ) );
+            }
+            return null;
+        } ).when( pointStore ).insertDataPoints( any() );
+    }
+
+    private StreamingRollup rollup( long maxBytes )
+    {
+        StreamingRollup rollup = new StreamingRollup( new MetricRegistry(), metricProvider, dir, 4, maxBytes, 600 );
+        rollup.timeSource = () -> now;
+        rollup.pointStore = pointStore;
+        return rollup;
+    }
+
+    private Map<Long, Double> insertedValues()
+    {
+        Map<Long, Double> values = new TreeMap<>();
+        inserted.forEach( p -> {
+            assertEquals( FROM, p.ts );
+            values.put( p.metricId, p.val );
+        } );
+        inserted.clear();
+        return values;
+    }
+
+    @Test
+    public void testEmitCompleteIntervalAndLatePoints()
+    {
+        StreamingRollup rollup = rollup( 1024 * 1024 );
+        now = FROM + 60;
+        rollup.add( "5m7d", FROM, 1, 1.0, "a.m1" );
+        rollup.add( "5m7d", FROM, 1, 3.0, "a.m1" );
+        rollup.add( "5m7d", FROM, 2, 5.0, "a.m2" );
+        rollup.add( "5m7d", FROM, 2, 7.0, "a.m2" );
+
+        rollup.process();
+        assertTrue( inserted.isEmpty() );
+
+        now = COMPLETE_AT;
+        rollup.process();
+        assertEquals( Map.of( 1L, 2.0, 2L, 12.0 ), insertedValues() );
+
+        // nothing changed
+        rollup.process();
+        assertTrue( inserted.isEmpty() );
+
+        // late point updates only its metric
+        rollup.add( "5m7d", FROM, 1, 8.0, "a.m1" );
+        rollup.process();
+        assertEquals( Map.of( 1L, 4.0 ), insertedValues() );
+
+        // after the late window the interval is dropped along with new points
+        now = COMPLETE_AT + 601;
+        rollup.process();
+        rollup.add( "5m7d", FROM, 1, 100.0, "a.m1" );
+        rollup.process();
+        assertTrue( inserted.isEmpty() );
+    }
+
+    @Test
+    public void testMergeStatsOfAggregatedPoints()
+    {
+        // budget of one aggregate, so stats also go through spilled runs
+        StreamingRollup rollup = rollup( StreamingRollup.BYTES_PER_AGGREGATE );
+        now = FROM + 60;
+        rollup.add( "5m7d", FROM, 1, 2.0, new IntervalStats( 1.0, 3.0, 4.0, 2 ), "a.m1" );
+        rollup.add( "5m7d", FROM, 3, 1.0, "a.m3" );
+        rollup.process();
+        rollup.add( "5m7d", FROM, 1, 6.0, new IntervalStats( 5.0, 7.0, 12.0, 2 ), "a.m1" );
+        rollup.add( "5m7d", FROM, 1, 9.0, "a.m1" );
+
+        now = COMPLETE_AT;
+        rollup.process();
+        assertEquals( 2, inserted.size() );
+        DataPoint p = inserted.stream().filter( d -> d.metricId == 1 ).findFirst().orElseThrow();
+        // value is the average of the added values, stats cover the values they were aggregated from
+        assertEquals( 17.0 / 3, p.val, 1e-9 );
+        assertEquals( 1.0, p.stats.min );
+        assertEquals( 9.0, p.stats.max );
+        assertEquals( 25.0, p.stats.sum );
+        assertEquals( 5, p.stats.count );
+        rollup.closeQuietly();
+    }
+
+    @Test
+    public void testSpillAndResumeAfterRestart()
+    {
+        // budget of two aggregates
+        StreamingRollup rollup = rollup( 2 * StreamingRollup.BYTES_PER_AGGREGATE );
+        now = FROM + 60;
+        for ( long id = 1; id <= 5; id++ )
+        {
+            rollup.add( "5m7d", FROM, id, id, "a.m" + id );
+        }
+        rollup.process();
+        assertTrue( dir.list().length > 0 );
+        for ( long id = 1; id <= 5; id++ )
+        {
+            rollup.add( "5m7d", FROM, id, id + 2, "a.m" + id );
+        }
+        rollup.closeQuietly();
+        assertTrue( inserted.isEmpty() );
+
+        StreamingRollup restarted = rollup( 1024 * 1024 );
+        restarted.loadRuns();
+        now = COMPLETE_AT;
+        restarted.process();
+        assertEquals( Map.of( 1L, 2.0, 2L, 6.0, 3L, 4.0, 4L, 5.0, 5L, 6.0 ), insertedValues() );
+
+        // merged runs are replaced by one
+        assertEquals( 1, dir.list().length );
+        now = COMPLETE_AT + 601;
+        restarted.process();
+        assertEquals( 0, dir.list().length );
+    }
+}
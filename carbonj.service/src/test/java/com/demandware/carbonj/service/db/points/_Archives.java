@@ -96,8 +96,8 @@ public class _Archives extends BaseTest
         insert( m1, p );
         Series s = archives.getSeries( m1, now, now, now );
         assertEquals( s.name, m1.name );
-        assertEquals( s.values.size(), 1 );
-        assertEquals( s.values.get( 0 ), p.val );
+        assertEquals( s.values.length, 1 );
+        assertEquals( s.values[0], p.val );
         System.out.println( "now: " + now );
         System.out.println( "start: " + s.start );
         System.out.println( "end: " + s.end );
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestDbSnapshots {
+    @TempDir
+    File tmpDir;
+
+    @Test
+    public void testSnapshotAndBootstrap() throws Exception {
+        RocksDB.loadLibrary();
+        File snapshotDir = new File(tmpDir, "snapshot");
+        snapshotDir.mkdirs();
+        try (Options options = new Options().setCreateIfMissing(true)) {
+            for (String dbName : new String[] {"index-name", "60s24h"}) {
+                try (RocksDB db = RocksDB.open(options, new File(tmpDir, "src/" + dbName).getAbsolutePath())) {
+                    db.put(dbName.getBytes(), "value".getBytes());
+                    DbSnapshots.checkpoint(db, dbName, snapshotDir);
+                }
+            }
+        }
+        DbSnapshots.writeProperties(snapshotDir, 1000L);
+        assertEquals(1000L, DbSnapshots.readTimestamp(snapshotDir));
+
+        File indexDir = new File(tmpDir, "index");
+        File dataDir = new File(tmpDir, "data");
+        SnapshotBootstrap bootstrap = new SnapshotBootstrap(snapshotDir);
+        bootstrap.restore(indexDir, dataDir);
+        assertEquals(1000L, bootstrap.restoredTimestamp());
+        // databases are restored into temporary directories that are renamed once complete
+        assertFalse(new File(dataDir, "60s24h.restoring").exists());
+
+        try (Options options = new Options();
+             RocksDB index = RocksDB.open(options, new File(indexDir, "index-name").getAbsolutePath());
+             RocksDB data = RocksDB.open(options, new File(dataDir, "60s24h").getAbsolutePath())) {
+            assertArrayEquals("value".getBytes(), index.get("index-name".getBytes()));
+            assertArrayEquals("value".getBytes(), data.get("60s24h".getBytes()));
+        }
+
+        // existing databases are not overwritten
+        assertFalse(DbSnapshots.restore(snapshotDir, "60s24h", new File(dataDir, "60s24h")));
+    }
+
+    @Test
+    public void testIncompleteSnapshot() {
+        SnapshotBootstrap bootstrap = new SnapshotBootstrap(tmpDir);
+        assertThrows(IllegalStateException.class, () -> bootstrap.restore(tmpDir, tmpDir));
+    }
+}
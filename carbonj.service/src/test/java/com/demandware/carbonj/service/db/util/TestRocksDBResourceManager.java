@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.util;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.MemoryUsageType;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+
+import java.io.File;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRocksDBResourceManager {
+    @TempDir
+    File dbDir;
+
+    @Test
+    public void testSharedMemory() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RocksDBResourceManager manager = new RocksDBResourceManager(metricRegistry, 64 * 1024 * 1024, 0.25, 0.1,
+                false, Set.of("test"));
+        assertTrue(manager.isEnabled());
+        BlockBasedTableConfig cfg = new BlockBasedTableConfig();
+        try (Options options = new Options().setCreateIfMissing(true)) {
+            assertTrue(manager.configure("test", options, cfg));
+            assertTrue(cfg.cacheIndexAndFilterBlocksWithHighPriority());
+            options.setTableFormatConfig(cfg);
+            try (RocksDB db = RocksDB.open(options, dbDir.getAbsolutePath())) {
+                manager.register("test", db);
+                db.put("key".getBytes(), "value".getBytes());
+                assertTrue(manager.usage("test", MemoryUsageType.kMemTableTotal) > 0);
+                assertTrue(metricRegistry.getGauges().containsKey("rocksdb.memory.test.memtable"));
+                assertTrue(metricRegistry.getGauges().containsKey("rocksdb.memory.blockCache.usage"));
+                manager.dumpStats();
+                manager.unregister("test");
+                assertFalse(metricRegistry.getGauges().containsKey("rocksdb.memory.test.memtable"));
+                assertEquals(0, manager.usage("test", MemoryUsageType.kMemTableTotal));
+            }
+        }
+        manager.close();
+        assertTrue(metricRegistry.getGauges().isEmpty());
+    }
+
+    @Test
+    public void testDisabled() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RocksDBResourceManager manager = new RocksDBResourceManager(metricRegistry, 0, 0.25, 0.1, false, null);
+        assertFalse(manager.isEnabled());
+        try (Options options = new Options()) {
+            assertFalse(manager.configure("test", options, new BlockBasedTableConfig()));
+        }
+        manager.close();
+        assertTrue(metricRegistry.getGauges().isEmpty());
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.db.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.Statistics;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRocksDBStatsReporter {
+    @TempDir
+    File dbDir;
+
+    @Test
+    public void testStatsReporter() throws Exception {
+        RocksDB.loadLibrary();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        try (Statistics statistics = new Statistics();
+             Options options = new Options().setCreateIfMissing(true).setStatistics(statistics);
+             RocksDB db = RocksDB.open(options, dbDir.getAbsolutePath())) {
+            RocksDBStatsReporter reporter = new RocksDBStatsReporter(metricRegistry, "test", db, statistics);
+            db.put("key".getBytes(), "value".getBytes());
+            db.get("key".getBytes());
+
+            Gauge<?> memtableHit = metricRegistry.getGauges().get("db.test.rocksdb.memtable.hit");
+            assertEquals(1L, ((Number) memtableHit.getValue()).longValue());
+            assertTrue(metricRegistry.getGauges().containsKey("db.test.rocksdb.pendingCompactionBytes"));
+            assertTrue(metricRegistry.getGauges().containsKey("db.test.rocksdb.write.p99"));
+            assertTrue(metricRegistry.getGauges().containsKey("db.test.rocksdb.level0.files"));
+            assertTrue(metricRegistry.getGauges().containsKey("db.test.rocksdb.stall.level0Slowdown"));
+            assertTrue(((Number) metricRegistry.getGauges().get("db.test.rocksdb.memtableSize").getValue()).longValue() > 0);
+            reporter.dumpStats();
+
+            reporter.close();
+            assertTrue(metricRegistry.getGauges().isEmpty());
+        }
+    }
+}
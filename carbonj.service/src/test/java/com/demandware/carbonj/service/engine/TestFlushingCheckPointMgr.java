@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestFlushingCheckPointMgr
+{
+    @Test
+    public void testCheckPointAfterFlush() throws Exception
+    {
+        List<String> events = new ArrayList<>();
+        CheckPointMgr<Date> store = new CheckPointMgr<>()
+        {
+            private Date last;
+
+            @Override
+            public void checkPoint( Date checkPoint )
+            {
+                events.add( "checkPoint" );
+                last = checkPoint;
+            }
+
+            @Override
+            public Date lastCheckPoint()
+            {
+                return last;
+            }
+        };
+        CheckPointMgr<Date> checkPointMgr = new FlushingCheckPointMgr( new MetricRegistry(), store, ( ) -> {
+            events.add( "flush" );
+            return Integer.MAX_VALUE;
+        }, 0 );
+        Date checkPoint = new Date( 60000 );
+        checkPointMgr.checkPoint( checkPoint );
+        assertEquals( List.of( "flush", "checkPoint" ), events );
+        assertEquals( checkPoint, checkPointMgr.lastCheckPoint() );
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception
+    {
+        AtomicInteger flushes = new AtomicInteger();
+        CheckPointMgrStub store = new CheckPointMgrStub();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        CheckPointMgr<Date> checkPointMgr = new FlushingCheckPointMgr( metricRegistry, store, ( ) -> {
+            flushes.incrementAndGet();
+            return Integer.MAX_VALUE;
+        }, 3600 );
+        checkPointMgr.checkPoint( new Date( 60000 ) );
+        checkPointMgr.checkPoint( new Date( 120000 ) );
+        assertEquals( 1, flushes.get() );
+        // second check point is not persisted because data was not flushed
+        assertEquals( new Date( 60000 ), checkPointMgr.lastCheckPoint() );
+        assertEquals( 1, metricRegistry.meter( "checkPoint.skipped" ).getCount() );
+    }
+
+    @Test
+    public void testFailedFlush()
+    {
+        CheckPointMgrStub store = new CheckPointMgrStub();
+        CheckPointMgr<Date> checkPointMgr = new FlushingCheckPointMgr( new MetricRegistry(), store,
+                        () -> { throw new RuntimeException( "flush failed" ); }, 0 );
+        assertThrows( RuntimeException.class, ( ) -> checkPointMgr.checkPoint( new Date( 60000 ) ) );
+        assertNull( store.last );
+    }
+
+    @Test
+    public void testCheckPointLimitedByPendingPoints() throws Exception
+    {
+        AtomicInteger pendingSince = new AtomicInteger( 30 );
+        CheckPointMgrStub store = new CheckPointMgrStub();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        CheckPointMgr<Date> checkPointMgr = new FlushingCheckPointMgr( metricRegistry, store, pendingSince::get, 0 );
+
+        checkPointMgr.checkPoint( new Date( 60000 ) );
+        assertEquals( new Date( 30000 ), store.last );
+        assertEquals( 1, metricRegistry.meter( "checkPoint.limited" ).getCount() );
+
+        // check point doesn't move backwards
+        pendingSince.set( 10 );
+        checkPointMgr.checkPoint( new Date( 120000 ) );
+        assertEquals( new Date( 30000 ), store.last );
+
+        pendingSince.set( Integer.MAX_VALUE );
+        checkPointMgr.checkPoint( new Date( 180000 ) );
+        assertEquals( new Date( 180000 ), store.last );
+    }
+
+    private static class CheckPointMgrStub implements CheckPointMgr<Date>
+    {
+        Date last;
+
+        @Override
+        public void checkPoint( Date checkPoint )
+        {
+            last = checkPoint;
+        }
+
+        @Override
+        public Date lastCheckPoint()
+        {
+            return last;
+        }
+    }
+}
@@ -8,11 +8,15 @@ package com.demandware.carbonj.service.engine;
 
 import com.demandware.carbonj.service.db.model.Metric;
 import com.demandware.carbonj.service.db.model.RetentionPolicy;
+import com.demandware.carbonj.service.db.model.Series;
+import net.razorvine.pickle.Unpickler;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -27,4 +31,16 @@ public class TestGraphitePickler {
         pickler.pickleMetrics(nodes, baos);
         assertEquals(93, baos.toByteArray().length);
     }
+
+    @Test
+    public void testPickleSeries() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Series series = new Series("foo.bar", 0, 120, 60, new double[]{1.5, Double.NaN, 3.0});
+        new GraphitePickler(false, baos).pickleSeriesList(List.of(series));
+        List<?> result = (List<?>) new Unpickler().loads(baos.toByteArray());
+        assertEquals(1, result.size());
+        Map<?, ?> dict = (Map<?, ?>) result.get(0);
+        assertEquals("foo.bar", dict.get("name"));
+        assertEquals(Arrays.asList(1.5, null, 3.0), dict.get("values"));
+    }
 }
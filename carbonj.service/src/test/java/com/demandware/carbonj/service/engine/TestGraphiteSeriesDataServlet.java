@@ -18,6 +18,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -28,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestGraphiteSeriesDataServlet extends CarbonJSvcLongIdTest {
@@ -78,6 +80,45 @@ public class TestGraphiteSeriesDataServlet extends CarbonJSvcLongIdTest {
         assertEquals(60, msgPackSeries.step);
     }
 
+    @Test
+    public void testRenderRejectsInvalidMaxDataPoints() {
+        DateTime now = DateTime.now();
+        cjClient.send( "a.b.c", 1.0f, now );
+        drain();
+
+        RestTemplate restTemplate = new RestTemplate();
+        Map<String, String> queryParams = new HashMap<>();
+        queryParams.put("format", "json");
+        queryParams.put("target", "a.b.c");
+        queryParams.put("from", String.valueOf(now.getMillis() / 1000 - 60));
+        queryParams.put("until", String.valueOf(now.getMillis() / 1000 + 60));
+        for (String maxDataPoints : List.of("abc", "-1")) {
+            queryParams.put("maxDataPoints", maxDataPoints);
+            URI uri = UriComponentsBuilder.fromHttpUrl("http://127.0.0.1:2001/render")
+                    .queryParam("format", "{format}")
+                    .queryParam("target", "{target}")
+                    .queryParam("from", "{from}")
+                    .queryParam("until", "{until}")
+                    .queryParam("maxDataPoints", "{maxDataPoints}")
+                    .build(queryParams);
+            HttpClientErrorException e = assertThrows(HttpClientErrorException.class,
+                    () -> restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(new HttpHeaders()), String.class));
+            assertEquals(HttpStatus.BAD_REQUEST.value(), e.getStatusCode().value());
+        }
+
+        queryParams.put("maxDataPoints", "1");
+        URI uri = UriComponentsBuilder.fromHttpUrl("http://127.0.0.1:2001/render")
+                .queryParam("format", "{format}")
+                .queryParam("target", "{target}")
+                .queryParam("from", "{from}")
+                .queryParam("until", "{until}")
+                .queryParam("maxDataPoints", "{maxDataPoints}")
+                .build(queryParams);
+        ResponseEntity<String> response = restTemplate.exchange(uri, HttpMethod.GET,
+                new HttpEntity<>(new HttpHeaders()), String.class);
+        assertEquals(HttpStatus.OK.value(), response.getStatusCode().value());
+    }
+
     @Test
     public void testRenderWithLargeNumberOfMetrics() throws Exception {
         DateTime now = DateTime.now();
@@ -20,7 +20,6 @@ import com.demandware.carbonj.service.db.model.Metric;
 import com.demandware.carbonj.service.db.model.RetentionPolicy;
 import com.demandware.carbonj.service.db.model.Series;
 import com.demandware.carbonj.service.db.util.time.TimeSource;
-import com.google.common.collect.Iterables;
 
 import net.razorvine.pickle.PickleException;
 import net.razorvine.pickle.Pickler;
@@ -61,7 +60,7 @@ public class _GraphitePickler
         for ( Series s : series )
         {
             seriesString.write( sb.append( s.name ).append( s.start ).append( s.end ).append( s.step )
-                    .append( Iterables.toString( s.values ) ).toString().getBytes() );
+                    .append( Arrays.toString( s.values ) ).toString().getBytes() );
 
             sb.setLength( 0 );
         }
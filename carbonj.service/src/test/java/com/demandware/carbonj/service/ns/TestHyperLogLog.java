@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.demandware.carbonj.service.ns;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestHyperLogLog {
+    @Test
+    public void testEstimate() {
+        HyperLogLog hll = new HyperLogLog();
+        assertEquals(0, hll.estimate());
+        for (int i = 0; i < 100000; i++) {
+            hll.add("pod1.requests." + i);
+            // duplicates are not counted
+            hll.add("pod1.requests." + i);
+        }
+        long estimate = hll.estimate();
+        assertTrue(Math.abs(estimate - 100000) < 5000, "estimate: " + estimate);
+    }
+
+    @Test
+    public void testUnion() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 1000; i++) {
+            a.add("pod1.a." + i);
+            b.add("pod1.a." + i);
+            b.add("pod1.b." + i);
+        }
+        long estimate = a.estimate(b);
+        assertTrue(Math.abs(estimate - 2000) < 100, "estimate: " + estimate);
+    }
+}
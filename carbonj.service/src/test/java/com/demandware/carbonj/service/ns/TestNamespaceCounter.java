@@ -9,6 +9,7 @@ package com.demandware.carbonj.service.ns;
 import com.codahale.metrics.MetricRegistry;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -23,4 +24,48 @@ public class TestNamespaceCounter {
         namespaceCounter.removeInactive();
         assertFalse(namespaceCounter.exists("foo.bar"));
     }
+
+    @Test
+    public void testNewMetricLimit() {
+        NamespaceCounter namespaceCounter = new NamespaceCounter(new MetricRegistry(), 0);
+        namespaceCounter.setCardinalityLimits(true, 0, 2);
+        assertTrue(namespaceCounter.allowNewMetric("foo.a"));
+        namespaceCounter.countNewMetric("foo.a");
+        namespaceCounter.countNewMetric("foo.b");
+        assertFalse(namespaceCounter.allowNewMetric("foo.c"));
+        assertTrue(namespaceCounter.allowNewMetric("bar.c"));
+
+        // still within the window
+        namespaceCounter.nextWindow();
+        assertFalse(namespaceCounter.allowNewMetric("foo.c"));
+        namespaceCounter.nextWindow();
+        assertEquals(0, namespaceCounter.newMetrics("foo"));
+        assertTrue(namespaceCounter.allowNewMetric("foo.c"));
+    }
+
+    @Test
+    public void testDistinctNamesLimit() {
+        NamespaceCounter namespaceCounter = new NamespaceCounter(new MetricRegistry(), 0);
+        namespaceCounter.setCardinalityLimits(true, 100, 0);
+        for (int i = 0; i < 50; i++) {
+            namespaceCounter.count("foo.request." + i);
+            namespaceCounter.count("foo.request." + i);
+        }
+        assertTrue(Math.abs(namespaceCounter.distinctNames("foo") - 50) <= 2);
+        assertTrue(namespaceCounter.allowNewMetric("foo.request.x"));
+        for (int i = 50; i < 1000; i++) {
+            namespaceCounter.count("foo.request." + i);
+        }
+        assertFalse(namespaceCounter.allowNewMetric("foo.request.x"));
+        assertTrue(namespaceCounter.allowNewMetric("bar.x"));
+    }
+
+    @Test
+    public void testNoLimitsByDefault() {
+        NamespaceCounter namespaceCounter = new NamespaceCounter(new MetricRegistry(), 0);
+        namespaceCounter.count("foo.a");
+        namespaceCounter.countNewMetric("foo.a");
+        assertTrue(namespaceCounter.allowNewMetric("foo.b"));
+        assertEquals(0, namespaceCounter.distinctNames("foo"));
+    }
 }